@@ -0,0 +1,248 @@
+package com.lucidworks.hardwickehouse;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes chunk size and read parallelism of a JSONL export while it runs, for
+ * {@code --adaptive}.
+ *
+ * <p>Chunks are sized in bytes rather than documents: producers ask for
+ * {@link #documentsPerChunk()}, which divides the byte target by the observed average
+ * document size, so 200-byte and 2 MB documents both yield chunks of about the target. The
+ * target itself is capped so that the chunks in flight stay within a small share of the
+ * heap.
+ *
+ * <p>Producers take a permit around every chunk they read, and the number of permits is
+ * adjusted every few seconds by hill climbing on read throughput: a step that raised
+ * throughput is repeated, one that lowered it is undone and the direction reversed. No
+ * permits are added while the writer is busy nearly all of the time, since more readers
+ * cannot help then. Heap occupancy above 85% or more than 10% of wall time spent in GC
+ * halves the byte target and drops a permit; once pressure clears, the target grows back.
+ * Every change is logged through the {@link ProgressReporter}.
+ */
+public class AdaptiveController implements AutoCloseable {
+
+    static final long MIN_CHUNK_BYTES = 64 * 1024;
+    static final int MAX_DOCUMENTS_PER_CHUNK = 100_000;
+    private static final long ADJUST_INTERVAL_MILLIS = 2000;
+    private static final double HIGH_HEAP = 0.85;
+    private static final double LOW_HEAP = 0.60;
+    private static final double HIGH_GC = 0.10;
+    private static final double WRITER_SATURATED = 0.90;
+
+    private final ProgressReporter progressReporter;
+    private final int maxParallelism;
+    private final long configuredChunkBytes;
+    private final long heapChunkBytes;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    // Written by producers and the writer, read by adjust()
+    private long readDocuments;
+    private long writeNanos;
+
+    private volatile long chunkBytes;
+    private volatile double averageDocumentBytes;
+    private volatile int documentsPerChunk;
+
+    private int permits;
+    private int active;
+
+    // State of the last adjustment
+    private int step = 1;
+    private double lastThroughput = -1;
+    private long lastAdjustNanos;
+    private long lastGcMillis;
+    private ScheduledExecutorService scheduler;
+
+    public AdaptiveController(int maxParallelism, long targetChunkBytes, int initialDocumentsPerChunk,
+                              ProgressReporter progressReporter) {
+        this.progressReporter = progressReporter;
+        this.maxParallelism = Math.max(1, maxParallelism);
+        this.configuredChunkBytes = Math.max(MIN_CHUNK_BYTES, targetChunkBytes);
+        // Queued and in-progress chunks together may take at most a tenth of the heap
+        this.heapChunkBytes = Math.max(MIN_CHUNK_BYTES,
+            Runtime.getRuntime().maxMemory() / 10 / (3L * this.maxParallelism));
+        this.chunkBytes = Math.min(configuredChunkBytes, heapChunkBytes);
+        this.documentsPerChunk = Math.max(1, Math.min(MAX_DOCUMENTS_PER_CHUNK, initialDocumentsPerChunk));
+        this.permits = Math.max(1, (this.maxParallelism + 1) / 2);
+    }
+
+    /**
+     * Starts periodic adjustment.
+     */
+    public void start() {
+        lastAdjustNanos = System.nanoTime();
+        lastGcMillis = gcMillis();
+        progressReporter.reportDecision(String.format(
+            "starting with %d of %d readers, %d KB chunks", permits, maxParallelism, chunkBytes / 1024));
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "adaptive-controller");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::adjust, ADJUST_INTERVAL_MILLIS, ADJUST_INTERVAL_MILLIS,
+                                      TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    public int documentsPerChunk() {
+        return documentsPerChunk;
+    }
+
+    public synchronized int getParallelism() {
+        return permits;
+    }
+
+    public long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * Waits for a permit to read a chunk.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (active >= permits) {
+            wait();
+        }
+        active++;
+    }
+
+    public synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    /**
+     * Records a chunk read and serialized by a producer.
+     */
+    public void recordChunk(int documents, long bytes) {
+        if (documents == 0) {
+            return;
+        }
+        synchronized (this) {
+            readDocuments += documents;
+        }
+
+        double observed = (double) bytes / documents;
+        double average = averageDocumentBytes;
+        averageDocumentBytes = average == 0 ? observed : 0.8 * average + 0.2 * observed;
+        resize();
+    }
+
+    /**
+     * Records time the writer spent writing a chunk.
+     */
+    public synchronized void recordWrite(long nanos) {
+        writeNanos += nanos;
+    }
+
+    private void adjust() {
+        long now = System.nanoTime();
+        long gc = gcMillis();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        double heapOccupancy = heap.getMax() > 0 ? (double) heap.getUsed() / heap.getMax() : 0;
+        double gcFraction = (gc - lastGcMillis) * 1_000_000.0 / Math.max(1, now - lastAdjustNanos);
+        lastGcMillis = gc;
+        adjust(now, heapOccupancy, gcFraction);
+    }
+
+    /**
+     * One adjustment step, given the heap occupancy and the share of wall time spent in GC
+     * since the previous step.
+     */
+    synchronized void adjust(long now, double heapOccupancy, double gcFraction) {
+        double seconds = Math.max(1, now - lastAdjustNanos) / 1e9;
+        double throughput = readDocuments / seconds;
+        double writerBusy = writeNanos / 1e9 / seconds;
+        readDocuments = 0;
+        writeNanos = 0;
+        lastAdjustNanos = now;
+
+        if (heapOccupancy > HIGH_HEAP || gcFraction > HIGH_GC) {
+            long reduced = Math.max(MIN_CHUNK_BYTES, chunkBytes / 2);
+            int fewer = Math.max(1, permits - 1);
+            if (reduced != chunkBytes || fewer != permits) {
+                chunkBytes = reduced;
+                setPermits(fewer);
+                progressReporter.reportDecision(String.format(
+                    "memory pressure (heap %.0f%%, GC %.0f%%): %d readers, %d KB chunks",
+                    heapOccupancy * 100, gcFraction * 100, permits, chunkBytes / 1024));
+            }
+            resize();
+            lastThroughput = -1;
+            return;
+        }
+
+        long ceiling = Math.min(configuredChunkBytes, heapChunkBytes);
+        if (heapOccupancy < LOW_HEAP && chunkBytes < ceiling) {
+            chunkBytes = Math.min(ceiling, chunkBytes * 2);
+            resize();
+            progressReporter.reportDecision(String.format(
+                "heap at %.0f%%: chunks back to %d KB", heapOccupancy * 100, chunkBytes / 1024));
+        }
+
+        if (throughput == 0) {
+            return;
+        }
+
+        if (lastThroughput >= 0 && throughput < lastThroughput * 0.95) {
+            // The last step hurt: undo it and try the other way next time
+            step = -step;
+            move(step, String.format("throughput fell to %.0f docs/s", throughput));
+        } else if (step > 0 && writerBusy > WRITER_SATURATED) {
+            if (lastThroughput >= 0) {
+                progressReporter.reportDecision(String.format(
+                    "writer busy %.0f%% of the time: holding %d readers at %.0f docs/s",
+                    writerBusy * 100, permits, throughput));
+            }
+        } else {
+            move(step, String.format("throughput %.0f docs/s", throughput));
+        }
+        lastThroughput = throughput;
+    }
+
+    private void move(int delta, String reason) {
+        int target = Math.max(1, Math.min(maxParallelism, permits + delta));
+        if (target == permits) {
+            // At a bound: probe the other way on the next step
+            step = permits == 1 ? 1 : -1;
+            return;
+        }
+        setPermits(target);
+        progressReporter.reportDecision(String.format("%s: %d readers", reason, permits));
+    }
+
+    private void setPermits(int permits) {
+        this.permits = permits;
+        notifyAll();
+    }
+
+    private void resize() {
+        double average = averageDocumentBytes;
+        if (average > 0) {
+            long documents = (long) (chunkBytes / average);
+            documentsPerChunk = (int) Math.max(1, Math.min(MAX_DOCUMENTS_PER_CHUNK, documents));
+        }
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
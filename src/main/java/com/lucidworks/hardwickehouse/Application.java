@@ -1,5 +1,7 @@
 package com.lucidworks.hardwickehouse;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
@@ -7,9 +9,16 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
 @Command(name = "hardwicke-house", 
          description = "Convert Lucene indexes to JSONL format",
@@ -27,23 +36,29 @@ public class Application implements Callable<Integer> {
         private String sourcePath;
         
         @Option(names = {"--gcs-source"}, 
-                description = "Source Lucene index GCS path (gs://bucket/path)")
+                description = "Source Lucene index GCS path: a zip or single object, or a prefix of segment files (gs://bucket/path/)")
         private String gcsSourcePath;
         
         @Option(names = {"--backup-properties"}, 
-                description = "Path to Solr backup properties file")
+                description = "Path to Solr backup properties file, local or gs://bucket/path")
         private String backupPropertiesPath;
         
         @Option(names = {"--backup-directory"}, 
-                description = "Path to Solr backup directory (required with --backup-properties)")
+                description = "Path to Solr backup directory (required with --backup-properties); a gs://bucket/path is read in place. " +
+                              "Without --backup-properties, an incremental backup whose points are chosen by --backup-point")
         private String backupDirectoryPath;
         
+        @Option(names = {"--backup-point"}, 
+                description = "Points of an incremental backup to convert: latest (default), all, or ids such as 3,5. " +
+                              "Several points need " + ConversionRequest.BACKUP_POINT_PLACEHOLDER + " in the output path")
+        private String backupPoint;
+        
         @Option(names = {"-o", "--output"}, 
-                description = "Output JSONL file path (local)")
+                description = "Output file path (local), or - for stdout with --format arrow-stream")
         private String outputPath;
         
         @Option(names = {"--gcs-output"}, 
-                description = "Output JSONL file GCS path (gs://bucket/path)")
+                description = "Output file GCS path (gs://bucket/path)")
         private String gcsOutputPath;
         
         @Option(names = {"--batch-size"}, 
@@ -60,80 +75,926 @@ public class Application implements Callable<Integer> {
                 description = "Path to GCS service account credentials JSON file")
         private String gcsCredentialsPath;
         
+        @Option(names = {"--cache-dir"}, 
+                description = "Directory for a persistent cache of GCS downloads, restored backup shards and segment outputs, reused across runs")
+        private String cacheDir;
+        
+        @Option(names = {"--cache-max-mb"}, 
+                description = "Size budget of the cache in MB; least recently used entries are evicted beyond it", 
+                defaultValue = "102400")
+        private long cacheMaxMB;
+        
         @Option(names = {"--compress"}, 
                 description = "Compress output JSONL file using gzip", 
                 defaultValue = "false")
         private boolean compress;
         
+        @Option(names = {"--threads"}, 
+                description = "Threads reading and serializing documents (default: available processors)", 
+                defaultValue = "0")
+        private int threads;
+        
+        @Option(names = {"--binary-encoding"}, 
+                description = "Encoding for binary stored fields: ${COMPLETION-CANDIDATES}", 
+                defaultValue = "base64")
+        private BinaryEncoding binaryEncoding;
+        
+        @Option(names = {"--format"}, 
+                description = "Output format: ${COMPLETION-CANDIDATES}", 
+                defaultValue = "jsonl")
+        private OutputFormat format;
+        
+        @Option(names = {"--parquet-codec"}, 
+                description = "Parquet page compression: ${COMPLETION-CANDIDATES}", 
+                defaultValue = "snappy")
+        private ParquetCodec parquetCodec;
+        
+        @Option(names = {"--row-group-size-mb"}, 
+                description = "Parquet row group size in MB", 
+                defaultValue = "128")
+        private int rowGroupSizeMB;
+        
+        @Option(names = {"--dedupe-by"}, 
+                description = "Keep one document per value of this field across all shards")
+        private String dedupeBy;
+        
+        @Option(names = {"--keep"}, 
+                description = "Which duplicate to keep with --dedupe-by: first, max(<field>) or min(<field>)", 
+                defaultValue = "first")
+        private String keep;
+        
+        @Option(names = {"--sort-by"}, 
+                description = "Export in the order of a field: field, field:asc or field:desc")
+        private String sortBy;
+        
+        @Option(names = {"--sort-memory-mb"}, 
+                description = "Memory for --sort-by before sorted runs spill to disk, below 2048", 
+                defaultValue = "256")
+        private int sortMemoryMB;
+        
+        @Option(names = {"--sample-rate"}, 
+                description = "Export a random fraction of the documents, e.g. 0.001, drawn from every segment")
+        private Double sampleRate;
+        
+        @Option(names = {"--sample-count"}, 
+                description = "Export this many randomly chosen documents, drawn from every segment")
+        private Long sampleCount;
+        
+        @Option(names = {"--sample-seed"}, 
+                description = "Random seed for --sample-rate and --sample-count; the same seed picks the same documents", 
+                defaultValue = "0")
+        private long sampleSeed;
+        
+        @Option(names = {"--nested"}, 
+                description = "Export each Solr nested document block as one record with its children nested")
+        private boolean nested;
+        
+        @Option(names = {"--parent-filter"}, 
+                description = "Parent documents for --nested: field:value, field:* or -field:* (default: " +
+                              NestedBlocks.DEFAULT_PARENT_FILTER + ")")
+        private String parentFilter;
+        
+        @Option(names = {"--adaptive"}, 
+                description = "Tune batch size (by bytes) and read threads while running, based on throughput, heap and GC")
+        private boolean adaptive;
+        
+        @Option(names = {"--target-batch-mb"}, 
+                description = "Batch size in MB that --adaptive aims for", 
+                defaultValue = "4")
+        private int targetBatchMB;
+        
+        @Option(names = {"--verify"}, 
+                description = "Check the JSONL output against the index before reporting success (and before any upload)")
+        private boolean verify;
+        
+        @Option(names = {"--dry-run"}, 
+                description = "Estimate output size and duration from a sample and print them as JSON; nothing is written")
+        private boolean dryRun;
+        
+        @Option(names = {"--partition-by"}, 
+                description = "Write Hive-style partition directories in one pass: date(field,day) for dt=YYYY-MM-DD/ (also hour, month, year) " +
+                              "or hash(field,N) for bucket=K/. The output is then a directory")
+        private String partitionBy;
+        
+        @Option(names = {"--max-open-partitions"}, 
+                description = "Partition files open at once with --partition-by; the least recently written is closed beyond it", 
+                defaultValue = "128")
+        private int maxOpenPartitions;
+        
+        @Option(names = {"--no-stats"}, 
+                description = "Skip the per-field statistics (null rates, min/max, sizes, distinct counts) written beside JSONL output as <name>.stats.json")
+        private boolean noStats;
+        
+        @Option(names = {"--max-read-mbps"}, 
+                description = "Limit index reads to this many MB per second (0 for no limit)", 
+                defaultValue = "0")
+        private double maxReadMbps;
+        
+        @Option(names = {"--max-write-mbps"}, 
+                description = "Limit JSONL output writes, after compression, to this many MB per second (0 for no limit)", 
+                defaultValue = "0")
+        private double maxWriteMbps;
+        
+        @Option(names = {"--max-cpu-threads"}, 
+                description = "Producer threads reading documents at once, at most --threads (0 for all of them)", 
+                defaultValue = "0")
+        private int maxCpuThreads;
+        
+        @Option(names = {"--throttle-file"}, 
+                description = "Properties file with max-read-mbps, max-write-mbps and max-cpu-threads, re-read when it changes " +
+                              "to adjust the limits while the conversion runs")
+        private String throttleFile;
+        
+        @Option(names = {"--segment-cache"}, 
+                description = "Keep each segment's JSONL output in --cache-dir and copy it into later exports while the segment " +
+                              "is unchanged, converting only new or changed segments")
+        private boolean segmentCache;
+        
+        @Option(names = {"--work-unit"}, 
+                description = "Convert only this unit of the work plan given by --manifest; source and output options come from the plan")
+        private Integer workUnit;
+        
+        @Option(names = {"--manifest"}, 
+                description = "Work plan written by the plan command, local or gs://bucket/path (used with --work-unit)")
+        private String manifestPath;
+        
         @Override
         public Integer call() throws Exception {
-            logger.info("Starting Lucene to JSONL conversion");
+            if (workUnit != null) {
+                return convertWorkUnit();
+            }
             
-            int sourceCount = 0;
-            if (sourcePath != null) sourceCount++;
-            if (gcsSourcePath != null) sourceCount++;
-            if (backupPropertiesPath != null) sourceCount++;
+            logger.info("Starting Lucene to {} conversion", format);
             
-            if (sourceCount != 1) {
-                logger.error("Must specify exactly one of --source, --gcs-source, or --backup-properties");
+            ConversionRequest request = new ConversionRequest();
+            request.setSource(sourcePath);
+            request.setGcsSource(gcsSourcePath);
+            request.setBackupProperties(backupPropertiesPath);
+            request.setBackupDirectory(backupDirectoryPath);
+            request.setBackupPoint(backupPoint);
+            request.setOutput(outputPath);
+            request.setGcsOutput(gcsOutputPath);
+            request.setBatchSize(batchSize);
+            request.setCompress(compress);
+            request.setThreads(threads);
+            request.setBinaryEncoding(binaryEncoding);
+            request.setFormat(format);
+            request.setParquetCodec(parquetCodec);
+            request.setRowGroupSizeMB(rowGroupSizeMB);
+            request.setDedupeBy(dedupeBy);
+            request.setKeep(keep);
+            request.setSortBy(sortBy);
+            request.setSortMemoryMB(sortMemoryMB);
+            request.setSampleRate(sampleRate);
+            request.setSampleCount(sampleCount);
+            request.setSampleSeed(sampleSeed);
+            request.setNested(nested);
+            request.setParentFilter(parentFilter);
+            request.setAdaptive(adaptive);
+            request.setTargetBatchMB(targetBatchMB);
+            request.setDryRun(dryRun);
+            request.setVerify(verify);
+            if (noStats) {
+                request.setStats(false);
+            }
+            request.setPartitionBy(partitionBy);
+            request.setMaxOpenPartitions(maxOpenPartitions);
+            request.setMaxReadMbps(maxReadMbps);
+            request.setMaxWriteMbps(maxWriteMbps);
+            request.setMaxCpuThreads(maxCpuThreads);
+            request.setThrottleFile(throttleFile);
+            request.setSegmentCache(segmentCache);
+            
+            try {
+                request.validate();
+            } catch (IllegalArgumentException e) {
+                logger.error(e.getMessage());
                 return 1;
             }
             
-            if (backupPropertiesPath != null && backupDirectoryPath == null) {
-                logger.error("--backup-directory is required when using --backup-properties");
+            try {
+                StorageService storageService = createStorageService(gcsCredentialsPath, cacheDir, cacheMaxMB);
+                ProgressReporter progressReporter = new ProgressReporter(progressInterval);
+                ConversionService conversionService = new ConversionService(storageService);
+                
+                ConversionResult result = conversionService.convert(request, progressReporter);
+                
+                if (dryRun) {
+                    System.out.println(new ObjectMapper().writerWithDefaultPrettyPrinter()
+                        .writeValueAsString(result.getMetrics()));
+                    return 0;
+                }
+                
+                logger.info("Conversion completed successfully");
+                return 0;
+                
+            } catch (Exception e) {
+                logger.error("Conversion failed", e);
+                return 1;
+            }
+        }
+        
+        /**
+         * Converts one unit of a plan. Only --threads and the throttle options are taken
+         * from the command line; everything else was fixed when the plan was made.
+         */
+        private Integer convertWorkUnit() {
+            if (manifestPath == null) {
+                logger.error("--work-unit needs the --manifest written by the plan command");
                 return 1;
             }
             
-            if ((outputPath == null && gcsOutputPath == null) || 
-                (outputPath != null && gcsOutputPath != null)) {
-                logger.error("Must specify exactly one of --output or --gcs-output");
+            try {
+                StorageService storageService = createStorageService(gcsCredentialsPath, cacheDir, cacheMaxMB);
+                WorkPlan plan = WorkPlan.read(manifestPath, storageService);
+                ConversionRequest request = plan.requestFor(workUnit);
+                if (threads > 0) {
+                    request.setThreads(threads);
+                }
+                request.setMaxReadMbps(maxReadMbps);
+                request.setMaxWriteMbps(maxWriteMbps);
+                request.setMaxCpuThreads(maxCpuThreads);
+                request.setThrottleFile(throttleFile);
+                
+                ConversionService conversionService = new ConversionService(storageService);
+                conversionService.convertWorkUnit(plan, request, new ProgressReporter(progressInterval));
+                return 0;
+                
+            } catch (Exception e) {
+                logger.error("Conversion of work unit {} failed", workUnit, e);
                 return 1;
             }
+        }
+    }
+    
+    @Command(name = "plan", description = "Split an index or backup into work units that separate processes convert with convert --work-unit")
+    static class PlanCommand implements Callable<Integer> {
+        
+        @Option(names = {"-s", "--source"}, 
+                description = "Source Lucene index path (local)")
+        private String sourcePath;
+        
+        @Option(names = {"--gcs-source"}, 
+                description = "Source Lucene index GCS path: a zip or single object, or a prefix of segment files (gs://bucket/path/)")
+        private String gcsSourcePath;
+        
+        @Option(names = {"--backup-properties"}, 
+                description = "Path to Solr backup properties file, local or gs://bucket/path")
+        private String backupPropertiesPath;
+        
+        @Option(names = {"--backup-directory"}, 
+                description = "Path to Solr backup directory (required with --backup-properties); a gs://bucket/path is read in place. " +
+                              "Without --backup-properties, an incremental backup whose point is chosen by --backup-point")
+        private String backupDirectoryPath;
+        
+        @Option(names = {"--backup-point"}, 
+                description = "Point of an incremental backup to plan: latest (default) or an id")
+        private String backupPoint;
+        
+        @Option(names = {"-o", "--output"}, 
+                description = "Output directory for the part files, shared by every process converting units")
+        private String outputPath;
+        
+        @Option(names = {"--gcs-output"}, 
+                description = "Output GCS prefix for the part files (gs://bucket/path/)")
+        private String gcsOutputPath;
+        
+        @Option(names = {"--manifest"}, 
+                description = "Where to write the plan, local or gs://bucket/path (default: _plan.json in the output directory)")
+        private String manifestPath;
+        
+        @Option(names = {"--docs-per-unit"}, 
+                description = "Live documents per work unit; segments are split by doc ID into units of about this size", 
+                defaultValue = "5000000")
+        private long docsPerUnit;
+        
+        @Option(names = {"--batch-size"}, 
+                description = "Batch size for processing documents", 
+                defaultValue = "1000")
+        private int batchSize;
+        
+        @Option(names = {"--compress"}, 
+                description = "Compress output JSONL parts using gzip", 
+                defaultValue = "false")
+        private boolean compress;
+        
+        @Option(names = {"--binary-encoding"}, 
+                description = "Encoding for binary stored fields: ${COMPLETION-CANDIDATES}", 
+                defaultValue = "base64")
+        private BinaryEncoding binaryEncoding;
+        
+        @Option(names = {"--format"}, 
+                description = "Output format of the parts: jsonl or parquet", 
+                defaultValue = "jsonl")
+        private OutputFormat format;
+        
+        @Option(names = {"--parquet-codec"}, 
+                description = "Parquet page compression: ${COMPLETION-CANDIDATES}", 
+                defaultValue = "snappy")
+        private ParquetCodec parquetCodec;
+        
+        @Option(names = {"--row-group-size-mb"}, 
+                description = "Parquet row group size in MB", 
+                defaultValue = "128")
+        private int rowGroupSizeMB;
+        
+        @Option(names = {"--verify"}, 
+                description = "Check each JSONL part against its unit of the index before recording the unit as done")
+        private boolean verify;
+        
+        @Option(names = {"--no-stats"}, 
+                description = "Skip the per-field statistics written beside each JSONL part")
+        private boolean noStats;
+        
+        @Option(names = {"--gcs-credentials"}, 
+                description = "Path to GCS service account credentials JSON file")
+        private String gcsCredentialsPath;
+        
+        @Option(names = {"--cache-dir"}, 
+                description = "Directory for a persistent cache of GCS downloads, restored backup shards and segment outputs, reused across runs")
+        private String cacheDir;
+        
+        @Option(names = {"--cache-max-mb"}, 
+                description = "Size budget of the cache in MB; least recently used entries are evicted beyond it", 
+                defaultValue = "102400")
+        private long cacheMaxMB;
+        
+        @Override
+        public Integer call() throws Exception {
+            ConversionRequest request = new ConversionRequest();
+            request.setSource(sourcePath);
+            request.setGcsSource(gcsSourcePath);
+            request.setBackupProperties(backupPropertiesPath);
+            request.setBackupDirectory(backupDirectoryPath);
+            request.setBackupPoint(backupPoint);
+            request.setOutput(outputPath);
+            request.setGcsOutput(gcsOutputPath);
+            request.setBatchSize(batchSize);
+            request.setCompress(compress);
+            request.setBinaryEncoding(binaryEncoding);
+            request.setFormat(format);
+            request.setParquetCodec(parquetCodec);
+            request.setRowGroupSizeMB(rowGroupSizeMB);
+            request.setVerify(verify);
+            if (noStats) {
+                request.setStats(false);
+            }
             
+            try {
+                StorageService storageService = createStorageService(gcsCredentialsPath, cacheDir, cacheMaxMB);
+                WorkPlan plan = new ConversionService(storageService).plan(request, docsPerUnit);
+                String location = manifestPath != null ? manifestPath : WorkPlan.defaultLocation(request);
+                plan.write(location, storageService);
+                
+                logger.info("Planned {} work units ({} documents) in {}; convert each with: convert --manifest {} --work-unit <0-{}>",
+                           plan.getUnits().size(), plan.getTotalDocuments(), location, location, plan.getUnits().size() - 1);
+                return 0;
+                
+            } catch (IllegalArgumentException e) {
+                logger.error(e.getMessage());
+                return 1;
+            } catch (Exception e) {
+                logger.error("Planning failed", e);
+                return 1;
+            }
+        }
+    }
+    
+    @Command(name = "finalize", description = "Check that every unit of a work plan is converted and write the output's _manifest.json")
+    static class FinalizeCommand implements Callable<Integer> {
+        
+        @Option(names = {"--manifest"}, 
+                description = "Work plan written by the plan command, local or gs://bucket/path", 
+                required = true)
+        private String manifestPath;
+        
+        @Option(names = {"--gcs-credentials"}, 
+                description = "Path to GCS service account credentials JSON file")
+        private String gcsCredentialsPath;
+        
+        @Option(names = {"--report"}, 
+                description = "Write the JSON report to this path instead of stdout")
+        private String reportPath;
+        
+        @Override
+        public Integer call() throws Exception {
             try {
                 StorageService storageService = new StorageService(gcsCredentialsPath);
-                ProgressReporter progressReporter = new ProgressReporter(progressInterval);
-                IndexReader indexReader = new IndexReader();
-                JsonLWriter jsonLWriter = new JsonLWriter();
-                
-                ConversionService conversionService = new ConversionService(
-                    storageService, progressReporter, indexReader, jsonLWriter);
-                
-                if (backupPropertiesPath != null) {
-                    String outputLocation = outputPath != null ? outputPath : gcsOutputPath;
-                    boolean useGcsOutput = gcsOutputPath != null;
-                    
-                    conversionService.convertFromBackup(backupPropertiesPath, backupDirectoryPath,
-                                                      outputLocation, useGcsOutput, batchSize, compress);
+                Map<String, Object> report = WorkPlan.read(manifestPath, storageService).finalizeOutput(storageService);
+                
+                ObjectWriter writer = new ObjectMapper().writerWithDefaultPrettyPrinter();
+                if (reportPath != null) {
+                    writer.writeValue(Paths.get(reportPath).toFile(), report);
+                    logger.info("Finalize report written to: {}", reportPath);
                 } else {
-                    String sourceLocation = sourcePath != null ? sourcePath : gcsSourcePath;
-                    String outputLocation = outputPath != null ? outputPath : gcsOutputPath;
-                    boolean useGcsSource = gcsSourcePath != null;
-                    boolean useGcsOutput = gcsOutputPath != null;
-                    
-                    conversionService.convert(sourceLocation, outputLocation, 
-                                            useGcsSource, useGcsOutput, batchSize, compress);
+                    System.out.println(writer.writeValueAsString(report));
                 }
+                return Boolean.TRUE.equals(report.get("complete")) ? 0 : 1;
                 
-                logger.info("Conversion completed successfully");
+            } catch (Exception e) {
+                logger.error("Finalizing failed", e);
+                return 1;
+            }
+        }
+    }
+    
+    @Command(name = "import", description = "Build Lucene indexes from JSONL output, for disaster recovery and test fixtures")
+    static class ImportCommand implements Callable<Integer> {
+        
+        @Option(names = {"-i", "--input"}, 
+                description = "JSONL to import, plain or gzipped; a directory means every .jsonl and .jsonl.gz file in it. May be repeated", 
+                required = true)
+        private List<String> inputPaths;
+        
+        @Option(names = {"-o", "--output"}, 
+                description = "Directory for the index, or for shard1 to shardN with --shards; must be empty or absent", 
+                required = true)
+        private String outputPath;
+        
+        @Option(names = {"--shards"}, 
+                description = "Number of indexes to write, each record going to the shard its id hashes to", 
+                defaultValue = "1")
+        private int shards;
+        
+        @Option(names = {"--id-field"}, 
+                description = "Field indexed as a string for updates and deletes, and hashed to choose the shard", 
+                defaultValue = "id")
+        private String idField;
+        
+        @Option(names = {"--schema"}, 
+                description = "Statistics file of the export (<name>.stats.json or _stats.json) giving the field types; " +
+                              "by default one found beside the input is used")
+        private String schemaPath;
+        
+        @Option(names = {"--binary-encoding"}, 
+                description = "Encoding the export used for binary stored fields: ${COMPLETION-CANDIDATES}", 
+                defaultValue = "base64")
+        private BinaryEncoding binaryEncoding;
+        
+        @Option(names = {"--threads"}, 
+                description = "Threads parsing and indexing records (default: available processors)", 
+                defaultValue = "0")
+        private int threads;
+        
+        @Option(names = {"--ram-buffer-mb"}, 
+                description = "Memory each shard's index writer buffers documents in before flushing a segment", 
+                defaultValue = "256")
+        private double ramBufferMB;
+        
+        @Option(names = {"--max-segments"}, 
+                description = "Merge each index down to this many segments at the end (0 to skip the final merge)", 
+                defaultValue = "0")
+        private int maxSegments;
+        
+        @Override
+        public Integer call() throws Exception {
+            ProgressReporter progressReporter = new ProgressReporter(30);
+            try {
+                List<Path> parts = listParts(inputPaths);
+                Path statistics = schemaPath != null ? Paths.get(schemaPath)
+                    : JsonLImporter.findStatistics(Stream.concat(inputPaths.stream().map(Paths::get), parts.stream()).toList());
+                JsonLSchema schema = null;
+                if (statistics != null) {
+                    schema = JsonLImporter.readSchema(statistics);
+                    logger.info("Field types from {}: {}", statistics, schema);
+                } else {
+                    logger.info("No statistics file found; values are typed by their JSON form");
+                }
+                
+                JsonLImporter importer = new JsonLImporter(schema, binaryEncoding, idField,
+                    threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+                importer.setShards(shards);
+                importer.setRamBufferMB(ramBufferMB);
+                importer.setMaxSegments(maxSegments);
+                
+                progressReporter.start();
+                Map<String, Object> report = importer.importParts(parts, Paths.get(outputPath), progressReporter);
+                progressReporter.complete();
+                System.out.println(new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(report));
                 return 0;
                 
+            } catch (IllegalArgumentException e) {
+                progressReporter.stop();
+                logger.error(e.getMessage());
+                return 1;
             } catch (Exception e) {
-                logger.error("Conversion failed", e);
+                progressReporter.error(e.getMessage());
+                logger.error("Import failed", e);
+                return 1;
+            }
+        }
+    }
+    
+    @Command(name = "convert-all", description = "Convert many Solr backups or a job manifest in one run")
+    static class ConvertAllCommand implements Callable<Integer> {
+        
+        @Option(names = {"--backup-root"}, 
+                description = "Directory searched recursively for backup.properties files")
+        private String backupRoot;
+        
+        @Option(names = {"--manifest"}, 
+                description = "JSON file containing an array of conversion jobs")
+        private String manifestPath;
+        
+        @Option(names = {"--output-dir"}, 
+                description = "Directory for JSONL outputs (required with --backup-root)")
+        private String outputDirectory;
+        
+        @Option(names = {"--max-concurrency"}, 
+                description = "Maximum number of conversions running at once (default: available processors); " +
+                              "jobs without threads each get an equal share of the processors")
+        private Integer maxConcurrency;
+        
+        @Option(names = {"--max-disk-mb"}, 
+                description = "Disk budget shared by running conversions in MB (0 = unlimited)", 
+                defaultValue = "0")
+        private long maxDiskMB;
+        
+        @Option(names = {"--report"}, 
+                description = "Write a JSON summary report to this path")
+        private String reportPath;
+        
+        @Option(names = {"--batch-size"}, 
+                description = "Batch size for processing documents", 
+                defaultValue = "1000")
+        private int batchSize;
+        
+        @Option(names = {"--progress-interval"}, 
+                description = "Progress reporting interval in seconds", 
+                defaultValue = "10")
+        private int progressInterval;
+        
+        @Option(names = {"--gcs-credentials"}, 
+                description = "Path to GCS service account credentials JSON file")
+        private String gcsCredentialsPath;
+        
+        @Option(names = {"--cache-dir"}, 
+                description = "Directory for a persistent cache of GCS downloads, restored backup shards and segment outputs, reused across runs")
+        private String cacheDir;
+        
+        @Option(names = {"--cache-max-mb"}, 
+                description = "Size budget of the cache in MB; least recently used entries are evicted beyond it", 
+                defaultValue = "102400")
+        private long cacheMaxMB;
+        
+        @Option(names = {"--compress"}, 
+                description = "Compress output JSONL files using gzip", 
+                defaultValue = "false")
+        private boolean compress;
+        
+        @Override
+        public Integer call() throws Exception {
+            if ((backupRoot == null) == (manifestPath == null)) {
+                logger.error("Must specify exactly one of --backup-root or --manifest");
+                return 1;
+            }
+            
+            if (backupRoot != null && outputDirectory == null) {
+                logger.error("--output-dir is required when using --backup-root");
+                return 1;
+            }
+            
+            int concurrency = maxConcurrency != null ? maxConcurrency : Runtime.getRuntime().availableProcessors();
+            
+            try {
+                StorageService storageService = createStorageService(gcsCredentialsPath, cacheDir, cacheMaxMB);
+                ConversionService conversionService = new ConversionService(storageService);
+                BatchConversionService batchService = new BatchConversionService(
+                    conversionService, concurrency, maxDiskMB * 1024 * 1024, progressInterval);
+                
+                List<ConversionRequest> requests = backupRoot != null
+                    ? batchService.discoverBackups(Paths.get(backupRoot), Paths.get(outputDirectory), compress, batchSize)
+                    : batchService.readManifest(Paths.get(manifestPath));
+                
+                List<BatchConversionService.JobOutcome> outcomes = batchService.convertAll(requests);
+                batchService.logSummary(outcomes);
+                
+                if (reportPath != null) {
+                    batchService.writeReport(outcomes, Paths.get(reportPath));
+                }
+                
+                return outcomes.stream().allMatch(BatchConversionService.JobOutcome::isSucceeded) ? 0 : 1;
+                
+            } catch (Exception e) {
+                logger.error("Batch conversion failed", e);
+                return 1;
+            }
+        }
+    }
+    
+    @Command(name = "inspect", description = "Report segments, fields, term counts and file sizes without reading documents")
+    static class InspectCommand implements Callable<Integer> {
+        
+        @Option(names = {"-s", "--source"}, 
+                description = "Lucene index path (local)")
+        private String sourcePath;
+        
+        @Option(names = {"--backup-properties"}, 
+                description = "Path to Solr backup properties file")
+        private String backupPropertiesPath;
+        
+        @Option(names = {"--backup-directory"}, 
+                description = "Path to Solr backup directory (required with --backup-properties)")
+        private String backupDirectoryPath;
+        
+        @Option(names = {"-o", "--output"}, 
+                description = "Write the JSON report to this path instead of stdout")
+        private String outputPath;
+        
+        @Override
+        public Integer call() throws Exception {
+            if ((sourcePath == null) == (backupPropertiesPath == null)) {
+                logger.error("Must specify exactly one of --source or --backup-properties");
+                return 1;
+            }
+            
+            if (backupPropertiesPath != null && backupDirectoryPath == null) {
+                logger.error("--backup-directory is required when using --backup-properties");
+                return 1;
+            }
+            
+            try {
+                IndexInspector inspector = new IndexInspector();
+                Map<String, Object> report = sourcePath != null
+                    ? inspector.inspectIndex(Paths.get(sourcePath))
+                    : inspector.inspectBackup(Paths.get(backupPropertiesPath), Paths.get(backupDirectoryPath));
+                
+                ObjectWriter writer = new ObjectMapper().writerWithDefaultPrettyPrinter();
+                if (outputPath != null) {
+                    writer.writeValue(Paths.get(outputPath).toFile(), report);
+                    logger.info("Inspection report written to: {}", outputPath);
+                } else {
+                    System.out.println(writer.writeValueAsString(report));
+                }
+                return 0;
+                
+            } catch (Exception e) {
+                logger.error("Inspection failed", e);
                 return 1;
             }
         }
     }
     
+    @Command(name = "verify", description = "Check JSONL output against the index it was converted from")
+    static class VerifyCommand implements Callable<Integer> {
+        
+        @Option(names = {"-s", "--source"}, 
+                description = "Source Lucene index path (local)")
+        private String sourcePath;
+        
+        @Option(names = {"--gcs-source"}, 
+                description = "Source Lucene index GCS path: a zip or single object, or a prefix of segment files (gs://bucket/path/)")
+        private String gcsSourcePath;
+        
+        @Option(names = {"--backup-properties"}, 
+                description = "Path to Solr backup properties file, local or gs://bucket/path")
+        private String backupPropertiesPath;
+        
+        @Option(names = {"--backup-directory"}, 
+                description = "Path to Solr backup directory (required with --backup-properties); a gs://bucket/path is read in place. " +
+                              "Without --backup-properties, an incremental backup whose point is chosen by --backup-point")
+        private String backupDirectoryPath;
+        
+        @Option(names = {"--backup-point"}, 
+                description = "Point of an incremental backup to check against: latest (default) or an id")
+        private String backupPoint;
+        
+        @Option(names = {"-o", "--output"}, 
+                description = "JSONL output to check, plain or gzipped; a directory means every .jsonl and .jsonl.gz file in it. May be repeated", 
+                required = true)
+        private List<String> outputPaths;
+        
+        @Option(names = {"--threads"}, 
+                description = "Threads reading the index and the output (default: available processors)", 
+                defaultValue = "0")
+        private int threads;
+        
+        @Option(names = {"--binary-encoding"}, 
+                description = "Encoding the output used for binary stored fields: ${COMPLETION-CANDIDATES}", 
+                defaultValue = "base64")
+        private BinaryEncoding binaryEncoding;
+        
+        @Option(names = {"--gcs-credentials"}, 
+                description = "Path to GCS service account credentials JSON file")
+        private String gcsCredentialsPath;
+        
+        @Option(names = {"--cache-dir"}, 
+                description = "Directory for a persistent cache of GCS downloads, restored backup shards and segment outputs, reused across runs")
+        private String cacheDir;
+        
+        @Option(names = {"--cache-max-mb"}, 
+                description = "Size budget of the cache in MB; least recently used entries are evicted beyond it", 
+                defaultValue = "102400")
+        private long cacheMaxMB;
+        
+        @Option(names = {"--report"}, 
+                description = "Write the JSON verification report to this path")
+        private String reportPath;
+        
+        @Override
+        public Integer call() throws Exception {
+            int sourceCount = (sourcePath != null ? 1 : 0) + (gcsSourcePath != null ? 1 : 0)
+                + (backupPropertiesPath != null || backupDirectoryPath != null ? 1 : 0);
+            if (sourceCount != 1) {
+                logger.error("Must specify exactly one of --source, --gcs-source, or --backup-properties/--backup-directory");
+                return 1;
+            }
+            
+            if (backupPropertiesPath != null && backupDirectoryPath == null) {
+                logger.error("--backup-directory is required when using --backup-properties");
+                return 1;
+            }
+            
+            ConversionRequest request = new ConversionRequest();
+            request.setSource(sourcePath);
+            request.setGcsSource(gcsSourcePath);
+            request.setBackupProperties(backupPropertiesPath);
+            request.setBackupDirectory(backupDirectoryPath);
+            request.setBackupPoint(backupPoint);
+            request.setThreads(threads);
+            request.setBinaryEncoding(binaryEncoding);
+            
+            try {
+                List<Path> parts = listParts(outputPaths);
+                
+                ConversionService conversionService = new ConversionService(createStorageService(gcsCredentialsPath, cacheDir, cacheMaxMB));
+                OutputVerifier.Result result = conversionService.verify(request, parts);
+                
+                if (reportPath != null) {
+                    new ObjectMapper().writerWithDefaultPrettyPrinter()
+                        .writeValue(Paths.get(reportPath).toFile(), result.describe());
+                    logger.info("Verification report written to: {}", reportPath);
+                }
+                
+                if (!result.matches()) {
+                    logger.error("Output does not match the index: {}", result.describe());
+                    return 1;
+                }
+                logger.info("Output matches the index: {} documents", result.getOutputDocuments());
+                return 0;
+                
+            } catch (Exception e) {
+                logger.error("Verification failed", e);
+                return 1;
+            }
+        }
+    }
+    
+    @Command(name = "backup-points", description = "List the points of an incremental Solr backup and the index files each adds")
+    static class BackupPointsCommand implements Callable<Integer> {
+        
+        @Option(names = {"--backup-directory"}, 
+                description = "Path to the incremental backup directory, local or gs://bucket/path", 
+                required = true)
+        private String backupDirectoryPath;
+        
+        @Option(names = {"--gcs-credentials"}, 
+                description = "Path to GCS service account credentials JSON file")
+        private String gcsCredentialsPath;
+        
+        @Option(names = {"-o", "--output"}, 
+                description = "Write the JSON listing to this path instead of stdout")
+        private String outputPath;
+        
+        @Override
+        public Integer call() throws Exception {
+            try (IncrementalBackup backup = backupDirectoryPath.startsWith("gs://")
+                     ? IncrementalBackup.open(new StorageService(gcsCredentialsPath), backupDirectoryPath)
+                     : IncrementalBackup.open(Paths.get(backupDirectoryPath))) {
+                ObjectWriter writer = new ObjectMapper().writerWithDefaultPrettyPrinter();
+                if (outputPath != null) {
+                    writer.writeValue(Paths.get(outputPath).toFile(), backup.describe());
+                    logger.info("Backup points written to: {}", outputPath);
+                } else {
+                    System.out.println(writer.writeValueAsString(backup.describe()));
+                }
+                return 0;
+                
+            } catch (Exception e) {
+                logger.error("Listing backup points failed", e);
+                return 1;
+            }
+        }
+    }
+    
+    @Command(name = "serve", description = "Run a conversion daemon that accepts jobs over HTTP")
+    static class ServeCommand implements Callable<Integer> {
+        
+        @Option(names = {"--host"}, 
+                description = "Address to bind the HTTP API to", 
+                defaultValue = "127.0.0.1")
+        private String host;
+        
+        @Option(names = {"--port"}, 
+                description = "Port to bind the HTTP API to", 
+                defaultValue = "8080")
+        private int port;
+        
+        @Option(names = {"--workers"}, 
+                description = "Number of conversions run concurrently (default: available processors); " +
+                              "jobs without threads each get an equal share of the processors")
+        private Integer workers;
+        
+        @Option(names = {"--queue-capacity"}, 
+                description = "Maximum number of jobs waiting for a worker", 
+                defaultValue = "1000")
+        private int queueCapacity;
+        
+        @Option(names = {"--max-retained-jobs"}, 
+                description = "Number of jobs kept for status polling before finished jobs are evicted", 
+                defaultValue = "10000")
+        private int maxRetainedJobs;
+        
+        @Option(names = {"--progress-interval"}, 
+                description = "Progress reporting interval in seconds", 
+                defaultValue = "10")
+        private int progressInterval;
+        
+        @Option(names = {"--gcs-credentials"}, 
+                description = "Path to GCS service account credentials JSON file")
+        private String gcsCredentialsPath;
+        
+        @Option(names = {"--cache-dir"}, 
+                description = "Directory for a persistent cache of GCS downloads, restored backup shards and segment outputs, reused across runs")
+        private String cacheDir;
+        
+        @Option(names = {"--cache-max-mb"}, 
+                description = "Size budget of the cache in MB; least recently used entries are evicted beyond it", 
+                defaultValue = "102400")
+        private long cacheMaxMB;
+        
+        @Override
+        public Integer call() throws Exception {
+            int workerCount = workers != null ? workers : Runtime.getRuntime().availableProcessors();
+            
+            StorageService storageService = createStorageService(gcsCredentialsPath, cacheDir, cacheMaxMB);
+            ConversionService conversionService = new ConversionService(storageService);
+            ConversionServer server = new ConversionServer(conversionService, workerCount, queueCapacity,
+                                                           progressInterval, maxRetainedJobs);
+            
+            try {
+                server.start(new InetSocketAddress(host, port));
+            } catch (IOException e) {
+                logger.error("Failed to start conversion server", e);
+                return 1;
+            }
+            
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "conversion-server-shutdown"));
+            server.awaitStop();
+            return 0;
+        }
+    }
+    
     @Override
     public Integer call() throws Exception {
         CommandLine.usage(this, System.out);
         return 0;
     }
     
+    /**
+     * The JSONL files among the given paths; a directory stands for every {@code .jsonl} and
+     * {@code .jsonl.gz} file in it, in name order.
+     */
+    static List<Path> listParts(List<String> paths) throws IOException {
+        List<Path> parts = new ArrayList<>();
+        for (String location : paths) {
+            Path path = Paths.get(location);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    files.filter(file -> file.toString().endsWith(".jsonl") || file.toString().endsWith(".jsonl.gz"))
+                        .sorted()
+                        .forEach(parts::add);
+                }
+            } else {
+                parts.add(path);
+            }
+        }
+        return parts;
+    }
+    
+    /**
+     * Creates the storage service for a command, with a local cache if {@code --cache-dir} is set.
+     */
+    static StorageService createStorageService(String gcsCredentialsPath, String cacheDir, long cacheMaxMB)
+            throws IOException {
+        LocalCache cache = cacheDir != null ? new LocalCache(Paths.get(cacheDir), cacheMaxMB * 1024 * 1024) : null;
+        return new StorageService(gcsCredentialsPath, cache);
+    }
+    
     public static void main(String[] args) {
         CommandLine commandLine = new CommandLine(new Application());
         commandLine.addSubcommand("convert", new ConvertCommand());
+        commandLine.addSubcommand("convert-all", new ConvertAllCommand());
+        commandLine.addSubcommand("serve", new ServeCommand());
+        commandLine.addSubcommand("inspect", new InspectCommand());
+        commandLine.addSubcommand("verify", new VerifyCommand());
+        commandLine.addSubcommand("backup-points", new BackupPointsCommand());
+        commandLine.addSubcommand("plan", new PlanCommand());
+        commandLine.addSubcommand("finalize", new FinalizeCommand());
+        commandLine.addSubcommand("import", new ImportCommand());
+        // Both settings only reach subcommands that are already added
+        commandLine.setCaseInsensitiveEnumValuesAllowed(true);
+        commandLine.registerConverter(OutputFormat.class, OutputFormat::fromString);
         
         int exitCode = commandLine.execute(args);
         System.exit(exitCode);
@@ -0,0 +1,334 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes documents as an Arrow IPC stream, to a file or to stdout.
+ *
+ * <p>Record batches are built by the publisher's producer threads, each from a run of at
+ * most {@code rowsPerBatch} documents of one leaf, and only framed onto the stream by the
+ * subscriber. Columns follow the {@link JsonLSchema} in ordinal order: multi-valued fields
+ * become list columns, and a non-null {@code _docId} column comes last. Values the sampled
+ * field types cannot hold are dropped as in {@link ParquetDocumentWriter}.
+ */
+public class ArrowDocumentWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArrowDocumentWriter.class);
+
+    public static final String STDOUT = "-";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BinaryEncoding binaryEncoding;
+    private final Set<String> reportedFields = ConcurrentHashMap.newKeySet();
+    private JsonLSchema schema;
+    private Schema arrowSchema;
+    private BufferAllocator allocator;
+    private VectorSchemaRoot root;
+    private VectorLoader loader;
+    private ArrowStreamWriter writer;
+    private long documentsWritten = 0;
+
+    public ArrowDocumentWriter(BinaryEncoding binaryEncoding) {
+        this.binaryEncoding = binaryEncoding;
+    }
+
+    /**
+     * Opens the stream and writes its schema. Returns the output path, or {@code null} when
+     * writing to stdout.
+     */
+    public Path initialize(String outputFilename, JsonLSchema schema) throws IOException {
+        this.schema = schema;
+        this.arrowSchema = toArrowSchema(schema);
+
+        Path outputPath = null;
+        OutputStream output;
+        if (STDOUT.equals(outputFilename)) {
+            // Never close the process's stdout, only flush it
+            output = new FilterOutputStream(new FileOutputStream(FileDescriptor.out)) {
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    out.write(bytes, offset, length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        } else {
+            if (outputFilename != null) {
+                outputPath = Path.of(outputFilename);
+                if (outputPath.getParent() != null) {
+                    Files.createDirectories(outputPath.getParent());
+                }
+            } else {
+                outputPath = Files.createTempFile("lucene_to_arrow_", ".arrows");
+            }
+            output = Files.newOutputStream(outputPath);
+        }
+
+        logger.info("Initializing Arrow stream writer with output: {}", outputPath != null ? outputPath : "stdout");
+
+        this.allocator = new RootAllocator();
+        this.root = VectorSchemaRoot.create(arrowSchema, allocator);
+        this.loader = new VectorLoader(root);
+        this.writer = new ArrowStreamWriter(root, null,
+            Channels.newChannel(new BufferedOutputStream(output, BUFFER_SIZE)));
+        writer.start();
+
+        return outputPath;
+    }
+
+    /**
+     * Reads each range into record batches of at most {@code rowsPerBatch} rows. Must be
+     * called after {@link #initialize}.
+     */
+    public IndexPublisher.RangeProducer<ArrowRecordBatch> batchProducer(IndexReader source, int rowsPerBatch) {
+        return (range, sink) -> {
+            LeafReaderContext leaf = range.getLeaf();
+            StoredFields storedFields = leaf.reader().storedFields();
+            Bits liveDocs = source.getLiveDocs(leaf);
+            DocumentBuffer document = new DocumentBuffer(schema);
+            document.startLeaf(leaf);
+
+            VectorSchemaRoot batch = VectorSchemaRoot.create(arrowSchema, allocator);
+            try {
+                int rows = 0;
+                for (int doc = range.getFromDoc(); doc < range.getToDoc(); doc++) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+
+                    source.readDocument(leaf, storedFields, doc, document);
+                    addRow(batch, rows++, document);
+                    if (rows == rowsPerBatch) {
+                        sink.emit(unload(batch, rows));
+                        batch.close();
+                        batch = VectorSchemaRoot.create(arrowSchema, allocator);
+                        rows = 0;
+                    }
+                }
+
+                if (rows > 0) {
+                    sink.emit(unload(batch, rows));
+                }
+            } finally {
+                batch.close();
+            }
+        };
+    }
+
+    public void writeBatch(ArrowRecordBatch batch) throws IOException {
+        try {
+            loader.load(batch);
+            writer.writeBatch();
+            documentsWritten += batch.getLength();
+        } finally {
+            batch.close();
+        }
+    }
+
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.end();
+            writer.close();
+            writer = null;
+            root.close();
+            try {
+                allocator.close();
+            } catch (IllegalStateException e) {
+                // Batches still queued in a cancelled publisher are never released
+                logger.debug("Arrow allocator closed with outstanding buffers", e);
+            }
+            logger.info("Arrow stream writer closed successfully. Wrote {} documents", documentsWritten);
+        }
+    }
+
+    public long getDocumentsWritten() {
+        return documentsWritten;
+    }
+
+    /**
+     * Maps a schema to Arrow fields in ordinal order, then {@code _docId}.
+     */
+    public static Schema toArrowSchema(JsonLSchema schema) {
+        List<Field> fields = new ArrayList<>();
+        for (int ordinal = 0; ordinal < schema.getFieldCount(); ordinal++) {
+            String name = schema.getFieldName(ordinal);
+            ArrowType type = switch (schema.getFieldType(name)) {
+                case INTEGER -> new ArrowType.Int(32, true);
+                case LONG -> new ArrowType.Int(64, true);
+                case FLOAT -> new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+                case DOUBLE -> new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+                case BOOLEAN -> ArrowType.Bool.INSTANCE;
+                case BINARY -> ArrowType.Binary.INSTANCE;
+                default -> ArrowType.Utf8.INSTANCE;
+            };
+
+            if (schema.isMultiValued(name)) {
+                Field element = new Field("element", FieldType.nullable(type), null);
+                fields.add(new Field(name, FieldType.nullable(ArrowType.List.INSTANCE), List.of(element)));
+            } else {
+                fields.add(new Field(name, FieldType.nullable(type), null));
+            }
+        }
+        fields.add(new Field(ParquetDocumentWriter.DOC_ID_FIELD, FieldType.notNullable(new ArrowType.Int(64, true)), null));
+        return new Schema(fields);
+    }
+
+    private ArrowRecordBatch unload(VectorSchemaRoot batch, int rows) {
+        batch.setRowCount(rows);
+        return new VectorUnloader(batch).getRecordBatch();
+    }
+
+    private void addRow(VectorSchemaRoot batch, int row, DocumentBuffer document) {
+        int schemaFields = schema.getFieldCount();
+
+        for (int i = 0; i < document.getFieldCount(); i++) {
+            int ordinal = document.getPresentField(i);
+            String name = document.getFieldName(ordinal);
+            if (ordinal >= schemaFields) {
+                reportOnce(name, "field is not in the inferred schema");
+                continue;
+            }
+
+            com.lucidworks.hardwickehouse.FieldType type = schema.getFieldType(name);
+            FieldVector vector = batch.getVector(ordinal);
+            int dropped = 0;
+
+            if (vector instanceof ListVector list) {
+                int start = list.startNewValue(row);
+                int count = 0;
+                for (int value = document.getFirstValue(ordinal); value != -1; value = document.getNextValue(value)) {
+                    if (setValue(list.getDataVector(), type, start + count, document, value)) {
+                        count++;
+                    } else {
+                        dropped++;
+                    }
+                }
+                list.endValue(row, count);
+            } else {
+                if (document.getValueCount(ordinal) > 1) {
+                    // Inference finds every repeated field, so this is a schema from elsewhere
+                    throw new IllegalStateException(
+                        "Field " + name + " has several values but the schema declares it single-valued");
+                }
+                if (!setValue(vector, type, row, document, document.getFirstValue(ordinal))) {
+                    dropped++;
+                }
+            }
+
+            if (dropped > 0) {
+                reportOnce(name, "value does not match column type " + type);
+            }
+        }
+
+        ((BigIntVector) batch.getVector(schemaFields)).setSafe(row, document.getDocId());
+    }
+
+    private boolean setValue(FieldVector vector, com.lucidworks.hardwickehouse.FieldType type, int index,
+                             DocumentBuffer document, int value) {
+        byte kind = document.getKind(value);
+        switch (type) {
+            case INTEGER -> {
+                if (kind != DocumentBuffer.INT) {
+                    return false;
+                }
+                ((IntVector) vector).setSafe(index, (int) document.getLong(value));
+            }
+            case LONG -> {
+                if (kind != DocumentBuffer.INT && kind != DocumentBuffer.LONG) {
+                    return false;
+                }
+                ((BigIntVector) vector).setSafe(index, document.getLong(value));
+            }
+            case FLOAT -> {
+                if (kind != DocumentBuffer.FLOAT) {
+                    return false;
+                }
+                ((Float4Vector) vector).setSafe(index, (float) document.getDouble(value));
+            }
+            case DOUBLE -> {
+                if (kind == DocumentBuffer.INT || kind == DocumentBuffer.LONG) {
+                    ((Float8Vector) vector).setSafe(index, document.getLong(value));
+                } else if (kind == DocumentBuffer.FLOAT || kind == DocumentBuffer.DOUBLE) {
+                    ((Float8Vector) vector).setSafe(index, document.getDouble(value));
+                } else {
+                    return false;
+                }
+            }
+            case BINARY -> {
+                if (kind == DocumentBuffer.BINARY) {
+                    ((VarBinaryVector) vector).setSafe(index, document.getBinaryArena(),
+                        document.getBinaryOffset(value), document.getBinaryLength(value));
+                } else if (kind == DocumentBuffer.STRING) {
+                    ((VarBinaryVector) vector).setSafe(index, document.getString(value).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    return false;
+                }
+            }
+            case BOOLEAN -> {
+                return false;
+            }
+            default -> ((VarCharVector) vector).setSafe(index, asString(document, value).getBytes(StandardCharsets.UTF_8));
+        }
+        return true;
+    }
+
+    private String asString(DocumentBuffer document, int value) {
+        return switch (document.getKind(value)) {
+            case DocumentBuffer.INT, DocumentBuffer.LONG -> Long.toString(document.getLong(value));
+            case DocumentBuffer.FLOAT -> Float.toString((float) document.getDouble(value));
+            case DocumentBuffer.DOUBLE -> Double.toString(document.getDouble(value));
+            case DocumentBuffer.BINARY -> binaryEncoding.encode(document.getBinaryArena(),
+                document.getBinaryOffset(value), document.getBinaryLength(value));
+            default -> document.getString(value);
+        };
+    }
+
+    private void reportOnce(String field, String reason) {
+        if (reportedFields.add(field)) {
+            logger.warn("Dropping values of field '{}' from Arrow output: {}", field, reason);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+
+import java.io.IOException;
+
+/**
+ * Writes published Arrow record batches to an {@link ArrowDocumentWriter}.
+ */
+public class ArrowSubscriber extends OutputSubscriber<ArrowRecordBatch> {
+    
+    private final ArrowDocumentWriter writer;
+    
+    public ArrowSubscriber(ArrowDocumentWriter writer, ProgressReporter progressReporter, int prefetch) {
+        super(progressReporter, prefetch);
+        this.writer = writer;
+    }
+    
+    @Override
+    protected long write(ArrowRecordBatch batch) throws IOException {
+        writer.writeBatch(batch);
+        return batch.getLength();
+    }
+}
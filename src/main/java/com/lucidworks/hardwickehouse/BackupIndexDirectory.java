@@ -0,0 +1,122 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of one shard of a Solr backup as a Lucene index, without restoring it.
+ *
+ * <p>Solr backups keep every index file under a UUID name, with the original file names
+ * recorded in the shard metadata file. This directory lists and opens files by their
+ * original names and reads the UUID files underneath in place, so Lucene can open the
+ * shard directly. Files named in the metadata but missing from the backup are not listed.
+ */
+public class BackupIndexDirectory extends FilterDirectory {
+
+    private final Map<String, String> storedNames;
+
+    /**
+     * @param files       directory holding the UUID-named files
+     * @param storedNames original file name to UUID file name
+     */
+    public BackupIndexDirectory(Directory files, Map<String, String> storedNames) throws IOException {
+        super(files);
+        Set<String> present = Set.of(files.listAll());
+        this.storedNames = new HashMap<>();
+        for (Map.Entry<String, String> entry : storedNames.entrySet()) {
+            if (present.contains(entry.getValue())) {
+                this.storedNames.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public String[] listAll() {
+        String[] names = storedNames.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Override
+    public long fileLength(String name) throws IOException {
+        return in.fileLength(storedName(name));
+    }
+
+    @Override
+    public IndexInput openInput(String name, IOContext context) throws IOException {
+        return in.openInput(storedName(name), context);
+    }
+
+    @Override
+    public IndexOutput createOutput(String name, IOContext context) {
+        throw readOnly();
+    }
+
+    @Override
+    public IndexOutput createTempOutput(String prefix, String suffix, IOContext context) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteFile(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public void rename(String source, String dest) {
+        throw readOnly();
+    }
+
+    @Override
+    public void sync(Collection<String> names) {
+        throw readOnly();
+    }
+
+    @Override
+    public void syncMetaData() {
+        throw readOnly();
+    }
+
+    @Override
+    public Lock obtainLock(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public Set<String> getPendingDeletions() {
+        return Set.of();
+    }
+
+    /**
+     * Stored names of the files of this shard, for callers that read them directly.
+     */
+    public List<String> getStoredNames() {
+        return new ArrayList<>(storedNames.values());
+    }
+
+    private String storedName(String name) throws NoSuchFileException {
+        String stored = storedNames.get(name);
+        if (stored == null) {
+            throw new NoSuchFileException(name);
+        }
+        return stored;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Solr backup directories are read-only");
+    }
+}
@@ -17,12 +17,19 @@ public class BackupPropertiesParser {
     private static final Logger logger = LoggerFactory.getLogger(BackupPropertiesParser.class);
     
     public BackupMetadata parseBackupProperties(Path propertiesPath) throws IOException {
-        logger.info("Parsing backup properties file: {}", propertiesPath);
-        
-        Properties props = new Properties();
         try (InputStream input = Files.newInputStream(propertiesPath)) {
-            props.load(input);
+            return parseBackupProperties(input, propertiesPath.toString());
         }
+    }
+    
+    /**
+     * Parses backup properties read from elsewhere, such as GCS; {@code location} is for logging.
+     */
+    public BackupMetadata parseBackupProperties(InputStream input, String location) throws IOException {
+        logger.info("Parsing backup properties file: {}", location);
+        
+        Properties props = new Properties();
+        props.load(input);
         
         String collection = props.getProperty("collection");
         String collectionAlias = props.getProperty("collectionAlias");
@@ -2,31 +2,62 @@ package com.lucidworks.hardwickehouse;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 public class BackupReader {
     
     private static final Logger logger = LoggerFactory.getLogger(BackupReader.class);
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LocalCache cache;
+    
+    public BackupReader() {
+        this(null);
+    }
+    
+    /**
+     * @param cache where restored shards are kept between runs, or null to restore every time
+     */
+    public BackupReader(LocalCache cache) {
+        this.cache = cache;
+    }
     
     public List<Path> findLuceneIndexPaths(Path backupDirectory, BackupMetadata metadata) throws IOException {
+        return findLuceneIndexPaths(backupDirectory, metadata, null);
+    }
+    
+    /**
+     * Like {@link #findLuceneIndexPaths(Path, BackupMetadata)}, but shards stored as UUID files
+     * are restored through the cache, if there is one, and a lease on every restored shard is
+     * added to {@code leases}. Closing the leases releases cached shards or deletes temporary
+     * ones. With null {@code leases}, restored shards are left in temporary directories.
+     */
+    public List<Path> findLuceneIndexPaths(Path backupDirectory, BackupMetadata metadata,
+                                           List<LocalCache.Lease> leases) throws IOException {
         logger.info("Searching for Lucene indexes in backup directory: {}", backupDirectory);
         
         List<Path> indexPaths = new ArrayList<>();
         
         for (String shardMetadataFile : metadata.getShardMetadataFiles()) {
-            Path metadataPath = backupDirectory.resolve(shardMetadataFile);
+            Path metadataPath = resolveShardMetadata(backupDirectory, shardMetadataFile);
             
             if (!Files.exists(metadataPath)) {
                 logger.warn("Shard metadata file not found: {}", metadataPath);
@@ -40,7 +71,14 @@ public class BackupReader {
             } else {
                 logger.info("Attempting to restore index from UUID files for: {}", shardMetadataFile);
                 try {
-                    Path restoredIndexPath = restoreIndexFromBackup(backupDirectory, shardMetadataFile);
+                    Path restoredIndexPath;
+                    if (leases != null) {
+                        LocalCache.Lease lease = restoreShard(backupDirectory, shardMetadataFile);
+                        leases.add(lease);
+                        restoredIndexPath = lease.getPath();
+                    } else {
+                        restoredIndexPath = restoreIndexFromBackup(backupDirectory, shardMetadataFile);
+                    }
                     indexPaths.add(restoredIndexPath);
                     logger.info("Successfully restored shard index to: {}", restoredIndexPath);
                 } catch (IOException e) {
@@ -61,6 +99,105 @@ public class BackupReader {
         return indexPaths;
     }
     
+    /**
+     * Opens every shard of a backup as a read-only Lucene directory without restoring it.
+     * Shards with a plain index directory are opened as they are; shards stored as UUID
+     * files are opened through {@link BackupIndexDirectory}. Keys are shard metadata files.
+     */
+    public Map<String, Directory> openShardDirectories(Path backupDirectory, BackupMetadata metadata) throws IOException {
+        Map<String, Directory> directories = new LinkedHashMap<>();
+        
+        try {
+            for (String shardMetadataFile : metadata.getShardMetadataFiles()) {
+                Path metadataPath = resolveShardMetadata(backupDirectory, shardMetadataFile);
+                
+                if (!Files.exists(metadataPath)) {
+                    logger.warn("Shard metadata file not found: {}", metadataPath);
+                    continue;
+                }
+                
+                Path shardIndexPath = findShardIndexPath(backupDirectory, metadataPath);
+                if (shardIndexPath != null) {
+                    directories.put(shardMetadataFile, FSDirectory.open(shardIndexPath));
+                    continue;
+                }
+                
+                Map<String, String> fileNames = new HashMap<>();
+                parseFileMapping(objectMapper.readTree(metadataPath.toFile()))
+                    .forEach((uuid, fileName) -> fileNames.put(fileName, uuid));
+                if (fileNames.isEmpty()) {
+                    logger.warn("No file mappings found in metadata: {}", metadataPath);
+                    continue;
+                }
+                directories.put(shardMetadataFile,
+                    new BackupIndexDirectory(FSDirectory.open(backupDirectory.resolve("index")), fileNames));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Directory directory : directories.values()) {
+                directory.close();
+            }
+            throw e;
+        }
+        
+        return directories;
+    }
+    
+    /**
+     * Like {@link #openShardDirectories}, for a backup in GCS: shard metadata is read remotely
+     * and index files are opened in place through {@link GcsDirectory}, so nothing is
+     * downloaded or restored. UUID-named shards share one listing of the backup's index files.
+     */
+    public Map<String, Directory> openGcsShardDirectories(StorageService storageService, String backupDirectory,
+                                                          BackupMetadata metadata) throws IOException {
+        String root = backupDirectory.endsWith("/") ? backupDirectory : backupDirectory + "/";
+        Map<String, Directory> directories = new LinkedHashMap<>();
+        GcsDirectory indexFiles = null;
+        
+        try {
+            for (String shardMetadataFile : metadata.getShardMetadataFiles()) {
+                JsonNode shardMetadata;
+                try {
+                    shardMetadata = objectMapper.readTree(storageService.readFromGcs(
+                        root + IncrementalBackup.SHARD_METADATA_DIRECTORY + "/" + shardMetadataFile));
+                } catch (NoSuchFileException e) {
+                    try {
+                        shardMetadata = objectMapper.readTree(storageService.readFromGcs(root + shardMetadataFile));
+                    } catch (NoSuchFileException missing) {
+                        logger.warn("Shard metadata file not found: {}{}", root, shardMetadataFile);
+                        continue;
+                    }
+                }
+                
+                String indexDirName = extractIndexDirectoryName(shardMetadata);
+                if (indexDirName != null) {
+                    GcsDirectory shardFiles = storageService.openGcsDirectory(root + indexDirName);
+                    if (Arrays.stream(shardFiles.listAll()).anyMatch(name -> name.startsWith("segments_"))) {
+                        directories.put(shardMetadataFile, shardFiles);
+                        continue;
+                    }
+                }
+                
+                Map<String, String> fileNames = new HashMap<>();
+                parseFileMapping(shardMetadata).forEach((uuid, fileName) -> fileNames.put(fileName, uuid));
+                if (fileNames.isEmpty()) {
+                    logger.warn("No file mappings found in metadata: {}{}", root, shardMetadataFile);
+                    continue;
+                }
+                if (indexFiles == null) {
+                    indexFiles = storageService.openGcsDirectory(root + "index");
+                }
+                directories.put(shardMetadataFile, new BackupIndexDirectory(indexFiles, fileNames));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Directory directory : directories.values()) {
+                directory.close();
+            }
+            throw e;
+        }
+        
+        return directories;
+    }
+    
     private Path findShardIndexPath(Path backupDirectory, Path metadataPath) throws IOException {
         try {
             JsonNode metadata = objectMapper.readTree(metadataPath.toFile());
@@ -129,7 +266,7 @@ public class BackupReader {
         
         boolean allShardsFound = true;
         for (String shardMetadataFile : metadata.getShardMetadataFiles()) {
-            Path metadataPath = backupDirectory.resolve(shardMetadataFile);
+            Path metadataPath = resolveShardMetadata(backupDirectory, shardMetadataFile);
             if (!Files.exists(metadataPath)) {
                 logger.warn("Missing shard metadata file: {}", shardMetadataFile);
                 allShardsFound = false;
@@ -146,7 +283,7 @@ public class BackupReader {
     public Path restoreIndexFromBackup(Path backupDirectory, String shardMetadataFile) throws IOException {
         logger.info("Restoring index from backup using metadata: {}", shardMetadataFile);
         
-        Path metadataPath = backupDirectory.resolve(shardMetadataFile);
+        Path metadataPath = resolveShardMetadata(backupDirectory, shardMetadataFile);
         if (!Files.exists(metadataPath)) {
             throw new IOException("Shard metadata file not found: " + metadataPath);
         }
@@ -161,12 +298,49 @@ public class BackupReader {
         Path tempIndexDir = Files.createTempDirectory("restored-index-");
         logger.info("Created temporary index directory: {}", tempIndexDir);
         
+        copyRestoredFiles(backupDirectory, fileMapping, tempIndexDir);
+        
+        logger.info("Successfully restored index to: {}", tempIndexDir);
+        return tempIndexDir;
+    }
+    
+    /**
+     * Restores one shard and returns a lease on it. With a cache, the shard is keyed by its
+     * UUID file names, original names and sizes, so a repeat run reuses the earlier restore.
+     */
+    public LocalCache.Lease restoreShard(Path backupDirectory, String shardMetadataFile) throws IOException {
+        if (cache == null) {
+            Path restored = restoreIndexFromBackup(backupDirectory, shardMetadataFile);
+            return new LocalCache.Lease(restored, () -> deleteTree(restored));
+        }
+        
+        Path metadataPath = resolveShardMetadata(backupDirectory, shardMetadataFile);
+        Map<String, String> fileMapping = parseFileMapping(objectMapper.readTree(metadataPath.toFile()));
+        if (fileMapping.isEmpty()) {
+            throw new IOException("No file mappings found in metadata: " + metadataPath);
+        }
+        
+        List<String> keyParts = new ArrayList<>();
+        keyParts.add("restore");
+        for (Map.Entry<String, String> entry : new TreeMap<>(fileMapping).entrySet()) {
+            Path sourceFile = backupDirectory.resolve("index").resolve(entry.getKey());
+            long size = Files.exists(sourceFile) ? Files.size(sourceFile) : -1;
+            keyParts.add(entry.getKey() + "=" + entry.getValue() + ":" + size);
+        }
+        
+        return cache.get(LocalCache.key(keyParts.toArray(new String[0])), target -> {
+            Files.createDirectories(target);
+            copyRestoredFiles(backupDirectory, fileMapping, target);
+        });
+    }
+    
+    private void copyRestoredFiles(Path backupDirectory, Map<String, String> fileMapping, Path target) throws IOException {
         for (Map.Entry<String, String> entry : fileMapping.entrySet()) {
             String uuid = entry.getKey();
             String originalFilename = entry.getValue();
             
             Path sourceFile = backupDirectory.resolve("index").resolve(uuid);
-            Path targetFile = tempIndexDir.resolve(originalFilename);
+            Path targetFile = target.resolve(originalFilename);
             
             if (Files.exists(sourceFile)) {
                 Files.copy(sourceFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
@@ -176,15 +350,30 @@ public class BackupReader {
             }
         }
         
-        if (!isValidLuceneIndex(tempIndexDir)) {
-            throw new IOException("Restored index is not valid: " + tempIndexDir);
+        if (!isValidLuceneIndex(target)) {
+            throw new IOException("Restored index is not valid: " + target);
         }
-        
-        logger.info("Successfully restored index to: {}", tempIndexDir);
-        return tempIndexDir;
     }
     
-    private Map<String, String> parseFileMapping(JsonNode metadata) {
+    private static void deleteTree(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    /**
+     * Where a shard metadata file lives: next to the backup properties, or in
+     * {@code shard_backup_metadata/} as in incremental backups.
+     */
+    static Path resolveShardMetadata(Path backupDirectory, String shardMetadataFile) {
+        Path path = backupDirectory.resolve(shardMetadataFile);
+        Path incremental = backupDirectory.resolve(IncrementalBackup.SHARD_METADATA_DIRECTORY).resolve(shardMetadataFile);
+        return !Files.exists(path) && Files.exists(incremental) ? incremental : path;
+    }
+    
+    static Map<String, String> parseFileMapping(JsonNode metadata) {
         Map<String, String> fileMapping = new HashMap<>();
         
         metadata.fields().forEachRemaining(entry -> {
@@ -0,0 +1,366 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Runs many conversions in one process. Jobs share a fixed worker pool, the processors
+ * (each job without {@code threads} gets an equal share) and a disk budget; the scheduler
+ * always starts the largest pending job that still fits in the remaining budget, so small
+ * collections are packed in around the big ones.
+ */
+public class BatchConversionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchConversionService.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+        .enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final ConversionService conversionService;
+    private final BackupPropertiesParser backupParser = new BackupPropertiesParser();
+    private final int maxConcurrency;
+    private final long maxDiskBytes;
+    private final int progressIntervalSeconds;
+
+    private final Object schedulerLock = new Object();
+    private int runningJobs = 0;
+    private long reservedDiskBytes = 0;
+
+    /**
+     * @param maxDiskBytes upper bound on the disk the running jobs are estimated to need at
+     *                     once, or 0 for no limit
+     */
+    public BatchConversionService(ConversionService conversionService, int maxConcurrency,
+                                  long maxDiskBytes, int progressIntervalSeconds) {
+        this.conversionService = conversionService;
+        this.maxConcurrency = maxConcurrency;
+        this.maxDiskBytes = maxDiskBytes;
+        this.progressIntervalSeconds = progressIntervalSeconds;
+    }
+
+    /**
+     * Builds one request per {@code backup.properties} found under {@code backupRoot}. Each
+     * output file is named after the backup's directory relative to the root.
+     */
+    public List<ConversionRequest> discoverBackups(Path backupRoot, Path outputDirectory,
+                                                   boolean compress, int batchSize) throws IOException {
+        logger.info("Discovering Solr backups under: {}", backupRoot);
+
+        List<Path> propertiesFiles;
+        try (Stream<Path> paths = Files.walk(backupRoot)) {
+            propertiesFiles = paths
+                .filter(Files::isRegularFile)
+                .filter(path -> path.getFileName().toString().equals("backup.properties"))
+                .sorted()
+                .toList();
+        }
+
+        List<ConversionRequest> requests = new ArrayList<>();
+        for (Path propertiesFile : propertiesFiles) {
+            Path backupDir = propertiesFile.getParent();
+            Path relative = backupRoot.relativize(backupDir);
+            String name = relative.toString().isEmpty()
+                ? backupDir.getFileName().toString()
+                : relative.toString().replace(backupDir.getFileSystem().getSeparator(), "_");
+
+            ConversionRequest request = new ConversionRequest();
+            request.setBackupProperties(propertiesFile.toString());
+            request.setBackupDirectory(backupDir.toString());
+            request.setOutput(outputDirectory.resolve(name + (compress ? ".jsonl.gz" : ".jsonl")).toString());
+            request.setCompress(compress);
+            request.setBatchSize(batchSize);
+            requests.add(request);
+        }
+
+        logger.info("Discovered {} Solr backups", requests.size());
+        return requests;
+    }
+
+    /**
+     * Reads a JSON array of {@link ConversionRequest}s.
+     */
+    public List<ConversionRequest> readManifest(Path manifestPath) throws IOException {
+        logger.info("Reading job manifest: {}", manifestPath);
+        return objectMapper.readValue(manifestPath.toFile(), new TypeReference<List<ConversionRequest>>() {});
+    }
+
+    public List<JobOutcome> convertAll(List<ConversionRequest> requests) throws InterruptedException {
+        List<PendingJob> pending = new ArrayList<>();
+        List<JobOutcome> outcomes = new ArrayList<>();
+
+        for (ConversionRequest request : requests) {
+            JobOutcome outcome = new JobOutcome(request);
+            outcomes.add(outcome);
+            try {
+                request.validate();
+                request.shareProcessors(maxConcurrency);
+                pending.add(new PendingJob(request, outcome, estimateDiskBytes(request)));
+            } catch (IllegalArgumentException e) {
+                outcome.fail(e.getMessage());
+            }
+        }
+
+        // Largest first; the scheduler then back-fills with whatever still fits
+        pending.sort(Comparator.comparingLong((PendingJob job) -> job.estimatedDiskBytes).reversed());
+
+        logger.info("Scheduling {} conversions with concurrency {} and disk budget {}",
+                   pending.size(), maxConcurrency, maxDiskBytes > 0 ? maxDiskBytes + " bytes" : "unlimited");
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(maxConcurrency, r ->
+            new Thread(r, "batch-worker-" + threadCount.incrementAndGet()));
+
+        try {
+            while (!pending.isEmpty()) {
+                PendingJob next;
+                synchronized (schedulerLock) {
+                    while ((next = nextRunnable(pending)) == null) {
+                        schedulerLock.wait();
+                    }
+                    pending.remove(next);
+                    runningJobs++;
+                    reservedDiskBytes += next.reservation();
+                }
+
+                PendingJob job = next;
+                workers.execute(() -> runJob(job));
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        return outcomes;
+    }
+
+    private PendingJob nextRunnable(List<PendingJob> pending) {
+        if (runningJobs >= maxConcurrency) {
+            return null;
+        }
+
+        for (PendingJob job : pending) {
+            if (maxDiskBytes <= 0 || reservedDiskBytes + job.reservation() <= maxDiskBytes) {
+                return job;
+            }
+        }
+
+        // Nothing fits beside the running jobs; an oversized job still runs once it is alone
+        return runningJobs == 0 ? pending.get(0) : null;
+    }
+
+    private void runJob(PendingJob job) {
+        JobOutcome outcome = job.outcome;
+        outcome.start();
+
+        try {
+            ConversionResult result = conversionService.convert(job.request,
+                new ProgressReporter(progressIntervalSeconds));
+            outcome.succeed(result);
+        } catch (Exception e) {
+            logger.error("Conversion failed for {}", job.request, e);
+            outcome.fail(e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            synchronized (schedulerLock) {
+                runningJobs--;
+                reservedDiskBytes -= job.reservation();
+                schedulerLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Rough disk footprint of a conversion: the JSONL output is assumed to be no larger than
+     * the index, a backup additionally needs room to restore its index files, and a GCS
+     * source room to download them. Backups read in place from GCS or from an incremental
+     * backup only write their output.
+     */
+    long estimateDiskBytes(ConversionRequest request) {
+        StorageService storageService = conversionService.getStorageService();
+        try {
+            if (request.hasBackupSource() && request.getBackupProperties() == null) {
+                try (IncrementalBackup backup = request.hasGcsBackup()
+                        ? IncrementalBackup.open(storageService, request.getBackupDirectory())
+                        : IncrementalBackup.open(Paths.get(request.getBackupDirectory()))) {
+                    long bytes = 0;
+                    for (IncrementalBackup.Point point : backup.select(request.getBackupPoint())) {
+                        bytes += megabytes(point.getMetadata().getIndexSizeMB());
+                    }
+                    return bytes;
+                }
+            }
+
+            if (request.hasGcsBackup()) {
+                String properties = request.getBackupProperties();
+                BackupMetadata metadata = properties.startsWith("gs://")
+                    ? backupParser.parseBackupProperties(
+                          new ByteArrayInputStream(storageService.readFromGcs(properties)), properties)
+                    : backupParser.parseBackupProperties(Paths.get(properties));
+                return megabytes(metadata.getIndexSizeMB());
+            }
+
+            if (request.hasBackupSource()) {
+                BackupMetadata metadata = backupParser.parseBackupProperties(Paths.get(request.getBackupProperties()));
+                return 2 * megabytes(metadata.getIndexSizeMB());
+            }
+
+            if (request.hasGcsSource()) {
+                return 2 * storageService.sizeOfGcs(request.getSourceLocation());
+            }
+            return directorySize(Paths.get(request.getSourceLocation()));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not estimate size of {}: {}", request, e.getMessage());
+        }
+        return 0;
+    }
+
+    private static long megabytes(double sizeMB) {
+        return (long) (sizeMB * 1024 * 1024);
+    }
+
+    private long directorySize(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        }
+    }
+
+    public void logSummary(List<JobOutcome> outcomes) {
+        long succeeded = outcomes.stream().filter(JobOutcome::isSucceeded).count();
+        long documents = outcomes.stream().mapToLong(JobOutcome::getDocumentsProcessed).sum();
+
+        for (JobOutcome outcome : outcomes) {
+            if (outcome.isSucceeded()) {
+                logger.info("  OK     {} -> {} ({} documents in {} ms)", outcome.getSource(),
+                           outcome.getOutputLocation(), outcome.getDocumentsProcessed(), outcome.getDurationMillis());
+            } else {
+                logger.info("  FAILED {}: {}", outcome.getSource(), outcome.getError());
+            }
+        }
+
+        logger.info("Batch conversion finished: {}/{} succeeded, {} documents in total",
+                   succeeded, outcomes.size(), documents);
+    }
+
+    public void writeReport(List<JobOutcome> outcomes, Path reportPath) throws IOException {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (JobOutcome outcome : outcomes) {
+            entries.add(outcome.describe());
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("jobs", outcomes.size());
+        report.put("succeeded", outcomes.stream().filter(JobOutcome::isSucceeded).count());
+        report.put("documents", outcomes.stream().mapToLong(JobOutcome::getDocumentsProcessed).sum());
+        report.put("results", entries);
+
+        if (reportPath.getParent() != null) {
+            Files.createDirectories(reportPath.getParent());
+        }
+        objectMapper.writeValue(reportPath.toFile(), report);
+        logger.info("Batch report written to: {}", reportPath);
+    }
+
+    private static class PendingJob {
+        private final ConversionRequest request;
+        private final JobOutcome outcome;
+        private final long estimatedDiskBytes;
+
+        PendingJob(ConversionRequest request, JobOutcome outcome, long estimatedDiskBytes) {
+            this.request = request;
+            this.outcome = outcome;
+            this.estimatedDiskBytes = estimatedDiskBytes;
+        }
+
+        long reservation() {
+            return estimatedDiskBytes;
+        }
+    }
+
+    public static class JobOutcome {
+        private final ConversionRequest request;
+        private volatile Instant startedAt;
+        private volatile ConversionResult result;
+        private volatile String error;
+
+        JobOutcome(ConversionRequest request) {
+            this.request = request;
+        }
+
+        void start() {
+            startedAt = Instant.now();
+        }
+
+        void succeed(ConversionResult result) {
+            this.result = result;
+        }
+
+        void fail(String error) {
+            this.error = error;
+        }
+
+        public boolean isSucceeded() {
+            return result != null;
+        }
+
+        public String getSource() {
+            return request.hasBackupSource() ? request.getBackupLocation() : request.getSourceLocation();
+        }
+
+        public String getOutputLocation() {
+            return result != null ? result.getOutputLocation() : request.getOutputLocation();
+        }
+
+        public long getDocumentsProcessed() {
+            return result != null ? result.getDocumentsProcessed() : 0;
+        }
+
+        public long getDurationMillis() {
+            if (result != null) {
+                return result.getDuration().toMillis();
+            }
+            return startedAt != null ? Duration.between(startedAt, Instant.now()).toMillis() : 0;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        Map<String, Object> describe() {
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("source", getSource());
+            view.put("output", getOutputLocation());
+            view.put("status", isSucceeded() ? "SUCCEEDED" : "FAILED");
+            view.put("documents", getDocumentsProcessed());
+            view.put("durationMillis", getDurationMillis());
+            if (error != null) {
+                view.put("error", error);
+            }
+            return view;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * How binary stored fields are rendered as JSON strings.
+ */
+public enum BinaryEncoding {
+    BASE64,
+    HEX;
+    
+    /**
+     * Renders a slice of bytes as a string, for outputs that cannot stream the encoding.
+     */
+    public String encode(byte[] bytes, int offset, int length) {
+        if (this == HEX) {
+            return HexFormat.of().formatHex(bytes, offset, offset + length);
+        }
+        ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(bytes, offset, length));
+        return new String(encoded.array(), encoded.arrayOffset(), encoded.remaining(), StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Reads back a string written by {@link #encode}.
+     */
+    public byte[] decode(String encoded) {
+        return this == HEX ? HexFormat.of().parseHex(encoded) : Base64.getDecoder().decode(encoded);
+    }
+    
+    @JsonCreator
+    public static BinaryEncoding fromString(String value) {
+        return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,174 @@
+package com.lucidworks.hardwickehouse;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * A conversion submitted to the {@code serve} daemon, tracked from submission until it
+ * finishes so clients can poll its status.
+ */
+public class ConversionJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id;
+    private final ConversionRequest request;
+    private final ProgressReporter progressReporter;
+    private final Instant submittedAt;
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile ConversionResult result;
+    private volatile String error;
+    private volatile Future<?> future;
+    private volatile boolean cancelRequested;
+
+    public ConversionJob(String id, ConversionRequest request, ProgressReporter progressReporter) {
+        this.id = id;
+        this.request = request;
+        this.progressReporter = progressReporter;
+        this.submittedAt = Instant.now();
+    }
+
+    /**
+     * Moves a queued job to running, unless it was cancelled first.
+     */
+    synchronized boolean markRunning() {
+        if (cancelRequested) {
+            return false;
+        }
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+        return true;
+    }
+
+    /**
+     * Records a finished conversion; a job cancelled while it ran is reported as cancelled
+     * even if the conversion ignored the interrupt and completed.
+     */
+    synchronized void markSucceeded(ConversionResult result) {
+        if (cancelRequested) {
+            markCancelled();
+            return;
+        }
+        this.result = result;
+        finishedAt = Instant.now();
+        status = Status.SUCCEEDED;
+    }
+
+    /**
+     * Records a failed conversion; a job cancelled while it ran is reported as cancelled,
+     * since the failure is usually the interrupt itself.
+     */
+    synchronized void markFailed(String error) {
+        if (cancelRequested) {
+            markCancelled();
+            return;
+        }
+        this.error = error;
+        finishedAt = Instant.now();
+        status = Status.FAILED;
+    }
+
+    synchronized void markCancelled() {
+        finishedAt = Instant.now();
+        status = Status.CANCELLED;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    public synchronized boolean cancel() {
+        if (isFinished()) {
+            return false;
+        }
+        cancelRequested = true;
+        Future<?> f = future;
+        if (f != null) {
+            f.cancel(true);
+        }
+        if (status == Status.QUEUED) {
+            markCancelled();
+        }
+        return true;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public ConversionRequest getRequest() {
+        return request;
+    }
+
+    public ProgressReporter getProgressReporter() {
+        return progressReporter;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public ConversionResult getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Flat view of the job used for the HTTP status responses.
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("id", id);
+        view.put("status", status);
+        view.put("request", request);
+        view.put("submittedAt", submittedAt.toString());
+        view.put("startedAt", startedAt != null ? startedAt.toString() : null);
+        view.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+        view.put("processedDocuments", progressReporter.getProcessedDocuments());
+        view.put("totalDocuments", progressReporter.getTotalDocuments());
+        if (result != null) {
+            view.put("outputLocation", result.getOutputLocation());
+            view.put("durationMillis", result.getDuration().toMillis());
+            if (!result.getMetrics().isEmpty()) {
+                view.put("metrics", result.getMetrics());
+            }
+        }
+        if (error != null) {
+            view.put("error", error);
+        }
+        return view;
+    }
+}
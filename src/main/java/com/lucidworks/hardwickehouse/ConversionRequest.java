@@ -0,0 +1,682 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.file.Path;
+
+/**
+ * Describes a single conversion: where the index comes from, where the output goes and
+ * how it is written. The same request shape is built by the {@code convert} command and
+ * accepted as JSON by the {@code serve} job API.
+ */
+public class ConversionRequest implements Cloneable {
+
+    /**
+     * Replaced by the point number in the output of a conversion of several backup points.
+     */
+    public static final String BACKUP_POINT_PLACEHOLDER = "{point}";
+
+    private String source;
+    private String gcsSource;
+    private String backupProperties;
+    private String backupDirectory;
+    private String backupPoint;
+    private String output;
+    private String gcsOutput;
+    private int batchSize = 1000;
+    private boolean compress = false;
+    private int threads = 0;
+    private BinaryEncoding binaryEncoding = BinaryEncoding.BASE64;
+    private OutputFormat format = OutputFormat.JSONL;
+    private ParquetCodec parquetCodec = ParquetCodec.SNAPPY;
+    private int rowGroupSizeMB = 128;
+    private String dedupeBy;
+    private String keep = Deduplicator.KEEP_FIRST;
+    private String sortBy;
+    private int sortMemoryMB = 256;
+    private Double sampleRate;
+    private Long sampleCount;
+    private long sampleSeed = DocSampler.DEFAULT_SEED;
+    private boolean nested = false;
+    private String parentFilter;
+    private boolean adaptive = false;
+    private int targetBatchMB = 4;
+    private boolean dryRun = false;
+    private boolean verify = false;
+    // Null unless set, so that an explicit request can be told from the default
+    private Boolean stats;
+    private String partitionBy;
+    private int maxOpenPartitions = PartitionWriters.DEFAULT_MAX_OPEN;
+    private double maxReadMbps = 0;
+    private double maxWriteMbps = 0;
+    private int maxCpuThreads = 0;
+    private String throttleFile;
+    private boolean segmentCache = false;
+    @JsonIgnore
+    private WorkPlan.Unit workUnit;
+
+    public void validate() {
+        int sourceCount = 0;
+        if (source != null) sourceCount++;
+        if (gcsSource != null) sourceCount++;
+        if (hasBackupSource()) sourceCount++;
+
+        if (sourceCount != 1) {
+            throw new IllegalArgumentException("Must specify exactly one of --source, --gcs-source, or --backup-properties/--backup-directory");
+        }
+
+        if (backupProperties != null && backupDirectory == null) {
+            throw new IllegalArgumentException("--backup-directory is required when using --backup-properties");
+        }
+
+        if (backupProperties != null && backupProperties.startsWith("gs://") && !hasGcsBackup()) {
+            throw new IllegalArgumentException("--backup-directory must be a gs:// path when --backup-properties is");
+        }
+
+        if (backupPoint != null && (backupDirectory == null || backupProperties != null)) {
+            throw new IllegalArgumentException("--backup-point selects a point of an incremental backup: use it with --backup-directory and without --backup-properties");
+        }
+
+        if (hasMultipleBackupPoints()) {
+            String target = output != null ? output : gcsOutput;
+            if (dryRun || target == null || !target.contains(BACKUP_POINT_PLACEHOLDER)) {
+                throw new IllegalArgumentException("Converting several backup points needs an output containing " +
+                                                   BACKUP_POINT_PLACEHOLDER + " (and no --dry-run)");
+            }
+        }
+
+        if (output != null && gcsOutput != null) {
+            throw new IllegalArgumentException("Must specify exactly one of --output or --gcs-output");
+        }
+
+        if (output == null && gcsOutput == null && !dryRun) {
+            throw new IllegalArgumentException("Must specify exactly one of --output or --gcs-output");
+        }
+
+        if (threads < 0) {
+            throw new IllegalArgumentException("--threads must not be negative");
+        }
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("--batch-size must be positive");
+        }
+
+        if (format != OutputFormat.JSONL && compress) {
+            throw new IllegalArgumentException("--compress applies to JSONL output only; use --parquet-codec with --format parquet");
+        }
+
+        if (ArrowDocumentWriter.STDOUT.equals(output) && format != OutputFormat.ARROW_STREAM) {
+            throw new IllegalArgumentException("--output - (stdout) is only supported with --format arrow-stream");
+        }
+
+        if (rowGroupSizeMB <= 0) {
+            throw new IllegalArgumentException("--row-group-size-mb must be positive");
+        }
+
+        if (dedupeBy != null) {
+            Deduplicator.validateKeep(keep);
+        }
+
+        if (sortBy != null) {
+            SortedExport.validate(sortBy);
+            if (format == OutputFormat.ARROW_STREAM) {
+                throw new IllegalArgumentException("--sort-by supports jsonl and parquet output only");
+            }
+        }
+
+        if (sortMemoryMB <= 0) {
+            throw new IllegalArgumentException("--sort-memory-mb must be positive");
+        }
+        if (sortMemoryMB >= SortedExport.MAX_MEMORY_MB) {
+            throw new IllegalArgumentException("--sort-memory-mb must be less than " + SortedExport.MAX_MEMORY_MB);
+        }
+
+        if (sampleRate != null && sampleCount != null) {
+            throw new IllegalArgumentException("Specify at most one of --sample-rate and --sample-count");
+        }
+        createSampler();
+
+        if (nested) {
+            if (format != OutputFormat.JSONL) {
+                throw new IllegalArgumentException("--nested supports jsonl output only");
+            }
+            if (sortBy != null) {
+                throw new IllegalArgumentException("--nested cannot be combined with --sort-by");
+            }
+            if (parentFilter != null) {
+                NestedBlocks.parseParentFilter(parentFilter);
+            }
+        }
+
+        if (adaptive && (format != OutputFormat.JSONL || nested || sortBy != null)) {
+            throw new IllegalArgumentException("--adaptive supports plain jsonl output only (not with --nested or --sort-by)");
+        }
+
+        if (targetBatchMB <= 0) {
+            throw new IllegalArgumentException("--target-batch-mb must be positive");
+        }
+
+        if (dryRun && (format != OutputFormat.JSONL || nested || sortBy != null)) {
+            throw new IllegalArgumentException("--dry-run estimates plain jsonl output only (not with --nested or --sort-by)");
+        }
+
+        if (verify && (format != OutputFormat.JSONL || nested)) {
+            throw new IllegalArgumentException("--verify supports jsonl output only (not with --nested)");
+        }
+
+        if (partitionBy != null) {
+            PartitionSpec.parse(partitionBy);
+            if (format != OutputFormat.JSONL || nested || sortBy != null || adaptive) {
+                throw new IllegalArgumentException("--partition-by supports plain jsonl output only (not with --nested, --sort-by or --adaptive)");
+            }
+        }
+
+        if (maxOpenPartitions <= 0) {
+            throw new IllegalArgumentException("--max-open-partitions must be positive");
+        }
+
+        if (maxReadMbps < 0 || maxWriteMbps < 0 || maxCpuThreads < 0) {
+            throw new IllegalArgumentException("--max-read-mbps, --max-write-mbps and --max-cpu-threads must not be negative");
+        }
+
+        if (segmentCache && (format != OutputFormat.JSONL || nested || sortBy != null || adaptive || partitionBy != null
+                             || dedupeBy != null || createSampler() != null || dryRun)) {
+            throw new IllegalArgumentException("--segment-cache supports plain jsonl output only (not with --nested, --sort-by, " +
+                                               "--adaptive, --partition-by, --dedupe-by, sampling or --dry-run)");
+        }
+
+        if (segmentCache && Boolean.TRUE.equals(stats)) {
+            throw new IllegalArgumentException("--segment-cache cannot collect field statistics: cached segments are not read again");
+        }
+
+        if (workUnit != null) {
+            WorkPlan.checkSupported(this);
+        }
+    }
+
+    /**
+     * Whether the source is a Solr backup: one backup properties file, or a point of an
+     * incremental backup when only the directory is given.
+     */
+    public boolean hasBackupSource() {
+        return backupProperties != null || backupDirectory != null;
+    }
+
+    private boolean hasMultipleBackupPoints() {
+        return backupPoint != null && (backupPoint.equalsIgnoreCase("all") || backupPoint.contains(","));
+    }
+
+    /**
+     * A copy of this request writing to the output of one backup point.
+     */
+    ConversionRequest forBackupPoint(int point) {
+        try {
+            ConversionRequest copy = (ConversionRequest) clone();
+            if (output != null) {
+                copy.output = output.replace(BACKUP_POINT_PLACEHOLDER, Integer.toString(point));
+            }
+            if (gcsOutput != null) {
+                copy.gcsOutput = gcsOutput.replace(BACKUP_POINT_PLACEHOLDER, Integer.toString(point));
+            }
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A copy that converts one unit of a {@link WorkPlan} to {@code partLocation}, a local
+     * path or a gs:// object as the plan's output is.
+     */
+    ConversionRequest forWorkUnit(WorkPlan.Unit unit, String partLocation) {
+        try {
+            ConversionRequest copy = (ConversionRequest) clone();
+            if (gcsOutput != null) {
+                copy.gcsOutput = partLocation;
+            } else {
+                copy.output = partLocation;
+            }
+            copy.workUnit = unit;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The unit of a {@link WorkPlan} this request converts, or null for the whole index.
+     */
+    @JsonIgnore
+    public WorkPlan.Unit getWorkUnit() {
+        return workUnit;
+    }
+
+    /**
+     * The backup properties file, or the directory of an incremental backup, for logs.
+     */
+    @JsonIgnore
+    public String getBackupLocation() {
+        return backupProperties != null ? backupProperties : backupDirectory;
+    }
+
+    /**
+     * Whether the backup is read in place from GCS rather than from local disk.
+     */
+    public boolean hasGcsBackup() {
+        return backupDirectory != null && backupDirectory.startsWith("gs://");
+    }
+
+    public boolean hasGcsSource() {
+        return gcsSource != null;
+    }
+
+    public boolean hasGcsOutput() {
+        return gcsOutput != null;
+    }
+
+    @JsonIgnore
+    public String getSourceLocation() {
+        return source != null ? source : gcsSource;
+    }
+
+    @JsonIgnore
+    public String getOutputLocation() {
+        return output != null ? output : gcsOutput;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getGcsSource() {
+        return gcsSource;
+    }
+
+    public void setGcsSource(String gcsSource) {
+        this.gcsSource = gcsSource;
+    }
+
+    public String getBackupProperties() {
+        return backupProperties;
+    }
+
+    public void setBackupProperties(String backupProperties) {
+        this.backupProperties = backupProperties;
+    }
+
+    public String getBackupDirectory() {
+        return backupDirectory;
+    }
+
+    public void setBackupDirectory(String backupDirectory) {
+        this.backupDirectory = backupDirectory;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    public String getGcsOutput() {
+        return gcsOutput;
+    }
+
+    public void setGcsOutput(String gcsOutput) {
+        this.gcsOutput = gcsOutput;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Number of threads reading and serializing documents, or 0 for one per available
+     * processor.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Gives a request without {@code --threads} an equal share of the processors, for a
+     * conversion that runs beside up to {@code concurrentJobs - 1} others. Every conversion
+     * builds its own pools, so without a share each would take all processors.
+     */
+    public void shareProcessors(int concurrentJobs) {
+        if (threads == 0) {
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, concurrentJobs));
+        }
+    }
+
+    public BinaryEncoding getBinaryEncoding() {
+        return binaryEncoding;
+    }
+
+    public void setBinaryEncoding(BinaryEncoding binaryEncoding) {
+        this.binaryEncoding = binaryEncoding;
+    }
+
+    public OutputFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(OutputFormat format) {
+        this.format = format;
+    }
+
+    public ParquetCodec getParquetCodec() {
+        return parquetCodec;
+    }
+
+    public void setParquetCodec(ParquetCodec parquetCodec) {
+        this.parquetCodec = parquetCodec;
+    }
+
+    /**
+     * Target size of a Parquet row group; rows are buffered in memory until it is reached.
+     */
+    public int getRowGroupSizeMB() {
+        return rowGroupSizeMB;
+    }
+
+    public void setRowGroupSizeMB(int rowGroupSizeMB) {
+        this.rowGroupSizeMB = rowGroupSizeMB;
+    }
+
+    /**
+     * Field whose value identifies a document across shards, or null to keep duplicates.
+     */
+    public String getDedupeBy() {
+        return dedupeBy;
+    }
+
+    public void setDedupeBy(String dedupeBy) {
+        this.dedupeBy = dedupeBy;
+    }
+
+    /**
+     * Which duplicate survives: {@code first}, {@code max(<field>)} or {@code min(<field>)}.
+     */
+    public String getKeep() {
+        return keep;
+    }
+
+    public void setKeep(String keep) {
+        this.keep = keep;
+    }
+
+    /**
+     * {@code field}, {@code field:asc} or {@code field:desc} to export in that order, or null
+     * for index order.
+     */
+    public String getSortBy() {
+        return sortBy;
+    }
+
+    public void setSortBy(String sortBy) {
+        this.sortBy = sortBy;
+    }
+
+    /**
+     * Memory for sorting before runs spill to disk.
+     */
+    public int getSortMemoryMB() {
+        return sortMemoryMB;
+    }
+
+    public void setSortMemoryMB(int sortMemoryMB) {
+        this.sortMemoryMB = sortMemoryMB;
+    }
+
+    /**
+     * Fraction of documents to export, or null to export all of them.
+     */
+    public Double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(Double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Number of documents to export, or null to export all of them.
+     */
+    public Long getSampleCount() {
+        return sampleCount;
+    }
+
+    public void setSampleCount(Long sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+
+    public long getSampleSeed() {
+        return sampleSeed;
+    }
+
+    public void setSampleSeed(long sampleSeed) {
+        this.sampleSeed = sampleSeed;
+    }
+
+    /**
+     * Whether Solr nested documents are exported as one record per block.
+     */
+    public boolean isNested() {
+        return nested;
+    }
+
+    public void setNested(boolean nested) {
+        this.nested = nested;
+    }
+
+    /**
+     * Filter matching parent documents with {@code --nested}, or null for documents
+     * without a {@code _nest_path_}.
+     */
+    public String getParentFilter() {
+        return parentFilter;
+    }
+
+    public void setParentFilter(String parentFilter) {
+        this.parentFilter = parentFilter;
+    }
+
+    /**
+     * Whether chunk size and read parallelism are tuned while the conversion runs.
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Chunk size the adaptive controller aims for, before memory pressure shrinks it.
+     */
+    public int getTargetBatchMB() {
+        return targetBatchMB;
+    }
+
+    public void setTargetBatchMB(int targetBatchMB) {
+        this.targetBatchMB = targetBatchMB;
+    }
+
+    /**
+     * Whether to estimate output size and duration from a sample instead of converting.
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Point of an incremental backup to convert: latest (the default), all, or a
+     * comma-separated list of point numbers.
+     */
+    public String getBackupPoint() {
+        return backupPoint;
+    }
+
+    public void setBackupPoint(String backupPoint) {
+        this.backupPoint = backupPoint;
+    }
+
+    /**
+     * Whether the output is checked against the index before the conversion reports success.
+     */
+    public boolean isVerify() {
+        return verify;
+    }
+
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Whether per-field statistics are collected during a JSONL export and written beside
+     * the output. On unless {@code --no-stats} is given; {@code --segment-cache} exports
+     * skip them with a warning, and reject an explicit request for them.
+     */
+    public boolean isStats() {
+        return stats == null || stats;
+    }
+
+    public void setStats(boolean stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * How the output is split into partition directories, {@code date(field,day)} or
+     * {@code hash(field,N)}, or null for a single file. When set, the output names a directory.
+     */
+    public String getPartitionBy() {
+        return partitionBy;
+    }
+
+    public void setPartitionBy(String partitionBy) {
+        this.partitionBy = partitionBy;
+    }
+
+    /**
+     * Partition files kept open at once; beyond this the least recently written is closed.
+     */
+    public int getMaxOpenPartitions() {
+        return maxOpenPartitions;
+    }
+
+    public void setMaxOpenPartitions(int maxOpenPartitions) {
+        this.maxOpenPartitions = maxOpenPartitions;
+    }
+
+    /**
+     * Megabytes per second the index may be read at, or 0 for no limit.
+     */
+    public double getMaxReadMbps() {
+        return maxReadMbps;
+    }
+
+    public void setMaxReadMbps(double maxReadMbps) {
+        this.maxReadMbps = maxReadMbps;
+    }
+
+    /**
+     * Megabytes per second the output may be written at, after compression, or 0 for no limit.
+     */
+    public double getMaxWriteMbps() {
+        return maxWriteMbps;
+    }
+
+    public void setMaxWriteMbps(double maxWriteMbps) {
+        this.maxWriteMbps = maxWriteMbps;
+    }
+
+    /**
+     * Producer threads that may read documents at once, or 0 for all of {@code --threads}.
+     */
+    public int getMaxCpuThreads() {
+        return maxCpuThreads;
+    }
+
+    public void setMaxCpuThreads(int maxCpuThreads) {
+        this.maxCpuThreads = maxCpuThreads;
+    }
+
+    /**
+     * Properties file watched for throttle limits changed while the conversion runs.
+     */
+    public String getThrottleFile() {
+        return throttleFile;
+    }
+
+    public void setThrottleFile(String throttleFile) {
+        this.throttleFile = throttleFile;
+    }
+
+    /**
+     * Whether unchanged segments are copied from the output cached for them by an earlier
+     * export rather than converted again.
+     */
+    public boolean isSegmentCache() {
+        return segmentCache;
+    }
+
+    public void setSegmentCache(boolean segmentCache) {
+        this.segmentCache = segmentCache;
+    }
+
+    /**
+     * The throttle for the {@code --max-*} limits and {@code --throttle-file}, or null when
+     * the conversion runs unthrottled.
+     */
+    public Throttle createThrottle() {
+        if (maxReadMbps == 0 && maxWriteMbps == 0 && maxCpuThreads == 0 && throttleFile == null) {
+            return null;
+        }
+        return new Throttle(maxReadMbps, maxWriteMbps, maxCpuThreads, throttleFile != null ? Path.of(throttleFile) : null);
+    }
+
+    /**
+     * The sampler for {@code --sample-rate} or {@code --sample-count}, or null when the whole
+     * index is exported.
+     */
+    public DocSampler createSampler() {
+        if (sampleCount != null) {
+            return DocSampler.ofCount(sampleCount, sampleSeed);
+        }
+        return sampleRate != null ? DocSampler.ofRate(sampleRate, sampleSeed) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "ConversionRequest{source=" + (hasBackupSource() ? getBackupLocation() : getSourceLocation()) +
+               ", output=" + getOutputLocation() + "}";
+    }
+}
@@ -0,0 +1,51 @@
+package com.lucidworks.hardwickehouse;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ConversionResult {
+
+    private final long documentsProcessed;
+    private final String outputLocation;
+    private final Duration duration;
+    private final Map<String, Object> metrics;
+
+    public ConversionResult(long documentsProcessed, String outputLocation, Duration duration) {
+        this(documentsProcessed, outputLocation, duration, Map.of());
+    }
+
+    public ConversionResult(long documentsProcessed, String outputLocation, Duration duration,
+                            Map<String, Object> metrics) {
+        this.documentsProcessed = documentsProcessed;
+        this.outputLocation = outputLocation;
+        this.duration = duration;
+        this.metrics = new LinkedHashMap<>(metrics);
+    }
+
+    public long getDocumentsProcessed() {
+        return documentsProcessed;
+    }
+
+    public String getOutputLocation() {
+        return outputLocation;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Extra figures reported by optional conversion steps, keyed by name.
+     */
+    public Map<String, Object> getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "ConversionResult{documentsProcessed=" + documentsProcessed +
+               ", outputLocation=" + outputLocation +
+               ", duration=" + duration.toMillis() + "ms}";
+    }
+}
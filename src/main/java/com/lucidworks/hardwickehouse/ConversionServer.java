@@ -0,0 +1,261 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running conversion daemon. Jobs are accepted over a small local HTTP/JSON API and
+ * run on a bounded worker pool that shares one warm JVM and one {@link StorageService}.
+ *
+ * <pre>
+ * POST   /jobs        submit a {@link ConversionRequest}, returns the queued job
+ * GET    /jobs        list known jobs
+ * GET    /jobs/{id}   poll a single job
+ * DELETE /jobs/{id}   cancel a queued or running job
+ * GET    /health      liveness and pool occupancy
+ * </pre>
+ */
+public class ConversionServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversionServer.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConversionService conversionService;
+    private final ThreadPoolExecutor workerPool;
+    private final int progressIntervalSeconds;
+    private final int maxRetainedJobs;
+    private final Map<String, ConversionJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong jobSequence = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer httpServer;
+
+    public ConversionServer(ConversionService conversionService, int workers, int queueCapacity,
+                            int progressIntervalSeconds, int maxRetainedJobs) {
+        this.conversionService = conversionService;
+        this.progressIntervalSeconds = progressIntervalSeconds;
+        this.maxRetainedJobs = maxRetainedJobs;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workerPool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            r -> {
+                Thread t = new Thread(r, "conversion-worker-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    public void start(InetSocketAddress address) throws IOException {
+        httpServer = HttpServer.create(address, 0);
+        httpServer.createContext("/jobs", this::handleJobs);
+        httpServer.createContext("/health", this::handleHealth);
+        httpServer.setExecutor(Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "conversion-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        httpServer.start();
+
+        logger.info("Conversion server listening on {} with {} workers", httpServer.getAddress(),
+                   workerPool.getMaximumPoolSize());
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    public ConversionJob submit(ConversionRequest request) {
+        request.validate();
+        request.shareProcessors(workerPool.getMaximumPoolSize());
+
+        String id = Long.toString(jobSequence.incrementAndGet());
+        ConversionJob job = new ConversionJob(id, request, new ProgressReporter(progressIntervalSeconds));
+
+        evictFinishedJobs();
+        jobs.put(id, job);
+
+        try {
+            job.setFuture(workerPool.submit(() -> runJob(job)));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(id);
+            throw e;
+        }
+
+        logger.info("Queued job {}: {}", id, request);
+        return job;
+    }
+
+    public ConversionJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    public List<ConversionJob> getJobs() {
+        List<ConversionJob> all = new ArrayList<>(jobs.values());
+        all.sort(Comparator.comparing(ConversionJob::getSubmittedAt));
+        return all;
+    }
+
+    private void runJob(ConversionJob job) {
+        if (!job.markRunning()) {
+            return;
+        }
+        logger.info("Starting job {}", job.getId());
+
+        try {
+            ConversionResult result = conversionService.convert(job.getRequest(), job.getProgressReporter());
+            job.markSucceeded(result);
+            if (job.getStatus() == ConversionJob.Status.CANCELLED) {
+                logger.info("Job {} cancelled; its conversion finished anyway: {}", job.getId(), result);
+            } else {
+                logger.info("Job {} succeeded: {}", job.getId(), result);
+            }
+        } catch (Exception e) {
+            if (job.isCancelRequested() || Thread.currentThread().isInterrupted() || e instanceof InterruptedException) {
+                job.markCancelled();
+                logger.info("Job {} cancelled", job.getId());
+            } else {
+                job.markFailed(e.getMessage() != null ? e.getMessage() : e.toString());
+                logger.error("Job {} failed", job.getId(), e);
+            }
+        }
+    }
+
+    private void evictFinishedJobs() {
+        if (jobs.size() < maxRetainedJobs) {
+            return;
+        }
+
+        jobs.values().stream()
+            .filter(ConversionJob::isFinished)
+            .sorted(Comparator.comparing(ConversionJob::getFinishedAt))
+            .limit(jobs.size() - maxRetainedJobs + 1L)
+            .forEach(job -> jobs.remove(job.getId()));
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            String jobId = path.length() > "/jobs/".length() ? path.substring("/jobs/".length()) : null;
+
+            if (jobId == null) {
+                if ("POST".equals(method)) {
+                    handleSubmit(exchange);
+                } else if ("GET".equals(method)) {
+                    List<Map<String, Object>> views = new ArrayList<>();
+                    for (ConversionJob job : getJobs()) {
+                        views.add(job.describe());
+                    }
+                    sendJson(exchange, 200, views);
+                } else {
+                    sendError(exchange, 405, "Method not allowed: " + method);
+                }
+                return;
+            }
+
+            ConversionJob job = jobs.get(jobId);
+            if (job == null) {
+                sendError(exchange, 404, "Unknown job: " + jobId);
+            } else if ("GET".equals(method)) {
+                sendJson(exchange, 200, job.describe());
+            } else if ("DELETE".equals(method)) {
+                job.cancel();
+                sendJson(exchange, 202, job.describe());
+            } else {
+                sendError(exchange, 405, "Method not allowed: " + method);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to handle {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendError(exchange, 500, e.getMessage());
+        }
+    }
+
+    private void handleSubmit(HttpExchange exchange) throws IOException {
+        ConversionRequest request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = objectMapper.readValue(body, ConversionRequest.class);
+        } catch (JsonProcessingException e) {
+            sendError(exchange, 400, "Invalid job request: " + e.getOriginalMessage());
+            return;
+        }
+
+        try {
+            ConversionJob job = submit(request);
+            sendJson(exchange, 202, job.describe());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            sendError(exchange, 503, "Job queue is full");
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        Map<String, Object> health = new LinkedHashMap<>();
+        health.put("status", "UP");
+        health.put("activeWorkers", workerPool.getActiveCount());
+        health.put("maxWorkers", workerPool.getMaximumPoolSize());
+        health.put("queuedJobs", workerPool.getQueue().size());
+        sendJson(exchange, 200, health);
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", message);
+        sendJson(exchange, status, error);
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    public void stop() {
+        logger.info("Stopping conversion server");
+
+        if (httpServer != null) {
+            httpServer.stop(1);
+        }
+
+        workerPool.shutdownNow();
+        try {
+            if (!workerPool.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Conversion workers did not stop within 30 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        stopped.countDown();
+    }
+}
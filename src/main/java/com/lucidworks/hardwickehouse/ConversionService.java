@@ -1,184 +1,579 @@
 package com.lucidworks.hardwickehouse;
 
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.lucene.store.Directory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Runs conversions. The service itself holds no per-conversion state: every call opens its
+ * own {@link IndexReader} and output writer, so one instance can be shared by
+ * concurrent jobs.
+ */
 public class ConversionService {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(ConversionService.class);
-    
+
     private final StorageService storageService;
-    private final ProgressReporter progressReporter;
-    private final IndexReader indexReader;
-    private final JsonLWriter jsonLWriter;
     private final BackupPropertiesParser backupParser;
     private final BackupReader backupReader;
-    
-    public ConversionService(StorageService storageService, 
-                           ProgressReporter progressReporter,
-                           IndexReader indexReader, 
-                           JsonLWriter jsonLWriter) {
+
+    public ConversionService(StorageService storageService) {
         this.storageService = storageService;
-        this.progressReporter = progressReporter;
-        this.indexReader = indexReader;
-        this.jsonLWriter = jsonLWriter;
         this.backupParser = new BackupPropertiesParser();
-        this.backupReader = new BackupReader();
+        this.backupReader = new BackupReader(storageService.getCache());
     }
-    
-    public void convert(String sourceLocation, String outputLocation, 
-                       boolean useGcsSource, boolean useGcsOutput, int batchSize) throws Exception {
-        convert(sourceLocation, outputLocation, useGcsSource, useGcsOutput, batchSize, false);
+
+    public StorageService getStorageService() {
+        return storageService;
     }
-    
-    public void convert(String sourceLocation, String outputLocation, 
-                       boolean useGcsSource, boolean useGcsOutput, int batchSize, boolean compress) throws Exception {
-        
+
+    public ConversionResult convert(ConversionRequest request, ProgressReporter progressReporter) throws Exception {
+        request.validate();
+
+        if (request.hasBackupSource()) {
+            return convertFromBackup(request, progressReporter);
+        }
+
+        String sourceLocation = request.getSourceLocation();
+        String outputLocation = request.getOutputLocation();
         logger.info("Starting conversion from {} to {}", sourceLocation, outputLocation);
-        
-        Path localSourcePath;
-        if (useGcsSource) {
-            logger.info("Downloading Lucene index from GCS: {}", sourceLocation);
-            localSourcePath = storageService.downloadFromGcs(sourceLocation);
-        } else {
-            localSourcePath = Paths.get(sourceLocation);
+
+        if (!request.hasGcsSource()) {
+            Path localSourcePath = Paths.get(sourceLocation);
+            logger.info("Reading Lucene index from: {}", localSourcePath);
+            return convertIndex(List.of(localSourcePath), request, progressReporter);
         }
-        
-        logger.info("Reading Lucene index from: {}", localSourcePath);
-        
-        progressReporter.start();
-        
+
+        logger.info("Fetching Lucene index from GCS: {}", sourceLocation);
+        try (LocalCache.Lease source = storageService.fetchFromGcs(sourceLocation)) {
+            logger.info("Reading Lucene index from: {}", source.getPath());
+            return convertIndex(List.of(source.getPath()), request, progressReporter);
+        }
+    }
+
+    /**
+     * Checks JSONL part files against the source index of a request. Only the source,
+     * binary encoding and thread settings of the request are used.
+     */
+    public OutputVerifier.Result verify(ConversionRequest request, List<Path> parts) throws Exception {
+        List<LocalCache.Lease> leases = new ArrayList<>();
+        IndexReader indexReader = new IndexReader();
+        IncrementalBackup backup = null;
         try {
-            indexReader.initialize(localSourcePath);
-            long totalDocuments = indexReader.getTotalDocuments();
-            
-            logger.info("Total documents to process: {}", totalDocuments);
-            progressReporter.setTotalDocuments(totalDocuments);
-            
-            Path tempJsonLPath = jsonLWriter.initialize(useGcsOutput ? null : outputLocation, compress);
-            logger.info("Initialized JSONL writer with output file: {}", tempJsonLPath);
-            
-            long processedDocuments = 0;
-            List<LuceneDocument> batch;
-            
-            while ((batch = indexReader.readBatch(batchSize)).size() > 0) {
-                jsonLWriter.writeBatch(batch);
-                processedDocuments += batch.size();
-                progressReporter.updateProgress(processedDocuments);
-                
-                if (batch.size() < batchSize) {
-                    break;
-                }
-            }
-            
-            jsonLWriter.close();
+            backup = openSource(request, indexReader, leases, "verify");
+            int threads = request.getThreads() > 0 ? request.getThreads() : Runtime.getRuntime().availableProcessors();
+            return new OutputVerifier(indexReader, new JsonLSerializer(request.getBinaryEncoding()), threads)
+                .verify(parts);
+        } finally {
             indexReader.close();
-            
-            if (useGcsOutput) {
-                logger.info("Uploading JSONL file to GCS: {}", outputLocation);
-                storageService.uploadToGcs(tempJsonLPath, outputLocation);
-                
-                logger.info("Cleaning up temporary JSONL file");
-                storageService.deleteLocalFile(tempJsonLPath);
-            } else {
-                logger.info("JSONL file created at: {}", tempJsonLPath);
+            closeAll(leases);
+            if (backup != null) {
+                backup.close();
             }
-            
-            if (useGcsSource) {
-                logger.info("Cleaning up temporary Lucene index files");
-                storageService.deleteLocalFile(localSourcePath);
+        }
+    }
+
+    /**
+     * Splits the source of a request into the units of a {@link WorkPlan}. The point of an
+     * incremental backup is pinned in the plan, so that every unit reads the same one.
+     */
+    public WorkPlan plan(ConversionRequest request, long docsPerUnit) throws Exception {
+        request.validate();
+        WorkPlan.checkSupported(request);
+
+        List<LocalCache.Lease> leases = new ArrayList<>();
+        IndexReader indexReader = new IndexReader();
+        IncrementalBackup backup = null;
+        try {
+            backup = openSource(request, indexReader, leases, "plan");
+            if (backup != null) {
+                request.setBackupPoint(Integer.toString(backup.select(request.getBackupPoint()).get(0).getId()));
             }
-            
-            progressReporter.complete();
-            logger.info("Conversion completed successfully. Processed {} documents", processedDocuments);
-            
-        } catch (Exception e) {
-            progressReporter.error("Conversion failed: " + e.getMessage());
-            throw e;
+            return WorkPlan.create(indexReader, request, docsPerUnit);
         } finally {
-            progressReporter.stop();
+            indexReader.close();
+            closeAll(leases);
+            if (backup != null) {
+                backup.close();
+            }
         }
     }
-    
-    public void convertFromBackup(String backupPropertiesPath, String backupDirectoryPath, 
-                                 String outputLocation, boolean useGcsOutput, 
-                                 int batchSize, boolean compress) throws Exception {
-        
-        logger.info("Starting conversion from Solr backup: {}", backupPropertiesPath);
-        
-        Path propertiesPath = Paths.get(backupPropertiesPath);
-        Path backupDir = Paths.get(backupDirectoryPath);
-        
+
+    /**
+     * Converts one unit of a plan, as built by {@link WorkPlan#requestFor}, and records it as
+     * done once its part is written.
+     */
+    public ConversionResult convertWorkUnit(WorkPlan plan, ConversionRequest unitRequest,
+                                            ProgressReporter progressReporter) throws Exception {
+        int id = unitRequest.getWorkUnit().getId();
+        logger.info("Converting work unit {} of {}", id, plan.getUnits().size());
+        ConversionResult result = convert(unitRequest, progressReporter);
+        plan.recordCompletion(id, result, storageService);
+        return result;
+    }
+
+    /**
+     * Opens the source index of a request for reading outside a conversion. Returns the
+     * incremental backup the index was opened from, which the caller closes after the
+     * reader, or null.
+     */
+    private IncrementalBackup openSource(ConversionRequest request, IndexReader indexReader,
+                                         List<LocalCache.Lease> leases, String purpose) throws IOException {
+        if (request.hasBackupSource() && request.getBackupProperties() == null) {
+            IncrementalBackup backup = openIncrementalBackup(request);
+            try {
+                List<IncrementalBackup.Point> points = backup.select(request.getBackupPoint());
+                if (points.size() != 1) {
+                    throw new IllegalArgumentException(purpose + " reads one backup point at a time");
+                }
+                indexReader.initializeReaders(backup.openPoint(points.get(0)));
+                return backup;
+            } catch (IOException | RuntimeException e) {
+                backup.close();
+                throw e;
+            }
+        }
+
+        if (request.hasGcsBackup()) {
+            indexReader.initializeDirectories(openGcsBackup(request));
+            return null;
+        }
+
+        List<Path> indexPaths;
+        if (request.hasBackupSource()) {
+            BackupMetadata metadata = backupParser.parseBackupProperties(Paths.get(request.getBackupProperties()));
+            indexPaths = backupReader.findLuceneIndexPaths(Paths.get(request.getBackupDirectory()), metadata, leases);
+            if (indexPaths.isEmpty()) {
+                throw new IllegalArgumentException("No Lucene indexes found in backup directory");
+            }
+        } else if (request.hasGcsSource()) {
+            logger.info("Fetching Lucene index from GCS: {}", request.getSourceLocation());
+            LocalCache.Lease source = storageService.fetchFromGcs(request.getSourceLocation());
+            leases.add(source);
+            indexPaths = List.of(source.getPath());
+        } else {
+            indexPaths = List.of(Paths.get(request.getSourceLocation()));
+        }
+
+        if (indexPaths.size() == 1) {
+            indexReader.initialize(indexPaths.get(0));
+        } else {
+            indexReader.initializeMultiShard(indexPaths);
+        }
+        return null;
+    }
+
+    private ConversionResult convertFromBackup(ConversionRequest request, ProgressReporter progressReporter) throws Exception {
+        logger.info("Starting conversion from Solr backup: {}", request.getBackupLocation());
+
+        if (request.getBackupProperties() == null) {
+            return convertBackupPoints(request, progressReporter);
+        }
+
+        if (request.hasGcsBackup()) {
+            List<Directory> directories = openGcsBackup(request);
+            return convertIndex(indexReader -> indexReader.initializeDirectories(directories), request, progressReporter);
+        }
+
+        Path propertiesPath = Paths.get(request.getBackupProperties());
+        Path backupDir = Paths.get(request.getBackupDirectory());
+
         BackupMetadata metadata = backupParser.parseBackupProperties(propertiesPath);
-        logger.info("Parsed backup metadata for collection: {} with {} shards", 
+        logger.info("Parsed backup metadata for collection: {} with {} shards",
                    metadata.getCollection(), metadata.getShardCount());
-        
+
         if (!backupReader.validateBackupStructure(backupDir, metadata)) {
             throw new IllegalArgumentException("Invalid backup structure");
         }
-        
-        List<Path> indexPaths = backupReader.findLuceneIndexPaths(backupDir, metadata);
-        if (indexPaths.isEmpty()) {
+
+        List<LocalCache.Lease> leases = new ArrayList<>();
+        try {
+            List<Path> indexPaths = backupReader.findLuceneIndexPaths(backupDir, metadata, leases);
+            if (indexPaths.isEmpty()) {
+                throw new IllegalArgumentException("No Lucene indexes found in backup directory");
+            }
+
+            logger.info("Found {} Lucene index directories in backup", indexPaths.size());
+
+            return convertIndex(indexPaths, request, progressReporter);
+        } finally {
+            closeAll(leases);
+        }
+    }
+
+    /**
+     * Converts the selected points of an incremental backup, one output per point. Points
+     * are opened in turn from one {@link IncrementalBackup}, so index files shared between
+     * them are opened once.
+     */
+    private ConversionResult convertBackupPoints(ConversionRequest request, ProgressReporter progressReporter) throws Exception {
+        Instant startTime = Instant.now();
+        try (IncrementalBackup backup = openIncrementalBackup(request)) {
+            List<IncrementalBackup.Point> points = backup.select(request.getBackupPoint());
+            if (points.size() == 1) {
+                IncrementalBackup.Point point = points.get(0);
+                logger.info("Converting backup point {} ({})", point.getId(), point.getPropertiesFile());
+                ConversionResult result = convertIndex(indexReader -> indexReader.initializeReaders(backup.openPoint(point)),
+                                                       request, progressReporter);
+                result.getMetrics().put("backupPoint", point.getId());
+                result.getMetrics().put("segmentsOpened", backup.getSegmentsOpened());
+                return result;
+            }
+
+            long documents = 0;
+            List<Map<String, Object>> converted = new ArrayList<>();
+            for (IncrementalBackup.Point point : points) {
+                logger.info("Converting backup point {} ({})", point.getId(), point.getPropertiesFile());
+                ConversionResult result = convertIndex(indexReader -> indexReader.initializeReaders(backup.openPoint(point)),
+                                                       request.forBackupPoint(point.getId()), progressReporter);
+                documents += result.getDocumentsProcessed();
+
+                Map<String, Object> pointResult = new LinkedHashMap<>();
+                pointResult.put("point", point.getId());
+                pointResult.put("documents", result.getDocumentsProcessed());
+                pointResult.put("output", result.getOutputLocation());
+                converted.add(pointResult);
+            }
+
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("backupPoints", converted);
+            metrics.put("segmentsOpened", backup.getSegmentsOpened());
+            metrics.put("segmentsReused", backup.getSegmentsReused());
+            logger.info("Converted {} backup points: opened {} segments, reused {}", points.size(),
+                       backup.getSegmentsOpened(), backup.getSegmentsReused());
+            return new ConversionResult(documents, request.getOutputLocation(),
+                                        Duration.between(startTime, Instant.now()), metrics);
+        }
+    }
+
+    private IncrementalBackup openIncrementalBackup(ConversionRequest request) throws IOException {
+        return request.hasGcsBackup()
+            ? IncrementalBackup.open(storageService, request.getBackupDirectory())
+            : IncrementalBackup.open(Paths.get(request.getBackupDirectory()));
+    }
+
+    /**
+     * Opens the shards of a backup in GCS where they are, reading its properties from GCS or
+     * from local disk.
+     */
+    private List<Directory> openGcsBackup(ConversionRequest request) throws IOException {
+        String propertiesLocation = request.getBackupProperties();
+        BackupMetadata metadata;
+        if (propertiesLocation.startsWith("gs://")) {
+            metadata = backupParser.parseBackupProperties(
+                new ByteArrayInputStream(storageService.readFromGcs(propertiesLocation)), propertiesLocation);
+        } else {
+            metadata = backupParser.parseBackupProperties(Paths.get(propertiesLocation));
+        }
+        logger.info("Parsed backup metadata for collection: {} with {} shards",
+                   metadata.getCollection(), metadata.getShardCount());
+
+        Map<String, Directory> directories =
+            backupReader.openGcsShardDirectories(storageService, request.getBackupDirectory(), metadata);
+        if (directories.isEmpty()) {
             throw new IllegalArgumentException("No Lucene indexes found in backup directory");
         }
-        
-        logger.info("Found {} Lucene index directories in backup", indexPaths.size());
-        
-        progressReporter.start();
-        
-        try {
+        logger.info("Reading {} shards in place from {}", directories.size(), request.getBackupDirectory());
+        return new ArrayList<>(directories.values());
+    }
+
+    /**
+     * Releases restored or downloaded sources once the index over them is closed.
+     */
+    private static void closeAll(List<LocalCache.Lease> leases) {
+        for (LocalCache.Lease lease : leases) {
+            try {
+                lease.close();
+            } catch (IOException e) {
+                logger.warn("Failed to release {}: {}", lease.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens the source index of a conversion into its reader.
+     */
+    private interface IndexOpener {
+        void open(IndexReader indexReader) throws IOException;
+    }
+
+    private ConversionResult convertIndex(List<Path> indexPaths, ConversionRequest request,
+                                          ProgressReporter progressReporter) throws Exception {
+        return convertIndex(indexReader -> {
             if (indexPaths.size() == 1) {
                 indexReader.initialize(indexPaths.get(0));
             } else {
                 indexReader.initializeMultiShard(indexPaths);
             }
-            
-            long totalDocuments = indexReader.getTotalDocuments();
-            
+        }, request, progressReporter);
+    }
+
+    private ConversionResult convertIndex(IndexOpener opener, ConversionRequest request,
+                                          ProgressReporter progressReporter) throws Exception {
+        Instant startTime = Instant.now();
+        IndexReader indexReader = new IndexReader();
+        JsonLSerializer serializer = new JsonLSerializer(request.getBinaryEncoding());
+        JsonLWriter jsonLWriter = new JsonLWriter(serializer);
+        ParquetDocumentWriter parquetWriter = new ParquetDocumentWriter(request.getBinaryEncoding(),
+            request.getParquetCodec(), (long) request.getRowGroupSizeMB() * 1024 * 1024);
+        ArrowDocumentWriter arrowWriter = new ArrowDocumentWriter(request.getBinaryEncoding());
+        boolean useGcsOutput = request.hasGcsOutput();
+        String localOutput = useGcsOutput ? null : request.getOutputLocation();
+        int batchSize = request.getBatchSize();
+        Throttle throttle = request.createThrottle();
+        progressReporter.setThrottle(throttle);
+        if (throttle != null) {
+            indexReader.setThrottle(throttle);
+            jsonLWriter.setThrottle(throttle);
+            throttle.start();
+            logger.info("Throttling conversion: {}", throttle.describeLimits());
+        }
+
+        progressReporter.start();
+
+        try {
+            opener.open(indexReader);
+
+            int threads = request.getThreads() > 0 ? request.getThreads() : Runtime.getRuntime().availableProcessors();
+            Map<String, Object> metrics = new LinkedHashMap<>();
+
+            if (request.getWorkUnit() != null) {
+                request.getWorkUnit().applyTo(indexReader);
+                metrics.put("workUnit", request.getWorkUnit().getId());
+            }
+
+            if (request.getDedupeBy() != null) {
+                Deduplicator.Result dedupe = new Deduplicator(request.getDedupeBy(), request.getKeep())
+                    .apply(indexReader, threads);
+                metrics.put("dedupeDuplicatesRemoved", dedupe.getDuplicatesRemoved());
+                metrics.put("dedupeUniqueKeys", dedupe.getUniqueKeys());
+                metrics.put("dedupeDocumentsWithoutKey", dedupe.getDocumentsWithoutKey());
+                metrics.put("dedupeBytesUsed", dedupe.getBytesUsed());
+                metrics.put("dedupeBytesPerKey", Math.round(dedupe.getBytesPerKey() * 10) / 10.0);
+            }
+
+            DocSampler sampler = request.createSampler();
+            if (sampler != null) {
+                metrics.put("sampledDocuments", sampler.apply(indexReader));
+            }
+
+            NestedBlocks nestedBlocks = request.isNested()
+                ? new NestedBlocks(indexReader, request.getParentFilter()) : null;
+
+            long totalDocuments = nestedBlocks != null ? nestedBlocks.countRecords() : indexReader.getTotalDocuments();
+
             logger.info("Total documents to process: {}", totalDocuments);
             progressReporter.setTotalDocuments(totalDocuments);
-            
-            Path tempJsonLPath = jsonLWriter.initialize(useGcsOutput ? null : outputLocation, compress);
-            logger.info("Initialized JSONL writer with output file: {}", tempJsonLPath);
-            
-            long processedDocuments = 0;
-            List<LuceneDocument> batch;
-            
-            while ((batch = indexReader.readBatch(batchSize)).size() > 0) {
-                jsonLWriter.writeBatch(batch);
-                processedDocuments += batch.size();
-                progressReporter.updateProgress(processedDocuments);
-                
-                if (batch.size() < batchSize) {
-                    break;
+
+            if (request.isDryRun()) {
+                OutputEstimator.Estimate estimate = new OutputEstimator(indexReader, serializer, request.isCompress(),
+                    OutputEstimator.DEFAULT_SAMPLE_SIZE, request.getSampleSeed()).estimate(threads);
+                metrics.put("dryRun", true);
+                metrics.put("estimatedDocuments", estimate.getDocuments());
+                metrics.put("estimatedOutputBytes", estimate.getOutputBytes());
+                metrics.put("estimatedUncompressedBytes", estimate.getUncompressedBytes());
+                metrics.put("estimatedSeconds", Math.round(estimate.getSeconds() * 10) / 10.0);
+                metrics.put("estimateThreads", threads);
+                metrics.put("estimateSampleDocuments", estimate.getSampleDocuments());
+                metrics.put("estimateSampleSeconds", Math.round(estimate.getSampleSeconds() * 1000) / 1000.0);
+                indexReader.close();
+                return new ConversionResult(0, request.getOutputLocation(),
+                                            Duration.between(startTime, Instant.now()), metrics);
+            }
+
+            Path tempOutputPath;
+            long processedDocuments;
+            FieldStatistics statistics = null;
+            List<Path> partitionFiles = null;
+
+            if (request.getFormat() == OutputFormat.PARQUET) {
+                tempOutputPath = parquetWriter.initialize(localOutput, indexReader.getSchema());
+                logger.info("Initialized Parquet writer with output file: {}", tempOutputPath);
+
+                if (request.getSortBy() != null) {
+                    processedDocuments = new SortedExport(indexReader, request.getSortBy(), request.getSortMemoryMB())
+                        .writeDocuments(parquetWriter, progressReporter, threads, batchSize);
+                } else {
+                    IndexPublisher<LuceneDocument> publisher = IndexPublisher.documents(indexReader, threads);
+                    publisher.setThrottle(throttle);
+                    ParquetSubscriber subscriber = new ParquetSubscriber(parquetWriter, progressReporter, batchSize);
+
+                    publisher.subscribe(subscriber);
+                    processedDocuments = subscriber.await();
+                }
+                parquetWriter.close();
+            } else if (request.getFormat() == OutputFormat.ARROW_STREAM) {
+                tempOutputPath = arrowWriter.initialize(localOutput, indexReader.getSchema());
+                logger.info("Initialized Arrow stream writer with output: {}",
+                           tempOutputPath != null ? tempOutputPath : "stdout");
+
+                IndexPublisher<ArrowRecordBatch> publisher = new IndexPublisher<>(
+                    indexReader.getDocRanges(IndexPublisher.DEFAULT_RANGE_SIZE),
+                    arrowWriter.batchProducer(indexReader, batchSize), threads, Math.max(4, 2 * threads));
+                publisher.setThrottle(throttle);
+                ArrowSubscriber subscriber = new ArrowSubscriber(arrowWriter, progressReporter, 2 * threads);
+
+                publisher.subscribe(subscriber);
+                processedDocuments = subscriber.await();
+                arrowWriter.close();
+            } else if (request.getPartitionBy() != null) {
+                PartitionSpec partitionSpec = PartitionSpec.parse(request.getPartitionBy());
+                tempOutputPath = localOutput != null ? Paths.get(localOutput) : Files.createTempDirectory("lucene_to_jsonl_");
+                Files.createDirectories(tempOutputPath);
+                logger.info("Writing partitions by {} under: {}", partitionSpec, tempOutputPath);
+
+                statistics = request.isStats() ? new FieldStatistics(indexReader.getSchema()) : null;
+                try (PartitionWriters writers = new PartitionWriters(tempOutputPath, partitionSpec, request.isCompress(),
+                                                                     request.getMaxOpenPartitions())) {
+                    writers.setThrottle(throttle);
+                    IndexPublisher<PartitionedChunk> publisher = IndexPublisher.partitionedJsonLines(
+                        indexReader, serializer, partitionSpec, threads, batchSize, statistics);
+                    publisher.setThrottle(throttle);
+                    PartitionedJsonLSubscriber subscriber =
+                        new PartitionedJsonLSubscriber(writers, progressReporter, 2 * threads);
+
+                    publisher.subscribe(subscriber);
+                    processedDocuments = subscriber.await();
+                    partitionFiles = writers.getFiles();
+                    metrics.put("partitions", writers.getPartitionCount());
+                    metrics.put("partitionReopens", writers.getReopens());
+                }
+            } else if (request.isSegmentCache()) {
+                if (storageService.getCache() == null) {
+                    throw new IllegalArgumentException("--segment-cache needs a cache directory (--cache-dir)");
+                }
+                if (request.isStats()) {
+                    // Cached segments are never read, so there is nothing to collect statistics from
+                    logger.warn("No field statistics are written with --segment-cache; pass --no-stats to silence this");
                 }
+                SegmentOutputCache segmentCache = new SegmentOutputCache(storageService.getCache(), indexReader,
+                                                                         serializer, request.isCompress());
+                segmentCache.setThrottle(throttle);
+                tempOutputPath = segmentCache.write(localOutput, progressReporter, threads, batchSize);
+                processedDocuments = segmentCache.getDocumentsWritten();
+                metrics.put("segmentsReused", segmentCache.getSegmentsReused());
+                metrics.put("segmentsConverted", segmentCache.getSegmentsConverted());
+                metrics.put("segmentBytesReused", segmentCache.getBytesReused());
+            } else {
+                tempOutputPath = jsonLWriter.initialize(localOutput, request.isCompress());
+                logger.info("Initialized JSONL writer with output file: {}", tempOutputPath);
+
+                if (request.getSortBy() != null) {
+                    statistics = request.isStats() ? new FieldStatistics(indexReader.getSchema()) : null;
+                    processedDocuments = new SortedExport(indexReader, request.getSortBy(), request.getSortMemoryMB())
+                        .writeJsonLines(serializer, jsonLWriter, progressReporter, threads, batchSize, statistics);
+                } else if (request.isAdaptive()) {
+                    statistics = request.isStats() ? new FieldStatistics(indexReader.getSchema()) : null;
+                    try (AdaptiveController controller = new AdaptiveController(threads,
+                            (long) request.getTargetBatchMB() * 1024 * 1024, batchSize, progressReporter)) {
+                        IndexPublisher<JsonChunk> publisher =
+                            IndexPublisher.jsonLines(indexReader, serializer, threads, batchSize, controller, statistics);
+                        publisher.setThrottle(throttle);
+                        JsonLSubscriber subscriber =
+                            new JsonLSubscriber(jsonLWriter, progressReporter, 2 * threads, controller);
+
+                        controller.start();
+                        publisher.subscribe(subscriber);
+                        processedDocuments = subscriber.await();
+                        metrics.put("adaptiveDecisions", progressReporter.getDecisionCount());
+                        metrics.put("adaptiveFinalParallelism", controller.getParallelism());
+                        metrics.put("adaptiveFinalChunkBytes", controller.getChunkBytes());
+                    }
+                } else {
+                    // Nested records are shaped by their blocks, not the schema, so they get no statistics
+                    statistics = request.isStats() && nestedBlocks == null ? new FieldStatistics(indexReader.getSchema()) : null;
+                    IndexPublisher<JsonChunk> publisher = nestedBlocks != null
+                        ? nestedBlocks.jsonLines(serializer, threads, batchSize)
+                        : IndexPublisher.jsonLines(indexReader, serializer, threads, batchSize, null, statistics);
+                    publisher.setThrottle(throttle);
+                    JsonLSubscriber subscriber = new JsonLSubscriber(jsonLWriter, progressReporter, 2 * threads);
+
+                    publisher.subscribe(subscriber);
+                    processedDocuments = subscriber.await();
+                }
+                jsonLWriter.close();
             }
-            
-            jsonLWriter.close();
+
+            if (request.isVerify()) {
+                // Before any upload, so a bad export never reaches GCS
+                OutputVerifier.Result verification = new OutputVerifier(indexReader, serializer, threads)
+                    .verify(partitionFiles != null ? partitionFiles : List.of(tempOutputPath));
+                metrics.put("verified", verification.matches());
+                metrics.put("verifiedDocuments", verification.getOutputDocuments());
+                if (!verification.matches()) {
+                    throw new IOException("Output verification failed: " + verification.describe());
+                }
+            }
+
             indexReader.close();
-            
-            if (useGcsOutput) {
-                logger.info("Uploading JSONL file to GCS: {}", outputLocation);
-                storageService.uploadToGcs(tempJsonLPath, outputLocation);
-                
-                logger.info("Cleaning up temporary JSONL file");
-                storageService.deleteLocalFile(tempJsonLPath);
-            } else {
-                logger.info("JSONL file created at: {}", tempJsonLPath);
+
+            Path statsPath = null;
+            if (statistics != null) {
+                // Inside a partitioned directory, named so that Hive and Spark skip it
+                statsPath = partitionFiles != null ? tempOutputPath.resolve("_stats.json")
+                    : Paths.get(FieldStatistics.statsLocation(tempOutputPath.toString()));
+                statistics.write(statsPath);
+                metrics.put("statsSeconds", Math.round(statistics.getCollectionSeconds() * 1000) / 1000.0);
+            }
+
+            if (useGcsOutput && partitionFiles != null) {
+                logger.info("Uploading {} partitions to GCS: {}", partitionFiles.size(), request.getOutputLocation());
+                storageService.uploadDirectoryToGcs(tempOutputPath, request.getOutputLocation());
+                storageService.deleteLocalFile(tempOutputPath);
+            } else if (useGcsOutput) {
+                logger.info("Uploading {} file to GCS: {}", request.getFormat(), request.getOutputLocation());
+                storageService.uploadToGcs(tempOutputPath, request.getOutputLocation());
+                if (statsPath != null) {
+                    storageService.uploadToGcs(statsPath, FieldStatistics.statsLocation(request.getOutputLocation()));
+                    storageService.deleteLocalFile(statsPath);
+                }
+
+                logger.info("Cleaning up temporary output file");
+                storageService.deleteLocalFile(tempOutputPath);
+            } else if (tempOutputPath != null) {
+                logger.info("{} file created at: {}", request.getFormat(), tempOutputPath);
+                if (statsPath != null) {
+                    logger.info("Field statistics written to: {}", statsPath);
+                }
+            }
+
+            if (throttle != null) {
+                metrics.put("throttle", throttle.describe());
             }
-            
+
             progressReporter.complete();
-            logger.info("Backup conversion completed successfully. Processed {} documents", processedDocuments);
-            
+            logger.info("Conversion completed successfully. Processed {} documents", processedDocuments);
+
+            String outputLocation = useGcsOutput || tempOutputPath == null
+                ? request.getOutputLocation() : tempOutputPath.toString();
+            return new ConversionResult(processedDocuments, outputLocation,
+                                        Duration.between(startTime, Instant.now()), metrics);
+
         } catch (Exception e) {
-            progressReporter.error("Backup conversion failed: " + e.getMessage());
+            progressReporter.error("Conversion failed: " + e.getMessage());
+            jsonLWriter.close();
+            parquetWriter.close();
+            arrowWriter.close();
+            indexReader.close();
             throw e;
         } finally {
             progressReporter.stop();
+            if (throttle != null) {
+                throttle.close();
+            }
         }
     }
-}
\ No newline at end of file
+}
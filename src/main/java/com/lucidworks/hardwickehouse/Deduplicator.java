@@ -0,0 +1,317 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.NumericUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps one document per unique key across all shards of an index.
+ *
+ * <p>Before the conversion, a pass over the index loads only the key field (and the ranking
+ * field, if any) of each live document into a {@link KeyTable}. The documents that win are
+ * then installed on the {@link IndexReader} as its accepted documents, so every output
+ * format skips the duplicates without buffering rows. Documents without the key are always
+ * kept.
+ *
+ * <p>{@code keep} decides which duplicate wins: {@code first} keeps the lowest doc ID, which
+ * is the earliest shard; {@code max(field)} and {@code min(field)} keep the document with
+ * the highest or lowest numeric value of a field, such as {@code max(_version_)}. Ties and
+ * documents missing the field fall back to the lowest doc ID.
+ */
+public class Deduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(Deduplicator.class);
+
+    public static final String KEEP_FIRST = "first";
+
+    private static final Pattern KEEP_PATTERN = Pattern.compile("(max|min)\\(\\s*([^()\\s]+)\\s*\\)");
+
+    private final String keyField;
+    private final String scoreField;
+    private final boolean keepMin;
+
+    public Deduplicator(String keyField, String keep) {
+        validateKeep(keep);
+        this.keyField = keyField;
+        if (keep == null || keep.equals(KEEP_FIRST)) {
+            this.scoreField = null;
+            this.keepMin = false;
+        } else {
+            Matcher matcher = KEEP_PATTERN.matcher(keep.trim());
+            matcher.matches();
+            this.keepMin = matcher.group(1).equals("min");
+            this.scoreField = matcher.group(2);
+        }
+    }
+
+    public static void validateKeep(String keep) {
+        if (keep != null && !keep.equals(KEEP_FIRST) && !KEEP_PATTERN.matcher(keep.trim()).matches()) {
+            throw new IllegalArgumentException("--keep must be first, max(<field>) or min(<field>), was: " + keep);
+        }
+    }
+
+    /**
+     * Finds the documents to keep and installs them on the reader.
+     */
+    public Result apply(IndexReader indexReader, int threads) throws IOException, InterruptedException {
+        logger.info("Deduplicating by '{}' (keep: {})", keyField,
+                   scoreField == null ? KEEP_FIRST : (keepMin ? "min(" : "max(") + scoreField + ")");
+
+        KeyTable table = new KeyTable(scoreField != null);
+        FixedBitSet accepted = new FixedBitSet(indexReader.getMaxDoc());
+        List<DocRange> ranges = indexReader.getDocRanges(IndexPublisher.DEFAULT_RANGE_SIZE);
+        AtomicInteger nextRange = new AtomicInteger();
+        AtomicLong scanned = new AtomicLong();
+        AtomicLong duplicates = new AtomicLong();
+        AtomicLong withoutKey = new AtomicLong();
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "dedupe-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            Future<?>[] workers = new Future<?>[Math.min(threads, Math.max(1, ranges.size()))];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = executor.submit(() -> {
+                    KeyVisitor visitor = new KeyVisitor();
+                    KeyVisitor incumbent = new KeyVisitor();
+                    StoredFields globalStoredFields = indexReader.storedFields();
+                    int index;
+                    while (!stopped.get() && (index = nextRange.getAndIncrement()) < ranges.size()) {
+                        DocRange range = ranges.get(index);
+                        LeafReaderContext leaf = range.getLeaf();
+                        StoredFields storedFields = leaf.reader().storedFields();
+                        Bits liveDocs = leaf.reader().getLiveDocs();
+
+                        for (int doc = range.getFromDoc(); doc < range.getToDoc(); doc++) {
+                            if (liveDocs != null && !liveDocs.get(doc)) {
+                                continue;
+                            }
+                            scanned.incrementAndGet();
+                            int docId = leaf.docBase + doc;
+
+                            visitor.reset();
+                            storedFields.document(doc, visitor);
+                            if (!visitor.hasKey) {
+                                withoutKey.incrementAndGet();
+                                synchronized (accepted) {
+                                    accepted.set(docId);
+                                }
+                                continue;
+                            }
+
+                            BytesRef key = visitor.key.get();
+                            long fingerprint = KeyTable.fingerprint(key.bytes, key.offset, key.length);
+                            boolean duplicate = table.offer(fingerprint, docId, visitor.score, otherDocId -> {
+                                incumbent.reset();
+                                globalStoredFields.document(otherDocId, incumbent);
+                                return incumbent.hasKey && incumbent.key.get().bytesEquals(key);
+                            });
+                            if (duplicate) {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException io) {
+                        throw io;
+                    }
+                    throw new IOException("Deduplication failed", e.getCause());
+                }
+            }
+        } finally {
+            // Workers are not interrupted: an interrupt closes NIO channels of the shared
+            // index. After a failure they stop at the end of their current range.
+            stopped.set(true);
+            executor.shutdown();
+        }
+
+        table.markKept(accepted);
+        long kept = accepted.cardinality();
+        indexReader.setAcceptedDocs(accepted, kept);
+
+        Result result = new Result(scanned.get(), kept, duplicates.get(), withoutKey.get(),
+                                   table.size(), table.bytesUsed() + accepted.ramBytesUsed());
+        logger.info("Deduplication kept {} of {} documents ({} duplicates, {} without key); " +
+                   "{} unique keys using {} bytes ({} bytes per key)",
+                   result.getKeptDocuments(), result.getDocumentsScanned(), result.getDuplicatesRemoved(),
+                   result.getDocumentsWithoutKey(), result.getUniqueKeys(), result.getBytesUsed(),
+                   String.format("%.1f", result.getBytesPerKey()));
+        return result;
+    }
+
+    /**
+     * Collects the first value of the key field and the ranking field of one document.
+     */
+    private class KeyVisitor extends StoredFieldVisitor {
+        private final BytesRefBuilder key = new BytesRefBuilder();
+        private boolean hasKey;
+        private boolean hasScore;
+        private long score;
+
+        void reset() {
+            hasKey = false;
+            hasScore = scoreField == null;
+            score = Long.MIN_VALUE;
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (hasKey && hasScore) {
+                return Status.STOP;
+            }
+            if (!hasKey && fieldInfo.name.equals(keyField)) {
+                return Status.YES;
+            }
+            return !hasScore && fieldInfo.name.equals(scoreField) ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            if (isKey(fieldInfo)) {
+                key.copyChars(value);
+            } else {
+                try {
+                    setScore(Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    hasScore = true;
+                }
+            }
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            if (isKey(fieldInfo)) {
+                key.copyBytes(value, 0, value.length);
+            } else {
+                hasScore = true;
+            }
+        }
+
+        @Override
+        public void intField(FieldInfo fieldInfo, int value) {
+            longField(fieldInfo, value);
+        }
+
+        @Override
+        public void longField(FieldInfo fieldInfo, long value) {
+            if (isKey(fieldInfo)) {
+                key.copyChars(Long.toString(value));
+            } else {
+                setScore(value);
+            }
+        }
+
+        @Override
+        public void floatField(FieldInfo fieldInfo, float value) {
+            doubleField(fieldInfo, value);
+        }
+
+        @Override
+        public void doubleField(FieldInfo fieldInfo, double value) {
+            if (isKey(fieldInfo)) {
+                key.copyChars(Double.toString(value));
+            } else {
+                setScore(NumericUtils.doubleToSortableLong(value));
+            }
+        }
+
+        private boolean isKey(FieldInfo fieldInfo) {
+            if (!hasKey && fieldInfo.name.equals(keyField)) {
+                hasKey = true;
+                return true;
+            }
+            return false;
+        }
+
+        private void setScore(long value) {
+            if (!hasScore) {
+                // Bitwise not reverses the order without overflowing, and a missing value
+                // (Long.MIN_VALUE) still loses
+                score = keepMin ? ~value : value;
+                hasScore = true;
+            }
+        }
+    }
+
+    public static class Result {
+        private final long documentsScanned;
+        private final long keptDocuments;
+        private final long duplicatesRemoved;
+        private final long documentsWithoutKey;
+        private final long uniqueKeys;
+        private final long bytesUsed;
+
+        Result(long documentsScanned, long keptDocuments, long duplicatesRemoved,
+               long documentsWithoutKey, long uniqueKeys, long bytesUsed) {
+            this.documentsScanned = documentsScanned;
+            this.keptDocuments = keptDocuments;
+            this.duplicatesRemoved = duplicatesRemoved;
+            this.documentsWithoutKey = documentsWithoutKey;
+            this.uniqueKeys = uniqueKeys;
+            this.bytesUsed = bytesUsed;
+        }
+
+        public long getDocumentsScanned() {
+            return documentsScanned;
+        }
+
+        public long getKeptDocuments() {
+            return keptDocuments;
+        }
+
+        public long getDuplicatesRemoved() {
+            return duplicatesRemoved;
+        }
+
+        public long getDocumentsWithoutKey() {
+            return documentsWithoutKey;
+        }
+
+        public long getUniqueKeys() {
+            return uniqueKeys;
+        }
+
+        /**
+         * Memory held by the key table and the accepted-document bitset.
+         */
+        public long getBytesUsed() {
+            return bytesUsed;
+        }
+
+        public double getBytesPerKey() {
+            return uniqueKeys > 0 ? (double) bytesUsed / uniqueKeys : 0;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.index.LeafReaderContext;
+
+/**
+ * A contiguous span of doc IDs [{@code fromDoc}, {@code toDoc}) within one leaf. Deleted
+ * documents are included in the span and skipped when it is read.
+ */
+public class DocRange {
+    
+    private final LeafReaderContext leaf;
+    private final int fromDoc;
+    private final int toDoc;
+    
+    public DocRange(LeafReaderContext leaf, int fromDoc, int toDoc) {
+        this.leaf = leaf;
+        this.fromDoc = fromDoc;
+        this.toDoc = toDoc;
+    }
+    
+    public LeafReaderContext getLeaf() {
+        return leaf;
+    }
+    
+    public int getFromDoc() {
+        return fromDoc;
+    }
+    
+    public int getToDoc() {
+        return toDoc;
+    }
+    
+    public int size() {
+        return toDoc - fromDoc;
+    }
+    
+    @Override
+    public String toString() {
+        return "DocRange{leaf=" + leaf.ord + ", docs=[" + fromDoc + ", " + toDoc + ")}";
+    }
+}
@@ -0,0 +1,177 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+
+/**
+ * Picks a uniform random sample of documents, spread over every leaf in proportion to its
+ * live documents, for {@code --sample-rate} and {@code --sample-count} and for schema
+ * inference.
+ *
+ * <p>Only live-document bits are consulted to choose the sample, so unsampled documents are
+ * never loaded; the choice depends on the seed and the index alone, not on thread timing.
+ * The sample is installed on the {@link IndexReader} as its accepted documents, like a
+ * {@link Deduplicator}'s, and narrows whatever set is already accepted.
+ */
+public class DocSampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocSampler.class);
+
+    public static final long DEFAULT_SEED = 0;
+
+    private final double rate;
+    private final long count;
+    private final long seed;
+
+    private DocSampler(double rate, long count, long seed) {
+        this.rate = rate;
+        this.count = count;
+        this.seed = seed;
+    }
+
+    /**
+     * Samples each document with the given probability, rounded to an exact total.
+     */
+    public static DocSampler ofRate(double rate, long seed) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw new IllegalArgumentException("--sample-rate must be greater than 0 and at most 1, was: " + rate);
+        }
+        return new DocSampler(rate, -1, seed);
+    }
+
+    /**
+     * Samples exactly {@code count} documents, or all of them if there are fewer.
+     */
+    public static DocSampler ofCount(long count, long seed) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("--sample-count must be positive, was: " + count);
+        }
+        return new DocSampler(0, count, seed);
+    }
+
+    /**
+     * Samples the documents currently accepted by the reader and installs the sample on it.
+     *
+     * @return the number of documents sampled
+     */
+    public long apply(IndexReader indexReader) {
+        long total = indexReader.getTotalDocuments();
+        FixedBitSet sample = select(indexReader.getLeaves(), indexReader::getLiveDocs, indexReader.getMaxDoc());
+        long sampled = sample.cardinality();
+        indexReader.setAcceptedDocs(sample, sampled);
+
+        logger.info("Sampled {} of {} documents ({}, seed {})", sampled, total,
+                   count > 0 ? "count " + count : "rate " + rate, seed);
+        return sampled;
+    }
+
+    /**
+     * Chooses the sample among the documents that {@code liveDocs} lets through, by global
+     * doc ID.
+     */
+    FixedBitSet select(List<LeafReaderContext> leaves, Function<LeafReaderContext, Bits> liveDocs, int maxDoc) {
+        int[] liveCounts = new int[leaves.size()];
+        long total = 0;
+        for (int i = 0; i < leaves.size(); i++) {
+            liveCounts[i] = countLive(leaves.get(i), liveDocs.apply(leaves.get(i)));
+            total += liveCounts[i];
+        }
+
+        long target = count > 0 ? Math.min(count, total) : Math.min(total, Math.max(1, Math.round(rate * total)));
+        int[] quotas = apportion(liveCounts, total, target);
+
+        FixedBitSet sample = new FixedBitSet(Math.max(1, maxDoc));
+        for (int i = 0; i < leaves.size(); i++) {
+            LeafReaderContext leaf = leaves.get(i);
+            if (quotas[i] > 0) {
+                selectLeaf(leaf, liveDocs.apply(leaf), liveCounts[i], quotas[i], sample);
+            }
+        }
+        return sample;
+    }
+
+    private static int countLive(LeafReaderContext leaf, Bits liveDocs) {
+        if (liveDocs == null) {
+            return leaf.reader().maxDoc();
+        }
+        if (liveDocs == leaf.reader().getLiveDocs()) {
+            return leaf.reader().numDocs();
+        }
+        int live = 0;
+        for (int doc = 0; doc < liveDocs.length(); doc++) {
+            if (liveDocs.get(doc)) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Splits the target over the leaves in proportion to their live documents; the
+     * remainder goes to the leaves with the largest fractional shares.
+     */
+    private static int[] apportion(int[] liveCounts, long total, long target) {
+        int[] quotas = new int[liveCounts.length];
+        double[] remainders = new double[liveCounts.length];
+        long assigned = 0;
+        for (int i = 0; i < liveCounts.length; i++) {
+            double share = total > 0 ? (double) target * liveCounts[i] / total : 0;
+            quotas[i] = (int) Math.min(liveCounts[i], (long) share);
+            remainders[i] = share - quotas[i];
+            assigned += quotas[i];
+        }
+
+        while (assigned < target) {
+            int best = -1;
+            for (int i = 0; i < liveCounts.length; i++) {
+                if (quotas[i] < liveCounts[i] && (best < 0 || remainders[i] > remainders[best])) {
+                    best = i;
+                }
+            }
+            quotas[best]++;
+            remainders[best] = -1;
+            assigned++;
+        }
+        return quotas;
+    }
+
+    /**
+     * Picks {@code quota} of the leaf's {@code live} documents with Floyd's algorithm, over
+     * ranks among the live documents, then maps the ranks to doc IDs.
+     */
+    private void selectLeaf(LeafReaderContext leaf, Bits liveDocs, int live, int quota, FixedBitSet sample) {
+        // Seeded per leaf, so a leaf's sample does not depend on the leaves before it
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + leaf.ord);
+        FixedBitSet ranks = new FixedBitSet(live);
+        for (int j = live - quota; j < live; j++) {
+            int rank = random.nextInt(j + 1);
+            ranks.set(ranks.get(rank) ? j : rank);
+        }
+
+        if (liveDocs == null) {
+            for (int rank = ranks.nextSetBit(0); rank != DocIdSetIterator.NO_MORE_DOCS;
+                 rank = rank + 1 < live ? ranks.nextSetBit(rank + 1) : DocIdSetIterator.NO_MORE_DOCS) {
+                sample.set(leaf.docBase + rank);
+            }
+            return;
+        }
+
+        int rank = 0;
+        for (int doc = 0; doc < liveDocs.length() && rank < live; doc++) {
+            if (liveDocs.get(doc)) {
+                if (ranks.get(rank)) {
+                    sample.set(leaf.docBase + doc);
+                }
+                rank++;
+            }
+        }
+    }
+}
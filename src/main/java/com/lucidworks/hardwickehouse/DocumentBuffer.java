@@ -0,0 +1,356 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reusable holder for the stored fields of one document, filled directly by a
+ * {@link StoredFieldVisitor} and {@link #reset() reset} between documents.
+ *
+ * <p>Values are kept in parallel primitive arrays indexed by value position, and grouped
+ * per field through the field's {@link JsonLSchema} ordinal, so a field may hold any number
+ * of values. Binary values are copied once into a shared byte arena. Apart from the
+ * Strings Lucene itself creates, filling and walking a buffer allocates nothing once its
+ * arrays have grown to fit the largest document.
+ *
+ * <p>A buffer is not thread-safe; each producer thread uses its own.
+ */
+public class DocumentBuffer {
+
+    public static final byte INT = 0;
+    public static final byte LONG = 1;
+    public static final byte FLOAT = 2;
+    public static final byte DOUBLE = 3;
+    public static final byte STRING = 4;
+    public static final byte BINARY = 5;
+
+    private final JsonLSchema schema;
+    private final List<String> extraFieldNames = new ArrayList<>();
+    private final Map<String, Integer> extraFieldOrdinals = new HashMap<>();
+    private final Loader loader = new Loader();
+
+    private int docId;
+
+    // Per value, in the order the values were visited
+    private int valueCount = 0;
+    private byte[] kinds = new byte[16];
+    private long[] longValues = new long[16];
+    private double[] doubleValues = new double[16];
+    private String[] stringValues = new String[16];
+    private int[] nextValue = new int[16];
+
+    // Per field ordinal
+    private boolean[] multiValued;
+    private int[] fieldCounts;
+    private int[] firstValue;
+    private int[] lastValue;
+
+    // Ordinals of the fields present in this document, in first-seen order
+    private int presentCount = 0;
+    private int[] presentFields = new int[16];
+
+    private byte[] arena = new byte[1024];
+    private int arenaLength = 0;
+
+    // Field number of the current leaf -> field ordinal
+    private int[] leafOrdinals = new int[0];
+
+    public DocumentBuffer(JsonLSchema schema) {
+        this.schema = schema;
+        int fieldCount = Math.max(16, schema.getFieldCount());
+        this.fieldCounts = new int[fieldCount];
+        this.firstValue = new int[fieldCount];
+        this.lastValue = new int[fieldCount];
+
+        this.multiValued = new boolean[fieldCount];
+        for (int i = 0; i < schema.getFieldCount(); i++) {
+            multiValued[i] = schema.isMultiValued(schema.getFieldName(i));
+        }
+    }
+
+    /**
+     * Prepares the field number lookup for a new leaf; must be called before loading any
+     * document of that leaf.
+     */
+    public void startLeaf(LeafReaderContext leaf) {
+        FieldInfos fieldInfos = leaf.reader().getFieldInfos();
+        int maxFieldNumber = -1;
+        for (FieldInfo fieldInfo : fieldInfos) {
+            maxFieldNumber = Math.max(maxFieldNumber, fieldInfo.number);
+        }
+
+        leafOrdinals = new int[maxFieldNumber + 1];
+        Arrays.fill(leafOrdinals, -1);
+        for (FieldInfo fieldInfo : fieldInfos) {
+            leafOrdinals[fieldInfo.number] = ordinalOf(fieldInfo.name);
+        }
+    }
+
+    public StoredFieldVisitor visitor() {
+        return loader;
+    }
+
+    public void reset() {
+        for (int i = 0; i < presentCount; i++) {
+            fieldCounts[presentFields[i]] = 0;
+        }
+        presentCount = 0;
+        valueCount = 0;
+        arenaLength = 0;
+    }
+
+    public int getDocId() {
+        return docId;
+    }
+
+    public void setDocId(int docId) {
+        this.docId = docId;
+    }
+
+    public JsonLSchema getSchema() {
+        return schema;
+    }
+
+    public int getFieldCount() {
+        return presentCount;
+    }
+
+    /**
+     * Ordinal of the {@code index}-th field present in this document.
+     */
+    public int getPresentField(int index) {
+        return presentFields[index];
+    }
+
+    public String getFieldName(int ordinal) {
+        int schemaFields = schema.getFieldCount();
+        return ordinal < schemaFields ? schema.getFieldName(ordinal) : extraFieldNames.get(ordinal - schemaFields);
+    }
+
+    /**
+     * Whether the schema declares the field multi-valued, so that its values are written as
+     * an array in every document, whatever this document's value count.
+     */
+    public boolean isMultiValued(int ordinal) {
+        return multiValued[ordinal];
+    }
+
+    public int getValueCount(int ordinal) {
+        return fieldCounts[ordinal];
+    }
+
+    /**
+     * Position of the first value of a field; follow with {@link #getNextValue(int)}.
+     */
+    public int getFirstValue(int ordinal) {
+        return fieldCounts[ordinal] > 0 ? firstValue[ordinal] : -1;
+    }
+
+    /**
+     * Position of the next value of the same field, or -1 after the last one.
+     */
+    public int getNextValue(int value) {
+        return nextValue[value];
+    }
+
+    /**
+     * First value of a field as a string, or null if the document does not have the field.
+     */
+    public String getFirstString(String fieldName) {
+        int ordinal = schema.getFieldOrdinal(fieldName);
+        if (ordinal < 0) {
+            Integer extra = extraFieldOrdinals.get(fieldName);
+            ordinal = extra != null ? extra : -1;
+        }
+        int value = ordinal >= 0 ? getFirstValue(ordinal) : -1;
+        if (value == -1) {
+            return null;
+        }
+        return switch (kinds[value]) {
+            case STRING -> stringValues[value];
+            case INT, LONG -> Long.toString(longValues[value]);
+            case FLOAT, DOUBLE -> Double.toString(doubleValues[value]);
+            default -> new String(arena, getBinaryOffset(value), getBinaryLength(value), StandardCharsets.UTF_8);
+        };
+    }
+
+    public byte getKind(int value) {
+        return kinds[value];
+    }
+
+    public long getLong(int value) {
+        return longValues[value];
+    }
+
+    public double getDouble(int value) {
+        return doubleValues[value];
+    }
+
+    public String getString(int value) {
+        return stringValues[value];
+    }
+
+    public byte[] getBinaryArena() {
+        return arena;
+    }
+
+    public int getBinaryOffset(int value) {
+        return (int) (longValues[value] >>> 32);
+    }
+
+    public int getBinaryLength(int value) {
+        return (int) longValues[value];
+    }
+
+    /**
+     * Copies the buffer into a standalone {@link LuceneDocument}, for callers that need to
+     * keep the document after the buffer is reset.
+     */
+    public LuceneDocument toLuceneDocument() {
+        LuceneDocument document = new LuceneDocument(docId);
+        for (int i = 0; i < presentCount; i++) {
+            int ordinal = presentFields[i];
+            String name = getFieldName(ordinal);
+            for (int value = getFirstValue(ordinal); value != -1; value = nextValue[value]) {
+                document.addField(name, boxValue(value));
+            }
+        }
+        return document;
+    }
+
+    private Object boxValue(int value) {
+        return switch (kinds[value]) {
+            case INT -> (int) longValues[value];
+            case LONG -> longValues[value];
+            case FLOAT -> (float) doubleValues[value];
+            case DOUBLE -> doubleValues[value];
+            case STRING -> stringValues[value];
+            default -> new BytesRef(
+                Arrays.copyOfRange(arena, getBinaryOffset(value), getBinaryOffset(value) + getBinaryLength(value)));
+        };
+    }
+
+    private int ordinalOf(String name) {
+        int ordinal = schema.getFieldOrdinal(name);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+
+        // Fields the schema sample did not see get ordinals past the schema's own
+        Integer extra = extraFieldOrdinals.get(name);
+        if (extra == null) {
+            extra = schema.getFieldCount() + extraFieldNames.size();
+            extraFieldNames.add(name);
+            extraFieldOrdinals.put(name, extra);
+            if (extra >= fieldCounts.length) {
+                int size = ArrayUtil.oversize(extra + 1, Integer.BYTES);
+                multiValued = Arrays.copyOf(multiValued, size);
+                fieldCounts = ArrayUtil.growExact(fieldCounts, size);
+                firstValue = ArrayUtil.growExact(firstValue, size);
+                lastValue = ArrayUtil.growExact(lastValue, size);
+            }
+            multiValued[extra] = schema.isMultiValued(name);
+        }
+        return extra;
+    }
+
+    private int addValue(int ordinal, byte kind) {
+        int value = valueCount++;
+        if (value == kinds.length) {
+            int size = ArrayUtil.oversize(value + 1, Long.BYTES);
+            kinds = ArrayUtil.growExact(kinds, size);
+            longValues = ArrayUtil.growExact(longValues, size);
+            doubleValues = ArrayUtil.growExact(doubleValues, size);
+            stringValues = ArrayUtil.growExact(stringValues, size);
+            nextValue = ArrayUtil.growExact(nextValue, size);
+        }
+
+        kinds[value] = kind;
+        nextValue[value] = -1;
+
+        if (fieldCounts[ordinal] == 0) {
+            firstValue[ordinal] = value;
+            if (presentCount == presentFields.length) {
+                presentFields = ArrayUtil.grow(presentFields, presentCount + 1);
+            }
+            presentFields[presentCount++] = ordinal;
+        } else {
+            nextValue[lastValue[ordinal]] = value;
+        }
+        lastValue[ordinal] = value;
+        fieldCounts[ordinal]++;
+        return value;
+    }
+
+    private int fieldOrdinal(FieldInfo fieldInfo) {
+        int number = fieldInfo.number;
+        if (number < leafOrdinals.length && leafOrdinals[number] >= 0) {
+            return leafOrdinals[number];
+        }
+        return ordinalOf(fieldInfo.name);
+    }
+
+    private class Loader extends StoredFieldVisitor {
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            return Status.YES;
+        }
+
+        @Override
+        public void intField(FieldInfo fieldInfo, int value) {
+            longValues[addValue(fieldOrdinal(fieldInfo), INT)] = value;
+        }
+
+        @Override
+        public void longField(FieldInfo fieldInfo, long value) {
+            longValues[addValue(fieldOrdinal(fieldInfo), LONG)] = value;
+        }
+
+        @Override
+        public void floatField(FieldInfo fieldInfo, float value) {
+            doubleValues[addValue(fieldOrdinal(fieldInfo), FLOAT)] = value;
+        }
+
+        @Override
+        public void doubleField(FieldInfo fieldInfo, double value) {
+            doubleValues[addValue(fieldOrdinal(fieldInfo), DOUBLE)] = value;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            stringValues[addValue(fieldOrdinal(fieldInfo), STRING)] = value;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, DataInput input, int length) throws IOException {
+            int value = addValue(fieldOrdinal(fieldInfo), BINARY);
+            arena = ArrayUtil.grow(arena, arenaLength + length);
+            input.readBytes(arena, arenaLength, length);
+            longValues[value] = ((long) arenaLength << 32) | length;
+            arenaLength += length;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] bytes) {
+            int value = addValue(fieldOrdinal(fieldInfo), BINARY);
+            arena = ArrayUtil.grow(arena, arenaLength + bytes.length);
+            System.arraycopy(bytes, 0, arena, arenaLength, bytes.length);
+            longValues[value] = ((long) arenaLength << 32) | bytes.length;
+            arenaLength += bytes.length;
+        }
+    }
+}
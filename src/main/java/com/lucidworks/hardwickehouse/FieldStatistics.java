@@ -0,0 +1,338 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Per-field statistics of an export, collected while the documents are serialized so that
+ * nobody has to scan the output again: how many records have each field, min and max of
+ * numeric values, the size of string and binary values, and an approximate number of
+ * distinct values from a HyperLogLog sketch.
+ *
+ * <p>Each producer thread updates its own {@link Accumulator} without synchronization.
+ * Accumulators register themselves in a lock-free queue when a thread first asks for one,
+ * and are merged once the export has finished.
+ */
+public class FieldStatistics {
+
+    static final int HLL_PRECISION = 12;
+    private static final int HLL_REGISTERS = 1 << HLL_PRECISION;
+    // Time one document in this many to report the cost of collecting statistics
+    private static final int TIMING_SAMPLE_MASK = 63;
+    // A sample this long was stretched by a GC pause or preemption, not by the statistics
+    private static final long MAX_SAMPLE_NANOS = 1_000_000;
+
+    private final JsonLSchema schema;
+    private final ConcurrentLinkedQueue<Accumulator> accumulators = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Accumulator> threadAccumulator = ThreadLocal.withInitial(() -> {
+        Accumulator accumulator = new Accumulator();
+        accumulators.add(accumulator);
+        return accumulator;
+    });
+
+    public FieldStatistics(JsonLSchema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * The accumulator of the calling thread.
+     */
+    public Accumulator accumulator() {
+        return threadAccumulator.get();
+    }
+
+    /**
+     * Where the statistics of an output are written: {@code out.jsonl.gz} and
+     * {@code out.jsonl} both get {@code out.stats.json} beside them.
+     */
+    public static String statsLocation(String output) {
+        String base = output;
+        if (base.endsWith(".gz")) {
+            base = base.substring(0, base.length() - ".gz".length());
+        }
+        if (base.endsWith(".jsonl")) {
+            base = base.substring(0, base.length() - ".jsonl".length());
+        }
+        return base + ".stats.json";
+    }
+
+    /**
+     * Estimated CPU time spent collecting statistics, summed over all threads.
+     */
+    public double getCollectionSeconds() {
+        long nanos = 0;
+        long samples = 0;
+        long documents = 0;
+        for (Accumulator accumulator : accumulators) {
+            nanos += accumulator.sampledNanos;
+            samples += accumulator.samples;
+            documents += accumulator.documents;
+        }
+        return samples > 0 ? (double) nanos / samples * documents / 1e9 : 0;
+    }
+
+    /**
+     * Merges every thread's accumulator into the report written as {@code stats.json}.
+     */
+    public Map<String, Object> describe() {
+        long documents = 0;
+        Map<String, FieldStats> merged = new TreeMap<>();
+        for (Accumulator accumulator : accumulators) {
+            documents += accumulator.documents;
+            for (int ordinal = 0; ordinal < accumulator.schemaFields.length; ordinal++) {
+                if (accumulator.schemaFields[ordinal] != null) {
+                    merged.computeIfAbsent(schema.getFieldName(ordinal), name -> new FieldStats())
+                        .merge(accumulator.schemaFields[ordinal]);
+                }
+            }
+            for (Map.Entry<String, FieldStats> extra : accumulator.extraFields.entrySet()) {
+                merged.computeIfAbsent(extra.getKey(), name -> new FieldStats()).merge(extra.getValue());
+            }
+        }
+
+        // Fields no document had are reported too, as entirely null
+        for (String name : schema.getFieldNames()) {
+            merged.putIfAbsent(name, new FieldStats());
+        }
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (Map.Entry<String, FieldStats> field : merged.entrySet()) {
+            FieldType type = schema.getFieldType(field.getKey());
+            fields.put(field.getKey(), field.getValue().describe(type, documents));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("documents", documents);
+        report.put("distinctMethod", "HyperLogLog, 2^" + HLL_PRECISION + " registers, ~" +
+                   Math.round(10000 * 1.04 / Math.sqrt(HLL_REGISTERS)) / 100.0 + "% standard error");
+        report.put("fields", fields);
+        return report;
+    }
+
+    public void write(Path path) throws IOException {
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(path.toFile(), describe());
+    }
+
+    /**
+     * Statistics gathered by one thread. Not thread-safe.
+     */
+    public class Accumulator {
+
+        private final FieldStats[] schemaFields = new FieldStats[schema.getFieldCount()];
+        // Fields the schema sample did not see; their ordinals differ between buffers
+        private final Map<String, FieldStats> extraFields = new HashMap<>();
+        private long documents;
+        private long samples;
+        private long sampledNanos;
+
+        private Accumulator() {
+        }
+
+        public void add(DocumentBuffer document) {
+            if ((documents & TIMING_SAMPLE_MASK) != 0) {
+                collect(document);
+            } else {
+                long start = System.nanoTime();
+                collect(document);
+                long elapsed = System.nanoTime() - start;
+                if (elapsed < MAX_SAMPLE_NANOS) {
+                    samples++;
+                    sampledNanos += elapsed;
+                }
+            }
+        }
+
+        private void collect(DocumentBuffer document) {
+            documents++;
+            for (int i = 0; i < document.getFieldCount(); i++) {
+                int ordinal = document.getPresentField(i);
+                FieldStats field = field(document, ordinal);
+                field.documents++;
+                for (int value = document.getFirstValue(ordinal); value != -1; value = document.getNextValue(value)) {
+                    switch (document.getKind(value)) {
+                        case DocumentBuffer.INT, DocumentBuffer.LONG -> field.addLong(document.getLong(value));
+                        case DocumentBuffer.FLOAT, DocumentBuffer.DOUBLE -> field.addDouble(document.getDouble(value));
+                        case DocumentBuffer.STRING -> field.addString(document.getString(value));
+                        default -> field.addBinary(document.getBinaryArena(), document.getBinaryOffset(value),
+                                                   document.getBinaryLength(value));
+                    }
+                }
+            }
+        }
+
+        private FieldStats field(DocumentBuffer document, int ordinal) {
+            if (ordinal < schemaFields.length) {
+                FieldStats field = schemaFields[ordinal];
+                if (field == null) {
+                    field = new FieldStats();
+                    schemaFields[ordinal] = field;
+                }
+                return field;
+            }
+            return extraFields.computeIfAbsent(document.getFieldName(ordinal), name -> new FieldStats());
+        }
+    }
+
+    /**
+     * Running statistics of one field.
+     */
+    static class FieldStats {
+        long documents;
+        long values;
+        long integralValues;
+        long minLong = Long.MAX_VALUE;
+        long maxLong = Long.MIN_VALUE;
+        long floatingValues;
+        double minDouble = Double.POSITIVE_INFINITY;
+        double maxDouble = Double.NEGATIVE_INFINITY;
+        long sizedValues;
+        long totalBytes;
+        long maxBytes;
+        byte[] registers;
+
+        void addLong(long value) {
+            values++;
+            integralValues++;
+            minLong = Math.min(minLong, value);
+            maxLong = Math.max(maxLong, value);
+            addHash(mix(value));
+        }
+
+        void addDouble(double value) {
+            values++;
+            floatingValues++;
+            minDouble = Math.min(minDouble, value);
+            maxDouble = Math.max(maxDouble, value);
+            addHash(mix(Double.doubleToLongBits(value)));
+        }
+
+        void addString(String value) {
+            // One pass computes both the FNV-1a hash of the chars and the UTF-8 length
+            long hash = 0xcbf29ce484222325L;
+            long bytes = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                hash = (hash ^ c) * 0x100000001b3L;
+                bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+            }
+            addSized(bytes);
+            addHash(mix(hash));
+        }
+
+        void addBinary(byte[] arena, int offset, int length) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = offset; i < offset + length; i++) {
+                hash = (hash ^ (arena[i] & 0xff)) * 0x100000001b3L;
+            }
+            addSized(length);
+            addHash(mix(hash));
+        }
+
+        private void addSized(long bytes) {
+            values++;
+            sizedValues++;
+            totalBytes += bytes;
+            maxBytes = Math.max(maxBytes, bytes);
+        }
+
+        private void addHash(long hash) {
+            if (registers == null) {
+                registers = new byte[HLL_REGISTERS];
+            }
+            int register = (int) (hash >>> (64 - HLL_PRECISION));
+            // Rank of the first set bit among the remaining bits, capped for an all-zero tail
+            int rank = Math.min(Long.numberOfLeadingZeros(hash << HLL_PRECISION), 64 - HLL_PRECISION) + 1;
+            if (rank > registers[register]) {
+                registers[register] = (byte) rank;
+            }
+        }
+
+        void merge(FieldStats other) {
+            documents += other.documents;
+            values += other.values;
+            integralValues += other.integralValues;
+            minLong = Math.min(minLong, other.minLong);
+            maxLong = Math.max(maxLong, other.maxLong);
+            floatingValues += other.floatingValues;
+            minDouble = Math.min(minDouble, other.minDouble);
+            maxDouble = Math.max(maxDouble, other.maxDouble);
+            sizedValues += other.sizedValues;
+            totalBytes += other.totalBytes;
+            maxBytes = Math.max(maxBytes, other.maxBytes);
+            if (other.registers != null) {
+                if (registers == null) {
+                    registers = other.registers.clone();
+                } else {
+                    for (int i = 0; i < HLL_REGISTERS; i++) {
+                        registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * HyperLogLog estimate of the number of distinct values, with the small-range
+         * correction; the 64-bit hash needs no large-range one.
+         */
+        long distinct() {
+            if (registers == null) {
+                return 0;
+            }
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += Math.scalb(1.0, -register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            double alpha = 0.7213 / (1 + 1.079 / HLL_REGISTERS);
+            double estimate = alpha * HLL_REGISTERS * HLL_REGISTERS / sum;
+            if (estimate <= 2.5 * HLL_REGISTERS && zeros > 0) {
+                estimate = HLL_REGISTERS * Math.log((double) HLL_REGISTERS / zeros);
+            }
+            return Math.round(estimate);
+        }
+
+        Map<String, Object> describe(FieldType type, long totalDocuments) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("type", type != null ? type.name() : null);
+            report.put("present", documents);
+            report.put("nulls", totalDocuments - documents);
+            report.put("nullRate", totalDocuments > 0
+                ? Math.round(10000.0 * (totalDocuments - documents) / totalDocuments) / 10000.0 : 0.0);
+            report.put("values", values);
+            if (floatingValues > 0) {
+                report.put("min", integralValues > 0 ? Math.min(minDouble, minLong) : minDouble);
+                report.put("max", integralValues > 0 ? Math.max(maxDouble, maxLong) : maxDouble);
+            } else if (integralValues > 0) {
+                report.put("min", minLong);
+                report.put("max", maxLong);
+            }
+            if (sizedValues > 0) {
+                report.put("avgBytes", Math.round(10.0 * totalBytes / sizedValues) / 10.0);
+                report.put("maxBytes", maxBytes);
+            }
+            report.put("distinct", distinct());
+            return report;
+        }
+
+        /**
+         * MurmurHash3's 64-bit finalizer, spreading every input bit over the whole hash.
+         */
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
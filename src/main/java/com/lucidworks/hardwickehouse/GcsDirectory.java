@@ -0,0 +1,328 @@
+package com.lucidworks.hardwickehouse;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.apache.lucene.store.BufferedIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only Lucene directory over the objects directly under a GCS prefix, read in place
+ * with ranged requests so an index can be opened without downloading it.
+ *
+ * <p>The prefix is listed once when the directory is opened, and every read is pinned to the
+ * generation seen then, so an object overwritten mid-conversion fails loudly instead of
+ * mixing two versions. Reads go through a {@link BlockCache} of fixed-size blocks shared by
+ * every input of a process. An input that keeps reading the block after the one it read
+ * last is treated as sequential, and its misses fetch several following blocks in one
+ * request, which is how stored fields and doc values are read during a conversion.
+ */
+public class GcsDirectory extends Directory {
+
+    private static final Logger logger = LoggerFactory.getLogger(GcsDirectory.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    public static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+    static final int READ_AHEAD_BLOCKS = 8;
+    private static final int INPUT_BUFFER_SIZE = 16 * 1024;
+
+    private final Storage storage;
+    private final String bucket;
+    private final String prefix;
+    private final Map<String, Blob> files;
+    private final BlockCache cache;
+
+    private GcsDirectory(Storage storage, String bucket, String prefix, Map<String, Blob> files, BlockCache cache) {
+        this.storage = storage;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.files = files;
+        this.cache = cache;
+    }
+
+    /**
+     * Lists {@code gs://bucket/prefix} and opens it as a directory. Objects in nested
+     * "subdirectories" are not part of it.
+     */
+    public static GcsDirectory open(Storage storage, String bucket, String prefix, BlockCache cache) throws IOException {
+        String directoryPrefix = prefix.isEmpty() || prefix.endsWith("/") ? prefix : prefix + "/";
+        Map<String, Blob> files = new TreeMap<>();
+        try {
+            for (Blob blob : storage.list(bucket, Storage.BlobListOption.prefix(directoryPrefix)).iterateAll()) {
+                String name = blob.getName().substring(directoryPrefix.length());
+                if (!name.isEmpty() && name.indexOf('/') < 0) {
+                    files.put(name, blob);
+                }
+            }
+        } catch (StorageException e) {
+            throw new IOException("Failed to list gs://" + bucket + "/" + directoryPrefix, e);
+        }
+        logger.info("Opened gs://{}/{} with {} files", bucket, directoryPrefix, files.size());
+        return new GcsDirectory(storage, bucket, directoryPrefix, files, cache);
+    }
+
+    @Override
+    public String[] listAll() {
+        return files.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long fileLength(String name) throws IOException {
+        return blob(name).getSize();
+    }
+
+    @Override
+    public IndexInput openInput(String name, IOContext context) throws IOException {
+        Blob blob = blob(name);
+        return new GcsIndexInput("GcsIndexInput(gs://" + bucket + "/" + blob.getName() + ")", blob);
+    }
+
+    @Override
+    public IndexOutput createOutput(String name, IOContext context) {
+        throw readOnly();
+    }
+
+    @Override
+    public IndexOutput createTempOutput(String prefix, String suffix, IOContext context) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteFile(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public void rename(String source, String dest) {
+        throw readOnly();
+    }
+
+    @Override
+    public void sync(Collection<String> names) {
+        throw readOnly();
+    }
+
+    @Override
+    public void syncMetaData() {
+        throw readOnly();
+    }
+
+    @Override
+    public Lock obtainLock(String name) {
+        throw readOnly();
+    }
+
+    @Override
+    public Set<String> getPendingDeletions() {
+        return Set.of();
+    }
+
+    /**
+     * Nothing to release: the client belongs to the caller, and cached blocks age out.
+     * Safe to call more than once, as when several shards share the directory.
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "GcsDirectory(gs://" + bucket + "/" + prefix + ")";
+    }
+
+    private Blob blob(String name) throws NoSuchFileException {
+        Blob blob = files.get(name);
+        if (blob == null) {
+            throw new NoSuchFileException(name);
+        }
+        return blob;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("GCS directories are read-only");
+    }
+
+    /**
+     * Reads {@code blocks} consecutive blocks of an object, starting at {@code firstBlock},
+     * in one ranged request, and caches each of them.
+     */
+    private byte[][] fetch(Blob blob, long firstBlock, int blocks) throws IOException {
+        int blockSize = cache.getBlockSize();
+        long offset = firstBlock * blockSize;
+        int length = (int) Math.min((long) blocks * blockSize, blob.getSize() - offset);
+        ByteBuffer data = ByteBuffer.allocate(length);
+
+        BlobId id = BlobId.of(bucket, blob.getName(), blob.getGeneration());
+        try (ReadChannel reader = storage.reader(id)) {
+            reader.seek(offset);
+            reader.limit(offset + length);
+            while (data.hasRemaining()) {
+                if (reader.read(data) < 0) {
+                    throw new EOFException("gs://" + bucket + "/" + blob.getName() + " ended at " +
+                                           (offset + data.position()) + " of " + blob.getSize() + " bytes");
+                }
+            }
+        } catch (StorageException e) {
+            throw new IOException("Failed to read gs://" + bucket + "/" + blob.getName() +
+                                  " at " + offset + ": " + e.getMessage(), e);
+        }
+
+        int count = (length + blockSize - 1) / blockSize;
+        byte[][] fetched = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int from = i * blockSize;
+            byte[] block = new byte[Math.min(blockSize, length - from)];
+            System.arraycopy(data.array(), from, block, 0, block.length);
+            fetched[i] = block;
+            cache.put(new BlockKey(blob.getName(), blob.getGeneration(), firstBlock + i), block);
+        }
+        return fetched;
+    }
+
+    private class GcsIndexInput extends BufferedIndexInput {
+
+        private final Blob blob;
+        private final long offset;
+        private final long length;
+        private long lastBlock = -2;
+
+        GcsIndexInput(String resourceDescription, Blob blob) {
+            this(resourceDescription, blob, 0, blob.getSize());
+        }
+
+        private GcsIndexInput(String resourceDescription, Blob blob, long offset, long length) {
+            super(resourceDescription, INPUT_BUFFER_SIZE);
+            this.blob = blob;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        protected void readInternal(ByteBuffer b) throws IOException {
+            long position = offset + getFilePointer();
+            if (getFilePointer() + b.remaining() > length) {
+                throw new EOFException("read past EOF: " + this);
+            }
+            int blockSize = cache.getBlockSize();
+            while (b.hasRemaining()) {
+                long blockIndex = position / blockSize;
+                byte[] block = block(blockIndex);
+                int within = (int) (position - blockIndex * blockSize);
+                int n = Math.min(b.remaining(), block.length - within);
+                b.put(block, within, n);
+                position += n;
+            }
+        }
+
+        private byte[] block(long blockIndex) throws IOException {
+            boolean sequential = blockIndex == lastBlock + 1;
+            lastBlock = blockIndex;
+            byte[] block = cache.get(new BlockKey(blob.getName(), blob.getGeneration(), blockIndex));
+            if (block != null) {
+                return block;
+            }
+
+            int blocks = 1;
+            if (sequential) {
+                long lastInFile = (blob.getSize() - 1) / cache.getBlockSize();
+                blocks = (int) Math.min(READ_AHEAD_BLOCKS, lastInFile - blockIndex + 1);
+            }
+            return fetch(blob, blockIndex, blocks)[0];
+        }
+
+        @Override
+        protected void seekInternal(long pos) {
+            // Reads are positioned by getFilePointer()
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public IndexInput slice(String sliceDescription, long sliceOffset, long sliceLength) {
+            if (sliceOffset < 0 || sliceLength < 0 || sliceOffset + sliceLength > length) {
+                throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + this);
+            }
+            return new GcsIndexInput(getFullSliceDescription(sliceDescription), blob, offset + sliceOffset, sliceLength);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    record BlockKey(String object, long generation, long block) {
+    }
+
+    /**
+     * Least recently used blocks of GCS objects, bounded by their total size.
+     */
+    public static class BlockCache {
+
+        private final int blockSize;
+        private final long maxBytes;
+        private final LinkedHashMap<BlockKey, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        public BlockCache(int blockSize, long maxBytes) {
+            this.blockSize = blockSize;
+            this.maxBytes = maxBytes;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        synchronized byte[] get(BlockKey key) {
+            byte[] block = blocks.get(key);
+            (block != null ? hits : misses).incrementAndGet();
+            return block;
+        }
+
+        synchronized void put(BlockKey key, byte[] block) {
+            byte[] previous = blocks.put(key, block);
+            bytes += block.length - (previous != null ? previous.length : 0);
+            Iterator<byte[]> eldest = blocks.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+    }
+}
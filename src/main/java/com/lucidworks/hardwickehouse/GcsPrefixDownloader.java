@@ -0,0 +1,293 @@
+package com.lucidworks.hardwickehouse;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Downloads every object under a GCS prefix, such as an index snapshot stored as a directory
+ * of segment files, into a local directory.
+ *
+ * <p>Each file is downloaded on its own virtual thread, and files larger than the chunk size
+ * are split into ranged reads that run in parallel and write at their own offsets, so many
+ * TCP streams are open at once. A semaphore bounds the number of requests in flight. The
+ * CRC32C of every chunk is computed while it is written, and the chunks' checksums are
+ * combined and compared with the object's; a file that fails to download or verify is
+ * downloaded again, up to a fixed number of attempts.
+ */
+public class GcsPrefixDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(GcsPrefixDownloader.class);
+
+    public static final int DEFAULT_CONCURRENCY = 32;
+    public static final long DEFAULT_CHUNK_BYTES = 32L * 1024 * 1024;
+    static final int MAX_ATTEMPTS = 3;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final Storage storage;
+    private final Semaphore requests;
+    private final long chunkBytes;
+
+    public GcsPrefixDownloader(Storage storage, int concurrency, long chunkBytes) {
+        this.storage = storage;
+        this.requests = new Semaphore(concurrency);
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Lists the objects under {@code prefix}, excluding directory placeholders. The prefix is
+     * treated as a directory, so {@code index} does not match {@code index-old/...}.
+     */
+    public List<Blob> list(String bucket, String prefix) throws IOException {
+        String directoryPrefix = directoryPrefix(prefix);
+        List<Blob> blobs = new ArrayList<>();
+        try {
+            for (Blob blob : storage.list(bucket, Storage.BlobListOption.prefix(directoryPrefix)).iterateAll()) {
+                if (!blob.getName().endsWith("/")) {
+                    blobs.add(blob);
+                }
+            }
+        } catch (StorageException e) {
+            throw new IOException("Failed to list gs://" + bucket + "/" + directoryPrefix, e);
+        }
+        return blobs;
+    }
+
+    /**
+     * Downloads {@code blobs}, all under {@code prefix}, into {@code target}, keeping their
+     * paths relative to the prefix. Returns the number of bytes downloaded.
+     */
+    public long download(String prefix, List<Blob> blobs, Path target) throws IOException {
+        String directoryPrefix = directoryPrefix(prefix);
+        Files.createDirectories(target);
+        long began = System.nanoTime();
+        AtomicLong bytes = new AtomicLong();
+        AtomicBoolean failed = new AtomicBoolean();
+
+        List<Future<?>> files = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Blob blob : blobs) {
+                Path file = target.resolve(blob.getName().substring(directoryPrefix.length())).normalize();
+                if (!file.startsWith(target)) {
+                    throw new IOException("Object name escapes the download directory: " + blob.getName());
+                }
+                files.add(executor.submit(() -> {
+                    if (!failed.get()) {
+                        try {
+                            bytes.addAndGet(downloadFile(executor, blob, file, failed));
+                        } catch (IOException | RuntimeException e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> file : files) {
+                await(file);
+            }
+        }
+
+        double seconds = (System.nanoTime() - began) / 1e9;
+        logger.info("Downloaded {} files ({} bytes) from {} in {} s ({} MB/s)", blobs.size(), bytes.get(),
+                   directoryPrefix, Math.round(seconds * 10) / 10.0,
+                   Math.round(bytes.get() / 1048576.0 / Math.max(seconds, 1e-3)));
+        return bytes.get();
+    }
+
+    private long downloadFile(ExecutorService executor, Blob blob, Path file, AtomicBoolean failed)
+            throws IOException {
+        Files.createDirectories(file.getParent());
+        long size = blob.getSize();
+        Integer expected = blob.getCrc32c() != null ? decodeCrc32c(blob.getCrc32c()) : null;
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                int actual = downloadChunks(executor, blob, file, size, failed);
+                if (expected != null && actual != expected) {
+                    throw new IOException(String.format("CRC32C mismatch for %s: expected %08x, got %08x",
+                                                        blob.getName(), expected, actual));
+                }
+                return size;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || failed.get()) {
+                    throw new IOException("Failed to download gs://" + blob.getBucket() + "/" + blob.getName() +
+                                          " after " + attempt + " attempts: " + e.getMessage(), e);
+                }
+                logger.warn("Retrying gs://{}/{} (attempt {} of {}): {}", blob.getBucket(), blob.getName(),
+                           attempt + 1, MAX_ATTEMPTS, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Downloads a file as parallel chunks and returns the CRC32C of its content.
+     */
+    private int downloadChunks(ExecutorService executor, Blob blob, Path file, long size, AtomicBoolean failed)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Integer>> chunks = new ArrayList<>();
+            for (long offset = 0; offset < size || chunks.isEmpty(); offset += chunkBytes) {
+                long start = offset;
+                long length = Math.min(chunkBytes, size - offset);
+                chunks.add(executor.submit(() -> {
+                    if (failed.get()) {
+                        throw new IOException("Download cancelled");
+                    }
+                    return downloadChunk(blob, channel, start, length);
+                }));
+            }
+
+            int crc = 0;
+            for (int i = 0; i < chunks.size(); i++) {
+                long length = Math.min(chunkBytes, size - (long) i * chunkBytes);
+                int chunkCrc = await(chunks.get(i));
+                crc = i == 0 ? chunkCrc : combineCrc32c(crc, chunkCrc, length);
+            }
+            return crc;
+        }
+    }
+
+    private int downloadChunk(Blob blob, FileChannel channel, long offset, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        requests.acquireUninterruptibly();
+        try (ReadChannel reader = storage.reader(BlobId.of(blob.getBucket(), blob.getName(), blob.getGeneration()))) {
+            if (length == 0) {
+                return (int) crc.getValue();
+            }
+            reader.seek(offset);
+            reader.limit(offset + length);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_SIZE, length));
+            long position = offset;
+            while (position < offset + length) {
+                buffer.clear();
+                if (reader.read(buffer) < 0) {
+                    throw new EOFException(blob.getName() + " ended at " + position + " of " + blob.getSize() + " bytes");
+                }
+                buffer.flip();
+                crc.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            return (int) crc.getValue();
+        } catch (StorageException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            requests.release();
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading", e);
+        }
+    }
+
+    static String directoryPrefix(String prefix) {
+        return prefix.isEmpty() || prefix.endsWith("/") ? prefix : prefix + "/";
+    }
+
+    /**
+     * Decodes a CRC32C as GCS reports it: base64 of the big-endian value.
+     */
+    static int decodeCrc32c(String base64) {
+        byte[] bytes = Base64.getDecoder().decode(base64);
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    /**
+     * The CRC32C of two byte sequences concatenated, from the CRC32C of each and the length of
+     * the second, computed as in zlib's {@code crc32_combine} with the Castagnoli polynomial.
+     */
+    static int combineCrc32c(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        // Operator for one zero bit
+        odd[0] = 0x82F63B78L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // Operators for two and four zero bits
+        square(even, odd);
+        square(odd, even);
+
+        long crc = crc1 & 0xffffffffL;
+        // Apply length2 zero bytes to crc1, one bit of the length at a time
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc = times(even, crc);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc = times(odd, crc);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return (int) (crc ^ (crc2 & 0xffffffffL));
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A Solr incremental backup: several backup points, {@code backup_N.properties} with shard
+ * metadata in {@code shard_backup_metadata/md_<shard>_N.json}, that share one directory of
+ * UUID-named index files.
+ *
+ * <p>Index files are opened in place, never restored. For each shard, one read-only directory
+ * covers the files of every point, and each point is a commit in it; points of a shard whose
+ * index was rebuilt in between get a directory of their own. Points are opened with
+ * {@link DirectoryReader#openIfChanged(DirectoryReader, IndexCommit)} from the point opened
+ * before, so a segment shared between points is opened once and only the live docs of the new
+ * point are read. Converting a run of daily points reads each shared file once to open it,
+ * rather than once per point.
+ */
+public class IncrementalBackup implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalBackup.class);
+
+    private static final Pattern POINT_FILE = Pattern.compile("backup_(\\d+)\\.properties");
+    static final String SHARD_METADATA_DIRECTORY = "shard_backup_metadata";
+
+    /**
+     * Where the files of a backup are read from.
+     */
+    private interface Source {
+        String[] list() throws IOException;
+
+        byte[] read(String name) throws IOException;
+
+        Directory openIndexFiles() throws IOException;
+
+        String describe(String name);
+    }
+
+    private final Source source;
+    private final List<Point> points = new ArrayList<>();
+    private final Map<String, List<Shard>> shards = new TreeMap<>();
+    private Directory indexFiles;
+    private long segmentsOpened;
+    private long segmentsReused;
+
+    private IncrementalBackup(Source source) throws IOException {
+        this.source = source;
+        loadPoints();
+    }
+
+    /**
+     * Opens an incremental backup on local disk.
+     */
+    public static IncrementalBackup open(Path backupDirectory) throws IOException {
+        return new IncrementalBackup(new Source() {
+            @Override
+            public String[] list() throws IOException {
+                try (Stream<Path> files = Files.list(backupDirectory)) {
+                    return files.map(file -> file.getFileName().toString()).toArray(String[]::new);
+                }
+            }
+
+            @Override
+            public byte[] read(String name) throws IOException {
+                return Files.readAllBytes(backupDirectory.resolve(name));
+            }
+
+            @Override
+            public Directory openIndexFiles() throws IOException {
+                return FSDirectory.open(backupDirectory.resolve("index"));
+            }
+
+            @Override
+            public String describe(String name) {
+                return backupDirectory.resolve(name).toString();
+            }
+        });
+    }
+
+    /**
+     * Opens an incremental backup in GCS, reading its index files in place.
+     */
+    public static IncrementalBackup open(StorageService storageService, String gcsBackupDirectory) throws IOException {
+        String root = gcsBackupDirectory.endsWith("/") ? gcsBackupDirectory : gcsBackupDirectory + "/";
+        return new IncrementalBackup(new Source() {
+            @Override
+            public String[] list() throws IOException {
+                try (GcsDirectory directory = storageService.openGcsDirectory(root)) {
+                    return directory.listAll();
+                }
+            }
+
+            @Override
+            public byte[] read(String name) throws IOException {
+                return storageService.readFromGcs(root + name);
+            }
+
+            @Override
+            public Directory openIndexFiles() throws IOException {
+                return storageService.openGcsDirectory(root + "index");
+            }
+
+            @Override
+            public String describe(String name) {
+                return root + name;
+            }
+        });
+    }
+
+    /**
+     * Whether a local directory holds an incremental backup.
+     */
+    public static boolean isIncremental(Path backupDirectory) throws IOException {
+        try (Stream<Path> files = Files.list(backupDirectory)) {
+            return files.anyMatch(file -> POINT_FILE.matcher(file.getFileName().toString()).matches());
+        }
+    }
+
+    private void loadPoints() throws IOException {
+        BackupPropertiesParser parser = new BackupPropertiesParser();
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        for (String name : source.list()) {
+            Matcher matcher = POINT_FILE.matcher(name);
+            if (!matcher.matches()) {
+                continue;
+            }
+            byte[] content = source.read(name);
+            BackupMetadata metadata = parser.parseBackupProperties(new ByteArrayInputStream(content), source.describe(name));
+            Properties properties = new Properties();
+            properties.load(new ByteArrayInputStream(content));
+
+            Map<String, Map<String, String>> files = new TreeMap<>();
+            for (String key : properties.stringPropertyNames()) {
+                if (!key.endsWith(".md") || properties.getProperty(key).isEmpty()) {
+                    continue;
+                }
+                String shard = key.substring(0, key.length() - ".md".length());
+                String shardMetadataFile = properties.getProperty(key);
+                Map<String, String> fileNames = new HashMap<>();
+                BackupReader.parseFileMapping(objectMapper.readTree(readShardMetadata(shardMetadataFile)))
+                    .forEach((uuid, fileName) -> fileNames.put(fileName, uuid));
+                files.put(shard, fileNames);
+            }
+            points.add(new Point(Integer.parseInt(matcher.group(1)), name, metadata, files));
+        }
+
+        if (points.isEmpty()) {
+            throw new IllegalArgumentException("No backup_N.properties files found in " + source.describe(""));
+        }
+        points.sort((a, b) -> Integer.compare(a.id, b.id));
+        logger.info("Found {} backup points: {} to {}", points.size(), points.get(0).id,
+                   points.get(points.size() - 1).id);
+    }
+
+    private byte[] readShardMetadata(String shardMetadataFile) throws IOException {
+        try {
+            return source.read(SHARD_METADATA_DIRECTORY + "/" + shardMetadataFile);
+        } catch (NoSuchFileException e) {
+            return source.read(shardMetadataFile);
+        }
+    }
+
+    public List<Point> getPoints() {
+        return Collections.unmodifiableList(points);
+    }
+
+    /**
+     * Resolves a point selector: {@code latest} (or null), {@code all}, or a comma-separated
+     * list of point numbers.
+     */
+    public List<Point> select(String selector) {
+        if (selector == null || selector.isBlank() || selector.equalsIgnoreCase("latest")) {
+            return List.of(points.get(points.size() - 1));
+        }
+        if (selector.equalsIgnoreCase("all")) {
+            return getPoints();
+        }
+
+        List<Point> selected = new ArrayList<>();
+        for (String part : selector.split(",")) {
+            int id;
+            try {
+                id = Integer.parseInt(part.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--backup-point must be latest, all or point numbers: " + selector);
+            }
+            selected.add(points.stream().filter(point -> point.id == id).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No backup point " + id + " in " + source.describe(""))));
+        }
+        return selected;
+    }
+
+    /**
+     * Opens the shards of a point. The caller owns one reference to each reader returned and
+     * must close them; segments shared with the point opened before are not opened again.
+     */
+    public synchronized List<DirectoryReader> openPoint(Point point) throws IOException {
+        List<DirectoryReader> opened = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Map<String, String>> entry : point.files.entrySet()) {
+                Shard shard = shard(entry.getKey(), point);
+                IndexCommit commit = shard.commit(segmentsFile(point, entry.getKey(), entry.getValue()));
+
+                DirectoryReader reader;
+                if (shard.current == null) {
+                    reader = DirectoryReader.open(commit);
+                    segmentsOpened += reader.leaves().size();
+                } else {
+                    reader = DirectoryReader.openIfChanged(shard.current, commit);
+                    if (reader == null) {
+                        segmentsReused += shard.current.leaves().size();
+                    } else {
+                        countReuse(shard.current, reader);
+                    }
+                }
+                if (reader != null) {
+                    if (shard.current != null) {
+                        shard.current.decRef();
+                    }
+                    shard.current = reader;
+                }
+                shard.current.incRef();
+                opened.add(shard.current);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (DirectoryReader reader : opened) {
+                reader.decRef();
+            }
+            throw e;
+        }
+        logger.info("Opened backup point {} ({} shards)", point.id, opened.size());
+        return opened;
+    }
+
+    private void countReuse(DirectoryReader previous, DirectoryReader reader) {
+        Set<Object> previousCores = new HashSet<>();
+        for (LeafReaderContext leaf : previous.leaves()) {
+            previousCores.add(leaf.reader().getCoreCacheHelper().getKey());
+        }
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (previousCores.contains(leaf.reader().getCoreCacheHelper().getKey())) {
+                segmentsReused++;
+            } else {
+                segmentsOpened++;
+            }
+        }
+    }
+
+    /**
+     * Segments opened from their files so far, across all points.
+     */
+    public synchronized long getSegmentsOpened() {
+        return segmentsOpened;
+    }
+
+    /**
+     * Segments of a point that were shared with the point opened before it.
+     */
+    public synchronized long getSegmentsReused() {
+        return segmentsReused;
+    }
+
+    private Shard shard(String name, Point point) throws IOException {
+        List<Shard> views = shards.get(name);
+        if (views == null) {
+            if (indexFiles == null) {
+                indexFiles = source.openIndexFiles();
+            }
+            views = groupPoints(name);
+            shards.put(name, views);
+        }
+        for (Shard shard : views) {
+            if (shard.points.contains(point.id)) {
+                return shard;
+            }
+        }
+        throw new IllegalStateException("Backup point " + point.id + " has no files for " + name);
+    }
+
+    /**
+     * Groups the points of a shard into directories in which every file name has one stored
+     * name. Lucene never rewrites a file under the same name, so points of one index always
+     * agree; a shard whose index was rebuilt between points (a restore, or a collection
+     * deleted and recreated under the same name) reuses names like {@code _0.cfs} for other
+     * files, and its points get a directory of their own.
+     */
+    private List<Shard> groupPoints(String name) throws IOException {
+        List<Map<String, String>> unions = new ArrayList<>();
+        List<Set<Integer>> members = new ArrayList<>();
+        for (Point point : points) {
+            Map<String, String> files = point.files.get(name);
+            if (files == null) {
+                continue;
+            }
+            int group = 0;
+            while (group < unions.size() && conflicts(unions.get(group), files)) {
+                group++;
+            }
+            if (group == unions.size()) {
+                if (group > 0) {
+                    logger.info("Files of {} in backup point {} conflict with earlier points; opening them separately",
+                                name, point.id);
+                }
+                unions.add(new HashMap<>());
+                members.add(new HashSet<>());
+            }
+            unions.get(group).putAll(files);
+            members.get(group).add(point.id);
+        }
+
+        List<Shard> views = new ArrayList<>();
+        for (int group = 0; group < unions.size(); group++) {
+            views.add(new Shard(new BackupIndexDirectory(indexFiles, unions.get(group)), members.get(group)));
+        }
+        return views;
+    }
+
+    private static boolean conflicts(Map<String, String> union, Map<String, String> files) {
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String storedName = union.get(file.getKey());
+            if (storedName != null && !storedName.equals(file.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String segmentsFile(Point point, String shard, Map<String, String> files) throws IOException {
+        String latest = null;
+        for (String fileName : files.keySet()) {
+            if (fileName.startsWith(IndexFileNames.SEGMENTS + "_") &&
+                (latest == null || SegmentInfos.generationFromSegmentsFileName(fileName) >
+                                   SegmentInfos.generationFromSegmentsFileName(latest))) {
+                latest = fileName;
+            }
+        }
+        if (latest == null) {
+            throw new IOException("No segments file for " + shard + " in backup point " + point.id);
+        }
+        return latest;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (List<Shard> views : shards.values()) {
+            for (Shard shard : views) {
+                if (shard.current != null) {
+                    shard.current.decRef();
+                    shard.current = null;
+                }
+            }
+        }
+        if (indexFiles != null) {
+            indexFiles.close();
+            indexFiles = null;
+        }
+    }
+
+    /**
+     * The files of one shard across the points that agree on them, and the reader of the
+     * point opened last.
+     */
+    private static class Shard {
+        final Directory directory;
+        final Set<Integer> points;
+        Map<String, IndexCommit> commits;
+        DirectoryReader current;
+
+        Shard(Directory directory, Set<Integer> points) {
+            this.directory = directory;
+            this.points = points;
+        }
+
+        IndexCommit commit(String segmentsFile) throws IOException {
+            if (commits == null) {
+                commits = new HashMap<>();
+                for (IndexCommit commit : DirectoryReader.listCommits(directory)) {
+                    commits.put(commit.getSegmentsFileName(), commit);
+                }
+            }
+            IndexCommit commit = commits.get(segmentsFile);
+            if (commit == null) {
+                throw new NoSuchFileException(segmentsFile);
+            }
+            return commit;
+        }
+    }
+
+    /**
+     * One backup point: its properties and, per shard, original file name to stored name.
+     */
+    public static class Point {
+        private final int id;
+        private final String propertiesFile;
+        private final BackupMetadata metadata;
+        private final Map<String, Map<String, String>> files;
+
+        Point(int id, String propertiesFile, BackupMetadata metadata, Map<String, Map<String, String>> files) {
+            this.id = id;
+            this.propertiesFile = propertiesFile;
+            this.metadata = metadata;
+            this.files = files;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getPropertiesFile() {
+            return propertiesFile;
+        }
+
+        public BackupMetadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * Stored names of this point's index files, across all shards.
+         */
+        public Set<String> getStoredNames() {
+            Set<String> storedNames = new HashSet<>();
+            for (Map<String, String> shardFiles : files.values()) {
+                storedNames.addAll(shardFiles.values());
+            }
+            return storedNames;
+        }
+    }
+
+    /**
+     * Summary of every point for {@code backup-points}: when it was taken, its size, and how
+     * many of its index files it adds to the points before it.
+     */
+    public List<Map<String, Object>> describe() {
+        List<Map<String, Object>> described = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Point point : points) {
+            Set<String> storedNames = point.getStoredNames();
+            long added = storedNames.stream().filter(name -> !seen.contains(name)).count();
+            seen.addAll(storedNames);
+
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("point", point.id);
+            entry.put("properties", point.propertiesFile);
+            entry.put("collection", point.metadata.getCollection());
+            entry.put("startTime", point.metadata.getStartTime() != null ? point.metadata.getStartTime().toString() : null);
+            entry.put("endTime", point.metadata.getEndTime() != null ? point.metadata.getEndTime().toString() : null);
+            entry.put("shards", point.files.size());
+            entry.put("indexFiles", storedNames.size());
+            entry.put("newIndexFiles", added);
+            entry.put("indexSizeMB", point.metadata.getIndexSizeMB());
+            described.add(entry);
+        }
+        return described;
+    }
+}
@@ -0,0 +1,312 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.StandardDirectoryReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reports the layout of an index for {@code inspect} from its metadata alone: segments from
+ * {@link SegmentInfos}, fields from each segment's {@link FieldInfo}s, term statistics from
+ * the terms dictionaries and sizes from the directory listing. No stored document is read,
+ * so the cost depends on the number of segments and fields rather than on the index size.
+ *
+ * <p>Solr backups are inspected in place through {@link BackupReader#openShardDirectories},
+ * without restoring any shard. Whether a field is stored is not recorded in the field
+ * metadata, so the report leaves it out.
+ */
+public class IndexInspector {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexInspector.class);
+
+    private final BackupPropertiesParser backupParser = new BackupPropertiesParser();
+    private final BackupReader backupReader = new BackupReader();
+
+    /**
+     * Inspects a plain Lucene index directory.
+     */
+    public Map<String, Object> inspectIndex(Path indexPath) throws IOException {
+        try (Directory directory = new NIOFSDirectory(indexPath)) {
+            return inspect(Map.of(indexPath.toString(), directory));
+        }
+    }
+
+    /**
+     * Inspects every shard of a Solr backup without restoring it.
+     */
+    public Map<String, Object> inspectBackup(Path propertiesPath, Path backupDirectory) throws IOException {
+        BackupMetadata metadata = backupParser.parseBackupProperties(propertiesPath);
+        Map<String, Directory> shards = backupReader.openShardDirectories(backupDirectory, metadata);
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No Lucene indexes found in backup directory");
+        }
+
+        try {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("collection", metadata.getCollection());
+            report.put("backupName", metadata.getBackupName());
+            report.putAll(inspect(shards));
+            return report;
+        } finally {
+            for (Directory directory : shards.values()) {
+                directory.close();
+            }
+        }
+    }
+
+    /**
+     * Inspects each named shard and adds totals over all of them.
+     */
+    Map<String, Object> inspect(Map<String, Directory> shards) throws IOException {
+        List<Map<String, Object>> shardReports = new ArrayList<>();
+        long segments = 0;
+        long maxDoc = 0;
+        long liveDocs = 0;
+        long sizeBytes = 0;
+        Map<String, Long> bytesByExtension = new TreeMap<>();
+
+        for (Map.Entry<String, Directory> shard : shards.entrySet()) {
+            Map<String, Object> shardReport = new LinkedHashMap<>();
+            shardReport.put("shard", shard.getKey());
+            shardReport.putAll(inspectDirectory(shard.getValue()));
+            shardReports.add(shardReport);
+
+            segments += (Integer) shardReport.get("segmentCount");
+            maxDoc += (Long) shardReport.get("maxDoc");
+            liveDocs += (Long) shardReport.get("liveDocs");
+            @SuppressWarnings("unchecked")
+            Map<String, Long> shardBytes = (Map<String, Long>) shardReport.get("bytesByExtension");
+            for (Map.Entry<String, Long> entry : shardBytes.entrySet()) {
+                bytesByExtension.merge(entry.getKey(), entry.getValue(), Long::sum);
+                sizeBytes += entry.getValue();
+            }
+        }
+
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("shards", shardReports.size());
+        totals.put("segments", segments);
+        totals.put("maxDoc", maxDoc);
+        totals.put("liveDocs", liveDocs);
+        totals.put("deletedDocs", maxDoc - liveDocs);
+        totals.put("deletionRatio", ratio(maxDoc - liveDocs, maxDoc));
+        totals.put("sizeBytes", sizeBytes);
+        totals.put("bytesByExtension", bytesByExtension);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("totals", totals);
+        report.put("shards", shardReports);
+        return report;
+    }
+
+    /**
+     * Inspects the latest commit of one index directory.
+     */
+    Map<String, Object> inspectDirectory(Directory directory) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            SegmentInfos infos = ((StandardDirectoryReader) reader).getSegmentInfos();
+            logger.info("Inspecting {} with {} segments", infos.getSegmentsFileName(), infos.size());
+
+            List<Map<String, Object>> segments = new ArrayList<>();
+            Map<String, FieldSummary> fields = new TreeMap<>();
+            long maxDoc = 0;
+            long liveDocs = 0;
+
+            for (LeafReaderContext leaf : reader.leaves()) {
+                LeafReader leafReader = leaf.reader();
+                SegmentCommitInfo info = ((SegmentReader) FilterLeafReader.unwrap(leafReader)).getSegmentInfo();
+                segments.add(describeSegment(info));
+                maxDoc += info.info.maxDoc();
+                liveDocs += info.info.maxDoc() - info.getDelCount() - info.getSoftDelCount();
+
+                for (FieldInfo fieldInfo : leafReader.getFieldInfos()) {
+                    fields.computeIfAbsent(fieldInfo.name, FieldSummary::new).add(leafReader, fieldInfo);
+                }
+            }
+
+            Map<String, Object> fieldReports = new LinkedHashMap<>();
+            for (FieldSummary field : fields.values()) {
+                fieldReports.put(field.name, field.describe());
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("segmentsFile", infos.getSegmentsFileName());
+            report.put("luceneVersion", String.valueOf(infos.getCommitLuceneVersion()));
+            report.put("minSegmentLuceneVersion", String.valueOf(infos.getMinSegmentLuceneVersion()));
+            report.put("commitData", infos.getUserData());
+            report.put("segmentCount", infos.size());
+            report.put("maxDoc", maxDoc);
+            report.put("liveDocs", liveDocs);
+            report.put("deletedDocs", maxDoc - liveDocs);
+            report.put("deletionRatio", ratio(maxDoc - liveDocs, maxDoc));
+            report.put("bytesByExtension", bytesByExtension(directory));
+            report.put("segments", segments);
+            report.put("fields", fieldReports);
+            return report;
+        }
+    }
+
+    private static Map<String, Object> describeSegment(SegmentCommitInfo info) throws IOException {
+        int maxDoc = info.info.maxDoc();
+        int deleted = info.getDelCount() + info.getSoftDelCount();
+
+        Map<String, Object> segment = new LinkedHashMap<>();
+        segment.put("name", info.info.name);
+        segment.put("codec", info.info.getCodec().getName());
+        segment.put("version", String.valueOf(info.info.getVersion()));
+        segment.put("maxDoc", maxDoc);
+        segment.put("liveDocs", maxDoc - deleted);
+        segment.put("deletedDocs", deleted);
+        segment.put("deletionRatio", ratio(deleted, maxDoc));
+        segment.put("compound", info.info.getUseCompoundFile());
+        segment.put("sizeBytes", info.sizeInBytes());
+        segment.put("source", info.info.getDiagnostics().get("source"));
+        if (info.info.getIndexSort() != null) {
+            segment.put("indexSort", info.info.getIndexSort().toString());
+        }
+        return segment;
+    }
+
+    /**
+     * Bytes on disk per file extension, with every {@code segments_N} file counted as
+     * {@code segments}.
+     */
+    static Map<String, Long> bytesByExtension(Directory directory) throws IOException {
+        Map<String, Long> bytes = new TreeMap<>();
+        for (String file : directory.listAll()) {
+            if (file.equals("write.lock")) {
+                continue;
+            }
+            String extension;
+            if (file.startsWith(IndexFileNames.SEGMENTS)) {
+                extension = IndexFileNames.SEGMENTS;
+            } else {
+                extension = IndexFileNames.getExtension(file);
+                if (extension == null) {
+                    extension = file;
+                }
+            }
+            bytes.merge(extension, directory.fileLength(file), Long::sum);
+        }
+        return bytes;
+    }
+
+    private static double ratio(long part, long whole) {
+        return whole == 0 ? 0 : (double) part / whole;
+    }
+
+    /**
+     * One field across all segments of an index. Term statistics are summed over segments,
+     * so {@code terms} is an upper bound on the distinct terms of the field.
+     */
+    private static class FieldSummary {
+        private final String name;
+        private int segments;
+        private IndexOptions indexOptions = IndexOptions.NONE;
+        private DocValuesType docValuesType = DocValuesType.NONE;
+        private int pointDimensions;
+        private int pointBytes;
+        private long points;
+        private int vectorDimension;
+        private String vectorEncoding;
+        private boolean norms;
+        private boolean termVectors;
+        private long terms;
+        private long docsWithTerms;
+        private long sumDocFreq;
+        private long sumTotalTermFreq;
+        private boolean termStatsKnown = true;
+
+        FieldSummary(String name) {
+            this.name = name;
+        }
+
+        void add(LeafReader leafReader, FieldInfo fieldInfo) throws IOException {
+            segments++;
+            if (fieldInfo.getIndexOptions().compareTo(indexOptions) > 0) {
+                indexOptions = fieldInfo.getIndexOptions();
+            }
+            if (fieldInfo.getDocValuesType() != DocValuesType.NONE) {
+                docValuesType = fieldInfo.getDocValuesType();
+            }
+            norms |= fieldInfo.hasNorms();
+            termVectors |= fieldInfo.hasVectors();
+
+            if (fieldInfo.getPointDimensionCount() > 0) {
+                pointDimensions = fieldInfo.getPointDimensionCount();
+                pointBytes = fieldInfo.getPointNumBytes();
+                PointValues values = leafReader.getPointValues(name);
+                if (values != null) {
+                    points += values.size();
+                }
+            }
+            if (fieldInfo.getVectorDimension() > 0) {
+                vectorDimension = fieldInfo.getVectorDimension();
+                vectorEncoding = fieldInfo.getVectorEncoding() + "/" + fieldInfo.getVectorSimilarityFunction();
+            }
+
+            if (fieldInfo.getIndexOptions() != IndexOptions.NONE) {
+                Terms fieldTerms = leafReader.terms(name);
+                if (fieldTerms != null) {
+                    long size = fieldTerms.size();
+                    if (size < 0) {
+                        termStatsKnown = false;
+                    }
+                    terms += Math.max(0, size);
+                    docsWithTerms += fieldTerms.getDocCount();
+                    sumDocFreq += fieldTerms.getSumDocFreq();
+                    sumTotalTermFreq += Math.max(0, fieldTerms.getSumTotalTermFreq());
+                }
+            }
+        }
+
+        Map<String, Object> describe() {
+            Map<String, Object> field = new LinkedHashMap<>();
+            field.put("segments", segments);
+            field.put("indexed", indexOptions != IndexOptions.NONE);
+            if (indexOptions != IndexOptions.NONE) {
+                field.put("indexOptions", indexOptions.toString());
+                field.put("norms", norms);
+                field.put("termVectors", termVectors);
+                field.put("terms", termStatsKnown ? terms : null);
+                field.put("docsWithTerms", docsWithTerms);
+                field.put("sumDocFreq", sumDocFreq);
+                field.put("sumTotalTermFreq", sumTotalTermFreq);
+            }
+            field.put("docValues", docValuesType != DocValuesType.NONE ? docValuesType.toString() : null);
+            field.put("points", pointDimensions > 0);
+            if (pointDimensions > 0) {
+                field.put("pointDimensions", pointDimensions);
+                field.put("pointBytes", pointBytes);
+                field.put("pointCount", points);
+            }
+            field.put("vectors", vectorDimension > 0);
+            if (vectorDimension > 0) {
+                field.put("vectorDimension", vectorDimension);
+                field.put("vectorEncoding", vectorEncoding);
+            }
+            return field;
+        }
+    }
+}
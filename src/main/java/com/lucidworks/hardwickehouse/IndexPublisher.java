@@ -0,0 +1,488 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the contents of an {@link IndexReader} as a {@link Flow.Publisher}, for callers
+ * that want documents in-process rather than as a JSONL file.
+ *
+ * <p>The index is split into {@link DocRange}s which are produced in parallel by up to
+ * {@code parallelism} threads. Produced items wait in a bounded buffer and are handed to
+ * the subscriber only as it signals demand; once the buffer is full the producers block,
+ * so a slow subscriber throttles reading of the index. Items from different ranges are
+ * interleaved, so document order is only preserved with a parallelism of 1.
+ *
+ * <p>Each publisher supports a single subscriber. The source reader is not closed by the
+ * publisher.
+ */
+public class IndexPublisher<T> implements Flow.Publisher<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexPublisher.class);
+
+    static final int DEFAULT_RANGE_SIZE = 100_000;
+
+    /**
+     * Produces the items of one range. Implementations run concurrently on different ranges
+     * and must keep any per-range state local.
+     */
+    @FunctionalInterface
+    public interface RangeProducer<T> {
+        void produce(DocRange range, Sink<T> sink) throws IOException, InterruptedException;
+    }
+
+    public interface Sink<T> {
+        /**
+         * Hands an item to the subscriber, blocking while the buffer is full. Throws
+         * {@link CancellationException} once the subscription has ended.
+         */
+        void emit(T item) throws InterruptedException;
+    }
+
+    private final List<DocRange> ranges;
+    private final RangeProducer<T> producer;
+    private final int parallelism;
+    private final int bufferSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private Throttle throttle;
+
+    public IndexPublisher(List<DocRange> ranges, RangeProducer<T> producer, int parallelism, int bufferSize) {
+        if (parallelism <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("parallelism and bufferSize must be positive");
+        }
+        this.ranges = ranges;
+        this.producer = producer;
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Limits how many producers run at once to the throttle's thread limit. Producers take a
+     * permit for each range and give it up between items when the limit is lowered. Must be
+     * set before subscribing.
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Publishes every live document of the index.
+     */
+    public static IndexPublisher<LuceneDocument> documents(IndexReader source, int parallelism) {
+        RangeProducer<LuceneDocument> producer = (range, sink) -> {
+            LeafReaderContext leaf = range.getLeaf();
+            StoredFields storedFields = leaf.reader().storedFields();
+            Bits liveDocs = source.getLiveDocs(leaf);
+
+            for (int doc = range.getFromDoc(); doc < range.getToDoc(); doc++) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    sink.emit(source.readDocument(leaf, storedFields, doc));
+                }
+            }
+        };
+        return new IndexPublisher<>(source.getDocRanges(DEFAULT_RANGE_SIZE), producer, parallelism, 1024);
+    }
+
+    /**
+     * Publishes every live document of the index as pre-serialized JSONL, at most
+     * {@code documentsPerChunk} records per chunk. Serialization happens on the producer
+     * threads, so the subscriber only has to copy bytes.
+     */
+    public static IndexPublisher<JsonChunk> jsonLines(IndexReader source, int parallelism, int documentsPerChunk) {
+        return jsonLines(source, new JsonLSerializer(), parallelism, documentsPerChunk);
+    }
+
+    public static IndexPublisher<JsonChunk> jsonLines(IndexReader source, JsonLSerializer serializer,
+                                                      int parallelism, int documentsPerChunk) {
+        return jsonLines(source, serializer, parallelism, documentsPerChunk, null, null);
+    }
+
+    /**
+     * Like {@link #jsonLines(IndexReader, JsonLSerializer, int, int)}, but with a
+     * {@link AdaptiveController} deciding chunk sizes and how many producers read at once,
+     * and {@link FieldStatistics} collecting statistics of every document serialized. Either
+     * may be null. {@code documentsPerChunk} is ignored when a controller is given.
+     */
+    public static IndexPublisher<JsonChunk> jsonLines(IndexReader source, JsonLSerializer serializer,
+                                                      int parallelism, int documentsPerChunk,
+                                                      AdaptiveController controller,
+                                                      FieldStatistics statistics) {
+        RangeProducer<JsonChunk> producer = (range, sink) -> {
+            LeafReaderContext leaf = range.getLeaf();
+            StoredFields storedFields = leaf.reader().storedFields();
+            Bits liveDocs = source.getLiveDocs(leaf);
+            DocumentBuffer document = new DocumentBuffer(source.getSchema());
+            document.startLeaf(leaf);
+            ChunkBuffer buffer = new ChunkBuffer();
+            FieldStatistics.Accumulator stats = statistics != null ? statistics.accumulator() : null;
+
+            try (JsonGenerator generator = JsonLSerializer.createGenerator(buffer)) {
+                int doc = range.getFromDoc();
+                while (doc < range.getToDoc()) {
+                    int limit = controller != null ? controller.documentsPerChunk() : documentsPerChunk;
+                    int documents = 0;
+
+                    if (controller != null) {
+                        controller.acquire();
+                    }
+                    try {
+                        for (; doc < range.getToDoc() && documents < limit; doc++) {
+                            if (liveDocs == null || liveDocs.get(doc)) {
+                                source.readDocument(leaf, storedFields, doc, document);
+                                serializer.writeDocument(generator, document);
+                                if (stats != null) {
+                                    stats.add(document);
+                                }
+                                documents++;
+                            }
+                        }
+                        generator.flush();
+                    } finally {
+                        if (controller != null) {
+                            controller.release();
+                            controller.recordChunk(documents, buffer.size());
+                        }
+                    }
+
+                    if (documents > 0) {
+                        sink.emit(new JsonChunk(buffer.take(), documents));
+                    }
+                }
+            }
+        };
+        return new IndexPublisher<>(source.getDocRanges(DEFAULT_RANGE_SIZE), producer,
+                                    parallelism, Math.max(4, 2 * parallelism));
+    }
+
+    /**
+     * Publishes every live document as pre-serialized JSONL grouped by partition. Each
+     * producer keeps a buffer and generator per partition it meets, and emits the records of
+     * all its partitions together every {@code documentsPerChunk} documents, so partitioning
+     * costs the writer one append per partition rather than one per record.
+     */
+    public static IndexPublisher<PartitionedChunk> partitionedJsonLines(IndexReader source, JsonLSerializer serializer,
+                                                                        PartitionSpec partitionSpec, int parallelism,
+                                                                        int documentsPerChunk, FieldStatistics statistics) {
+        RangeProducer<PartitionedChunk> producer = (range, sink) -> {
+            LeafReaderContext leaf = range.getLeaf();
+            StoredFields storedFields = leaf.reader().storedFields();
+            Bits liveDocs = source.getLiveDocs(leaf);
+            DocumentBuffer document = new DocumentBuffer(source.getSchema());
+            document.startLeaf(leaf);
+            FieldStatistics.Accumulator stats = statistics != null ? statistics.accumulator() : null;
+            Map<Long, PartitionBuffer> partitions = new HashMap<>();
+
+            try {
+                int documents = 0;
+                for (int doc = range.getFromDoc(); doc < range.getToDoc(); doc++) {
+                    if (liveDocs == null || liveDocs.get(doc)) {
+                        source.readDocument(leaf, storedFields, doc, document);
+                        long key = partitionSpec.partitionOf(document);
+                        PartitionBuffer partition = partitions.get(key);
+                        if (partition == null) {
+                            partition = new PartitionBuffer();
+                            partitions.put(key, partition);
+                        }
+                        serializer.writeDocument(partition.generator, document);
+                        partition.documents++;
+                        if (stats != null) {
+                            stats.add(document);
+                        }
+                        if (++documents == documentsPerChunk) {
+                            sink.emit(PartitionBuffer.take(partitions, documents));
+                            documents = 0;
+                        }
+                    }
+                }
+                if (documents > 0) {
+                    sink.emit(PartitionBuffer.take(partitions, documents));
+                }
+            } finally {
+                for (PartitionBuffer partition : partitions.values()) {
+                    partition.generator.close();
+                }
+            }
+        };
+        return new IndexPublisher<>(source.getDocRanges(DEFAULT_RANGE_SIZE), producer,
+                                    parallelism, Math.max(4, 2 * parallelism));
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("IndexPublisher supports a single subscriber"));
+            return;
+        }
+
+        RangeSubscription subscription = new RangeSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    private class RangeSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final BlockingQueue<T> queue = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicInteger nextRange = new AtomicInteger();
+        private final AtomicInteger activeProducers = new AtomicInteger();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private volatile boolean cancelled;
+        private volatile boolean producersDone;
+        private boolean terminated;
+        private ExecutorService executor;
+
+        RangeSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            int producers = Math.min(parallelism, ranges.size());
+            if (producers == 0) {
+                producersDone = true;
+                drain();
+                return;
+            }
+
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(producers, r -> {
+                Thread t = new Thread(r, "index-publisher-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+            activeProducers.set(producers);
+            for (int i = 0; i < producers; i++) {
+                executor.execute(this::runProducer);
+            }
+        }
+
+        private void runProducer() {
+            try {
+                int index;
+                while (!cancelled && error.get() == null && (index = nextRange.getAndIncrement()) < ranges.size()) {
+                    if (throttle == null) {
+                        producer.produce(ranges.get(index), this::emit);
+                        continue;
+                    }
+                    throttle.acquireThread();
+                    try {
+                        producer.produce(ranges.get(index), this::emit);
+                    } finally {
+                        throttle.releaseThread();
+                    }
+                }
+            } catch (CancellationException e) {
+                // subscription ended while this producer was emitting
+            } catch (Throwable t) {
+                if (!cancelled) {
+                    error.compareAndSet(null, t);
+                } else {
+                    logger.debug("Producer failed after cancellation", t);
+                }
+            } finally {
+                if (activeProducers.decrementAndGet() == 0) {
+                    producersDone = true;
+                }
+                drain();
+            }
+        }
+
+        private void emit(T item) throws InterruptedException {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled || error.get() != null) {
+                    throw new CancellationException();
+                }
+            }
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            drain();
+            if (throttle != null) {
+                throttle.yieldThread();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error.compareAndSet(null, new IllegalArgumentException("Requested " + n + " items; demand must be positive"));
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> {
+                    long sum = current + added;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            // Producers are not interrupted: an interrupt closes NIO channels of the shared
+            // index. They notice the flag on their next emit instead.
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Delivers buffered items up to the outstanding demand. Callers on any thread may
+         * enter; the work counter makes sure only one of them signals the subscriber at a
+         * time.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                if (!terminated) {
+                    drainOnce();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainOnce() {
+            if (cancelled) {
+                terminate();
+                return;
+            }
+
+            Throwable failure = error.get();
+            if (failure != null) {
+                terminate();
+                subscriber.onError(failure);
+                return;
+            }
+
+            long requested = demand.get();
+            long emitted = 0;
+            while (emitted != requested && !cancelled) {
+                T item = queue.poll();
+                if (item == null) {
+                    break;
+                }
+                try {
+                    subscriber.onNext(item);
+                } catch (Throwable t) {
+                    logger.warn("Subscriber threw from onNext; cancelling subscription", t);
+                    cancelled = true;
+                }
+                emitted++;
+            }
+
+            if (emitted > 0 && requested != Long.MAX_VALUE) {
+                demand.addAndGet(-emitted);
+            }
+
+            if (cancelled) {
+                terminate();
+            } else if (producersDone && queue.isEmpty()) {
+                failure = error.get();
+                terminate();
+                if (failure != null) {
+                    subscriber.onError(failure);
+                } else {
+                    subscriber.onComplete();
+                }
+            }
+        }
+
+        private void terminate() {
+            terminated = true;
+            cancelled = true;
+            queue.clear();
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Records of one partition serialized by a producer since its last emit.
+     */
+    private static class PartitionBuffer {
+        // Small to start with: a producer may hold one for each of hundreds of partitions
+        final ChunkBuffer buffer = new ChunkBuffer(4 * 1024);
+        final JsonGenerator generator;
+        int documents;
+
+        PartitionBuffer() throws IOException {
+            generator = JsonLSerializer.createGenerator(buffer);
+        }
+
+        /**
+         * Hands off the pending records of every partition that has any.
+         */
+        static PartitionedChunk take(Map<Long, PartitionBuffer> partitions, int documents) throws IOException {
+            List<Long> keys = new ArrayList<>();
+            List<JsonChunk> chunks = new ArrayList<>();
+            for (Map.Entry<Long, PartitionBuffer> entry : partitions.entrySet()) {
+                PartitionBuffer partition = entry.getValue();
+                if (partition.documents > 0) {
+                    partition.generator.flush();
+                    keys.add(entry.getKey());
+                    chunks.add(new JsonChunk(partition.buffer.take(), partition.documents));
+                    partition.documents = 0;
+                }
+            }
+            return new PartitionedChunk(keys.stream().mapToLong(Long::longValue).toArray(),
+                                        chunks.toArray(new JsonChunk[0]), documents);
+        }
+    }
+
+    /**
+     * Growable byte buffer whose contents can be handed off without copying.
+     */
+    static class ChunkBuffer extends ByteArrayOutputStream {
+
+        ChunkBuffer() {
+            this(64 * 1024);
+        }
+
+        ChunkBuffer(int initialSize) {
+            super(initialSize);
+        }
+
+        ByteBuffer take() {
+            ByteBuffer bytes = ByteBuffer.wrap(buf, 0, count);
+            buf = new byte[Math.max(32, buf.length)];
+            count = 0;
+            return bytes;
+        }
+    }
+}
@@ -2,16 +2,29 @@ package com.lucidworks.hardwickehouse;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FilterLeafReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiBits;
 import org.apache.lucene.index.MultiReader;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,15 +35,35 @@ public class IndexReader {
     
     private static final Logger logger = LoggerFactory.getLogger(IndexReader.class);
     
+    private static final int SCHEMA_SAMPLE_SIZE = 1000;
+    
     private org.apache.lucene.index.IndexReader reader;
     private List<DirectoryReader> shardReaders;
+    private List<Directory> ownedDirectories = List.of();
     private int currentDocIndex = 0;
     private JsonLSchema schema;
     private boolean isMultiShard = false;
+    private FixedBitSet acceptedDocs;
+    private long acceptedCount;
+    private DocRange window;
+    private long windowCount;
+    private Throttle throttle;
+    
+    /**
+     * Charges every index read to the throttle's read limit. Must be set before the index
+     * is opened, and has no effect on readers passed to {@link #initializeReaders}.
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+    
+    private Directory throttled(Directory directory) {
+        return throttle != null ? new ThrottledDirectory(directory, throttle) : directory;
+    }
     
     public void initialize(Path indexPath) throws IOException {
         logger.info("Opening Lucene index at: {}", indexPath);
-        NIOFSDirectory directory = new NIOFSDirectory(indexPath);
+        Directory directory = throttled(new NIOFSDirectory(indexPath));
         reader = DirectoryReader.open(directory);
         isMultiShard = false;
         
@@ -40,6 +73,46 @@ public class IndexReader {
         logger.info("Schema inference completed. Found {} fields", schema.getFieldCount());
     }
     
+    /**
+     * Opens already opened directories, such as {@link GcsDirectory} shards, as one index.
+     * The directories are closed with this reader, or right away if opening fails.
+     */
+    public void initializeDirectories(List<Directory> directories) throws IOException {
+        ownedDirectories = List.copyOf(directories);
+        logger.info("Opening {} shard directories", directories.size());
+        
+        List<DirectoryReader> readers = new ArrayList<>();
+        try {
+            for (Directory directory : directories) {
+                logger.info("Opening shard index in: {}", directory);
+                readers.add(DirectoryReader.open(throttled(directory)));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (DirectoryReader opened : readers) {
+                opened.close();
+            }
+            close();
+            throw e;
+        }
+        
+        initializeReaders(readers);
+    }
+    
+    /**
+     * Reads already opened shard readers, such as the points of an {@link IncrementalBackup},
+     * as one index. Each reader is closed with this reader.
+     */
+    public void initializeReaders(List<DirectoryReader> readers) throws IOException {
+        shardReaders = new ArrayList<>(readers);
+        isMultiShard = true;
+        reader = new MultiReader(shardReaders.toArray(new org.apache.lucene.index.IndexReader[0]));
+        
+        logger.info("Multi-shard index opened successfully. Total documents: {}", reader.numDocs());
+        
+        schema = inferSchema();
+        logger.info("Schema inference completed. Found {} fields", schema.getFieldCount());
+    }
+    
     public void initializeMultiShard(List<Path> indexPaths) throws IOException {
         logger.info("Opening {} shard indexes", indexPaths.size());
         
@@ -48,7 +121,7 @@ public class IndexReader {
         
         for (Path indexPath : indexPaths) {
             logger.info("Opening shard index at: {}", indexPath);
-            NIOFSDirectory directory = new NIOFSDirectory(indexPath);
+            Directory directory = throttled(new NIOFSDirectory(indexPath));
             DirectoryReader shardReader = DirectoryReader.open(directory);
             shardReaders.add(shardReader);
             readers.add(shardReader);
@@ -64,26 +137,200 @@ public class IndexReader {
     }
     
     public long getTotalDocuments() {
-        return reader.numDocs();
+        if (window != null) {
+            return windowCount;
+        }
+        return acceptedDocs != null ? acceptedCount : reader.numDocs();
+    }
+    
+    public int getMaxDoc() {
+        return reader.maxDoc();
+    }
+    
+    /**
+     * Stored fields of the whole index, addressed by global doc ID.
+     */
+    public StoredFields storedFields() throws IOException {
+        return reader.storedFields();
+    }
+    
+    /**
+     * Restricts reading to a subset of the live documents, by global doc ID. Used to drop
+     * duplicates found by a {@link Deduplicator}.
+     */
+    public void setAcceptedDocs(FixedBitSet acceptedDocs, long acceptedCount) {
+        this.acceptedDocs = acceptedDocs;
+        this.acceptedCount = acceptedCount;
+    }
+    
+    /**
+     * Restricts reading to the doc IDs [{@code fromDoc}, {@code toDoc}) of one leaf, the
+     * span of a {@link WorkPlan} unit. Ranges, live documents and the document total all
+     * cover the span only; the schema is still that of the whole index, so every unit of a
+     * plan writes records the same way.
+     */
+    public void restrictToRange(int leafOrd, int fromDoc, int toDoc) {
+        LeafReaderContext leaf = reader.leaves().get(leafOrd);
+        if (fromDoc < 0 || fromDoc > toDoc || toDoc > leaf.reader().maxDoc()) {
+            throw new IllegalArgumentException("Doc IDs [" + fromDoc + ", " + toDoc + ") are outside leaf " + leafOrd);
+        }
+        
+        Bits accepted = getLiveDocs(leaf);
+        long count = 0;
+        for (int doc = fromDoc; doc < toDoc; doc++) {
+            if (accepted == null || accepted.get(doc)) {
+                count++;
+            }
+        }
+        window = new DocRange(leaf, fromDoc, toDoc);
+        windowCount = count;
+    }
+    
+    /**
+     * Lifts a restriction set by {@link #restrictToRange}, so the whole index is read again.
+     */
+    public void clearRange() {
+        window = null;
+        windowCount = 0;
+    }
+    
+    /**
+     * Documents of a leaf that should be read: its live documents, narrowed to the accepted
+     * documents and the restricted range if any were set. Returns null when every document
+     * is to be read.
+     */
+    public Bits getLiveDocs(LeafReaderContext leaf) {
+        Bits accepted = acceptedDocs == null ? leaf.reader().getLiveDocs() : acceptedBits(leaf);
+        if (window == null) {
+            return accepted;
+        }
+        
+        int maxDoc = leaf.reader().maxDoc();
+        if (leaf.ord != window.getLeaf().ord) {
+            return new Bits.MatchNoBits(maxDoc);
+        }
+        int fromDoc = window.getFromDoc();
+        int toDoc = window.getToDoc();
+        return new Bits() {
+            @Override
+            public boolean get(int index) {
+                return index >= fromDoc && index < toDoc && (accepted == null || accepted.get(index));
+            }
+            
+            @Override
+            public int length() {
+                return maxDoc;
+            }
+        };
+    }
+    
+    private Bits acceptedBits(LeafReaderContext leaf) {
+        int docBase = leaf.docBase;
+        int maxDoc = leaf.reader().maxDoc();
+        return new Bits() {
+            @Override
+            public boolean get(int index) {
+                return acceptedDocs.get(docBase + index);
+            }
+            
+            @Override
+            public int length() {
+                return maxDoc;
+            }
+        };
     }
     
     public JsonLSchema getSchema() {
         return schema;
     }
     
+    public List<LeafReaderContext> getLeaves() {
+        return reader.leaves();
+    }
+    
+    /**
+     * The position of the shard holding a leaf among the shards opened, 0 for a single index.
+     */
+    public int getShard(LeafReaderContext leaf) {
+        if (shardReaders == null) {
+            return 0;
+        }
+        int leaves = 0;
+        for (int shard = 0; shard < shardReaders.size(); shard++) {
+            leaves += shardReaders.get(shard).leaves().size();
+            if (leaf.ord < leaves) {
+                return shard;
+            }
+        }
+        throw new IllegalArgumentException("Leaf " + leaf.ord + " is not part of this index");
+    }
+    
+    /**
+     * The name of the segment a leaf reads, such as {@code _4f}.
+     */
+    public static String getSegmentName(LeafReaderContext leaf) {
+        LeafReader unwrapped = FilterLeafReader.unwrap(leaf.reader());
+        return unwrapped instanceof SegmentReader segment ? segment.getSegmentName() : "leaf-" + leaf.ord;
+    }
+    
+    /**
+     * Splits every leaf into ranges of at most {@code maxDocsPerRange} doc IDs. Ranges are
+     * the unit of parallel work: each one is read with its own {@link StoredFields}.
+     */
+    public List<DocRange> getDocRanges(int maxDocsPerRange) {
+        List<DocRange> ranges = new ArrayList<>();
+        
+        if (window != null) {
+            for (int from = window.getFromDoc(); from < window.getToDoc(); from += maxDocsPerRange) {
+                ranges.add(new DocRange(window.getLeaf(), from, Math.min(window.getToDoc(), from + maxDocsPerRange)));
+            }
+            return ranges;
+        }
+        
+        for (LeafReaderContext leaf : reader.leaves()) {
+            int maxDoc = leaf.reader().maxDoc();
+            for (int from = 0; from < maxDoc; from += maxDocsPerRange) {
+                ranges.add(new DocRange(leaf, from, Math.min(maxDoc, from + maxDocsPerRange)));
+            }
+        }
+        
+        return ranges;
+    }
+    
     public List<LuceneDocument> readBatch(int batchSize) throws IOException {
         List<LuceneDocument> batch = new ArrayList<>();
+        Bits liveDocs = acceptedDocs != null ? acceptedDocs : MultiBits.getLiveDocs(reader);
+        StoredFields storedFields = reader.storedFields();
         
-        for (int i = 0; i < batchSize && currentDocIndex < reader.numDocs(); i++) {
-            Document luceneDoc = reader.document(currentDocIndex);
-            LuceneDocument doc = convertDocument(luceneDoc, currentDocIndex);
-            batch.add(doc);
+        while (batch.size() < batchSize && currentDocIndex < reader.maxDoc()) {
+            if (liveDocs == null || liveDocs.get(currentDocIndex)) {
+                batch.add(convertDocument(storedFields.document(currentDocIndex), currentDocIndex));
+            }
             currentDocIndex++;
         }
         
         return batch;
     }
     
+    /**
+     * Reads one document of a leaf. {@code storedFields} must come from that leaf and must
+     * not be shared between threads.
+     */
+    public LuceneDocument readDocument(LeafReaderContext leaf, StoredFields storedFields, int leafDocId) throws IOException {
+        return convertDocument(storedFields.document(leafDocId), leaf.docBase + leafDocId);
+    }
+    
+    /**
+     * Loads one document of a leaf into a reused buffer. The buffer must have been started
+     * on the same leaf.
+     */
+    public void readDocument(LeafReaderContext leaf, StoredFields storedFields, int leafDocId,
+                             DocumentBuffer buffer) throws IOException {
+        buffer.reset();
+        storedFields.document(leafDocId, buffer.visitor());
+        buffer.setDocId(leaf.docBase + leafDocId);
+    }
+    
     private LuceneDocument convertDocument(Document luceneDoc, int docId) {
         LuceneDocument doc = new LuceneDocument(docId);
         
@@ -101,8 +348,11 @@ public class IndexReader {
             return field.numericValue();
         }
         
-        if (field.binaryValue() != null) {
-            return field.binaryValue().bytes;
+        // Keep the BytesRef itself: its backing array may be larger than the value, and
+        // the serializer encodes the (offset, length) slice without copying it
+        BytesRef binary = field.binaryValue();
+        if (binary != null) {
+            return binary;
         }
         
         return field.stringValue();
@@ -114,11 +364,15 @@ public class IndexReader {
         Map<String, FieldType> fieldTypes = new HashMap<>();
         Set<String> allFieldNames = new HashSet<>();
         
-        int sampleSize = Math.min(1000, reader.numDocs());
-        logger.info("Sampling {} documents for schema inference", sampleSize);
+        // Spread over every leaf, so fields added in later segments are seen too
+        FixedBitSet sample = DocSampler.ofCount(SCHEMA_SAMPLE_SIZE, DocSampler.DEFAULT_SEED)
+            .select(reader.leaves(), leaf -> leaf.reader().getLiveDocs(), reader.maxDoc());
+        logger.info("Sampling {} documents for schema inference", sample.cardinality());
         
-        for (int i = 0; i < sampleSize; i++) {
-            Document doc = reader.document(i);
+        StoredFields storedFields = reader.storedFields();
+        for (int i = sample.nextSetBit(0); i != DocIdSetIterator.NO_MORE_DOCS;
+             i = i + 1 < sample.length() ? sample.nextSetBit(i + 1) : DocIdSetIterator.NO_MORE_DOCS) {
+            Document doc = storedFields.document(i);
             
             for (IndexableField field : doc.getFields()) {
                 String fieldName = field.name();
@@ -135,8 +389,56 @@ public class IndexReader {
             }
         }
         
-        logger.info("Schema inference found {} unique fields", allFieldNames.size());
-        return new JsonLSchema(fieldTypes);
+        Set<String> multiValuedFields = findRepeatedFields();
+        logger.info("Schema inference found {} unique fields ({} multi-valued)", 
+                   allFieldNames.size(), multiValuedFields.size());
+        return new JsonLSchema(fieldTypes, multiValuedFields);
+    }
+    
+    /**
+     * Names of the fields that any document, deleted or not, stores more than once.
+     *
+     * <p>Whether a field is written as an array decides the shape of every record and
+     * column, so unlike types it is not taken from the sample: a field the sample only saw
+     * once would otherwise be a scalar in most records and an array in the rest. Only field
+     * numbers are visited, never values, and leaves whose fields are all known to repeat
+     * are skipped. Deleted documents count too, so the answer for a segment does not
+     * change with its deletes.
+     */
+    private Set<String> findRepeatedFields() throws IOException {
+        Set<String> repeated = new HashSet<>();
+        for (LeafReaderContext leaf : reader.leaves()) {
+            LeafReader leafReader = leaf.reader();
+            int maxFieldNumber = -1;
+            boolean unknown = false;
+            for (FieldInfo fieldInfo : leafReader.getFieldInfos()) {
+                maxFieldNumber = Math.max(maxFieldNumber, fieldInfo.number);
+                unknown |= !repeated.contains(fieldInfo.name);
+            }
+            if (!unknown) {
+                continue;
+            }
+            
+            int[] lastDoc = new int[maxFieldNumber + 1];
+            Arrays.fill(lastDoc, -1);
+            int[] doc = new int[1];
+            StoredFieldVisitor visitor = new StoredFieldVisitor() {
+                @Override
+                public Status needsField(FieldInfo fieldInfo) {
+                    if (lastDoc[fieldInfo.number] == doc[0]) {
+                        repeated.add(fieldInfo.name);
+                    }
+                    lastDoc[fieldInfo.number] = doc[0];
+                    return Status.NO;
+                }
+            };
+            
+            StoredFields leafFields = leafReader.storedFields();
+            for (doc[0] = 0; doc[0] < leafReader.maxDoc(); doc[0]++) {
+                leafFields.document(doc[0], visitor);
+            }
+        }
+        return repeated;
     }
     
     private FieldType inferFieldType(IndexableField field) {
@@ -165,12 +467,19 @@ public class IndexReader {
             for (DirectoryReader shardReader : shardReaders) {
                 shardReader.close();
             }
+            shardReaders = null;
             logger.info("Multi-shard Lucene index readers closed");
         }
         
         if (reader != null) {
             reader.close();
+            reader = null;
             logger.info("Lucene index reader closed");
         }
+        
+        for (Directory directory : ownedDirectories) {
+            directory.close();
+        }
+        ownedDirectories = List.of();
     }
 }
\ No newline at end of file
@@ -0,0 +1,26 @@
+package com.lucidworks.hardwickehouse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A run of complete, newline-terminated JSONL records serialized by one producer, ready to
+ * be appended to an output stream as-is.
+ */
+public class JsonChunk {
+    
+    private final ByteBuffer bytes;
+    private final int documentCount;
+    
+    public JsonChunk(ByteBuffer bytes, int documentCount) {
+        this.bytes = bytes;
+        this.documentCount = documentCount;
+    }
+    
+    public ByteBuffer getBytes() {
+        return bytes;
+    }
+    
+    public int getDocumentCount() {
+        return documentCount;
+    }
+}
@@ -0,0 +1,498 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds Lucene indexes from JSONL records, for the {@code import} command: the reverse of a
+ * conversion, for disaster recovery and test fixtures.
+ *
+ * <p>Each part is read by one thread, which cuts it into blocks of whole lines (and inflates
+ * it first if it is gzipped). A pool of workers parses the blocks and adds their documents to
+ * shared {@link IndexWriter}s, whose per-thread buffers let indexing scale with the workers;
+ * a single large gzipped part is therefore bounded by how fast one thread inflates it.
+ *
+ * <p>Every value becomes a stored field, the only thing a conversion exports. Values are
+ * typed by a {@link JsonLSchema}, normally read from the statistics written beside the
+ * export, so that integers, floats and binary fields come back as they were; without one,
+ * JSON integers are stored as longs, other numbers as doubles, and strings as strings.
+ * Arrays become multi-valued fields and {@code _docId} is dropped. The id field is also
+ * indexed as a string, so that documents can be updated or deleted by it. With several
+ * shards, each record goes to the shard its id hashes to, as {@code --partition-by hash}
+ * assigns buckets.
+ */
+public class JsonLImporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonLImporter.class);
+
+    public static final double DEFAULT_RAM_BUFFER_MB = 256;
+    static final int DEFAULT_BLOCK_BYTES = 1024 * 1024;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final Block END = new Block(null, new byte[0], 0);
+    private static final long POLL_MILLIS = 100;
+
+    private final JsonLSchema schema;
+    private final BinaryEncoding binaryEncoding;
+    private final String idField;
+    private final int threads;
+    private final int blockBytes;
+    private int shards = 1;
+    private double ramBufferMB = DEFAULT_RAM_BUFFER_MB;
+    private int maxSegments = 0;
+
+    /**
+     * @param schema types of the fields, or null to type values by their JSON form alone
+     */
+    public JsonLImporter(JsonLSchema schema, BinaryEncoding binaryEncoding, String idField, int threads) {
+        this(schema, binaryEncoding, idField, threads, DEFAULT_BLOCK_BYTES);
+    }
+
+    JsonLImporter(JsonLSchema schema, BinaryEncoding binaryEncoding, String idField, int threads, int blockBytes) {
+        this.schema = schema;
+        this.binaryEncoding = binaryEncoding;
+        this.idField = idField;
+        this.threads = Math.max(1, threads);
+        this.blockBytes = blockBytes;
+    }
+
+    /**
+     * Writes {@code shards} indexes, {@code shard1} to {@code shardN} under the output
+     * directory, instead of one index in it.
+     */
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Memory each index writer buffers documents in before flushing a segment.
+     */
+    public void setRamBufferMB(double ramBufferMB) {
+        this.ramBufferMB = ramBufferMB;
+    }
+
+    /**
+     * Segments each index is merged down to once every record is added, or 0 to leave the
+     * segments the merge policy produced.
+     */
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Reads the field types of the statistics written beside an export.
+     */
+    public static JsonLSchema readSchema(Path statistics) throws IOException {
+        JsonNode fields = new ObjectMapper().readTree(statistics.toFile()).get("fields");
+        if (fields == null || !fields.isObject()) {
+            throw new IOException(statistics + " is not a statistics file: it has no fields");
+        }
+        Map<String, FieldType> fieldTypes = new HashMap<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = fields.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            JsonNode type = field.getValue().get("type");
+            if (type != null && type.isTextual()) {
+                fieldTypes.put(field.getKey(), FieldType.valueOf(type.asText()));
+            }
+        }
+        return new JsonLSchema(fieldTypes);
+    }
+
+    /**
+     * The statistics written with the given parts, if there are any: {@code _stats.json} in
+     * a directory or {@code <name>.stats.json} beside a file.
+     */
+    public static Path findStatistics(List<Path> inputs) {
+        for (Path input : inputs) {
+            Path statistics = Files.isDirectory(input) ? input.resolve("_stats.json")
+                : Path.of(FieldStatistics.statsLocation(input.toString()));
+            if (Files.isRegularFile(statistics)) {
+                return statistics;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Indexes every record of {@code parts} into new indexes under {@code output}, which must
+     * not already hold files, and returns a report of what was written.
+     */
+    public Map<String, Object> importParts(List<Path> parts, Path output, ProgressReporter progressReporter)
+            throws IOException, InterruptedException {
+        if (shards < 1) {
+            throw new IllegalArgumentException("--shards must be positive");
+        }
+        if (ramBufferMB <= 0) {
+            throw new IllegalArgumentException("--ram-buffer-mb must be positive");
+        }
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("--max-segments must not be negative");
+        }
+        if (Files.isDirectory(output)) {
+            try (Stream<Path> files = Files.list(output)) {
+                if (files.findAny().isPresent()) {
+                    throw new IllegalArgumentException("Output directory " + output + " is not empty");
+                }
+            }
+        }
+
+        Instant start = Instant.now();
+        List<Path> shardPaths = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            shardPaths.add(shards == 1 ? output : output.resolve("shard" + (shard + 1)));
+        }
+        logger.info("Importing {} parts into {} with {} threads", parts.size(),
+                    shards == 1 ? output : shards + " shards under " + output, threads);
+
+        IndexWriter[] writers = new IndexWriter[shards];
+        AtomicLongArray shardDocuments = new AtomicLongArray(shards);
+        AtomicLong documents = new AtomicLong();
+        boolean succeeded = false;
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                Files.createDirectories(shardPaths.get(shard));
+                writers[shard] = new IndexWriter(FSDirectory.open(shardPaths.get(shard)), writerConfig());
+            }
+
+            run(parts, writers, shardDocuments, documents, progressReporter);
+            progressReporter.updateProgress(documents.get());
+
+            for (IndexWriter writer : writers) {
+                if (maxSegments > 0) {
+                    logger.info("Merging {} down to {} segments", writer.getDirectory(), maxSegments);
+                    writer.forceMerge(maxSegments);
+                }
+                writer.commit();
+            }
+            succeeded = true;
+        } finally {
+            for (IndexWriter writer : writers) {
+                if (writer == null) {
+                    continue;
+                }
+                if (succeeded) {
+                    writer.close();
+                } else {
+                    writer.rollback();
+                }
+                writer.getDirectory().close();
+            }
+        }
+
+        double seconds = Duration.between(start, Instant.now()).toMillis() / 1000.0;
+        List<Map<String, Object>> shardReports = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            Map<String, Object> shardReport = new LinkedHashMap<>();
+            shardReport.put("path", shardPaths.get(shard).toString());
+            shardReport.put("documents", shardDocuments.get(shard));
+            shardReports.add(shardReport);
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("documents", documents.get());
+        report.put("parts", parts.size());
+        report.put("shards", shardReports);
+        report.put("threads", threads);
+        report.put("seconds", seconds);
+        report.put("documentsPerSecond", seconds > 0 ? Math.round(documents.get() / seconds) : documents.get());
+        logger.info("Imported {} documents in {} s", documents.get(), seconds);
+        return report;
+    }
+
+    private IndexWriterConfig writerConfig() {
+        // Wider tiers merge less while loading; the files are written once, so no compound files
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(20);
+        mergePolicy.setNoCFSRatio(0.0);
+        return new IndexWriterConfig()
+            .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+            .setRAMBufferSizeMB(ramBufferMB)
+            .setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH)
+            .setUseCompoundFile(false)
+            .setMergePolicy(mergePolicy);
+    }
+
+    private void run(List<Path> parts, IndexWriter[] writers, AtomicLongArray shardDocuments, AtomicLong documents,
+                     ProgressReporter progressReporter) throws IOException, InterruptedException {
+        BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(2 * threads);
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicInteger nextPart = new AtomicInteger();
+        AtomicInteger threadCount = new AtomicInteger();
+        int readers = Math.min(parts.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + Math.max(1, readers), r -> {
+            Thread t = new Thread(r, "import-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        Throwable failure = null;
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    RecordParser parser = new RecordParser();
+                    try {
+                        while (!stopped.get()) {
+                            Block block = blocks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                            if (block == END) {
+                                break;
+                            }
+                            if (block != null) {
+                                long added = parser.index(block, writers, shardDocuments);
+                                progressReporter.updateProgress(documents.addAndGet(added));
+                            }
+                        }
+                    } catch (Exception | Error e) {
+                        // Readers waiting for room in the queue would otherwise wait forever
+                        stopped.set(true);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+
+            List<Future<?>> partReaders = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                partReaders.add(executor.submit(() -> {
+                    int part;
+                    try {
+                        while (!stopped.get() && (part = nextPart.getAndIncrement()) < parts.size()) {
+                            readPart(parts.get(part), blocks, stopped);
+                        }
+                    } catch (Exception | Error e) {
+                        stopped.set(true);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> reader : partReaders) {
+                failure = await(reader, failure, stopped);
+            }
+            for (int i = 0; i < threads; i++) {
+                offer(blocks, END, stopped);
+            }
+            for (Future<?> worker : workers) {
+                failure = await(worker, failure, stopped);
+            }
+        } finally {
+            stopped.set(true);
+            executor.shutdown();
+        }
+
+        if (failure instanceof IOException io) {
+            throw io;
+        }
+        if (failure instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (failure != null) {
+            throw new IOException("Import failed", failure);
+        }
+    }
+
+    private static Throwable await(Future<?> future, Throwable failure, AtomicBoolean stopped)
+            throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            stopped.set(true);
+            return failure != null ? failure : e.getCause();
+        }
+        return failure;
+    }
+
+    private static void offer(BlockingQueue<Block> blocks, Block block, AtomicBoolean stopped)
+            throws InterruptedException {
+        while (!stopped.get() && !blocks.offer(block, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            // Waiting for a worker to take a block
+        }
+    }
+
+    /**
+     * Cuts a part into blocks that end at a line break. A line longer than a block grows the
+     * block until it fits.
+     */
+    private void readPart(Path part, BlockingQueue<Block> blocks, AtomicBoolean stopped)
+            throws IOException, InterruptedException {
+        logger.info("Reading {}", part);
+        try (InputStream input = part.toString().endsWith(".gz")
+                 ? new GZIPInputStream(Files.newInputStream(part), 64 * 1024) : Files.newInputStream(part)) {
+            byte[] buffer = new byte[blockBytes];
+            int filled = 0;
+            while (!stopped.get()) {
+                int read = input.read(buffer, filled, buffer.length - filled);
+                if (read < 0) {
+                    if (filled > 0) {
+                        offer(blocks, new Block(part, buffer, filled), stopped);
+                    }
+                    return;
+                }
+                filled += read;
+                if (filled < buffer.length) {
+                    continue;
+                }
+
+                int end = filled;
+                while (end > 0 && buffer[end - 1] != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                    continue;
+                }
+                byte[] next = new byte[Math.max(blockBytes, 2 * (filled - end))];
+                System.arraycopy(buffer, end, next, 0, filled - end);
+                offer(blocks, new Block(part, buffer, end), stopped);
+                filled -= end;
+                buffer = next;
+            }
+        }
+    }
+
+    /**
+     * Whole lines of a part.
+     */
+    private record Block(Path part, byte[] bytes, int length) {
+    }
+
+    /**
+     * Turns the records of a block into documents. One per worker thread.
+     */
+    private class RecordParser {
+
+        private String id;
+
+        long index(Block block, IndexWriter[] writers, AtomicLongArray shardDocuments) throws IOException {
+            long added = 0;
+            try (JsonParser parser = jsonFactory.createParser(block.bytes(), 0, block.length())) {
+                JsonToken token;
+                while ((token = parser.nextToken()) != null) {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new IOException("Record is not a JSON object");
+                    }
+                    Document document = parseRecord(parser);
+                    int shard = shards == 1 || id == null ? 0 : PartitionSpec.bucketOf(id, shards);
+                    writers[shard].addDocument(document);
+                    shardDocuments.incrementAndGet(shard);
+                    added++;
+                }
+            } catch (IOException e) {
+                throw new IOException("Cannot import " + block.part() + ": " + e.getMessage(), e);
+            }
+            return added;
+        }
+
+        private Document parseRecord(JsonParser parser) throws IOException {
+            Document document = new Document();
+            id = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if (name.equals("_docId")) {
+                    parser.skipChildren();
+                } else if (token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        addValue(document, name, parser);
+                    }
+                } else {
+                    addValue(document, name, parser);
+                }
+            }
+            return document;
+        }
+
+        private void addValue(Document document, String name, JsonParser parser) throws IOException {
+            FieldType type = schema != null ? schema.getFieldType(name) : null;
+            switch (parser.currentToken()) {
+                case VALUE_NUMBER_INT -> {
+                    if (type == FieldType.STRING) {
+                        document.add(new StoredField(name, parser.getText()));
+                    } else if (type == FieldType.FLOAT) {
+                        document.add(new StoredField(name, parser.getFloatValue()));
+                    } else if (type == FieldType.DOUBLE) {
+                        document.add(new StoredField(name, parser.getDoubleValue()));
+                    } else if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                        document.add(new StoredField(name, parser.getText()));
+                    } else if (type == FieldType.INTEGER && parser.getNumberType() == JsonParser.NumberType.INT) {
+                        document.add(new StoredField(name, parser.getIntValue()));
+                    } else {
+                        document.add(new StoredField(name, parser.getLongValue()));
+                    }
+                }
+                case VALUE_NUMBER_FLOAT -> {
+                    if (type == FieldType.STRING) {
+                        document.add(new StoredField(name, parser.getText()));
+                    } else if (type == FieldType.FLOAT) {
+                        document.add(new StoredField(name, parser.getFloatValue()));
+                    } else {
+                        document.add(new StoredField(name, parser.getDoubleValue()));
+                    }
+                }
+                case VALUE_STRING -> {
+                    if (type == FieldType.BINARY) {
+                        try {
+                            document.add(new StoredField(name, binaryEncoding.decode(parser.getText())));
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException("Field " + name + " is not " + binaryEncoding + ": " + e.getMessage());
+                        }
+                    } else {
+                        document.add(new StoredField(name, parser.getText()));
+                    }
+                }
+                case VALUE_TRUE, VALUE_FALSE -> document.add(new StoredField(name, parser.getText()));
+                case VALUE_NULL -> {
+                    return;
+                }
+                default -> throw new IOException("Field " + name + " holds a nested object or array, which cannot be imported");
+            }
+
+            if (name.equals(idField)) {
+                document.add(new StringField(name, parser.getText(), Field.Store.NO));
+                if (id == null) {
+                    id = parser.getText();
+                }
+            }
+        }
+    }
+}
@@ -1,14 +1,32 @@
 package com.lucidworks.hardwickehouse;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 public class JsonLSchema {
     
     private final Map<String, FieldType> fieldTypes;
+    private final Set<String> multiValuedFields;
+    private final String[] ordinalToName;
+    private final Map<String, Integer> nameToOrdinal;
     
     public JsonLSchema(Map<String, FieldType> fieldTypes) {
+        this(fieldTypes, Set.of());
+    }
+    
+    public JsonLSchema(Map<String, FieldType> fieldTypes, Set<String> multiValuedFields) {
         this.fieldTypes = fieldTypes;
+        this.multiValuedFields = multiValuedFields;
+        
+        // Ordinals follow field name order so they are stable for a given set of fields
+        this.ordinalToName = fieldTypes.keySet().toArray(new String[0]);
+        Arrays.sort(ordinalToName);
+        this.nameToOrdinal = new HashMap<>();
+        for (int i = 0; i < ordinalToName.length; i++) {
+            nameToOrdinal.put(ordinalToName[i], i);
+        }
     }
     
     public Map<String, FieldType> getFieldTypes() {
@@ -27,6 +45,26 @@ public class JsonLSchema {
         return fieldTypes.keySet();
     }
     
+    public boolean isMultiValued(String fieldName) {
+        return multiValuedFields.contains(fieldName);
+    }
+    
+    public Set<String> getMultiValuedFields() {
+        return multiValuedFields;
+    }
+    
+    /**
+     * Returns the dense ordinal of a field, or -1 if the field is not part of the schema.
+     */
+    public int getFieldOrdinal(String fieldName) {
+        Integer ordinal = nameToOrdinal.get(fieldName);
+        return ordinal != null ? ordinal : -1;
+    }
+    
+    public String getFieldName(int ordinal) {
+        return ordinalToName[ordinal];
+    }
+    
     @Override
     public String toString() {
         return "JsonLSchema{" +
@@ -34,4 +72,4 @@ public class JsonLSchema {
                 ", fields=" + fieldTypes.keySet() +
                 '}';
     }
-}
\ No newline at end of file
+}
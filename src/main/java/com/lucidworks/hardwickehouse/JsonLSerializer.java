@@ -0,0 +1,184 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes documents as JSONL records. Shared by the file writer and by producers that
+ * serialize chunks in parallel, so both paths emit byte-identical lines. Instances are
+ * immutable and may be used from several threads.
+ */
+public class JsonLSerializer {
+    
+    private static final JsonFactory jsonFactory = new JsonFactory()
+        .setRootValueSeparator(null)
+        .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    private final BinaryEncoding binaryEncoding;
+    
+    public JsonLSerializer() {
+        this(BinaryEncoding.BASE64);
+    }
+    
+    public JsonLSerializer(BinaryEncoding binaryEncoding) {
+        this.binaryEncoding = binaryEncoding;
+    }
+    
+    static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return jsonFactory.createGenerator(out);
+    }
+    
+    public BinaryEncoding getBinaryEncoding() {
+        return binaryEncoding;
+    }
+    
+    public void writeDocument(JsonGenerator generator, LuceneDocument document) throws IOException {
+        generator.writeStartObject();
+        
+        for (Map.Entry<String, Object> field : document.getFields().entrySet()) {
+            generator.writeFieldName(field.getKey());
+            writeValue(generator, field.getValue());
+        }
+        
+        generator.writeNumberField("_docId", document.getDocId());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+    
+    /**
+     * Writes a reused {@link DocumentBuffer} without boxing any value. Fields the schema
+     * declares multi-valued are written as arrays, even with a single value, so a field has
+     * the same shape in every record.
+     */
+    public void writeDocument(JsonGenerator generator, DocumentBuffer document) throws IOException {
+        generator.writeStartObject();
+        writeFields(generator, document);
+        generator.writeNumberField("_docId", document.getDocId());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+    
+    /**
+     * Writes the stored fields of a buffer into the object the generator is in.
+     */
+    void writeFields(JsonGenerator generator, DocumentBuffer document) throws IOException {
+        for (int i = 0; i < document.getFieldCount(); i++) {
+            int ordinal = document.getPresentField(i);
+            generator.writeFieldName(document.getFieldName(ordinal));
+            
+            if (document.isMultiValued(ordinal)) {
+                generator.writeStartArray();
+                for (int value = document.getFirstValue(ordinal); value != -1; value = document.getNextValue(value)) {
+                    writeValue(generator, document, value);
+                }
+                generator.writeEndArray();
+            } else {
+                writeValue(generator, document, document.getFirstValue(ordinal));
+            }
+        }
+    }
+    
+    private void writeValue(JsonGenerator generator, DocumentBuffer document, int value) throws IOException {
+        switch (document.getKind(value)) {
+            case DocumentBuffer.INT -> generator.writeNumber((int) document.getLong(value));
+            case DocumentBuffer.LONG -> generator.writeNumber(document.getLong(value));
+            case DocumentBuffer.FLOAT -> generator.writeNumber((float) document.getDouble(value));
+            case DocumentBuffer.DOUBLE -> generator.writeNumber(document.getDouble(value));
+            case DocumentBuffer.STRING -> generator.writeString(document.getString(value));
+            default -> writeBinary(generator, document.getBinaryArena(),
+                                   document.getBinaryOffset(value), document.getBinaryLength(value));
+        }
+    }
+    
+    private void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof List<?> values) {
+            generator.writeStartArray();
+            for (Object element : values) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof String string) {
+            generator.writeString(string);
+        } else if (value instanceof Integer number) {
+            generator.writeNumber(number);
+        } else if (value instanceof Long number) {
+            generator.writeNumber(number);
+        } else if (value instanceof Float number) {
+            generator.writeNumber(number);
+        } else if (value instanceof Double number) {
+            generator.writeNumber(number);
+        } else if (value instanceof BytesRef bytes) {
+            writeBinary(generator, bytes.bytes, bytes.offset, bytes.length);
+        } else if (value instanceof byte[] bytes) {
+            writeBinary(generator, bytes, 0, bytes.length);
+        } else if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+    
+    /**
+     * Encodes a slice straight into the generator's output buffer; the bytes are never
+     * materialized as an intermediate String.
+     */
+    void writeBinary(JsonGenerator generator, byte[] bytes, int offset, int length) throws IOException {
+        if (binaryEncoding == BinaryEncoding.HEX) {
+            generator.writeString(new HexReader(bytes, offset, length), 2 * length);
+        } else {
+            generator.writeBinary(Base64Variants.getDefaultVariant(), bytes, offset, length);
+        }
+    }
+    
+    /**
+     * Streams the hex digits of a byte slice without allocating them up front.
+     */
+    private static class HexReader extends Reader {
+        
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+        private boolean lowNibble;
+        
+        HexReader(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = offset + length;
+        }
+        
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position >= end) {
+                return -1;
+            }
+            
+            int written = 0;
+            while (written < length && position < end) {
+                int b = bytes[position] & 0xFF;
+                if (lowNibble) {
+                    buffer[offset + written++] = HEX_DIGITS[b & 0x0F];
+                    position++;
+                } else {
+                    buffer[offset + written++] = HEX_DIGITS[b >>> 4];
+                }
+                lowNibble = !lowNibble;
+            }
+            return written;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+}
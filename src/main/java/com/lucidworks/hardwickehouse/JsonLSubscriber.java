@@ -0,0 +1,36 @@
+package com.lucidworks.hardwickehouse;
+
+import java.io.IOException;
+
+/**
+ * Writes published {@link JsonChunk}s to a {@link JsonLWriter}.
+ */
+public class JsonLSubscriber extends OutputSubscriber<JsonChunk> {
+    
+    private final JsonLWriter writer;
+    private final AdaptiveController controller;
+    
+    public JsonLSubscriber(JsonLWriter writer, ProgressReporter progressReporter, int prefetch) {
+        this(writer, progressReporter, prefetch, null);
+    }
+    
+    /**
+     * Reports the time spent writing each chunk to {@code controller}, if not null.
+     */
+    public JsonLSubscriber(JsonLWriter writer, ProgressReporter progressReporter, int prefetch,
+                           AdaptiveController controller) {
+        super(progressReporter, prefetch);
+        this.writer = writer;
+        this.controller = controller;
+    }
+    
+    @Override
+    protected long write(JsonChunk chunk) throws IOException {
+        long start = System.nanoTime();
+        writer.writeChunk(chunk);
+        if (controller != null) {
+            controller.recordWrite(System.nanoTime() - start);
+        }
+        return chunk.getDocumentCount();
+    }
+}
@@ -1,97 +1,125 @@
 package com.lucidworks.hardwickehouse;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
 public class JsonLWriter {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(JsonLWriter.class);
-    
-    private BufferedWriter writer;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final JsonLSerializer serializer;
+    private OutputStream output;
+    private JsonGenerator generator;
     private Path outputPath;
-    private ObjectMapper objectMapper;
     private long documentsWritten = 0;
     private boolean compressed = false;
-    
+    private Throttle throttle;
+
     public JsonLWriter() {
-        this.objectMapper = new ObjectMapper();
+        this(new JsonLSerializer());
+    }
+
+    public JsonLWriter(JsonLSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Charges the bytes written to the output file, after compression, to the throttle's
+     * write limit. Must be set before {@link #initialize}.
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
     }
-    
+
     public Path initialize(String outputFilename) throws IOException {
         return initialize(outputFilename, false);
     }
-    
+
     public Path initialize(String outputFilename, boolean compress) throws IOException {
         this.compressed = compress;
-        
-        if (compress) {
-            this.outputPath = Files.createTempFile("lucene_to_jsonl_", ".jsonl.gz");
-        } else {
-            this.outputPath = Files.createTempFile("lucene_to_jsonl_", ".jsonl");
-        }
-        
+
         if (outputFilename != null) {
             Path targetPath = Path.of(outputFilename);
             if (targetPath.getParent() != null) {
                 Files.createDirectories(targetPath.getParent());
             }
             this.outputPath = targetPath;
+        } else if (compress) {
+            this.outputPath = Files.createTempFile("lucene_to_jsonl_", ".jsonl.gz");
+        } else {
+            this.outputPath = Files.createTempFile("lucene_to_jsonl_", ".jsonl");
         }
-        
+
         logger.info("Initializing JSONL writer with output path: {} (compressed: {})", outputPath, compress);
-        
+
+        OutputStream sink = Files.newOutputStream(outputPath);
+        open(throttle != null ? throttle.throttleOutput(sink) : sink, compress);
+
+        logger.info("JSONL writer initialized successfully");
+        return outputPath;
+    }
+
+    /**
+     * Writes to the given stream instead of a file, buffered and compressed exactly as file
+     * output would be. Used by {@code --dry-run} to measure output without writing it.
+     */
+    public void initialize(OutputStream sink, boolean compress) throws IOException {
+        this.compressed = compress;
+        open(sink, compress);
+    }
+
+    private void open(OutputStream sink, boolean compress) throws IOException {
         if (compress) {
-            this.writer = new BufferedWriter(
-                new OutputStreamWriter(
-                    new GZIPOutputStream(Files.newOutputStream(outputPath))));
+            this.output = new BufferedOutputStream(new GZIPOutputStream(sink, BUFFER_SIZE), BUFFER_SIZE);
         } else {
-            this.writer = Files.newBufferedWriter(outputPath);
+            this.output = new BufferedOutputStream(sink, BUFFER_SIZE);
         }
-        
-        logger.info("JSONL writer initialized successfully");
-        return outputPath;
+        this.generator = JsonLSerializer.createGenerator(output);
     }
-    
+
     public void writeBatch(List<LuceneDocument> documents) throws IOException {
         logger.debug("Writing batch of {} documents", documents.size());
-        
+
         for (LuceneDocument document : documents) {
-            writeDocument(document);
+            serializer.writeDocument(generator, document);
+            documentsWritten++;
         }
-        
-        writer.flush();
+
+        generator.flush();
     }
-    
-    private void writeDocument(LuceneDocument document) throws IOException {
-        // Create a JSON object with all the document fields
-        var jsonDoc = document.getFields();
-        jsonDoc.put("_docId", document.getDocId());
-        
-        // Convert to JSON and write as a line
-        String jsonLine = objectMapper.writeValueAsString(jsonDoc);
-        writer.write(jsonLine);
-        writer.newLine();
-        
-        documentsWritten++;
+
+    /**
+     * Appends records that were already serialized by a producer thread.
+     */
+    public void writeChunk(JsonChunk chunk) throws IOException {
+        generator.flush();
+        ByteBuffer bytes = chunk.getBytes();
+        output.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        documentsWritten += chunk.getDocumentCount();
     }
-    
+
     public void close() throws IOException {
-        if (writer != null) {
-            writer.close();
+        if (output != null) {
+            generator.close();
+            output.close();
+            output = null;
             logger.info("JSONL writer closed successfully. Wrote {} documents (compressed: {})", documentsWritten, compressed);
         }
     }
-    
+
     public long getDocumentsWritten() {
         return documentsWritten;
     }
-}
\ No newline at end of file
+}
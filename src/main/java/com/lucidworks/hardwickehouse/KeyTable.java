@@ -0,0 +1,263 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.util.BitUtil;
+import org.apache.lucene.util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Open-addressing table from 64-bit key fingerprints to the document currently kept for
+ * that key, sized for hundreds of millions of keys.
+ *
+ * <p>Each slot is a fingerprint, a global doc ID and, when documents are ranked, a score,
+ * all held in primitive arrays: 12 or 20 bytes per slot, with slots kept between 37% and
+ * 75% full. Fingerprints are not trusted on their own: a match is confirmed through a
+ * {@link KeyVerifier} that reloads the stored key of the incumbent document, so two keys
+ * with the same fingerprint simply occupy two slots. Verification runs outside the
+ * segment's lock, so a stored-field read never holds up other threads.
+ *
+ * <p>The table is split into segments by the fingerprint's top bits; each segment is
+ * locked and resized on its own, so threads only contend on the same segment.
+ */
+class KeyTable {
+
+    private static final int SEGMENT_BITS = 8;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1024;
+
+    /**
+     * Confirms that a document's key equals the key being offered.
+     */
+    @FunctionalInterface
+    interface KeyVerifier {
+        boolean sameKey(int docId) throws IOException;
+    }
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    private final boolean scored;
+
+    KeyTable(boolean scored) {
+        this.scored = scored;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Offers a document for a key. The document is kept if the key is new, or if it beats
+     * the incumbent: a higher score, or an equal score and a lower doc ID.
+     *
+     * @return true if the key was already present
+     */
+    boolean offer(long fingerprint, int docId, long score, KeyVerifier verifier) throws IOException {
+        // An all-zero slot marks an empty one
+        long key = fingerprint == 0 ? 1 : fingerprint;
+        Segment segment = segments[(int) (key >>> (64 - SEGMENT_BITS))];
+
+        // Verifying reads the incumbent's stored fields, so it runs outside the lock and the
+        // probe starts over; a document's key never changes, so what was verified still holds
+        int sameDocId = -1;
+        int[] otherDocIds = null;
+        int otherCount = 0;
+        while (true) {
+            int incumbent;
+            synchronized (segment) {
+                int slot = segment.find(key, otherDocIds, otherCount);
+                if (slot < 0) {
+                    segment.insert(~slot, key, docId, score);
+                    return false;
+                }
+                incumbent = segment.docIds[slot];
+                if (incumbent == sameDocId) {
+                    segment.replace(slot, docId, score);
+                    return true;
+                }
+            }
+            if (verifier.sameKey(incumbent)) {
+                sameDocId = incumbent;
+            } else {
+                if (otherDocIds == null) {
+                    otherDocIds = new int[4];
+                } else if (otherCount == otherDocIds.length) {
+                    otherDocIds = Arrays.copyOf(otherDocIds, otherCount << 1);
+                }
+                otherDocIds[otherCount++] = incumbent;
+            }
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    long bytesUsed() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += (long) segment.keys.length * (scored ? 20 : 12);
+        }
+        return bytes;
+    }
+
+    /**
+     * Sets the bit of every kept document.
+     */
+    void markKept(FixedBitSet docs) {
+        for (Segment segment : segments) {
+            for (int slot = 0; slot < segment.keys.length; slot++) {
+                if (segment.keys[slot] != 0) {
+                    docs.set(segment.docIds[slot]);
+                }
+            }
+        }
+    }
+
+    private class Segment {
+        private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        private int[] docIds = new int[INITIAL_SEGMENT_CAPACITY];
+        private long[] scores = scored ? new long[INITIAL_SEGMENT_CAPACITY] : null;
+        private int size = 0;
+
+        /**
+         * The slot holding the key with a document not known to have another key, or the
+         * complement of the empty slot where the key belongs.
+         */
+        int find(long key, int[] otherDocIds, int otherCount) {
+            int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key && !contains(otherDocIds, otherCount, docIds[slot])) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return ~slot;
+        }
+
+        void insert(int slot, long key, int docId, long score) {
+            keys[slot] = key;
+            docIds[slot] = docId;
+            if (scored) {
+                scores[slot] = score;
+            }
+            if (++size > keys.length - (keys.length >>> 2)) {
+                grow();
+            }
+        }
+
+        void replace(int slot, int docId, long score) {
+            // Unscored tables rank by doc ID alone
+            long incumbent = scored ? scores[slot] : score;
+            if (score > incumbent || (score == incumbent && docId < docIds[slot])) {
+                docIds[slot] = docId;
+                if (scored) {
+                    scores[slot] = score;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldDocIds = docIds;
+            long[] oldScores = scores;
+
+            keys = new long[oldKeys.length << 1];
+            docIds = new int[keys.length];
+            scores = scored ? new long[keys.length] : null;
+            int mask = keys.length - 1;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = (int) mix(oldKeys[i]) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    docIds[slot] = oldDocIds[i];
+                    if (scored) {
+                        scores[slot] = oldScores[i];
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Spreads the low bits; the top bits already chose the segment.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * 64-bit fingerprint of a key: the first half of MurmurHash3 x64 128.
+     */
+    static long fingerprint(byte[] bytes, int offset, int length) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        long h1 = 0x9747b28cL;
+        long h2 = 0x9747b28cL;
+
+        int blocks = length >>> 4;
+        for (int i = 0; i < blocks; i++) {
+            int p = offset + (i << 4);
+            long k1 = (long) BitUtil.VH_LE_LONG.get(bytes, p);
+            long k2 = (long) BitUtil.VH_LE_LONG.get(bytes, p + 8);
+
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = offset + (blocks << 4);
+        int rest = length & 15;
+        for (int i = rest - 1; i >= 8; i--) {
+            k2 ^= (long) (bytes[tail + i] & 0xff) << ((i - 8) << 3);
+        }
+        if (rest > 8) {
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+        }
+        for (int i = Math.min(rest, 8) - 1; i >= 0; i--) {
+            k1 ^= (long) (bytes[tail + i] & 0xff) << (i << 3);
+        }
+        if (rest > 0) {
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        return h1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,366 @@
+package com.lucidworks.hardwickehouse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Persistent local cache of GCS downloads and restored backup shards, for
+ * {@code --cache-dir}.
+ *
+ * <p>Entries are addressed by a key derived from what identifies their content, such as a
+ * GCS object's generation and CRC32C or a shard's UUID file names, so a stale entry is never
+ * served; a changed source simply gets a new key. An entry is built in a scratch directory
+ * and renamed into place, so it is either complete or absent.
+ *
+ * <p>Several processes may share a cache directory. Each entry has a lock file: users hold a
+ * shared lock for as long as they read the entry, building it takes the exclusive lock, and
+ * eviction only removes entries whose exclusive lock it can take without waiting. Within one
+ * process, users of the same entry share one file lock. When the cache grows beyond its
+ * budget, least recently used entries are evicted first.
+ */
+public class LocalCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalCache.class);
+
+    private static final String DATA = "data";
+    private static final String SIZE = "size";
+    private static final Duration STALE_SCRATCH = Duration.ofDays(1);
+
+    private final Path entries;
+    private final Path locks;
+    private final Path scratch;
+    private final Path evictionLock;
+    private final long maxBytes;
+
+    // File locks belong to the whole JVM, so in-process state is shared by every instance and
+    // keyed by lock file rather than by entry key
+    private static final Map<Path, Object> monitors = new ConcurrentHashMap<>();
+    private static final Map<Path, Holder> held = new ConcurrentHashMap<>();
+
+    public LocalCache(Path root, long maxBytes) throws IOException {
+        this.entries = Files.createDirectories(root.resolve("entries"));
+        this.locks = Files.createDirectories(root.resolve("locks")).toAbsolutePath().normalize();
+        this.scratch = Files.createDirectories(root.resolve("tmp"));
+        this.evictionLock = root.resolve("evict.lock");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Derives a cache key from the values that identify an entry's content.
+     */
+    public static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 20);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes an entry's content to {@code target}, as a file or a directory.
+     */
+    public interface Populator {
+        void populate(Path target) throws IOException;
+    }
+
+    /**
+     * Returns a lease on the entry for {@code key}, building it with {@code populator} if no
+     * process has yet. The entry stays on disk until the lease is closed.
+     */
+    public Lease get(String key, Populator populator) throws IOException {
+        Lease lease;
+        boolean populated = false;
+        Path lockFile = lockFile(key);
+        synchronized (monitors.computeIfAbsent(lockFile, k -> new Object())) {
+            Path entry = entries.resolve(key);
+            Holder holder = held.get(lockFile);
+            if (holder != null) {
+                holder.users++;
+                touch(entry);
+                return lease(key, entry);
+            }
+
+            FileChannel channel = openLock(lockFile);
+            try {
+                while (true) {
+                    FileLock shared = channel.lock(0, Long.MAX_VALUE, true);
+                    if (Files.isDirectory(entry)) {
+                        held.put(lockFile, new Holder(channel, shared));
+                        touch(entry);
+                        lease = lease(key, entry);
+                        break;
+                    }
+                    shared.release();
+
+                    FileLock exclusive = channel.lock();
+                    try {
+                        if (!Files.isDirectory(entry)) {
+                            populate(key, entry, populator);
+                            populated = true;
+                        }
+                    } finally {
+                        exclusive.release();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            if (!populated) {
+                logger.info("Cache hit for {}: {}", key, entry);
+            }
+        }
+
+        // Outside the entry's monitor: eviction takes the monitors of other entries
+        if (populated) {
+            evict();
+        }
+        return lease;
+    }
+
+    private void populate(String key, Path entry, Populator populator) throws IOException {
+        Path building = scratch.resolve(key + "-" + UUID.randomUUID());
+        Files.createDirectories(building);
+        try {
+            logger.info("Cache miss for {}: building entry", key);
+            populator.populate(building.resolve(DATA));
+            long size = sizeOf(building.resolve(DATA));
+            Files.writeString(building.resolve(SIZE), Long.toString(size));
+            try {
+                Files.move(building, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(building, entry);
+            }
+            logger.info("Cached {} bytes as {}", size, entry);
+        } catch (FileAlreadyExistsException e) {
+            deleteTree(building);
+        } catch (IOException | RuntimeException e) {
+            deleteTree(building);
+            throw e;
+        }
+    }
+
+    private Lease lease(String key, Path entry) {
+        return new Lease(entry.resolve(DATA), () -> release(lockFile(key)));
+    }
+
+    private Path lockFile(String key) {
+        return locks.resolve(key + ".lock");
+    }
+
+    private static FileChannel openLock(Path lockFile) throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void release(Path lockFile) throws IOException {
+        synchronized (monitors.computeIfAbsent(lockFile, k -> new Object())) {
+            Holder holder = held.get(lockFile);
+            if (holder != null && --holder.users == 0) {
+                held.remove(lockFile);
+                holder.lock.release();
+                holder.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Removes least recently used entries that nobody holds until the cache fits its
+     * budget. Skipped if another process is evicting.
+     */
+    void evict() throws IOException {
+        try (FileChannel channel = openLock(evictionLock);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+
+            List<Path> candidates = new ArrayList<>();
+            long total = 0;
+            try (Stream<Path> listing = Files.list(entries)) {
+                for (Path entry : listing.toList()) {
+                    candidates.add(entry);
+                    total += entrySize(entry);
+                }
+            }
+            candidates.sort(Comparator.comparing(LocalCache::lastUsed));
+
+            for (Path entry : candidates) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                long size = entrySize(entry);
+                if (tryRemove(entry.getFileName().toString(), entry)) {
+                    total -= size;
+                    logger.info("Evicted cache entry {} ({} bytes)", entry.getFileName(), size);
+                }
+            }
+
+            removeStaleScratch();
+        } catch (OverlappingFileLockException e) {
+            // Another thread of this process is evicting
+        }
+    }
+
+    private boolean tryRemove(String key, Path entry) throws IOException {
+        Path lockFile = lockFile(key);
+        synchronized (monitors.computeIfAbsent(lockFile, k -> new Object())) {
+            if (held.containsKey(lockFile)) {
+                return false;
+            }
+            try (FileChannel channel = openLock(lockFile);
+                 FileLock lock = channel.tryLock()) {
+                if (lock == null) {
+                    return false;
+                }
+                // Renamed first so no reader ever sees a half-deleted entry
+                Path doomed = scratch.resolve(key + "-evicted-" + UUID.randomUUID());
+                Files.move(entry, doomed);
+                deleteTree(doomed);
+                return true;
+            } catch (OverlappingFileLockException | NoSuchFileException e) {
+                return false;
+            }
+        }
+    }
+
+    private void removeStaleScratch() throws IOException {
+        Instant cutoff = Instant.now().minus(STALE_SCRATCH);
+        try (Stream<Path> listing = Files.list(scratch)) {
+            for (Path leftover : listing.toList()) {
+                if (lastUsed(leftover).toInstant().isBefore(cutoff)) {
+                    deleteTree(leftover);
+                }
+            }
+        }
+    }
+
+    private static long entrySize(Path entry) {
+        try {
+            return Long.parseLong(Files.readString(entry.resolve(SIZE)).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            logger.debug("Could not touch cache entry {}: {}", entry, e.getMessage());
+        }
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteTree(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static class Holder {
+        final FileChannel channel;
+        final FileLock lock;
+        int users = 1;
+
+        Holder(FileChannel channel, FileLock lock) {
+            this.channel = channel;
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * A local copy of some source, usable until closed. Closing releases a cache entry, or
+     * deletes a temporary copy that was made without a cache.
+     */
+    public static class Lease implements Closeable {
+
+        /**
+         * What closing a lease does.
+         */
+        public interface Release {
+            void run() throws IOException;
+        }
+
+        private final Path path;
+        private final Release release;
+        private boolean closed;
+
+        public Lease(Path path, Release release) {
+            this.path = path;
+            this.release = release;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                release.run();
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.lucidworks.hardwickehouse;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class LuceneDocument {
@@ -10,11 +12,26 @@ public class LuceneDocument {
     
     public LuceneDocument(int docId) {
         this.docId = docId;
-        this.fields = new HashMap<>();
+        this.fields = new LinkedHashMap<>();
     }
     
+    /**
+     * Adds a value to a field. A field added more than once becomes multi-valued and holds
+     * its values as a {@link List} in the order they were added.
+     */
+    @SuppressWarnings("unchecked")
     public void addField(String name, Object value) {
-        fields.put(name, value);
+        Object existing = fields.get(name);
+        if (existing == null && !fields.containsKey(name)) {
+            fields.put(name, value);
+        } else if (existing instanceof MultiValue) {
+            ((List<Object>) existing).add(value);
+        } else {
+            MultiValue values = new MultiValue();
+            values.add(existing);
+            values.add(value);
+            fields.put(name, values);
+        }
     }
     
     public Map<String, Object> getFields() {
@@ -33,6 +50,11 @@ public class LuceneDocument {
         return fields.containsKey(name);
     }
     
+    // Distinguishes values collected here from a List stored as a single value
+    private static class MultiValue extends ArrayList<Object> {
+        private static final long serialVersionUID = 1L;
+    }
+    
     @Override
     public String toString() {
         return "LuceneDocument{docId=" + docId + ", fields=" + fields + "}";
@@ -0,0 +1,303 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reassembles Solr nested documents for {@code --nested}: every block of children and the
+ * parent that follows them becomes one JSON record.
+ *
+ * <p>Parents are found per leaf with a parent filter, held as a bitset. By default a parent
+ * is any document without a {@code _nest_path_} term, which is how Solr marks children;
+ * {@code --parent-filter} accepts {@code field:value}, {@code field:*} or either negated
+ * with a leading {@code -}, such as {@code content_type:parent} for older block-join schemas.
+ * Doc ranges are cut at parent boundaries so a block never spans two ranges, and each block
+ * is read in one forward pass into reused buffers, holding at most one block at a time.
+ *
+ * <p>Children are nested under their parent by the stored {@code _nest_path_} value, such as
+ * {@code /comments#0/replies#1}; children without a stored path go in a
+ * {@code _childDocuments_} array on the root. A block is exported when its parent is
+ * accepted by the reader, so deduplication and sampling select whole blocks. Documents after
+ * the last parent of a leaf are exported on their own.
+ */
+public class NestedBlocks {
+
+    private static final Logger logger = LoggerFactory.getLogger(NestedBlocks.class);
+
+    public static final String DEFAULT_PARENT_FILTER = "-_nest_path_:*";
+
+    static final String NEST_PATH_FIELD = "_nest_path_";
+    static final String CHILD_DOCUMENTS = "_childDocuments_";
+
+    private final IndexReader source;
+    private final BitSet[] parents;
+
+    public NestedBlocks(IndexReader source, String parentFilter) throws IOException {
+        Query query = parseParentFilter(parentFilter != null ? parentFilter : DEFAULT_PARENT_FILTER);
+        List<LeafReaderContext> leaves = source.getLeaves();
+        this.source = source;
+        this.parents = new BitSet[leaves.size()];
+
+        long parentCount = 0;
+        for (LeafReaderContext leaf : leaves) {
+            IndexSearcher searcher = new IndexSearcher(leaf.reader());
+            searcher.setQueryCache(null);
+            Weight weight = searcher.createWeight(searcher.rewrite(query), ScoreMode.COMPLETE_NO_SCORES, 1);
+            Scorer scorer = weight.scorer(leaf.reader().getContext());
+            int maxDoc = Math.max(1, leaf.reader().maxDoc());
+            parents[leaf.ord] = scorer != null ? BitSet.of(scorer.iterator(), maxDoc) : new FixedBitSet(maxDoc);
+            parentCount += parents[leaf.ord].cardinality();
+        }
+        logger.info("Found {} parent documents with filter {}", parentCount, query);
+    }
+
+    /**
+     * Parses {@code field:value}, {@code field:*}, {@code -field:value} or {@code -field:*}.
+     */
+    static Query parseParentFilter(String filter) {
+        boolean negated = filter.startsWith("-");
+        String clause = negated ? filter.substring(1) : filter;
+        int colon = clause.indexOf(':');
+        if (colon <= 0 || colon == clause.length() - 1) {
+            throw new IllegalArgumentException(
+                "--parent-filter must be field:value, field:* or a negation with a leading -, was: " + filter);
+        }
+
+        String field = clause.substring(0, colon);
+        String value = clause.substring(colon + 1);
+        Query query = value.equals("*")
+            ? new PrefixQuery(new Term(field, ""))
+            : new TermQuery(new Term(field, value));
+        if (!negated) {
+            return query;
+        }
+        return new BooleanQuery.Builder()
+            .add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER)
+            .add(query, BooleanClause.Occur.MUST_NOT)
+            .build();
+    }
+
+    /**
+     * Number of records the export will write: accepted parents plus accepted documents
+     * after the last parent of each leaf.
+     */
+    public long countRecords() {
+        long records = 0;
+        for (LeafReaderContext leaf : source.getLeaves()) {
+            BitSet leafParents = parents[leaf.ord];
+            Bits accepted = source.getLiveDocs(leaf);
+            int maxDoc = leaf.reader().maxDoc();
+            int lastParent = -1;
+            for (int doc = maxDoc > 0 ? leafParents.nextSetBit(0) : DocIdSetIterator.NO_MORE_DOCS;
+                 doc != DocIdSetIterator.NO_MORE_DOCS;
+                 doc = doc + 1 < maxDoc ? leafParents.nextSetBit(doc + 1) : DocIdSetIterator.NO_MORE_DOCS) {
+                if (accepted == null || accepted.get(doc)) {
+                    records++;
+                }
+                lastParent = doc;
+            }
+            for (int doc = lastParent + 1; doc < maxDoc; doc++) {
+                if (accepted == null || accepted.get(doc)) {
+                    records++;
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Splits every leaf into ranges of about {@code maxDocsPerRange} doc IDs, each ending
+     * just after a parent.
+     */
+    public List<DocRange> getDocRanges(int maxDocsPerRange) {
+        List<DocRange> ranges = new ArrayList<>();
+        for (LeafReaderContext leaf : source.getLeaves()) {
+            int maxDoc = leaf.reader().maxDoc();
+            int from = 0;
+            while (from < maxDoc) {
+                int to = (int) Math.min(maxDoc, (long) from + maxDocsPerRange);
+                if (to < maxDoc) {
+                    int parent = parents[leaf.ord].nextSetBit(to - 1);
+                    to = parent == DocIdSetIterator.NO_MORE_DOCS ? maxDoc : parent + 1;
+                }
+                ranges.add(new DocRange(leaf, from, to));
+                from = to;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Publishes one JSONL record per block, at most {@code recordsPerChunk} records per chunk.
+     */
+    public IndexPublisher<JsonChunk> jsonLines(JsonLSerializer serializer, int parallelism, int recordsPerChunk) {
+        IndexPublisher.RangeProducer<JsonChunk> producer = (range, sink) -> {
+            LeafReaderContext leaf = range.getLeaf();
+            BitSet leafParents = parents[leaf.ord];
+            Bits accepted = source.getLiveDocs(leaf);
+            BlockWriter blockWriter = new BlockWriter(serializer, leaf);
+            IndexPublisher.ChunkBuffer buffer = new IndexPublisher.ChunkBuffer();
+            int records = 0;
+
+            try (JsonGenerator generator = JsonLSerializer.createGenerator(buffer)) {
+                int first = range.getFromDoc();
+                while (first < range.getToDoc()) {
+                    int parent = leafParents.nextSetBit(first);
+                    int last = Math.min(parent, range.getToDoc() - 1);
+
+                    if (parent > last) {
+                        // No parent follows: the rest of the range is exported document by document
+                        for (int doc = first; doc <= last; doc++) {
+                            if (accepted == null || accepted.get(doc)) {
+                                blockWriter.write(generator, doc, doc);
+                                records++;
+                            }
+                        }
+                    } else if (accepted == null || accepted.get(parent)) {
+                        blockWriter.write(generator, first, parent);
+                        records++;
+                    }
+
+                    if (records >= recordsPerChunk) {
+                        generator.flush();
+                        sink.emit(new JsonChunk(buffer.take(), records));
+                        records = 0;
+                    }
+                    first = last + 1;
+                }
+
+                if (records > 0) {
+                    generator.flush();
+                    sink.emit(new JsonChunk(buffer.take(), records));
+                }
+            }
+        };
+        return new IndexPublisher<>(getDocRanges(IndexPublisher.DEFAULT_RANGE_SIZE), producer,
+                                    parallelism, Math.max(4, 2 * parallelism));
+    }
+
+    /**
+     * Reads one block into a pool of buffers that grows to the largest block of a range, and
+     * writes it as a single record.
+     */
+    private class BlockWriter {
+        private final JsonLSerializer serializer;
+        private final LeafReaderContext leaf;
+        private final StoredFields storedFields;
+        private final Bits liveDocs;
+        private final List<DocumentBuffer> pool = new ArrayList<>();
+        private final List<String> paths = new ArrayList<>();
+
+        BlockWriter(JsonLSerializer serializer, LeafReaderContext leaf) throws IOException {
+            this.serializer = serializer;
+            this.leaf = leaf;
+            this.storedFields = leaf.reader().storedFields();
+            this.liveDocs = leaf.reader().getLiveDocs();
+        }
+
+        /**
+         * Writes the block of documents {@code first} to {@code parent}, the parent last.
+         */
+        void write(JsonGenerator generator, int first, int parent) throws IOException {
+            int children = 0;
+            paths.clear();
+            for (int doc = first; doc < parent; doc++) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    DocumentBuffer child = buffer(children++);
+                    source.readDocument(leaf, storedFields, doc, child);
+                    paths.add(child.getFirstString(NEST_PATH_FIELD));
+                }
+            }
+            DocumentBuffer root = buffer(children);
+            source.readDocument(leaf, storedFields, parent, root);
+
+            if (children == 0) {
+                serializer.writeDocument(generator, root);
+                return;
+            }
+
+            // Group children by the path of the document they belong to, then by label
+            Set<String> knownPaths = new HashSet<>(paths);
+            Map<String, Map<String, List<Integer>>> tree = new HashMap<>();
+            for (int i = 0; i < children; i++) {
+                String path = paths.get(i);
+                String parentPath = "";
+                String label = CHILD_DOCUMENTS;
+                if (path != null && path.startsWith("/")) {
+                    int slash = path.lastIndexOf('/');
+                    parentPath = path.substring(0, slash);
+                    if (!parentPath.isEmpty() && !knownPaths.contains(parentPath)) {
+                        parentPath = "";
+                    }
+                    String segment = path.substring(slash + 1);
+                    int hash = segment.indexOf('#');
+                    label = hash >= 0 ? segment.substring(0, hash) : segment;
+                }
+                tree.computeIfAbsent(parentPath, p -> new LinkedHashMap<>())
+                    .computeIfAbsent(label, l -> new ArrayList<>())
+                    .add(i);
+            }
+
+            writeNode(generator, root, "", tree);
+            generator.writeRaw('\n');
+        }
+
+        private void writeNode(JsonGenerator generator, DocumentBuffer document, String path,
+                               Map<String, Map<String, List<Integer>>> tree) throws IOException {
+            generator.writeStartObject();
+            serializer.writeFields(generator, document);
+
+            Map<String, List<Integer>> labels = tree.get(path);
+            if (labels != null) {
+                for (Map.Entry<String, List<Integer>> label : labels.entrySet()) {
+                    generator.writeArrayFieldStart(label.getKey());
+                    for (int child : label.getValue()) {
+                        String childPath = paths.get(child);
+                        // A child without a path has no children of its own
+                        writeNode(generator, pool.get(child), childPath != null ? childPath : "\0", tree);
+                    }
+                    generator.writeEndArray();
+                }
+            }
+
+            generator.writeNumberField("_docId", document.getDocId());
+            generator.writeEndObject();
+        }
+
+        private DocumentBuffer buffer(int index) {
+            if (index == pool.size()) {
+                DocumentBuffer buffer = new DocumentBuffer(source.getSchema());
+                buffer.startLeaf(leaf);
+                pool.add(buffer);
+            }
+            return pool.get(index);
+        }
+    }
+}
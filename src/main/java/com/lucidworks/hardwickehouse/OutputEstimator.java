@@ -0,0 +1,213 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Projects the size and duration of a JSONL conversion for {@code --dry-run} from a sample,
+ * without writing any output.
+ *
+ * <p>The sample is taken as short runs of consecutive documents starting at random points
+ * spread over every leaf by a {@link DocSampler}, so stored-field blocks are decoded about as
+ * often per document as in a full sequential read. Sampled documents go through the real
+ * serializer and into a {@link JsonLWriter} whose output, gzipped if requested, is only
+ * counted. Bytes per document are scaled to the accepted document count.
+ *
+ * <p>Reading and serializing is timed apart from writing: producers run on every thread,
+ * but one writer compresses and writes everything, so the projected duration is whichever
+ * of the two is slower at full scale.
+ */
+public class OutputEstimator {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputEstimator.class);
+
+    public static final int DEFAULT_SAMPLE_SIZE = 10_000;
+    static final int RUN_LENGTH = 32;
+
+    private final IndexReader source;
+    private final JsonLSerializer serializer;
+    private final boolean compress;
+    private final int sampleSize;
+    private final long seed;
+
+    public OutputEstimator(IndexReader source, JsonLSerializer serializer, boolean compress,
+                           int sampleSize, long seed) {
+        this.source = source;
+        this.serializer = serializer;
+        this.compress = compress;
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+    }
+
+    /**
+     * Reads the sample and projects a conversion with {@code threads} producer threads.
+     */
+    public Estimate estimate(int threads) throws IOException {
+        long totalDocuments = source.getTotalDocuments();
+        if (totalDocuments == 0) {
+            return new Estimate(0, 0, 0, 0, 0, 0);
+        }
+
+        List<LeafReaderContext> leaves = source.getLeaves();
+        long runs = Math.max(1, (sampleSize + RUN_LENGTH - 1) / RUN_LENGTH);
+        FixedBitSet starts = DocSampler.ofCount(runs, seed).select(leaves, source::getLiveDocs, source.getMaxDoc());
+
+        CountingOutputStream sink = new CountingOutputStream();
+        JsonLWriter writer = new JsonLWriter(serializer);
+        writer.initialize(sink, compress);
+        IndexPublisher.ChunkBuffer buffer = new IndexPublisher.ChunkBuffer();
+        DocumentBuffer document = new DocumentBuffer(source.getSchema());
+
+        long documents = 0;
+        long serializedBytes = 0;
+        long readNanos = 0;
+        long writeNanos = 0;
+        int readUpTo = 0;
+        int maxDoc = starts.length();
+
+        try (JsonGenerator generator = JsonLSerializer.createGenerator(buffer)) {
+            for (int start = starts.nextSetBit(0);
+                 start != DocIdSetIterator.NO_MORE_DOCS;
+                 start = start + 1 < maxDoc ? starts.nextSetBit(start + 1) : DocIdSetIterator.NO_MORE_DOCS) {
+                LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(start, leaves));
+                int leafMaxDoc = leaf.reader().maxDoc();
+                // Runs that would overlap the previous one continue where it stopped
+                int doc = Math.max(start, readUpTo) - leaf.docBase;
+                if (doc >= leafMaxDoc) {
+                    continue;
+                }
+
+                long began = System.nanoTime();
+                StoredFields storedFields = leaf.reader().storedFields();
+                Bits liveDocs = source.getLiveDocs(leaf);
+                document.startLeaf(leaf);
+                int read = 0;
+                for (; doc < leafMaxDoc && read < RUN_LENGTH; doc++) {
+                    if (liveDocs == null || liveDocs.get(doc)) {
+                        source.readDocument(leaf, storedFields, doc, document);
+                        serializer.writeDocument(generator, document);
+                        read++;
+                    }
+                }
+                generator.flush();
+                readUpTo = leaf.docBase + doc;
+                readNanos += System.nanoTime() - began;
+
+                if (read > 0) {
+                    JsonChunk chunk = new JsonChunk(buffer.take(), read);
+                    serializedBytes += chunk.getBytes().remaining();
+                    began = System.nanoTime();
+                    writer.writeChunk(chunk);
+                    writeNanos += System.nanoTime() - began;
+                    documents += read;
+                }
+            }
+        }
+
+        long began = System.nanoTime();
+        writer.close();
+        writeNanos += System.nanoTime() - began;
+
+        Estimate estimate = new Estimate(totalDocuments, documents, serializedBytes, sink.count,
+                                         readNanos, writeNanos, threads);
+        logger.info("Dry run: {} documents, about {} bytes of output in about {} seconds with {} threads " +
+                   "(from {} sampled documents)", estimate.getDocuments(), estimate.getOutputBytes(),
+                   estimate.getSeconds(), threads, documents);
+        return estimate;
+    }
+
+    public static class Estimate {
+        private final long documents;
+        private final long sampleDocuments;
+        private final long outputBytes;
+        private final long uncompressedBytes;
+        private final double seconds;
+        private final double sampleSeconds;
+
+        Estimate(long documents, long sampleDocuments, long outputBytes, long uncompressedBytes,
+                 double seconds, double sampleSeconds) {
+            this.documents = documents;
+            this.sampleDocuments = sampleDocuments;
+            this.outputBytes = outputBytes;
+            this.uncompressedBytes = uncompressedBytes;
+            this.seconds = seconds;
+            this.sampleSeconds = sampleSeconds;
+        }
+
+        Estimate(long documents, long sampleDocuments, long serializedBytes, long writtenBytes,
+                 long readNanos, long writeNanos, int threads) {
+            this(documents, sampleDocuments,
+                 scale(writtenBytes, documents, sampleDocuments),
+                 scale(serializedBytes, documents, sampleDocuments),
+                 Math.max((double) readNanos / Math.max(1, threads), writeNanos)
+                     * documents / Math.max(1, sampleDocuments) / 1e9,
+                 (readNanos + writeNanos) / 1e9);
+        }
+
+        private static long scale(long sampleValue, long documents, long sampleDocuments) {
+            return sampleDocuments == 0 ? 0 : Math.round((double) sampleValue * documents / sampleDocuments);
+        }
+
+        /**
+         * Documents the conversion will write, after deduplication and sampling.
+         */
+        public long getDocuments() {
+            return documents;
+        }
+
+        public long getSampleDocuments() {
+            return sampleDocuments;
+        }
+
+        /**
+         * Projected size of the output file, compressed if the conversion compresses.
+         */
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+        public long getUncompressedBytes() {
+            return uncompressedBytes;
+        }
+
+        /**
+         * Projected time to read, serialize and write every document, excluding opening the
+         * index and any GCS transfer.
+         */
+        public double getSeconds() {
+            return seconds;
+        }
+
+        public double getSampleSeconds() {
+            return sampleSeconds;
+        }
+    }
+
+    /**
+     * Discards everything written to it, keeping count.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.util.Locale;
+
+/**
+ * File format a conversion writes.
+ */
+public enum OutputFormat {
+    JSONL,
+    PARQUET,
+    ARROW_STREAM;
+    
+    /**
+     * Accepts the enum name in any case, with {@code -} in place of {@code _}.
+     */
+    @JsonCreator
+    public static OutputFormat fromString(String value) {
+        return valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+    
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
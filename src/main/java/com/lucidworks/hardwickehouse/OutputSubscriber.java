@@ -0,0 +1,89 @@
+package com.lucidworks.hardwickehouse;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ * Base for subscribers that write published items to an output file. Demand is kept
+ * {@code prefetch} items ahead of the writer and topped up in halves, so producers stay busy
+ * without buffering the whole index.
+ */
+public abstract class OutputSubscriber<T> implements Flow.Subscriber<T> {
+    
+    private final ProgressReporter progressReporter;
+    private final int prefetch;
+    private final int replenish;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile Flow.Subscription subscription;
+    private volatile Throwable error;
+    private volatile long documentsWritten = 0;
+    private int consumed = 0;
+    
+    protected OutputSubscriber(ProgressReporter progressReporter, int prefetch) {
+        this.progressReporter = progressReporter;
+        this.prefetch = prefetch;
+        this.replenish = Math.max(1, prefetch / 2);
+    }
+    
+    /**
+     * Writes one item and returns the number of documents it contained.
+     */
+    protected abstract long write(T item) throws IOException;
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(prefetch);
+    }
+    
+    @Override
+    public void onNext(T item) {
+        try {
+            documentsWritten += write(item);
+            progressReporter.updateProgress(documentsWritten);
+            if (++consumed == replenish) {
+                consumed = 0;
+                subscription.request(replenish);
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e;
+            subscription.cancel();
+            finished.countDown();
+        }
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        finished.countDown();
+    }
+    
+    @Override
+    public void onComplete() {
+        finished.countDown();
+    }
+    
+    /**
+     * Blocks until the publisher completes and returns the number of documents written.
+     * Interrupting the caller cancels the subscription.
+     */
+    public long await() throws Exception {
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            throw e;
+        }
+        
+        Throwable failure = error;
+        if (failure instanceof Exception exception) {
+            throw exception;
+        } else if (failure instanceof Error err) {
+            throw err;
+        }
+        return documentsWritten;
+    }
+}
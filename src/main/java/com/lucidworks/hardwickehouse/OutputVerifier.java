@@ -0,0 +1,544 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checks JSONL output against the index it came from, for {@code verify} and
+ * {@code --verify}.
+ *
+ * <p>Every record is reduced to a 64-bit hash that does not depend on the order of its
+ * fields, and hashes are summed per leaf, so neither side has to be read in any particular
+ * order. The index side re-serializes accepted documents with the same serializer, range by
+ * range; the output side streams each part file, gzipped or not, and attributes every
+ * record to a leaf by its {@code _docId}. Plain files are split at line boundaries so that a
+ * single large file is also read in parallel. All of it runs at once on one pool.
+ *
+ * <p>A leaf matches when both sides have the same number of documents and the same hash sum.
+ * Mismatched leaves are reported with their segment and the parts holding their records;
+ * parts with malformed records or doc IDs outside the index are reported too.
+ */
+public class OutputVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputVerifier.class);
+
+    static final long DEFAULT_SPLIT_BYTES = 64L * 1024 * 1024;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final IndexReader source;
+    private final JsonLSerializer serializer;
+    private final int threads;
+    private final long splitBytes;
+
+    public OutputVerifier(IndexReader source, JsonLSerializer serializer, int threads) {
+        this(source, serializer, threads, DEFAULT_SPLIT_BYTES);
+    }
+
+    OutputVerifier(IndexReader source, JsonLSerializer serializer, int threads, long splitBytes) {
+        this.source = source;
+        this.serializer = serializer;
+        this.threads = Math.max(1, threads);
+        this.splitBytes = splitBytes;
+    }
+
+    /**
+     * Compares the accepted documents of the index with the records in {@code parts}.
+     */
+    public Result verify(List<Path> parts) throws IOException, InterruptedException {
+        List<LeafReaderContext> leaves = source.getLeaves();
+        List<DocRange> ranges = source.getDocRanges(IndexPublisher.DEFAULT_RANGE_SIZE);
+        List<Split> splits = new ArrayList<>();
+        for (int part = 0; part < parts.size(); part++) {
+            splits.addAll(split(part, parts.get(part), splitBytes));
+        }
+        logger.info("Verifying {} parts ({} splits) against {} leaves ({} ranges) with {} threads",
+                   parts.size(), splits.size(), leaves.size(), ranges.size(), threads);
+
+        Tally index = new Tally(leaves.size());
+        Tally[] output = new Tally[parts.size()];
+        for (int part = 0; part < parts.size(); part++) {
+            output[part] = new Tally(leaves.size());
+        }
+
+        // Splits go first: a gzipped part is read by one thread from start to end
+        int taskCount = splits.size() + ranges.size();
+        AtomicInteger nextTask = new AtomicInteger();
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "verify-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            Future<?>[] workers = new Future<?>[Math.min(threads, Math.max(1, taskCount))];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = executor.submit(() -> {
+                    RecordHasher hasher = new RecordHasher();
+                    int task;
+                    while (!stopped.get() && (task = nextTask.getAndIncrement()) < taskCount) {
+                        Tally local = new Tally(leaves.size());
+                        if (task < splits.size()) {
+                            Split split = splits.get(task);
+                            readSplit(split, leaves, hasher, local);
+                            output[split.part].add(local);
+                        } else {
+                            readRange(ranges.get(task - splits.size()), hasher, local);
+                            index.add(local);
+                        }
+                    }
+                    return null;
+                });
+            }
+
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException io) {
+                        throw io;
+                    }
+                    throw new IOException("Verification failed", e.getCause());
+                }
+            }
+        } finally {
+            // Workers are not interrupted: an interrupt closes NIO channels of the shared index
+            stopped.set(true);
+            executor.shutdown();
+        }
+
+        Result result = compare(leaves, parts, index, output);
+        if (result.matches()) {
+            logger.info("Verified {} documents in {} parts against {} leaves",
+                       result.getOutputDocuments(), parts.size(), leaves.size());
+        } else {
+            logger.error("Verification failed: {} of {} leaves and {} of {} parts diverge",
+                        result.getMismatchedLeaves().size(), leaves.size(),
+                        result.getProblemParts().size(), parts.size());
+        }
+        return result;
+    }
+
+    private void readRange(DocRange range, RecordHasher hasher, Tally tally) throws IOException {
+        LeafReaderContext leaf = range.getLeaf();
+        StoredFields storedFields = leaf.reader().storedFields();
+        Bits liveDocs = source.getLiveDocs(leaf);
+        DocumentBuffer document = new DocumentBuffer(source.getSchema());
+        document.startLeaf(leaf);
+        LineBuffer buffer = new LineBuffer();
+
+        try (JsonGenerator generator = JsonLSerializer.createGenerator(buffer)) {
+            for (int doc = range.getFromDoc(); doc < range.getToDoc(); doc++) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    source.readDocument(leaf, storedFields, doc, document);
+                    buffer.reset();
+                    serializer.writeDocument(generator, document);
+                    generator.flush();
+                    // The serializer ends every record with a newline
+                    tally.add(leaf.ord, hasher.hash(buffer.bytes(), 0, buffer.size() - 1));
+                }
+            }
+        }
+    }
+
+    private void readSplit(Split split, List<LeafReaderContext> leaves, RecordHasher hasher,
+                           Tally tally) throws IOException {
+        int maxDoc = source.getMaxDoc();
+        LineBuffer line = new LineBuffer();
+
+        try (LineReader input = new LineReader(split.open())) {
+            long position = split.start;
+            if (split.start > 0) {
+                // The line under way at the split point belongs to the previous split
+                position += input.readLine(line) - 1;
+            }
+            while (position < split.end) {
+                line.reset();
+                int read = input.readLine(line);
+                if (read == 0) {
+                    break;
+                }
+                position += read;
+                int length = line.size();
+                if (length > 0 && line.bytes()[length - 1] == '\n') {
+                    length--;
+                }
+                if (length == 0) {
+                    continue;
+                }
+
+                long hash;
+                try {
+                    hash = hasher.hash(line.bytes(), 0, length);
+                } catch (IOException e) {
+                    tally.malformed++;
+                    continue;
+                }
+                int docId = hasher.docId;
+                if (docId < 0 || docId >= maxDoc) {
+                    tally.unknown++;
+                    continue;
+                }
+                tally.add(ReaderUtil.subIndex(docId, leaves), hash);
+            }
+        }
+    }
+
+    /**
+     * Splits a part into byte ranges read in parallel; a gzipped part is one range.
+     */
+    static List<Split> split(int part, Path path, long splitBytes) throws IOException {
+        long size = Files.size(path);
+        boolean gzipped = false;
+        try (InputStream input = Files.newInputStream(path)) {
+            gzipped = input.read() == 0x1f && input.read() == 0x8b;
+        }
+
+        List<Split> splits = new ArrayList<>();
+        if (gzipped || size <= splitBytes) {
+            splits.add(new Split(part, path, gzipped, 0, gzipped ? Long.MAX_VALUE : size));
+            return splits;
+        }
+        for (long start = 0; start < size; start += splitBytes) {
+            splits.add(new Split(part, path, false, start, Math.min(size, start + splitBytes)));
+        }
+        return splits;
+    }
+
+    private static Result compare(List<LeafReaderContext> leaves, List<Path> parts, Tally index, Tally[] output) {
+        Tally total = new Tally(leaves.size());
+        for (Tally part : output) {
+            total.add(part);
+        }
+
+        List<Map<String, Object>> mismatchedLeaves = new ArrayList<>();
+        for (LeafReaderContext leaf : leaves) {
+            int ord = leaf.ord;
+            if (index.counts[ord] == total.counts[ord] && index.sums[ord] == total.sums[ord]) {
+                continue;
+            }
+            List<String> leafParts = new ArrayList<>();
+            for (int part = 0; part < parts.size(); part++) {
+                if (output[part].counts[ord] > 0) {
+                    leafParts.add(parts.get(part).toString());
+                }
+            }
+
+            Map<String, Object> mismatch = new LinkedHashMap<>();
+            mismatch.put("leaf", ord);
+            mismatch.put("segment", segmentName(leaf.reader()));
+            mismatch.put("docBase", leaf.docBase);
+            mismatch.put("maxDoc", leaf.reader().maxDoc());
+            mismatch.put("indexDocuments", index.counts[ord]);
+            mismatch.put("outputDocuments", total.counts[ord]);
+            mismatch.put("parts", leafParts);
+            mismatchedLeaves.add(mismatch);
+        }
+
+        List<Map<String, Object>> problemParts = new ArrayList<>();
+        for (int part = 0; part < parts.size(); part++) {
+            if (output[part].malformed > 0 || output[part].unknown > 0) {
+                Map<String, Object> problem = new LinkedHashMap<>();
+                problem.put("part", parts.get(part).toString());
+                problem.put("documents", output[part].documents());
+                problem.put("malformedRecords", output[part].malformed);
+                problem.put("unknownDocIds", output[part].unknown);
+                problemParts.add(problem);
+            }
+        }
+
+        return new Result(index.documents(), total.documents(), mismatchedLeaves, problemParts);
+    }
+
+    private static String segmentName(LeafReader reader) {
+        LeafReader unwrapped = FilterLeafReader.unwrap(reader);
+        return unwrapped instanceof SegmentReader segment ? segment.getSegmentName() : null;
+    }
+
+    public static class Result {
+        private final long indexDocuments;
+        private final long outputDocuments;
+        private final List<Map<String, Object>> mismatchedLeaves;
+        private final List<Map<String, Object>> problemParts;
+
+        Result(long indexDocuments, long outputDocuments, List<Map<String, Object>> mismatchedLeaves,
+               List<Map<String, Object>> problemParts) {
+            this.indexDocuments = indexDocuments;
+            this.outputDocuments = outputDocuments;
+            this.mismatchedLeaves = mismatchedLeaves;
+            this.problemParts = problemParts;
+        }
+
+        public boolean matches() {
+            return mismatchedLeaves.isEmpty() && problemParts.isEmpty();
+        }
+
+        public long getIndexDocuments() {
+            return indexDocuments;
+        }
+
+        public long getOutputDocuments() {
+            return outputDocuments;
+        }
+
+        /**
+         * Leaves whose documents differ in number or content from the output.
+         */
+        public List<Map<String, Object>> getMismatchedLeaves() {
+            return mismatchedLeaves;
+        }
+
+        /**
+         * Parts with records that are not JSON objects or name no document of the index.
+         */
+        public List<Map<String, Object>> getProblemParts() {
+            return problemParts;
+        }
+
+        public Map<String, Object> describe() {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("matches", matches());
+            report.put("indexDocuments", indexDocuments);
+            report.put("outputDocuments", outputDocuments);
+            report.put("mismatchedLeaves", mismatchedLeaves);
+            report.put("problemParts", problemParts);
+            return report;
+        }
+    }
+
+    /**
+     * A byte range of a part file. Records starting inside the range belong to it.
+     */
+    static class Split {
+        final int part;
+        final Path path;
+        final boolean gzipped;
+        final long start;
+        final long end;
+
+        Split(int part, Path path, boolean gzipped, long start, long end) {
+            this.part = part;
+            this.path = path;
+            this.gzipped = gzipped;
+            this.start = start;
+            this.end = end;
+        }
+
+        InputStream open() throws IOException {
+            if (gzipped) {
+                return new GZIPInputStream(Files.newInputStream(path), 64 * 1024);
+            }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            channel.position(start > 0 ? start - 1 : 0);
+            return Channels.newInputStream(channel);
+        }
+    }
+
+    /**
+     * Document counts and hash sums per leaf.
+     */
+    private static class Tally {
+        final long[] counts;
+        final long[] sums;
+        long malformed;
+        long unknown;
+
+        Tally(int leaves) {
+            counts = new long[leaves];
+            sums = new long[leaves];
+        }
+
+        void add(int leaf, long hash) {
+            counts[leaf]++;
+            sums[leaf] += hash;
+        }
+
+        synchronized void add(Tally other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+                sums[i] += other.sums[i];
+            }
+            malformed += other.malformed;
+            unknown += other.unknown;
+        }
+
+        long documents() {
+            long documents = 0;
+            for (long count : counts) {
+                documents += count;
+            }
+            return documents;
+        }
+    }
+
+    /**
+     * Hashes one JSON record. Object members are combined by addition, so their order does
+     * not matter; array elements are combined in order.
+     */
+    static class RecordHasher {
+        int docId;
+
+        long hash(byte[] bytes, int offset, int length) throws IOException {
+            docId = -1;
+            try (JsonParser parser = jsonFactory.createParser(bytes, offset, length)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IOException("Record is not a JSON object");
+                }
+                long hash = hashObject(parser, true);
+                if (parser.nextToken() != null) {
+                    throw new IOException("Trailing content after record");
+                }
+                return hash;
+            }
+        }
+
+        private long hashObject(JsonParser parser, boolean root) throws IOException {
+            long hash = 0x4f;
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                if (root && name.equals("_docId") && parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+                    docId = parser.getIntValue();
+                }
+                hash += mix(hashText(name) * 31 + hashValue(parser));
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new IOException("Unterminated object");
+            }
+            return mix(hash);
+        }
+
+        private long hashValue(JsonParser parser) throws IOException {
+            JsonToken token = parser.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                return hashObject(parser, false);
+            }
+            if (token == JsonToken.START_ARRAY) {
+                long hash = 0x5b;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == null) {
+                        throw new IOException("Unterminated array");
+                    }
+                    hash = hash * 31 + hashValue(parser);
+                }
+                return mix(hash);
+            }
+            if (token == null) {
+                throw new IOException("Truncated record");
+            }
+            return mix(token.ordinal() * 0x9E3779B97F4A7C15L + hashText(parser.getText()));
+        }
+
+        private static long hashText(String text) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < text.length(); i++) {
+                hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * Reads lines as raw bytes, scanning a block at a time for newlines.
+     */
+    private static class LineReader implements AutoCloseable {
+        private final InputStream input;
+        private final byte[] block = new byte[64 * 1024];
+        private int position;
+        private int limit;
+
+        LineReader(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * Appends the bytes up to and including the next newline to {@code line}.
+         *
+         * @return the number of bytes read, 0 at the end of the stream
+         */
+        int readLine(LineBuffer line) throws IOException {
+            int read = 0;
+            while (true) {
+                if (position == limit) {
+                    limit = input.read(block);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return read;
+                    }
+                }
+                int start = position;
+                while (position < limit && block[position] != '\n') {
+                    position++;
+                }
+                boolean newline = position < limit;
+                if (newline) {
+                    position++;
+                }
+                line.write(block, start, position - start);
+                read += position - start;
+                if (newline) {
+                    return read;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Byte buffer with access to its backing array, reused for every record.
+     */
+    private static class LineBuffer extends ByteArrayOutputStream {
+        LineBuffer() {
+            super(1024);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
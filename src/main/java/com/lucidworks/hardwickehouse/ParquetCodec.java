@@ -0,0 +1,30 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+import java.util.Locale;
+
+/**
+ * Page compression used for Parquet output.
+ */
+public enum ParquetCodec {
+    UNCOMPRESSED(CompressionCodecName.UNCOMPRESSED),
+    SNAPPY(CompressionCodecName.SNAPPY),
+    ZSTD(CompressionCodecName.ZSTD);
+    
+    private final CompressionCodecName codecName;
+    
+    ParquetCodec(CompressionCodecName codecName) {
+        this.codecName = codecName;
+    }
+    
+    public CompressionCodecName getCodecName() {
+        return codecName;
+    }
+    
+    @JsonCreator
+    public static ParquetCodec fromString(String value) {
+        return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
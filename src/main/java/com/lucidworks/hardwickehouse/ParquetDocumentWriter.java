@@ -0,0 +1,279 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.lucene.util.BytesRef;
+import org.apache.parquet.conf.ParquetConfiguration;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.LocalOutputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes documents as a Parquet file whose columns come from the index's {@link JsonLSchema}.
+ *
+ * <p>Every schema field becomes an optional column, or a repeated one if any document stores
+ * it more than once, followed by a required {@code _docId} column. Because field types are
+ * inferred from a sample, a later document can still carry a field the schema does not know
+ * or a value of another type; such values are dropped, except that any value is accepted by
+ * a string column. Each dropped field is logged once.
+ */
+public class ParquetDocumentWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParquetDocumentWriter.class);
+
+    static final String DOC_ID_FIELD = "_docId";
+
+    private final BinaryEncoding binaryEncoding;
+    private final ParquetCodec codec;
+    private final long rowGroupSizeBytes;
+    private ParquetWriter<LuceneDocument> writer;
+    private Path outputPath;
+    private DocumentWriteSupport writeSupport;
+    private long documentsWritten = 0;
+
+    public ParquetDocumentWriter(BinaryEncoding binaryEncoding, ParquetCodec codec, long rowGroupSizeBytes) {
+        this.binaryEncoding = binaryEncoding;
+        this.codec = codec;
+        this.rowGroupSizeBytes = rowGroupSizeBytes;
+    }
+
+    public Path initialize(String outputFilename, JsonLSchema schema) throws IOException {
+        if (outputFilename != null) {
+            Path targetPath = Path.of(outputFilename);
+            if (targetPath.getParent() != null) {
+                Files.createDirectories(targetPath.getParent());
+            }
+            this.outputPath = targetPath;
+        } else {
+            this.outputPath = Files.createTempFile("lucene_to_parquet_", ".parquet");
+        }
+
+        logger.info("Initializing Parquet writer with output path: {} (codec: {}, row group: {} bytes)",
+                   outputPath, codec, rowGroupSizeBytes);
+
+        this.writeSupport = new DocumentWriteSupport(schema, toMessageType(schema));
+        this.writer = new Builder(new LocalOutputFile(outputPath), writeSupport)
+            .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+            .withCompressionCodec(codec.getCodecName())
+            .withRowGroupSize(rowGroupSizeBytes)
+            .withDictionaryEncoding(true)
+            .build();
+
+        logger.info("Parquet writer initialized successfully");
+        return outputPath;
+    }
+
+    public void write(LuceneDocument document) throws IOException {
+        writer.write(document);
+        documentsWritten++;
+    }
+
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            logger.info("Parquet writer closed successfully. Wrote {} documents", documentsWritten);
+        }
+    }
+
+    public long getDocumentsWritten() {
+        return documentsWritten;
+    }
+
+    /**
+     * Maps a schema to Parquet columns in field ordinal order, then {@code _docId}.
+     */
+    public static MessageType toMessageType(JsonLSchema schema) {
+        Types.MessageTypeBuilder message = Types.buildMessage();
+        for (int ordinal = 0; ordinal < schema.getFieldCount(); ordinal++) {
+            String name = schema.getFieldName(ordinal);
+            Type.Repetition repetition = schema.isMultiValued(name) ? Type.Repetition.REPEATED : Type.Repetition.OPTIONAL;
+
+            switch (schema.getFieldType(name)) {
+                case INTEGER -> message.primitive(PrimitiveTypeName.INT32, repetition).named(name);
+                case LONG -> message.primitive(PrimitiveTypeName.INT64, repetition).named(name);
+                case FLOAT -> message.primitive(PrimitiveTypeName.FLOAT, repetition).named(name);
+                case DOUBLE -> message.primitive(PrimitiveTypeName.DOUBLE, repetition).named(name);
+                case BOOLEAN -> message.primitive(PrimitiveTypeName.BOOLEAN, repetition).named(name);
+                case BINARY -> message.primitive(PrimitiveTypeName.BINARY, repetition).named(name);
+                default -> message.primitive(PrimitiveTypeName.BINARY, repetition)
+                    .as(LogicalTypeAnnotation.stringType()).named(name);
+            }
+        }
+        message.required(PrimitiveTypeName.INT64).named(DOC_ID_FIELD);
+        return message.named("document");
+    }
+
+    private static class Builder extends ParquetWriter.Builder<LuceneDocument, Builder> {
+
+        private final DocumentWriteSupport writeSupport;
+
+        Builder(LocalOutputFile file, DocumentWriteSupport writeSupport) {
+            super(file);
+            this.writeSupport = writeSupport;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<LuceneDocument> getWriteSupport(ParquetConfiguration conf) {
+            return writeSupport;
+        }
+
+        // Still abstract in ParquetWriter.Builder; build() calls the ParquetConfiguration variant
+        @Deprecated
+        @Override
+        protected WriteSupport<LuceneDocument> getWriteSupport(Configuration conf) {
+            return writeSupport;
+        }
+    }
+
+    private class DocumentWriteSupport extends WriteSupport<LuceneDocument> {
+
+        private final JsonLSchema schema;
+        private final MessageType messageType;
+        private final FieldType[] columnTypes;
+        private final boolean[] repeated;
+        private final Map<String, Boolean> reportedFields = new HashMap<>();
+        private RecordConsumer consumer;
+
+        DocumentWriteSupport(JsonLSchema schema, MessageType messageType) {
+            this.schema = schema;
+            this.messageType = messageType;
+            this.columnTypes = new FieldType[schema.getFieldCount()];
+            this.repeated = new boolean[schema.getFieldCount()];
+            for (int ordinal = 0; ordinal < columnTypes.length; ordinal++) {
+                String name = schema.getFieldName(ordinal);
+                columnTypes[ordinal] = schema.getFieldType(name);
+                repeated[ordinal] = schema.isMultiValued(name);
+            }
+        }
+
+        @Override
+        public WriteContext init(ParquetConfiguration configuration) {
+            return new WriteContext(messageType, Map.of());
+        }
+
+        // Still abstract in WriteSupport; ParquetWriter calls the ParquetConfiguration variant
+        @Deprecated
+        @Override
+        public WriteContext init(Configuration configuration) {
+            return new WriteContext(messageType, Map.of());
+        }
+
+        @Override
+        public void prepareForWrite(RecordConsumer recordConsumer) {
+            this.consumer = recordConsumer;
+        }
+
+        @Override
+        public void write(LuceneDocument document) {
+            consumer.startMessage();
+
+            for (int ordinal = 0; ordinal < columnTypes.length; ordinal++) {
+                String name = schema.getFieldName(ordinal);
+                Object value = document.getField(name);
+                if (value != null) {
+                    writeField(ordinal, name, value);
+                }
+            }
+
+            consumer.startField(DOC_ID_FIELD, columnTypes.length);
+            consumer.addLong(document.getDocId());
+            consumer.endField(DOC_ID_FIELD, columnTypes.length);
+
+            consumer.endMessage();
+
+            for (String name : document.getFields().keySet()) {
+                if (schema.getFieldOrdinal(name) < 0) {
+                    reportOnce(name, "field is not in the inferred schema");
+                }
+            }
+        }
+
+        private void writeField(int ordinal, String name, Object value) {
+            FieldType type = columnTypes[ordinal];
+            List<?> values = value instanceof List<?> list ? list : List.of(value);
+
+            // Parquet rejects a started field without values, so check before starting it
+            int accepted = 0;
+            for (Object item : values) {
+                if (accepts(type, item)) {
+                    accepted++;
+                }
+            }
+            if (accepted < values.size()) {
+                reportOnce(name, "value does not match column type " + type);
+            }
+            if (accepted == 0) {
+                return;
+            }
+            if (accepted > 1 && !repeated[ordinal]) {
+                // Inference finds every repeated field, so this is a schema from elsewhere
+                throw new IllegalStateException(
+                    "Field " + name + " has several values but the schema declares it single-valued");
+            }
+
+            consumer.startField(name, ordinal);
+            for (Object item : values) {
+                if (accepts(type, item)) {
+                    addValue(type, item);
+                }
+            }
+            consumer.endField(name, ordinal);
+        }
+
+        private boolean accepts(FieldType type, Object value) {
+            return switch (type) {
+                case INTEGER -> value instanceof Integer;
+                case LONG -> value instanceof Integer || value instanceof Long;
+                case FLOAT -> value instanceof Float;
+                case DOUBLE -> value instanceof Number;
+                case BOOLEAN -> value instanceof Boolean;
+                case BINARY -> value instanceof BytesRef || value instanceof String;
+                default -> true;
+            };
+        }
+
+        private void addValue(FieldType type, Object value) {
+            switch (type) {
+                case INTEGER -> consumer.addInteger((Integer) value);
+                case LONG -> consumer.addLong(((Number) value).longValue());
+                case FLOAT -> consumer.addFloat((Float) value);
+                case DOUBLE -> consumer.addDouble(((Number) value).doubleValue());
+                case BOOLEAN -> consumer.addBoolean((Boolean) value);
+                case BINARY -> consumer.addBinary(value instanceof BytesRef bytes
+                    ? Binary.fromReusedByteArray(bytes.bytes, bytes.offset, bytes.length)
+                    : Binary.fromString((String) value));
+                default -> consumer.addBinary(Binary.fromString(value instanceof BytesRef bytes
+                    ? binaryEncoding.encode(bytes.bytes, bytes.offset, bytes.length)
+                    : value.toString()));
+            }
+        }
+
+        private void reportOnce(String field, String reason) {
+            if (reportedFields.putIfAbsent(field, Boolean.TRUE) == null) {
+                logger.warn("Dropping values of field '{}' from Parquet output: {}", field, reason);
+            }
+        }
+    }
+}
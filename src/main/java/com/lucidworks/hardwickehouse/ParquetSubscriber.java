@@ -0,0 +1,23 @@
+package com.lucidworks.hardwickehouse;
+
+import java.io.IOException;
+
+/**
+ * Writes published {@link LuceneDocument}s to a {@link ParquetDocumentWriter}. Encoding
+ * happens on the subscriber thread; the producers only read and decode stored fields.
+ */
+public class ParquetSubscriber extends OutputSubscriber<LuceneDocument> {
+    
+    private final ParquetDocumentWriter writer;
+    
+    public ParquetSubscriber(ParquetDocumentWriter writer, ProgressReporter progressReporter, int prefetch) {
+        super(progressReporter, prefetch);
+        this.writer = writer;
+    }
+    
+    @Override
+    protected long write(LuceneDocument document) throws IOException {
+        writer.write(document);
+        return 1;
+    }
+}
@@ -0,0 +1,206 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.util.StringHelper;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * How {@code --partition-by} splits an export into Hive-style directories: by the UTC date of
+ * a field, {@code date(field,day)} giving {@code dt=2024-01-05/}, or by a hash of a field into
+ * a fixed number of buckets, {@code hash(field,16)} giving {@code bucket=07/}. Documents without
+ * the field, or with a date that cannot be read, go to {@code __HIVE_DEFAULT_PARTITION__}.
+ *
+ * <p>Each document maps to a partition key, a long, so producers can group records without
+ * building directory names; {@link #directory(long)} names the partition once per writer.
+ * Instances are immutable and shared by all producer threads.
+ */
+public class PartitionSpec {
+
+    static final long MISSING = Long.MIN_VALUE;
+    static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+    private static final Pattern SPEC = Pattern.compile("(date|hash)\\(\\s*([^,\\s]+)\\s*,\\s*(\\w+)\\s*\\)");
+    private static final long MILLIS_PER_HOUR = 3_600_000L;
+
+    public enum Granularity {
+        HOUR, DAY, MONTH, YEAR
+    }
+
+    private final String field;
+    private final Granularity granularity;
+    private final int buckets;
+    private final String bucketFormat;
+
+    private PartitionSpec(String field, Granularity granularity, int buckets) {
+        this.field = field;
+        this.granularity = granularity;
+        this.buckets = buckets;
+        this.bucketFormat = "bucket=%0" + String.valueOf(Math.max(1, buckets - 1)).length() + "d";
+    }
+
+    /**
+     * Parses {@code date(field,hour|day|month|year)} or {@code hash(field,N)}.
+     */
+    public static PartitionSpec parse(String spec) {
+        Matcher matcher = SPEC.matcher(spec.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("--partition-by must be date(field,day) or hash(field,N): " + spec);
+        }
+        String field = matcher.group(2);
+        String argument = matcher.group(3);
+
+        if (matcher.group(1).equals("date")) {
+            try {
+                return new PartitionSpec(field, Granularity.valueOf(argument.toUpperCase(Locale.ROOT)), 0);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("--partition-by date granularity must be hour, day, month or year: " + spec);
+            }
+        }
+
+        int buckets;
+        try {
+            buckets = Integer.parseInt(argument);
+        } catch (NumberFormatException e) {
+            buckets = 0;
+        }
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("--partition-by hash needs a positive number of buckets: " + spec);
+        }
+        return new PartitionSpec(field, null, buckets);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public boolean isHash() {
+        return granularity == null;
+    }
+
+    /**
+     * The partition key of a document, or {@link #MISSING}.
+     */
+    public long partitionOf(DocumentBuffer document) {
+        int ordinal = document.getSchema().getFieldOrdinal(field);
+        int value = ordinal >= 0 ? document.getFirstValue(ordinal) : -1;
+
+        if (isHash()) {
+            String key = value >= 0 && document.getKind(value) == DocumentBuffer.STRING
+                ? document.getString(value) : document.getFirstString(field);
+            return key != null ? bucketOf(key) : MISSING;
+        }
+
+        if (value >= 0) {
+            byte kind = document.getKind(value);
+            if (kind == DocumentBuffer.LONG || kind == DocumentBuffer.INT) {
+                return dateKey(document.getLong(value));
+            }
+            if (kind == DocumentBuffer.STRING) {
+                return dateKey(document.getString(value));
+            }
+            return MISSING;
+        }
+        // Not in the schema sample; rare enough to look up by name
+        String date = document.getFirstString(field);
+        return date != null ? dateKey(date) : MISSING;
+    }
+
+    /**
+     * The bucket of a key: MurmurHash3 (x86, 32-bit, seed 0) of its UTF-8 bytes, as Solr's
+     * compositeId router hashes plain ids, modulo the bucket count.
+     */
+    int bucketOf(String key) {
+        return bucketOf(key, buckets);
+    }
+
+    static int bucketOf(String key, int buckets) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return Math.floorMod(StringHelper.murmurhash3_x86_32(bytes, 0, bytes.length, 0), buckets);
+    }
+
+    private long dateKey(long epochMillis) {
+        long hours = Math.floorDiv(epochMillis, MILLIS_PER_HOUR);
+        return switch (granularity) {
+            case HOUR -> hours;
+            case DAY -> Math.floorDiv(hours, 24);
+            default -> {
+                LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(hours, 24));
+                yield granularity == Granularity.MONTH ? date.getYear() * 12L + date.getMonthValue() - 1 : date.getYear();
+            }
+        };
+    }
+
+    /**
+     * Reads the leading {@code yyyy-MM-dd} and, for hour partitions, {@code Thh} of an ISO-8601
+     * date without parsing the rest; Solr writes dates in UTC.
+     */
+    private long dateKey(String date) {
+        if (date.length() < 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            return MISSING;
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return MISSING;
+        }
+        if (granularity == Granularity.YEAR) {
+            return year;
+        }
+        if (granularity == Granularity.MONTH) {
+            return year * 12L + month - 1;
+        }
+
+        long epochDay;
+        try {
+            epochDay = LocalDate.of(year, month, day).toEpochDay();
+        } catch (RuntimeException e) {
+            return MISSING;
+        }
+        if (granularity == Granularity.DAY) {
+            return epochDay;
+        }
+        int hour = date.length() >= 13 && date.charAt(10) == 'T' ? digits(date, 11, 13) : 0;
+        return hour >= 0 && hour < 24 ? epochDay * 24 + hour : MISSING;
+    }
+
+    private static int digits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * The directory of a partition, relative to the output directory.
+     */
+    public String directory(long key) {
+        if (isHash()) {
+            return key == MISSING ? "bucket=" + DEFAULT_PARTITION : String.format(bucketFormat, key);
+        }
+        if (key == MISSING) {
+            return "dt=" + DEFAULT_PARTITION;
+        }
+        return switch (granularity) {
+            case HOUR -> String.format("dt=%s/hr=%02d", LocalDate.ofEpochDay(Math.floorDiv(key, 24)), Math.floorMod(key, 24));
+            case DAY -> "dt=" + LocalDate.ofEpochDay(key);
+            case MONTH -> String.format("dt=%04d-%02d", Math.floorDiv(key, 12), Math.floorMod(key, 12) + 1);
+            case YEAR -> String.format("dt=%04d", key);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return isHash() ? "hash(" + field + "," + buckets + ")"
+                        : "date(" + field + "," + granularity.name().toLowerCase(Locale.ROOT) + ")";
+    }
+}
@@ -0,0 +1,150 @@
+package com.lucidworks.hardwickehouse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The files of a partitioned export, one {@code part-00000.jsonl[.gz]} per partition
+ * directory, written through a bounded pool of open streams.
+ *
+ * <p>Each open partition has its own buffered, optionally gzipped stream. When the pool is
+ * full, the least recently written partition is flushed and closed; if more of its records
+ * arrive later its file is reopened for appending, which for gzip adds a new member that
+ * readers decompress as one stream. Used from the single writing thread only.
+ */
+public class PartitionWriters implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionWriters.class);
+
+    public static final int DEFAULT_MAX_OPEN = 128;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final PartitionSpec spec;
+    private final boolean compress;
+    private final int maxOpen;
+    private final LinkedHashMap<Long, OutputStream> open = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Path> files = new HashMap<>();
+    private final Map<Long, Long> documents = new HashMap<>();
+    private long reopens;
+    private Throttle throttle;
+
+    public PartitionWriters(Path directory, PartitionSpec spec, boolean compress, int maxOpen) {
+        this.directory = directory;
+        this.spec = spec;
+        this.compress = compress;
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * Charges the bytes written to partition files to the throttle's write limit.
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    public void write(long partition, JsonChunk chunk) throws IOException {
+        OutputStream output = open.get(partition);
+        if (output == null) {
+            output = open(partition);
+        }
+        ByteBuffer bytes = chunk.getBytes();
+        output.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        documents.merge(partition, (long) chunk.getDocumentCount(), Long::sum);
+    }
+
+    private OutputStream open(long partition) throws IOException {
+        if (open.size() >= maxOpen) {
+            Iterator<Map.Entry<Long, OutputStream>> eldest = open.entrySet().iterator();
+            OutputStream evicted = eldest.next().getValue();
+            eldest.remove();
+            evicted.close();
+        }
+
+        Path file = files.get(partition);
+        OutputStream sink;
+        if (file == null) {
+            file = directory.resolve(spec.directory(partition)).resolve(compress ? "part-00000.jsonl.gz" : "part-00000.jsonl");
+            Files.createDirectories(file.getParent());
+            files.put(partition, file);
+            sink = Files.newOutputStream(file);
+        } else {
+            reopens++;
+            sink = Files.newOutputStream(file, StandardOpenOption.APPEND);
+        }
+
+        if (throttle != null) {
+            sink = throttle.throttleOutput(sink);
+        }
+        OutputStream output = compress
+            ? new BufferedOutputStream(new GZIPOutputStream(sink, BUFFER_SIZE), BUFFER_SIZE)
+            : new BufferedOutputStream(sink, BUFFER_SIZE);
+        open.put(partition, output);
+        return output;
+    }
+
+    /**
+     * Files written so far, in partition order.
+     */
+    public List<Path> getFiles() {
+        List<Path> paths = new ArrayList<>(files.values());
+        paths.sort(null);
+        return paths;
+    }
+
+    public int getPartitionCount() {
+        return files.size();
+    }
+
+    /**
+     * Times a partition evicted from the pool had to be opened again.
+     */
+    public long getReopens() {
+        return reopens;
+    }
+
+    /**
+     * Documents written per partition directory.
+     */
+    public Map<String, Long> getDocumentCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        documents.forEach((partition, count) -> counts.put(spec.directory(partition), count));
+        return counts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (OutputStream output : open.values()) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        open.clear();
+        if (failure != null) {
+            throw failure;
+        }
+        logger.info("Wrote {} partitions under {} ({} reopened after eviction)", files.size(), directory, reopens);
+    }
+}
@@ -0,0 +1,34 @@
+package com.lucidworks.hardwickehouse;
+
+/**
+ * Records serialized by one producer for a partitioned export, grouped by partition key:
+ * {@code chunks[i]} holds the records of partition {@code partitions[i]}.
+ */
+public class PartitionedChunk {
+    
+    private final long[] partitions;
+    private final JsonChunk[] chunks;
+    private final int documentCount;
+    
+    public PartitionedChunk(long[] partitions, JsonChunk[] chunks, int documentCount) {
+        this.partitions = partitions;
+        this.chunks = chunks;
+        this.documentCount = documentCount;
+    }
+    
+    public int size() {
+        return partitions.length;
+    }
+    
+    public long getPartition(int index) {
+        return partitions[index];
+    }
+    
+    public JsonChunk getChunk(int index) {
+        return chunks[index];
+    }
+    
+    public int getDocumentCount() {
+        return documentCount;
+    }
+}
@@ -0,0 +1,24 @@
+package com.lucidworks.hardwickehouse;
+
+import java.io.IOException;
+
+/**
+ * Writes published {@link PartitionedChunk}s to the writers of their partitions.
+ */
+public class PartitionedJsonLSubscriber extends OutputSubscriber<PartitionedChunk> {
+    
+    private final PartitionWriters writers;
+    
+    public PartitionedJsonLSubscriber(PartitionWriters writers, ProgressReporter progressReporter, int prefetch) {
+        super(progressReporter, prefetch);
+        this.writers = writers;
+    }
+    
+    @Override
+    protected long write(PartitionedChunk chunk) throws IOException {
+        for (int i = 0; i < chunk.size(); i++) {
+            writers.write(chunk.getPartition(i), chunk.getChunk(i));
+        }
+        return chunk.getDocumentCount();
+    }
+}
@@ -16,10 +16,16 @@ public class ProgressReporter {
     
     private final int reportingIntervalSeconds;
     private final AtomicLong processedDocuments = new AtomicLong(0);
+    private final AtomicLong decisions = new AtomicLong(0);
+    private volatile String lastDecision;
     private volatile long totalDocuments = 0;
+    private volatile long progressBase = 0;
     private volatile Instant startTime;
     private volatile Instant lastReportTime;
     private ScheduledExecutorService scheduler;
+    private volatile Throttle throttle;
+    private long lastBytesRead;
+    private long lastBytesWritten;
     
     public ProgressReporter(int reportingIntervalSeconds) {
         this.reportingIntervalSeconds = reportingIntervalSeconds;
@@ -50,7 +56,36 @@ public class ProgressReporter {
     }
     
     public void updateProgress(long processedCount) {
-        processedDocuments.set(processedCount);
+        processedDocuments.set(progressBase + processedCount);
+    }
+    
+    /**
+     * Adds {@code base} to the counts of later {@link #updateProgress} calls, for output
+     * written in several passes that each count from zero.
+     */
+    public void setProgressBase(long base) {
+        this.progressBase = base;
+    }
+    
+    /**
+     * Reports the effective read and write rates, and the limits in effect, with every
+     * progress line.
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+        if (throttle != null) {
+            lastBytesRead = throttle.getBytesRead();
+            lastBytesWritten = throttle.getBytesWritten();
+        }
+    }
+    
+    /**
+     * Logs a tuning decision made while the conversion runs.
+     */
+    public void reportDecision(String decision) {
+        decisions.incrementAndGet();
+        lastDecision = decision;
+        logger.info("Adaptive tuning: {}", decision);
     }
     
     public void complete() {
@@ -126,9 +161,27 @@ public class ProgressReporter {
                        elapsedSeconds);
         }
         
+        Throttle current = throttle;
+        if (current != null) {
+            reportThrottle(current, ChronoUnit.MILLIS.between(lastReportTime, now) / 1000.0);
+        }
+        
         lastReportTime = now;
     }
     
+    private void reportThrottle(Throttle current, double intervalSeconds) {
+        long bytesRead = current.getBytesRead();
+        long bytesWritten = current.getBytesWritten();
+        double seconds = Math.max(intervalSeconds, 0.001);
+        logger.info(String.format("Throttle: read %.1f MB/s, write %.1f MB/s, %d producer threads - limits: %s",
+                                  (bytesRead - lastBytesRead) / seconds / Throttle.BYTES_PER_MB,
+                                  (bytesWritten - lastBytesWritten) / seconds / Throttle.BYTES_PER_MB,
+                                  current.getActiveThreads(),
+                                  current.describeLimits()));
+        lastBytesRead = bytesRead;
+        lastBytesWritten = bytesWritten;
+    }
+    
     public long getProcessedDocuments() {
         return processedDocuments.get();
     }
@@ -136,4 +189,12 @@ public class ProgressReporter {
     public long getTotalDocuments() {
         return totalDocuments;
     }
+    
+    public long getDecisionCount() {
+        return decisions.get();
+    }
+    
+    public String getLastDecision() {
+        return lastDecision;
+    }
 }
\ No newline at end of file
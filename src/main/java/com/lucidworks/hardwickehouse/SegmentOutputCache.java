@@ -0,0 +1,238 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes a full JSONL export from per-segment outputs kept in the {@link LocalCache}, for
+ * {@code --segment-cache}.
+ *
+ * <p>Lucene never rewrites a segment; deletes only advance its deletion generation. Each
+ * leaf is therefore converted on its own into a cache entry keyed by the segment's unique
+ * ID, its deletion generation and live count, and everything else that shapes its bytes:
+ * which of the segment's own fields are written as arrays, the binary encoding and
+ * compression. Field types are not part of the key, since records hold values as stored,
+ * so fields and samples from other segments do not invalidate an entry. Later exports
+ * append the entries of unchanged segments to the output with {@link FileChannel#transferTo}
+ * and convert only new or changed segments. A compressed entry is a complete gzip member,
+ * and concatenated members are a valid gzip file.
+ *
+ * <p>Records carry the global {@code _docId}, which the verifier and re-imports rely on, so
+ * the segment's doc base is part of the key as well. A merge that reclaims deletes shifts
+ * the doc base of every later segment, and those segments are converted again.
+ */
+public class SegmentOutputCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentOutputCache.class);
+
+    // Changed whenever the records written for a segment change, so older entries are not reused
+    private static final String FORMAT_VERSION = "2";
+    private static final long TRANSFER_BYTES = 8 * 1024 * 1024;
+
+    private final LocalCache cache;
+    private final IndexReader indexReader;
+    private final JsonLSerializer serializer;
+    private final boolean compress;
+    private Throttle throttle;
+
+    private int segmentsReused;
+    private int segmentsConverted;
+    private long bytesReused;
+    private long documentsWritten;
+
+    public SegmentOutputCache(LocalCache cache, IndexReader indexReader, JsonLSerializer serializer, boolean compress) {
+        this.cache = cache;
+        this.indexReader = indexReader;
+        this.serializer = serializer;
+        this.compress = compress;
+    }
+
+    /**
+     * Charges index reads of converted segments and every byte written, including copies of
+     * cached segments, to the throttle.
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Writes every leaf's records to {@code outputFilename}, or to a temporary file if it is
+     * null, and returns the path written.
+     */
+    public Path write(String outputFilename, ProgressReporter progressReporter, int threads, int batchSize)
+            throws IOException {
+        Path outputPath;
+        if (outputFilename != null) {
+            outputPath = Path.of(outputFilename);
+            if (outputPath.getParent() != null) {
+                Files.createDirectories(outputPath.getParent());
+            }
+        } else {
+            outputPath = Files.createTempFile("lucene_to_jsonl_", compress ? ".jsonl.gz" : ".jsonl");
+        }
+
+        long documents = 0;
+        try (FileChannel output = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (LeafReaderContext leaf : indexReader.getLeaves()) {
+                if (leaf.reader().numDocs() == 0) {
+                    continue;
+                }
+                progressReporter.setProgressBase(documents);
+                documents += writeLeaf(leaf, output, progressReporter, threads, batchSize);
+            }
+        } finally {
+            indexReader.clearRange();
+            progressReporter.setProgressBase(0);
+        }
+        documentsWritten = documents;
+        progressReporter.updateProgress(documents);
+
+        logger.info("Segment cache: {} segments reused ({} bytes), {} converted",
+                    segmentsReused, bytesReused, segmentsConverted);
+        return outputPath;
+    }
+
+    private long writeLeaf(LeafReaderContext leaf, FileChannel output, ProgressReporter progressReporter,
+                           int threads, int batchSize) throws IOException {
+        String key = segmentKey(leaf);
+        if (key == null) {
+            // Not a segment of an index on disk, so there is nothing stable to key it by
+            Path scratch = Files.createTempFile("lucene_to_jsonl_segment_", ".tmp");
+            try {
+                long documents = convertLeaf(leaf, scratch, progressReporter, threads, batchSize);
+                append(scratch, output);
+                segmentsConverted++;
+                return documents;
+            } finally {
+                Files.deleteIfExists(scratch);
+            }
+        }
+
+        long[] converted = {-1};
+        try (LocalCache.Lease lease = cache.get(key, target ->
+                converted[0] = convertLeaf(leaf, target, progressReporter, threads, batchSize))) {
+            long bytes = append(lease.getPath(), output);
+            if (converted[0] >= 0) {
+                segmentsConverted++;
+                return converted[0];
+            }
+            segmentsReused++;
+            bytesReused += bytes;
+            logger.debug("Reused cached output of segment {}", IndexReader.getSegmentName(leaf));
+            return leaf.reader().numDocs();
+        }
+    }
+
+    private long convertLeaf(LeafReaderContext leaf, Path target, ProgressReporter progressReporter,
+                             int threads, int batchSize) throws IOException {
+        logger.info("Converting segment {} ({} documents)", IndexReader.getSegmentName(leaf), leaf.reader().numDocs());
+        indexReader.restrictToRange(leaf.ord, 0, leaf.reader().maxDoc());
+        JsonLWriter writer = new JsonLWriter(serializer);
+        writer.setThrottle(throttle);
+        writer.initialize(target.toString(), compress);
+        try {
+            IndexPublisher<JsonChunk> publisher = IndexPublisher.jsonLines(indexReader, serializer, threads, batchSize);
+            publisher.setThrottle(throttle);
+            JsonLSubscriber subscriber = new JsonLSubscriber(writer, progressReporter, 2 * threads);
+
+            publisher.subscribe(subscriber);
+            return subscriber.await();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Converting segment " + IndexReader.getSegmentName(leaf) + " failed", e);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Copies a file to the end of the output without passing it through user space.
+     */
+    private long append(Path source, FileChannel output) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = input.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(TRANSFER_BYTES, size - position);
+                if (throttle != null) {
+                    try {
+                        throttle.acquireWrite(length);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while throttling output");
+                    }
+                }
+                position += input.transferTo(position, length, output);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * The cache key of a leaf's output, or null if the leaf is not a segment reader.
+     */
+    String segmentKey(LeafReaderContext leaf) {
+        LeafReader unwrapped = FilterLeafReader.unwrap(leaf.reader());
+        if (!(unwrapped instanceof SegmentReader segment)) {
+            return null;
+        }
+        SegmentCommitInfo info = segment.getSegmentInfo();
+        byte[] id = info.info.getId();
+        if (id == null) {
+            return null;
+        }
+        return LocalCache.key("segment-output", FORMAT_VERSION, HexFormat.of().formatHex(id),
+                              Long.toString(info.getDelGen()), Integer.toString(leaf.reader().numDocs()),
+                              Integer.toString(leaf.docBase), layoutKey(leaf));
+    }
+
+    /**
+     * The parts of the export's settings that shape a leaf's records: fields are written in
+     * stored order and values as stored, so only the leaf's own fields that the schema
+     * writes as arrays matter, besides the encodings.
+     */
+    private String layoutKey(LeafReaderContext leaf) {
+        JsonLSchema schema = indexReader.getSchema();
+        Set<String> arrays = new TreeSet<>();
+        for (FieldInfo fieldInfo : leaf.reader().getFieldInfos()) {
+            if (schema.isMultiValued(fieldInfo.name)) {
+                arrays.add(fieldInfo.name);
+            }
+        }
+        return "arrays " + arrays + " " + serializer.getBinaryEncoding() + (compress ? " gzip" : "");
+    }
+
+    public long getDocumentsWritten() {
+        return documentsWritten;
+    }
+
+    public int getSegmentsReused() {
+        return segmentsReused;
+    }
+
+    public int getSegmentsConverted() {
+        return segmentsConverted;
+    }
+
+    public long getBytesReused() {
+        return bytesReused;
+    }
+}
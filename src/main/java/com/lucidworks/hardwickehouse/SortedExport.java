@@ -0,0 +1,643 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.OfflineSorter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports documents in the order of one field, for {@code --sort-by field[:asc|desc]}.
+ *
+ * <p>Each live document becomes a sort entry holding an order-preserving encoding of its
+ * key and its global doc ID, so the entries sort as plain bytes. Keys come from the field's
+ * doc values where the leaf has them, and from its stored value otherwise. Leaves whose
+ * index sort already orders them by the field are read in doc ID order without sorting;
+ * all other entries go through Lucene's {@link OfflineSorter}, which sorts runs within the
+ * memory budget and spills them to a temporary directory. A k-way merge over the sorted
+ * entries and the pre-sorted leaves then yields the global order, and only doc IDs are
+ * ever held in memory, a chunk at a time.
+ *
+ * <p>Documents are fetched and serialized in parallel chunks but written strictly in
+ * order. Documents without the field sort last in both directions; ties keep doc ID order.
+ */
+public class SortedExport {
+
+    private static final Logger logger = LoggerFactory.getLogger(SortedExport.class);
+
+    // OfflineSorter buffers are indexed by int
+    static final int MAX_MEMORY_MB = 2048;
+
+    private static final byte PRESENT = 0;
+    private static final byte MISSING = 1;
+
+    private static final VarHandle BE_INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BE_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Reads the documents of one chunk on a worker thread.
+     */
+    @FunctionalInterface
+    interface ChunkReader<T> {
+        T read(int[] docIds, int count) throws IOException;
+    }
+
+    /**
+     * Writes a chunk on the calling thread and returns the number of documents written.
+     */
+    @FunctionalInterface
+    interface ChunkWriter<T> {
+        long write(T chunk) throws IOException;
+    }
+
+    private final IndexReader source;
+    private final String field;
+    private final boolean descending;
+    private final long memoryBudgetMB;
+
+    public SortedExport(IndexReader source, String sortBy, long memoryBudgetMB) {
+        validate(sortBy);
+        int colon = sortBy.lastIndexOf(':');
+        String direction = colon >= 0 ? sortBy.substring(colon + 1) : "asc";
+        this.source = source;
+        this.field = colon >= 0 ? sortBy.substring(0, colon) : sortBy;
+        this.descending = direction.equalsIgnoreCase("desc");
+        this.memoryBudgetMB = memoryBudgetMB;
+
+        // Float and double doc values hold raw bits that order like integers only once
+        // decoded, and neither doc values nor points record whether a field is one of them
+        if (source.getSchema().getFieldType(field) == null) {
+            for (LeafReaderContext leaf : source.getLeaves()) {
+                FieldInfo fieldInfo = leaf.reader().getFieldInfos().fieldInfo(field);
+                DocValuesType type = fieldInfo != null ? fieldInfo.getDocValuesType() : DocValuesType.NONE;
+                if (type == DocValuesType.NUMERIC || type == DocValuesType.SORTED_NUMERIC) {
+                    throw new IllegalArgumentException("--sort-by field " + field + " has numeric doc values but no " +
+                                                       "stored values to tell integers from floating point numbers");
+                }
+            }
+        }
+    }
+
+    public static void validate(String sortBy) {
+        int colon = sortBy.lastIndexOf(':');
+        String field = colon >= 0 ? sortBy.substring(0, colon) : sortBy;
+        String direction = colon >= 0 ? sortBy.substring(colon + 1) : "asc";
+        if (field.isBlank() || !(direction.equalsIgnoreCase("asc") || direction.equalsIgnoreCase("desc"))) {
+            throw new IllegalArgumentException("--sort-by must be field, field:asc or field:desc, was: " + sortBy);
+        }
+    }
+
+    /**
+     * Writes every document as JSONL in sort order, adding each to {@code statistics} unless
+     * it is null.
+     */
+    public long writeJsonLines(JsonLSerializer serializer, JsonLWriter writer, ProgressReporter progressReporter,
+                               int threads, int batchSize, FieldStatistics statistics)
+            throws IOException, InterruptedException {
+        List<LeafReaderContext> leaves = source.getLeaves();
+
+        ChunkReader<JsonChunk> reader = (docIds, count) -> {
+            DocumentBuffer[] buffers = new DocumentBuffer[leaves.size()];
+            StoredFields[] storedFields = new StoredFields[leaves.size()];
+            IndexPublisher.ChunkBuffer bytes = new IndexPublisher.ChunkBuffer();
+            FieldStatistics.Accumulator stats = statistics != null ? statistics.accumulator() : null;
+
+            try (JsonGenerator generator = JsonLSerializer.createGenerator(bytes)) {
+                for (int i = 0; i < count; i++) {
+                    int leafIndex = ReaderUtil.subIndex(docIds[i], leaves);
+                    LeafReaderContext leaf = leaves.get(leafIndex);
+                    if (buffers[leafIndex] == null) {
+                        buffers[leafIndex] = new DocumentBuffer(source.getSchema());
+                        buffers[leafIndex].startLeaf(leaf);
+                        storedFields[leafIndex] = leaf.reader().storedFields();
+                    }
+                    source.readDocument(leaf, storedFields[leafIndex], docIds[i] - leaf.docBase, buffers[leafIndex]);
+                    serializer.writeDocument(generator, buffers[leafIndex]);
+                    if (stats != null) {
+                        stats.add(buffers[leafIndex]);
+                    }
+                }
+            }
+            return new JsonChunk(bytes.take(), count);
+        };
+
+        return export(reader, chunk -> {
+            writer.writeChunk(chunk);
+            return chunk.getDocumentCount();
+        }, progressReporter, threads, batchSize);
+    }
+
+    /**
+     * Writes every document to a Parquet file in sort order.
+     */
+    public long writeDocuments(ParquetDocumentWriter writer, ProgressReporter progressReporter,
+                               int threads, int batchSize) throws IOException, InterruptedException {
+        List<LeafReaderContext> leaves = source.getLeaves();
+
+        ChunkReader<List<LuceneDocument>> reader = (docIds, count) -> {
+            StoredFields[] storedFields = new StoredFields[leaves.size()];
+            List<LuceneDocument> documents = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int leafIndex = ReaderUtil.subIndex(docIds[i], leaves);
+                LeafReaderContext leaf = leaves.get(leafIndex);
+                if (storedFields[leafIndex] == null) {
+                    storedFields[leafIndex] = leaf.reader().storedFields();
+                }
+                documents.add(source.readDocument(leaf, storedFields[leafIndex], docIds[i] - leaf.docBase));
+            }
+            return documents;
+        };
+
+        return export(reader, documents -> {
+            for (LuceneDocument document : documents) {
+                writer.write(document);
+            }
+            return documents.size();
+        }, progressReporter, threads, batchSize);
+    }
+
+    <T> long export(ChunkReader<T> reader, ChunkWriter<T> writer, ProgressReporter progressReporter,
+                    int threads, int batchSize) throws IOException, InterruptedException {
+        Path tempPath = Files.createTempDirectory("lucene_sort_");
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "sorted-export-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        try (Directory tempDirectory = FSDirectory.open(tempPath);
+             MergedOrder order = sortedOrder(tempDirectory)) {
+            ArrayDeque<Future<T>> pending = new ArrayDeque<>();
+            long written = 0;
+
+            while (true) {
+                int[] docIds = new int[batchSize];
+                int count = 0;
+                int docId;
+                while (count < batchSize && (docId = order.next()) != -1) {
+                    docIds[count++] = docId;
+                }
+
+                if (count > 0) {
+                    int chunkSize = count;
+                    pending.add(executor.submit(() -> reader.read(docIds, chunkSize)));
+                }
+
+                // Keep a bounded number of chunks in flight and write them in submission order
+                while (!pending.isEmpty() && (pending.size() >= 2 * threads || count == 0)) {
+                    written += writer.write(await(pending.poll()));
+                    progressReporter.updateProgress(written);
+                }
+
+                if (count == 0) {
+                    return written;
+                }
+            }
+        } finally {
+            // Workers are not interrupted: an interrupt closes NIO channels of the shared index
+            executor.shutdown();
+            IOUtils.rm(tempPath);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Reading sorted documents failed", e.getCause());
+        }
+    }
+
+    /**
+     * Collects the sort entries, sorts the ones that need it and opens the merge.
+     */
+    private MergedOrder sortedOrder(Directory tempDirectory) throws IOException {
+        List<EntryCursor> cursors = new ArrayList<>();
+        int presortedLeaves = 0;
+        long unsortedEntries = 0;
+
+        IndexOutput output = tempDirectory.createTempOutput("sort", "entries", IOContext.DEFAULT);
+        String inputName = output.getName();
+        try (OfflineSorter.ByteSequencesWriter writer = new OfflineSorter.ByteSequencesWriter(output)) {
+            for (LeafReaderContext leaf : source.getLeaves()) {
+                if (isPresorted(leaf)) {
+                    cursors.add(new LeafCursor(leaf));
+                    presortedLeaves++;
+                    continue;
+                }
+
+                LeafCursor entries = new LeafCursor(leaf);
+                for (BytesRef entry = entries.next(); entry != null; entry = entries.next()) {
+                    writer.write(entry);
+                    unsortedEntries++;
+                }
+            }
+            CodecUtil.writeFooter(output);
+        }
+
+        logger.info("Sorting by {} {}: {} leaves already in order, {} entries to sort within {} MB",
+                   field, descending ? "desc" : "asc", presortedLeaves, unsortedEntries, memoryBudgetMB);
+
+        OfflineSorter sorter = new OfflineSorter(tempDirectory, "sort", OfflineSorter.DEFAULT_COMPARATOR,
+            OfflineSorter.BufferSize.megabytes(memoryBudgetMB), OfflineSorter.MAX_TEMPFILES, -1, null, 0);
+        String sortedName = sorter.sort(inputName);
+        cursors.add(new FileCursor(tempDirectory.openChecksumInput(sortedName, IOContext.READONCE), sortedName));
+
+        return new MergedOrder(cursors);
+    }
+
+    /**
+     * A leaf is read in doc ID order when its index sort leads with the same field and
+     * direction, and its keys turn out to be in order under this export's encoding (which,
+     * unlike some index sorts, puts missing values last).
+     */
+    private boolean isPresorted(LeafReaderContext leaf) throws IOException {
+        Sort indexSort = leaf.reader().getMetaData().getSort();
+        if (indexSort == null) {
+            return false;
+        }
+        SortField first = indexSort.getSort()[0];
+        if (!field.equals(first.getField()) || first.getReverse() != descending) {
+            return false;
+        }
+
+        LeafCursor entries = new LeafCursor(leaf);
+        BytesRefBuilder previous = new BytesRefBuilder();
+        boolean hasPrevious = false;
+        for (BytesRef entry = entries.next(); entry != null; entry = entries.next()) {
+            if (hasPrevious && previous.get().compareTo(entry) > 0) {
+                return false;
+            }
+            previous.copyBytes(entry);
+            hasPrevious = true;
+        }
+        return true;
+    }
+
+    private interface EntryCursor extends Closeable {
+        /**
+         * Returns the next entry, or null when exhausted. The entry is only valid until the
+         * next call.
+         */
+        BytesRef next() throws IOException;
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    /**
+     * Produces the sort entries of one leaf's live documents, in doc ID order.
+     */
+    private class LeafCursor implements EntryCursor {
+        private final LeafReaderContext leaf;
+        private final Bits liveDocs;
+        private final KeySource keys;
+        private final BytesRefBuilder entry = new BytesRefBuilder();
+        private int doc = -1;
+
+        LeafCursor(LeafReaderContext leaf) throws IOException {
+            this.leaf = leaf;
+            this.liveDocs = source.getLiveDocs(leaf);
+            this.keys = keySource(leaf.reader());
+        }
+
+        @Override
+        public BytesRef next() throws IOException {
+            int maxDoc = leaf.reader().maxDoc();
+            while (++doc < maxDoc) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    entry.clear();
+                    keys.encode(doc, entry);
+                    entry.grow(entry.length() + Integer.BYTES);
+                    BE_INT.set(entry.bytes(), entry.length(), leaf.docBase + doc);
+                    entry.setLength(entry.length() + Integer.BYTES);
+                    return entry.get();
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class FileCursor implements EntryCursor {
+        private final ChecksumIndexInput input;
+        private final OfflineSorter.ByteSequencesReader reader;
+
+        FileCursor(ChecksumIndexInput input, String name) {
+            this.input = input;
+            this.reader = new OfflineSorter.ByteSequencesReader(input, name);
+        }
+
+        @Override
+        public BytesRef next() throws IOException {
+            return reader.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * K-way merge of sorted cursors, yielding global doc IDs.
+     */
+    private static class MergedOrder implements Closeable {
+        private final List<EntryCursor> cursors;
+        private final PriorityQueue<Head> queue = new PriorityQueue<>((a, b) -> a.entry.get().compareTo(b.entry.get()));
+
+        MergedOrder(List<EntryCursor> cursors) throws IOException {
+            this.cursors = cursors;
+            for (EntryCursor cursor : cursors) {
+                Head head = new Head(cursor);
+                if (head.advance()) {
+                    queue.add(head);
+                }
+            }
+        }
+
+        int next() throws IOException {
+            Head head = queue.poll();
+            if (head == null) {
+                return -1;
+            }
+            BytesRef entry = head.entry.get();
+            int docId = (int) BE_INT.get(entry.bytes, entry.offset + entry.length - Integer.BYTES);
+            if (head.advance()) {
+                queue.add(head);
+            }
+            return docId;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOUtils.close(cursors);
+        }
+
+        private static class Head {
+            private final EntryCursor cursor;
+            private final BytesRefBuilder entry = new BytesRefBuilder();
+
+            Head(EntryCursor cursor) {
+                this.cursor = cursor;
+            }
+
+            boolean advance() throws IOException {
+                BytesRef next = cursor.next();
+                if (next == null) {
+                    return false;
+                }
+                entry.copyBytes(next);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Appends the encoded key of a document; documents must be visited in increasing order.
+     */
+    @FunctionalInterface
+    private interface KeySource {
+        void encode(int doc, BytesRefBuilder out) throws IOException;
+    }
+
+    private KeySource keySource(LeafReader reader) throws IOException {
+        FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(field);
+        DocValuesType type = fieldInfo != null ? fieldInfo.getDocValuesType() : DocValuesType.NONE;
+        FieldType fieldType = source.getSchema().getFieldType(field);
+
+        switch (type) {
+            case NUMERIC -> {
+                NumericDocValues values = reader.getNumericDocValues(field);
+                return (doc, out) -> {
+                    if (values.advanceExact(doc)) {
+                        encodeLong(numericKey(values.longValue(), fieldType), out);
+                    } else {
+                        out.append(MISSING);
+                    }
+                };
+            }
+            case SORTED_NUMERIC -> {
+                // Like Lucene's SortedNumericSelector: the smallest value ascending, the largest descending
+                SortedNumericDocValues values = reader.getSortedNumericDocValues(field);
+                return (doc, out) -> {
+                    if (values.advanceExact(doc)) {
+                        long value = values.nextValue();
+                        if (descending) {
+                            for (int i = 1; i < values.docValueCount(); i++) {
+                                value = values.nextValue();
+                            }
+                        }
+                        encodeLong(sortedNumericKey(value, fieldType), out);
+                    } else {
+                        out.append(MISSING);
+                    }
+                };
+            }
+            case SORTED -> {
+                SortedDocValues values = reader.getSortedDocValues(field);
+                return (doc, out) -> {
+                    if (values.advanceExact(doc)) {
+                        encodeBytes(values.lookupOrd(values.ordValue()), out);
+                    } else {
+                        out.append(MISSING);
+                    }
+                };
+            }
+            case SORTED_SET -> {
+                SortedSetDocValues values = reader.getSortedSetDocValues(field);
+                return (doc, out) -> {
+                    if (values.advanceExact(doc)) {
+                        long ord = values.nextOrd();
+                        if (descending) {
+                            for (int i = 1; i < values.docValueCount(); i++) {
+                                ord = values.nextOrd();
+                            }
+                        }
+                        encodeBytes(values.lookupOrd(ord), out);
+                    } else {
+                        out.append(MISSING);
+                    }
+                };
+            }
+            case BINARY -> {
+                BinaryDocValues values = reader.getBinaryDocValues(field);
+                return (doc, out) -> {
+                    if (values.advanceExact(doc)) {
+                        encodeBytes(values.binaryValue(), out);
+                    } else {
+                        out.append(MISSING);
+                    }
+                };
+            }
+            default -> {
+                logger.debug("Field {} has no doc values in a leaf; reading sort keys from stored fields", field);
+                StoredFields storedFields = reader.storedFields();
+                StoredKeyVisitor visitor = new StoredKeyVisitor();
+                return (doc, out) -> {
+                    visitor.reset(out);
+                    storedFields.document(doc, visitor);
+                    if (!visitor.found) {
+                        out.append(MISSING);
+                    }
+                };
+            }
+        }
+    }
+
+    private class StoredKeyVisitor extends StoredFieldVisitor {
+        private BytesRefBuilder out;
+        private boolean found;
+
+        void reset(BytesRefBuilder out) {
+            this.out = out;
+            this.found = false;
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (found) {
+                return Status.STOP;
+            }
+            return fieldInfo.name.equals(field) ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            found = true;
+            encodeBytes(new BytesRef(value.getBytes(StandardCharsets.UTF_8)), out);
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            found = true;
+            encodeBytes(new BytesRef(value), out);
+        }
+
+        @Override
+        public void intField(FieldInfo fieldInfo, int value) {
+            longField(fieldInfo, value);
+        }
+
+        @Override
+        public void longField(FieldInfo fieldInfo, long value) {
+            found = true;
+            encodeLong(value, out);
+        }
+
+        @Override
+        public void floatField(FieldInfo fieldInfo, float value) {
+            doubleField(fieldInfo, value);
+        }
+
+        @Override
+        public void doubleField(FieldInfo fieldInfo, double value) {
+            found = true;
+            encodeLong(NumericUtils.doubleToSortableLong(value), out);
+        }
+    }
+
+    /**
+     * A single-valued doc value as the stored fallback encodes it. Float and double doc
+     * values hold raw IEEE bits, which do not order as signed longs.
+     */
+    private static long numericKey(long value, FieldType fieldType) {
+        if (fieldType == FieldType.FLOAT) {
+            return NumericUtils.doubleToSortableLong(Float.intBitsToFloat((int) value));
+        }
+        if (fieldType == FieldType.DOUBLE) {
+            return NumericUtils.doubleToSortableLong(Double.longBitsToDouble(value));
+        }
+        return value;
+    }
+
+    /**
+     * A multi-valued doc value as the stored fallback encodes it. Float and double values
+     * are already sortable bits, but floats only 32 of them.
+     */
+    private static long sortedNumericKey(long value, FieldType fieldType) {
+        if (fieldType == FieldType.FLOAT) {
+            return NumericUtils.doubleToSortableLong(NumericUtils.sortableIntToFloat((int) value));
+        }
+        return value;
+    }
+
+    /**
+     * Big-endian with the sign bit flipped, so signed order becomes unsigned byte order;
+     * inverted when descending.
+     */
+    private void encodeLong(long value, BytesRefBuilder out) {
+        long sortable = value ^ Long.MIN_VALUE;
+        if (descending) {
+            sortable = ~sortable;
+        }
+        out.append(PRESENT);
+        out.grow(out.length() + Long.BYTES);
+        BE_LONG.set(out.bytes(), out.length(), sortable);
+        out.setLength(out.length() + Long.BYTES);
+    }
+
+    /**
+     * Escapes 0x00 as 0x00 0x01 and terminates with 0x00 0x00, so no key is a prefix of
+     * another and the doc ID suffix cannot disturb the order; inverted when descending.
+     */
+    private void encodeBytes(BytesRef value, BytesRefBuilder out) {
+        int flip = descending ? 0xFF : 0;
+        out.append(PRESENT);
+        for (int i = value.offset; i < value.offset + value.length; i++) {
+            byte b = value.bytes[i];
+            out.append((byte) (b ^ flip));
+            if (b == 0) {
+                out.append((byte) (1 ^ flip));
+            }
+        }
+        out.append((byte) flip);
+        out.append((byte) flip);
+    }
+}
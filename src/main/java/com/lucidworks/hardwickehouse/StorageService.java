@@ -4,6 +4,7 @@ import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
 import com.google.cloud.storage.StorageOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,30 +12,78 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import java.util.stream.Stream;
 import java.util.zip.ZipOutputStream;
 
 public class StorageService {
     
     private static final Logger logger = LoggerFactory.getLogger(StorageService.class);
     
-    private final Storage storage;
+    private final String credentialsPath;
+    private final LocalCache cache;
+    private final GcsDirectory.BlockCache blockCache =
+        new GcsDirectory.BlockCache(GcsDirectory.DEFAULT_BLOCK_SIZE, GcsDirectory.DEFAULT_CACHE_BYTES);
+    private volatile Storage storage;
     
     public StorageService(String credentialsPath) {
-        if (credentialsPath != null && !credentialsPath.isEmpty()) {
-            logger.info("Initializing GCS client with credentials from: {}", credentialsPath);
-            System.setProperty("GOOGLE_APPLICATION_CREDENTIALS", credentialsPath);
-        } else {
-            logger.info("Initializing GCS client with default credentials");
+        this(credentialsPath, null);
+    }
+    
+    /**
+     * @param cache where downloads are kept between runs, or null to download every time
+     */
+    public StorageService(String credentialsPath, LocalCache cache) {
+        this.credentialsPath = credentialsPath;
+        this.cache = cache;
+    }
+    
+    /**
+     * Uses an existing client, such as one pointed at a fake GCS server in tests.
+     */
+    StorageService(Storage storage, LocalCache cache) {
+        this((String) null, cache);
+        this.storage = storage;
+    }
+    
+    /**
+     * The cache shared by downloads and backup restores, or null if there is none.
+     */
+    public LocalCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * The GCS client is built on first use and then shared, so local-only conversions never
+     * pay for it and long-running processes pay for it once.
+     */
+    private Storage getStorage() {
+        Storage client = storage;
+        if (client == null) {
+            synchronized (this) {
+                client = storage;
+                if (client == null) {
+                    if (credentialsPath != null && !credentialsPath.isEmpty()) {
+                        logger.info("Initializing GCS client with credentials from: {}", credentialsPath);
+                        System.setProperty("GOOGLE_APPLICATION_CREDENTIALS", credentialsPath);
+                    } else {
+                        logger.info("Initializing GCS client with default credentials");
+                    }
+                    client = StorageOptions.getDefaultInstance().getService();
+                    storage = client;
+                }
+            }
         }
-        
-        this.storage = StorageOptions.getDefaultInstance().getService();
+        return client;
     }
     
     public Path downloadFromGcs(String gcsPath) throws IOException {
@@ -56,16 +105,25 @@ public class StorageService {
         
         logger.info("Bucket: {}, Object: {}", bucketName, objectName);
         
-        Path tempDir = Files.createTempDirectory("lucene_index_");
-        Path downloadPath = tempDir.resolve("index.zip");
-        
         BlobId blobId = BlobId.of(bucketName, objectName);
-        Blob blob = storage.get(blobId);
+        Blob blob = isPrefix(objectName) ? null : getStorage().get(blobId);
         
         if (blob == null) {
-            throw new IOException("Object not found: " + gcsPath);
+            List<Blob> blobs = listPrefix(bucketName, objectName, gcsPath);
+            Path tempDir = Files.createTempDirectory("lucene_index_");
+            try {
+                Path indexPath = tempDir.resolve("index");
+                prefixDownloader().download(objectName, blobs, indexPath);
+                return indexPath;
+            } catch (IOException | RuntimeException e) {
+                deleteLocalFile(tempDir);
+                throw e;
+            }
         }
         
+        Path tempDir = Files.createTempDirectory("lucene_index_");
+        Path downloadPath = tempDir.resolve("index.zip");
+        
         blob.downloadTo(downloadPath);
         logger.info("Downloaded {} bytes to {}", blob.getSize(), downloadPath);
         
@@ -79,6 +137,136 @@ public class StorageService {
         return downloadPath;
     }
     
+    /**
+     * Bytes stored at a GCS path: the object's size, or the total of the objects under it
+     * when it is a prefix or names no object.
+     */
+    public long sizeOfGcs(String gcsPath) throws IOException {
+        if (!gcsPath.startsWith("gs://") || gcsPath.indexOf('/', 5) == -1) {
+            throw new IllegalArgumentException("Invalid GCS path format: " + gcsPath);
+        }
+        String pathWithoutPrefix = gcsPath.substring(5);
+        int firstSlash = pathWithoutPrefix.indexOf('/');
+        String bucketName = pathWithoutPrefix.substring(0, firstSlash);
+        String objectName = pathWithoutPrefix.substring(firstSlash + 1);
+
+        Blob blob = isPrefix(objectName) ? null : getStorage().get(BlobId.of(bucketName, objectName));
+        if (blob != null) {
+            return blob.getSize();
+        }
+        long bytes = 0;
+        for (Blob object : listPrefix(bucketName, objectName, gcsPath)) {
+            bytes += object.getSize() != null ? object.getSize() : 0;
+        }
+        return bytes;
+    }
+
+    /**
+     * Makes a GCS object available locally, like {@link #downloadFromGcs}, for as long as the
+     * returned lease is open. With a cache, the object is downloaded only if no entry exists
+     * for its generation and CRC32C; otherwise the download is deleted when the lease closes.
+     */
+    public LocalCache.Lease fetchFromGcs(String gcsPath) throws IOException {
+        if (cache == null) {
+            Path path = downloadFromGcs(gcsPath);
+            // The temporary directory created by downloadFromGcs
+            return new LocalCache.Lease(path, () -> deleteLocalFile(path.getParent()));
+        }
+        
+        if (!gcsPath.startsWith("gs://") || gcsPath.indexOf('/', 5) == -1) {
+            throw new IllegalArgumentException("Invalid GCS path format: " + gcsPath);
+        }
+        String bucketName = gcsPath.substring(5, gcsPath.indexOf('/', 5));
+        String objectName = gcsPath.substring(gcsPath.indexOf('/', 5) + 1);
+        
+        Blob blob = isPrefix(objectName) ? null : getStorage().get(BlobId.of(bucketName, objectName));
+        if (blob == null) {
+            List<Blob> blobs = listPrefix(bucketName, objectName, gcsPath);
+            List<String> keyParts = new ArrayList<>(List.of("gcs-prefix", bucketName, objectName));
+            for (Blob object : blobs) {
+                keyParts.add(object.getName() + ":" + object.getGeneration() + ":" + object.getCrc32c());
+            }
+            return cache.get(LocalCache.key(keyParts.toArray(new String[0])),
+                             target -> prefixDownloader().download(objectName, blobs, target));
+        }
+        
+        String key = LocalCache.key("gcs", bucketName, objectName,
+                                    String.valueOf(blob.getGeneration()), String.valueOf(blob.getCrc32c()));
+        return cache.get(key, target -> {
+            if (objectName.endsWith(".zip")) {
+                Path zip = target.resolveSibling("download.zip");
+                blob.downloadTo(zip);
+                extractZip(zip, target);
+                Files.delete(zip);
+            } else {
+                blob.downloadTo(target);
+            }
+            logger.info("Downloaded {} bytes from {}", blob.getSize(), gcsPath);
+        });
+    }
+    
+    /**
+     * Reads a small GCS object, such as a backup's properties or shard metadata, into memory.
+     */
+    public byte[] readFromGcs(String gcsPath) throws IOException {
+        BlobId blobId = toBlobId(gcsPath);
+        try {
+            Blob blob = getStorage().get(blobId);
+            if (blob == null) {
+                throw new NoSuchFileException(gcsPath);
+            }
+            return blob.getContent();
+        } catch (StorageException e) {
+            throw new IOException("Failed to read " + gcsPath + ": " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Opens the objects under a GCS prefix as a read-only Lucene directory that reads them in
+     * place. Directories opened by one service share its block cache.
+     */
+    public GcsDirectory openGcsDirectory(String gcsPath) throws IOException {
+        BlobId prefix = toBlobId(gcsPath);
+        return GcsDirectory.open(getStorage(), prefix.getBucket(), prefix.getName(), blockCache);
+    }
+    
+    public GcsDirectory.BlockCache getBlockCache() {
+        return blockCache;
+    }
+    
+    private static BlobId toBlobId(String gcsPath) {
+        if (!gcsPath.startsWith("gs://") || gcsPath.indexOf('/', 5) == -1) {
+            throw new IllegalArgumentException("Invalid GCS path format: " + gcsPath);
+        }
+        int slash = gcsPath.indexOf('/', 5);
+        return BlobId.of(gcsPath.substring(5, slash), gcsPath.substring(slash + 1));
+    }
+    
+    /**
+     * A path naming a "directory" of objects, such as an index snapshot stored as segment
+     * files, rather than one object.
+     */
+    private static boolean isPrefix(String objectName) {
+        return objectName.isEmpty() || objectName.endsWith("/");
+    }
+    
+    /**
+     * Lists the objects under a prefix, for a path that is a prefix or names no object.
+     */
+    private List<Blob> listPrefix(String bucketName, String prefix, String gcsPath) throws IOException {
+        List<Blob> blobs = prefixDownloader().list(bucketName, prefix);
+        if (blobs.isEmpty()) {
+            throw new IOException("Object not found: " + gcsPath);
+        }
+        logger.info("Found {} objects under {}", blobs.size(), gcsPath);
+        return blobs;
+    }
+    
+    private GcsPrefixDownloader prefixDownloader() {
+        return new GcsPrefixDownloader(getStorage(), GcsPrefixDownloader.DEFAULT_CONCURRENCY,
+                                       GcsPrefixDownloader.DEFAULT_CHUNK_BYTES);
+    }
+    
     public void uploadToGcs(Path localPath, String gcsPath) throws IOException {
         logger.info("Uploading {} to GCS: {}", localPath, gcsPath);
         
@@ -111,11 +299,26 @@ public class StorageService {
                 .build();
         
         byte[] content = Files.readAllBytes(localPath);
-        storage.create(blobInfo, content);
+        getStorage().create(blobInfo, content);
         
         logger.info("Successfully uploaded {} bytes", content.length);
     }
     
+    /**
+     * Uploads every file under {@code localDirectory} below {@code gcsPath}, keeping their
+     * relative paths.
+     */
+    public void uploadDirectoryToGcs(Path localDirectory, String gcsPath) throws IOException {
+        String prefix = gcsPath.endsWith("/") ? gcsPath : gcsPath + "/";
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(localDirectory)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        for (Path file : files) {
+            uploadToGcs(file, prefix + localDirectory.relativize(file).toString().replace('\\', '/'));
+        }
+    }
+    
     public void moveLocalFile(Path source, Path destination) throws IOException {
         logger.info("Moving file from {} to {}", source, destination);
         
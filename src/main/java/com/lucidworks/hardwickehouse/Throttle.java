@@ -0,0 +1,338 @@
+package com.lucidworks.hardwickehouse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the I/O and CPU an export may use, so that it can run on a machine that is
+ * also serving live Solr traffic.
+ *
+ * <p>Index reads and output writes are charged to token buckets refilled at
+ * {@code --max-read-mbps} and {@code --max-write-mbps} megabytes per second; a caller that
+ * overdraws a bucket sleeps until the debt would be repaid, so concurrent readers share
+ * the rate between them. Producer threads take a permit around the documents they read,
+ * and no more than {@code --max-cpu-threads} hold one at a time. A limit of zero means
+ * unlimited.
+ *
+ * <p>Limits can be changed while an export runs through a control file of properties,
+ * {@code max-read-mbps}, {@code max-write-mbps} and {@code max-cpu-threads}, which is read
+ * again whenever its modification time changes. A key missing from the file keeps the
+ * limit given on the command line.
+ */
+public class Throttle implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Throttle.class);
+
+    static final long BYTES_PER_MB = 1024 * 1024;
+    private static final long MIN_BURST_BYTES = 64 * 1024;
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private final TokenBucket read = new TokenBucket();
+    private final TokenBucket write = new TokenBucket();
+    private final double initialReadMbps;
+    private final double initialWriteMbps;
+    private final int initialThreads;
+    private final Path controlFile;
+
+    private int maxThreads;
+    private int activeThreads;
+    private long lastModified = Long.MIN_VALUE;
+    private ScheduledExecutorService scheduler;
+
+    public Throttle(double maxReadMbps, double maxWriteMbps, int maxThreads, Path controlFile) {
+        this.initialReadMbps = maxReadMbps;
+        this.initialWriteMbps = maxWriteMbps;
+        this.initialThreads = maxThreads;
+        this.controlFile = controlFile;
+        applyLimits(maxReadMbps, maxWriteMbps, maxThreads);
+    }
+
+    /**
+     * Starts watching the control file, if there is one.
+     */
+    public void start() {
+        if (controlFile == null) {
+            return;
+        }
+        reload();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "throttle-control");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::reload, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS,
+                                         TimeUnit.MILLISECONDS);
+        logger.info("Watching {} for throttle changes", controlFile);
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Reads the control file again if it changed since it was last read. A file that cannot
+     * be read or parsed leaves the limits as they are.
+     */
+    void reload() {
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(controlFile).toMillis();
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            logger.warn("Cannot read throttle control file {}: {}", controlFile, e.getMessage());
+            return;
+        }
+        if (modified == lastModified) {
+            return;
+        }
+        lastModified = modified;
+
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(controlFile)) {
+            properties.load(input);
+            double readMbps = parse(properties, "max-read-mbps", initialReadMbps);
+            double writeMbps = parse(properties, "max-write-mbps", initialWriteMbps);
+            int threads = (int) parse(properties, "max-cpu-threads", initialThreads);
+            if (readMbps < 0 || writeMbps < 0 || threads < 0) {
+                throw new IllegalArgumentException("limits must not be negative");
+            }
+            setLimits(readMbps, writeMbps, threads);
+            logger.info("Throttle limits from {}: {}", controlFile, describeLimits());
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Ignoring throttle control file {}: {}", controlFile, e.getMessage());
+        }
+    }
+
+    private static double parse(Properties properties, String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    public void setLimits(double maxReadMbps, double maxWriteMbps, int maxThreads) {
+        applyLimits(maxReadMbps, maxWriteMbps, maxThreads);
+    }
+
+    private void applyLimits(double maxReadMbps, double maxWriteMbps, int maxThreads) {
+        read.setRate(maxReadMbps * BYTES_PER_MB);
+        write.setRate(maxWriteMbps * BYTES_PER_MB);
+        setMaxThreads(maxThreads);
+    }
+
+    private synchronized void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        notifyAll();
+    }
+
+    /**
+     * Waits until {@code bytes} more may be read from the index.
+     */
+    public void acquireRead(long bytes) throws InterruptedException {
+        read.acquire(bytes);
+    }
+
+    /**
+     * Waits until {@code bytes} more may be written to the output.
+     */
+    public void acquireWrite(long bytes) throws InterruptedException {
+        write.acquire(bytes);
+    }
+
+    /**
+     * Waits for a permit to read documents on the calling thread.
+     */
+    public synchronized void acquireThread() throws InterruptedException {
+        while (maxThreads > 0 && activeThreads >= maxThreads) {
+            wait();
+        }
+        activeThreads++;
+    }
+
+    public synchronized void releaseThread() {
+        activeThreads--;
+        notifyAll();
+    }
+
+    /**
+     * Gives up the calling thread's permit and waits for it again when the thread limit
+     * has been lowered below the threads now holding one, so a lower limit takes effect
+     * between chunks rather than at the end of a range.
+     */
+    public void yieldThread() throws InterruptedException {
+        synchronized (this) {
+            if (maxThreads <= 0 || activeThreads <= maxThreads) {
+                return;
+            }
+            activeThreads--;
+            notifyAll();
+        }
+        acquireThread();
+    }
+
+    public synchronized int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public synchronized int getActiveThreads() {
+        return activeThreads;
+    }
+
+    public double getMaxReadMbps() {
+        return read.getRate() / BYTES_PER_MB;
+    }
+
+    public double getMaxWriteMbps() {
+        return write.getRate() / BYTES_PER_MB;
+    }
+
+    public long getBytesRead() {
+        return read.getBytes();
+    }
+
+    public long getBytesWritten() {
+        return write.getBytes();
+    }
+
+    /**
+     * Time callers spent waiting on either bucket, summed over threads.
+     */
+    public double getWaitSeconds() {
+        return (read.getWaitNanos() + write.getWaitNanos()) / 1e9;
+    }
+
+    String describeLimits() {
+        return String.format("read %s, write %s, %s", rate(getMaxReadMbps()), rate(getMaxWriteMbps()),
+                             getMaxThreads() > 0 ? getMaxThreads() + " threads" : "unlimited threads");
+    }
+
+    private static String rate(double mbps) {
+        return mbps > 0 ? String.format("%.1f MB/s", mbps) : "unlimited";
+    }
+
+    /**
+     * Limits in effect and totals so far, for the conversion metrics.
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("maxReadMbps", getMaxReadMbps());
+        report.put("maxWriteMbps", getMaxWriteMbps());
+        report.put("maxCpuThreads", getMaxThreads());
+        report.put("bytesRead", getBytesRead());
+        report.put("bytesWritten", getBytesWritten());
+        report.put("waitSeconds", Math.round(getWaitSeconds() * 1000) / 1000.0);
+        return report;
+    }
+
+    /**
+     * Wraps an output sink so that every byte written to it is charged to the write bucket.
+     */
+    public OutputStream throttleOutput(OutputStream sink) {
+        return new ThrottledOutputStream(sink);
+    }
+
+    /**
+     * A bucket of bytes refilled at a steady rate, holding at most a tenth of a second's
+     * worth (and no less than 64 KB) so that an idle period does not allow a long burst.
+     * Callers may overdraw it; each then sleeps for as long as the debt it leaves takes to
+     * refill, which queues concurrent callers behind each other.
+     */
+    static class TokenBucket {
+
+        private double rate;
+        private double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long bytes;
+        private long waitNanos;
+
+        synchronized void setRate(double bytesPerSecond) {
+            refill(System.nanoTime());
+            rate = Math.max(0, bytesPerSecond);
+            capacity = Math.max(MIN_BURST_BYTES, rate / 10);
+            tokens = Math.min(tokens, capacity);
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        synchronized long getWaitNanos() {
+            return waitNanos;
+        }
+
+        void acquire(long amount) throws InterruptedException {
+            long sleepNanos;
+            synchronized (this) {
+                bytes += amount;
+                if (rate <= 0) {
+                    return;
+                }
+                refill(System.nanoTime());
+                tokens -= amount;
+                if (tokens >= 0) {
+                    return;
+                }
+                sleepNanos = (long) (-tokens / rate * 1e9);
+                waitNanos += sleepNanos;
+            }
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+
+        private void refill(long now) {
+            if (rate > 0) {
+                tokens = Math.min(capacity, tokens + (now - lastRefill) / 1e9 * rate);
+            }
+            lastRefill = now;
+        }
+    }
+
+    private class ThrottledOutputStream extends FilterOutputStream {
+
+        ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            charge(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            charge(len);
+            out.write(b, off, len);
+        }
+
+        private void charge(int length) throws IOException {
+            try {
+                acquireWrite(length);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling output");
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.store.BufferedIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.ThreadInterruptedException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Index directory whose reads are charged to the read limit of a {@link Throttle}.
+ *
+ * <p>Inputs read the wrapped directory's inputs through a buffer of their own, so the
+ * bucket is charged once per refill rather than once per byte or varint.
+ */
+public class ThrottledDirectory extends FilterDirectory {
+
+    private static final int INPUT_BUFFER_SIZE = 16 * 1024;
+
+    private final Throttle throttle;
+
+    public ThrottledDirectory(Directory in, Throttle throttle) {
+        super(in);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public IndexInput openInput(String name, IOContext context) throws IOException {
+        IndexInput input = in.openInput(name, context);
+        return new ThrottledIndexInput("ThrottledIndexInput(" + input + ")", input);
+    }
+
+    private class ThrottledIndexInput extends BufferedIndexInput {
+
+        private IndexInput delegate;
+
+        ThrottledIndexInput(String resourceDescription, IndexInput delegate) {
+            super(resourceDescription, INPUT_BUFFER_SIZE);
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected void readInternal(ByteBuffer b) throws IOException {
+            int length = b.remaining();
+            if (getFilePointer() + length > delegate.length()) {
+                throw new EOFException("read past EOF: " + this);
+            }
+            try {
+                throttle.acquireRead(length);
+            } catch (InterruptedException e) {
+                throw new ThreadInterruptedException(e);
+            }
+            delegate.seek(getFilePointer());
+            if (b.hasArray()) {
+                delegate.readBytes(b.array(), b.arrayOffset() + b.position(), length);
+                b.position(b.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                delegate.readBytes(bytes, 0, length);
+                b.put(bytes);
+            }
+        }
+
+        @Override
+        protected void seekInternal(long pos) {
+            // Reads are positioned by getFilePointer()
+        }
+
+        @Override
+        public long length() {
+            return delegate.length();
+        }
+
+        @Override
+        public IndexInput slice(String sliceDescription, long offset, long length) throws IOException {
+            return new ThrottledIndexInput(getFullSliceDescription(sliceDescription),
+                                           delegate.slice(sliceDescription, offset, length));
+        }
+
+        @Override
+        public ThrottledIndexInput clone() {
+            ThrottledIndexInput clone = (ThrottledIndexInput) super.clone();
+            clone.delegate = delegate.clone();
+            return clone;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One export split into work units that separate processes, on one host or many, convert
+ * independently with no coordinator between them.
+ *
+ * <p>{@code plan} opens the source once and cuts every segment into units of about
+ * {@code --docs-per-unit} live documents by doc ID; each unit records its shard, segment
+ * name, doc ID span and expected document count, and the plan records the request every
+ * unit is converted with. {@code convert --work-unit} converts one unit to its own part
+ * file under the output directory, after checking that the index still has the segments
+ * the plan saw, and then writes a completion record to {@code _units/}. Part files are
+ * written in place, so the completion record is what marks a unit done: a unit that failed
+ * or was interrupted is simply converted again. {@code finalize} checks that every unit is
+ * done with the expected count and writes {@code _manifest.json} listing the parts.
+ */
+public class WorkPlan {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkPlan.class);
+
+    public static final long DEFAULT_DOCS_PER_UNIT = 5_000_000;
+    public static final String PLAN_NAME = "_plan.json";
+    static final String MANIFEST_NAME = "_manifest.json";
+    static final String UNITS_DIRECTORY = "_units";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+        .enable(SerializationFeature.INDENT_OUTPUT);
+
+    private ConversionRequest request;
+    private long totalDocuments;
+    private List<Unit> units = new ArrayList<>();
+
+    /**
+     * Cuts an opened index into units. Leaves without live documents get none.
+     */
+    public static WorkPlan create(IndexReader indexReader, ConversionRequest request, long docsPerUnit) {
+        checkSupported(request);
+        if (docsPerUnit <= 0) {
+            throw new IllegalArgumentException("--docs-per-unit must be positive");
+        }
+
+        WorkPlan plan = new WorkPlan();
+        plan.request = request;
+        List<LeafReaderContext> leaves = indexReader.getLeaves();
+        String extension = request.getFormat() == OutputFormat.PARQUET ? ".parquet"
+            : request.isCompress() ? ".jsonl.gz" : ".jsonl";
+
+        for (LeafReaderContext leaf : leaves) {
+            int maxDoc = leaf.reader().maxDoc();
+            Bits liveDocs = indexReader.getLiveDocs(leaf);
+            int live = leaf.reader().numDocs();
+            if (live == 0) {
+                continue;
+            }
+
+            int pieces = (int) Math.max(1, (live + docsPerUnit - 1) / docsPerUnit);
+            int span = (maxDoc + pieces - 1) / pieces;
+            for (int from = 0; from < maxDoc; from += span) {
+                int to = Math.min(maxDoc, from + span);
+                long documents = 0;
+                for (int doc = from; doc < to; doc++) {
+                    if (liveDocs == null || liveDocs.get(doc)) {
+                        documents++;
+                    }
+                }
+
+                Unit unit = new Unit();
+                unit.id = plan.units.size();
+                unit.shard = indexReader.getShard(leaf);
+                unit.segment = IndexReader.getSegmentName(leaf);
+                unit.leaf = leaf.ord;
+                unit.leafCount = leaves.size();
+                unit.maxDoc = maxDoc;
+                unit.fromDoc = from;
+                unit.toDoc = to;
+                unit.documents = documents;
+                unit.part = String.format("part-%05d%s", unit.id, extension);
+                plan.units.add(unit);
+                plan.totalDocuments += documents;
+            }
+        }
+
+        logger.info("Planned {} work units over {} leaves, {} documents", plan.units.size(), leaves.size(),
+                   plan.totalDocuments);
+        return plan;
+    }
+
+    /**
+     * Rejects requests whose output cannot be split by doc ID: the output must be a
+     * directory of JSONL or Parquet parts, and nothing may depend on the whole index being
+     * read by one process.
+     */
+    static void checkSupported(ConversionRequest request) {
+        if (request.getFormat() == OutputFormat.ARROW_STREAM) {
+            throw new IllegalArgumentException("Work units support jsonl and parquet output only");
+        }
+        if (request.getSortBy() != null || request.isNested() || request.getDedupeBy() != null
+                || request.createSampler() != null || request.getPartitionBy() != null || request.isDryRun()
+                || request.isSegmentCache()) {
+            throw new IllegalArgumentException("Work units cannot be combined with --sort-by, --nested, --dedupe-by, " +
+                                               "sampling, --partition-by, --segment-cache or --dry-run");
+        }
+        String backupPoint = request.getBackupPoint();
+        if (backupPoint != null && (backupPoint.equalsIgnoreCase("all") || backupPoint.contains(","))) {
+            throw new IllegalArgumentException("Work units cover one backup point at a time");
+        }
+        if (request.getOutputLocation() == null) {
+            throw new IllegalArgumentException("Work units need an output directory (--output or --gcs-output)");
+        }
+    }
+
+    public ConversionRequest getRequest() {
+        return request;
+    }
+
+    public void setRequest(ConversionRequest request) {
+        this.request = request;
+    }
+
+    public long getTotalDocuments() {
+        return totalDocuments;
+    }
+
+    public void setTotalDocuments(long totalDocuments) {
+        this.totalDocuments = totalDocuments;
+    }
+
+    public List<Unit> getUnits() {
+        return units;
+    }
+
+    public void setUnits(List<Unit> units) {
+        this.units = units;
+    }
+
+    public Unit getUnit(int id) {
+        if (id < 0 || id >= units.size()) {
+            throw new IllegalArgumentException("No work unit " + id + "; the plan has " + units.size());
+        }
+        return units.get(id);
+    }
+
+    /**
+     * The request that converts one unit to its part file.
+     */
+    public ConversionRequest requestFor(int id) {
+        Unit unit = getUnit(id);
+        return request.forWorkUnit(unit, location(unit.part));
+    }
+
+    /**
+     * Where the plan is written by default: {@code _plan.json} in the output directory.
+     */
+    public static String defaultLocation(ConversionRequest request) {
+        return resolve(request.getOutputLocation(), PLAN_NAME);
+    }
+
+    private String location(String name) {
+        return resolve(request.getOutputLocation(), name);
+    }
+
+    private static String resolve(String directory, String name) {
+        if (directory.startsWith("gs://")) {
+            return (directory.endsWith("/") ? directory : directory + "/") + name;
+        }
+        return Paths.get(directory).resolve(name).toString();
+    }
+
+    public static WorkPlan read(String location, StorageService storageService) throws IOException {
+        byte[] content = location.startsWith("gs://")
+            ? storageService.readFromGcs(location) : Files.readAllBytes(Paths.get(location));
+        return objectMapper.readValue(content, WorkPlan.class);
+    }
+
+    public void write(String location, StorageService storageService) throws IOException {
+        writeJson(this, location, storageService);
+    }
+
+    /**
+     * Records a unit as done. Written last, after the part file is complete (and uploaded).
+     */
+    public void recordCompletion(int id, ConversionResult result, StorageService storageService) throws IOException {
+        Unit unit = getUnit(id);
+        Map<String, Object> completion = new LinkedHashMap<>();
+        completion.put("unit", unit.id);
+        completion.put("part", unit.part);
+        completion.put("documents", result.getDocumentsProcessed());
+        completion.put("bytes", request.hasGcsOutput() ? null : Files.size(Paths.get(location(unit.part))));
+        completion.put("seconds", result.getDuration().toMillis() / 1000.0);
+        completion.put("finished", Instant.now().toString());
+        writeJson(completion, location(completionName(unit)), storageService);
+        logger.info("Work unit {} done: {} documents in {}", unit.id, result.getDocumentsProcessed(), unit.part);
+    }
+
+    private static String completionName(Unit unit) {
+        return UNITS_DIRECTORY + "/" + unit.part.substring(0, unit.part.indexOf('.')) + ".json";
+    }
+
+    /**
+     * Checks that every unit is done with the documents the plan expected and, if so, writes
+     * {@code _manifest.json} listing the parts in unit order. Returns the report either way.
+     */
+    public Map<String, Object> finalizeOutput(StorageService storageService) throws IOException {
+        List<Integer> missing = new ArrayList<>();
+        List<String> mismatched = new ArrayList<>();
+        List<Map<String, Object>> parts = new ArrayList<>();
+        long documents = 0;
+
+        for (Unit unit : units) {
+            Map<String, Object> completion;
+            try {
+                String location = location(completionName(unit));
+                byte[] content = location.startsWith("gs://")
+                    ? storageService.readFromGcs(location) : Files.readAllBytes(Paths.get(location));
+                completion = objectMapper.readValue(content, new TypeReference<Map<String, Object>>() {});
+            } catch (NoSuchFileException e) {
+                missing.add(unit.id);
+                continue;
+            }
+
+            long converted = ((Number) completion.get("documents")).longValue();
+            if (converted != unit.documents) {
+                mismatched.add(unit.part + ": " + converted + " documents, planned " + unit.documents);
+                continue;
+            }
+            Object bytes = completion.get("bytes");
+            if (!request.hasGcsOutput()) {
+                Path part = Paths.get(location(unit.part));
+                if (!Files.exists(part)) {
+                    mismatched.add(unit.part + ": missing although recorded as done");
+                    continue;
+                }
+                if (bytes != null && Files.size(part) != ((Number) bytes).longValue()) {
+                    mismatched.add(unit.part + ": " + Files.size(part) + " bytes, recorded " + bytes);
+                    continue;
+                }
+            }
+
+            Map<String, Object> part = new LinkedHashMap<>();
+            part.put("unit", unit.id);
+            part.put("part", unit.part);
+            part.put("shard", unit.shard);
+            part.put("segment", unit.segment);
+            part.put("documents", converted);
+            part.put("bytes", bytes);
+            parts.add(part);
+            documents += converted;
+        }
+
+        boolean complete = missing.isEmpty() && mismatched.isEmpty();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("complete", complete);
+        report.put("units", units.size());
+        report.put("completedUnits", parts.size());
+        report.put("documents", documents);
+        report.put("plannedDocuments", totalDocuments);
+        report.put("missingUnits", missing);
+        report.put("mismatchedUnits", mismatched);
+
+        if (complete) {
+            Map<String, Object> manifest = new LinkedHashMap<>();
+            manifest.put("documents", documents);
+            manifest.put("format", request.getFormat().toString());
+            manifest.put("compressed", request.isCompress());
+            manifest.put("parts", parts);
+            String location = location(MANIFEST_NAME);
+            writeJson(manifest, location, storageService);
+            report.put("manifest", location);
+            logger.info("All {} work units done, {} documents; manifest written to {}", units.size(), documents, location);
+        } else {
+            logger.warn("{} of {} work units done; missing {}, mismatched {}", parts.size(), units.size(),
+                       missing, mismatched);
+        }
+        return report;
+    }
+
+    /**
+     * Writes JSON through a temporary file, renamed into place locally or uploaded to GCS,
+     * so a reader never sees a partial file.
+     */
+    private static void writeJson(Object value, String location, StorageService storageService) throws IOException {
+        if (location.startsWith("gs://")) {
+            Path temp = Files.createTempFile("work_plan_", ".json");
+            try {
+                objectMapper.writeValue(temp.toFile(), value);
+                storageService.uploadToGcs(temp, location);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return;
+        }
+
+        Path path = Paths.get(location);
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, ".work_plan_", ".json");
+        try {
+            objectMapper.writeValue(temp.toFile(), value);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * A span of doc IDs in one segment, converted to one part file.
+     */
+    public static class Unit {
+        private int id;
+        private int shard;
+        private String segment;
+        private int leaf;
+        private int leafCount;
+        private int maxDoc;
+        private int fromDoc;
+        private int toDoc;
+        private long documents;
+        private String part;
+
+        /**
+         * Restricts an opened index to this unit, failing if the index is not the one the
+         * plan was made from: a different set of segments, or documents deleted since.
+         */
+        void applyTo(IndexReader indexReader) {
+            List<LeafReaderContext> leaves = indexReader.getLeaves();
+            if (leaves.size() != leafCount) {
+                throw new IllegalStateException("The index has " + leaves.size() + " segments, the plan " + leafCount +
+                                                "; plan the export again");
+            }
+            LeafReaderContext context = leaves.get(leaf);
+            String name = IndexReader.getSegmentName(context);
+            if (!name.equals(segment) || context.reader().maxDoc() != maxDoc || indexReader.getShard(context) != shard) {
+                throw new IllegalStateException("Leaf " + leaf + " is segment " + name + " of shard " +
+                                                indexReader.getShard(context) + " with " + context.reader().maxDoc() +
+                                                " doc IDs, the plan has " + segment + " of shard " + shard + " with " +
+                                                maxDoc + "; plan the export again");
+            }
+
+            indexReader.restrictToRange(leaf, fromDoc, toDoc);
+            if (indexReader.getTotalDocuments() != documents) {
+                throw new IllegalStateException("Unit " + id + " has " + indexReader.getTotalDocuments() +
+                                                " live documents, the plan " + documents + "; plan the export again");
+            }
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+
+        public void setShard(int shard) {
+            this.shard = shard;
+        }
+
+        public String getSegment() {
+            return segment;
+        }
+
+        public void setSegment(String segment) {
+            this.segment = segment;
+        }
+
+        public int getLeaf() {
+            return leaf;
+        }
+
+        public void setLeaf(int leaf) {
+            this.leaf = leaf;
+        }
+
+        public int getLeafCount() {
+            return leafCount;
+        }
+
+        public void setLeafCount(int leafCount) {
+            this.leafCount = leafCount;
+        }
+
+        public int getMaxDoc() {
+            return maxDoc;
+        }
+
+        public void setMaxDoc(int maxDoc) {
+            this.maxDoc = maxDoc;
+        }
+
+        public int getFromDoc() {
+            return fromDoc;
+        }
+
+        public void setFromDoc(int fromDoc) {
+            this.fromDoc = fromDoc;
+        }
+
+        public int getToDoc() {
+            return toDoc;
+        }
+
+        public void setToDoc(int toDoc) {
+            this.toDoc = toDoc;
+        }
+
+        public long getDocuments() {
+            return documents;
+        }
+
+        public void setDocuments(long documents) {
+            this.documents = documents;
+        }
+
+        public String getPart() {
+            return part;
+        }
+
+        public void setPart(String part) {
+            this.part = part;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.lucidworks.hardwickehouse;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveControllerTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private final ProgressReporter progressReporter = new ProgressReporter(60);
+
+    @Test
+    void testSizesChunksByBytes() {
+        AdaptiveController controller = new AdaptiveController(4, 1024 * 1024, 1000, progressReporter);
+        assertEquals(1000, controller.documentsPerChunk());
+
+        for (int i = 0; i < 20; i++) {
+            controller.recordChunk(100, 100 * 200);
+        }
+        int expected = (int) (controller.getChunkBytes() / 200);
+        assertTrue(Math.abs(controller.documentsPerChunk() - expected) <= 1);
+
+        for (int i = 0; i < 20; i++) {
+            controller.recordChunk(10, 10 * 2L * 1024 * 1024);
+        }
+        assertEquals(1, controller.documentsPerChunk());
+    }
+
+    @Test
+    void testClimbsWhileThroughputImproves() {
+        AdaptiveController controller = new AdaptiveController(4, 1024 * 1024, 1000, progressReporter);
+        assertEquals(2, controller.getParallelism());
+
+        controller.recordChunk(1000, 1000);
+        controller.adjust(SECOND, 0.3, 0);
+        assertEquals(3, controller.getParallelism());
+
+        controller.recordChunk(2000, 2000);
+        controller.adjust(2 * SECOND, 0.3, 0);
+        assertEquals(4, controller.getParallelism());
+
+        // Worse than before: the step is undone
+        controller.recordChunk(1000, 1000);
+        controller.adjust(3 * SECOND, 0.3, 0);
+        assertEquals(3, controller.getParallelism());
+        assertTrue(progressReporter.getDecisionCount() >= 3);
+    }
+
+    @Test
+    void testHoldsWhenWriterIsSaturated() {
+        AdaptiveController controller = new AdaptiveController(4, 1024 * 1024, 1000, progressReporter);
+
+        controller.recordChunk(1000, 1000);
+        controller.recordWrite(SECOND);
+        controller.adjust(SECOND, 0.3, 0);
+
+        assertEquals(2, controller.getParallelism());
+    }
+
+    @Test
+    void testBacksOffUnderMemoryPressure() {
+        AdaptiveController controller = new AdaptiveController(4, 16L * 1024 * 1024, 1000, progressReporter);
+        long initialChunkBytes = controller.getChunkBytes();
+
+        controller.adjust(SECOND, 0.92, 0);
+        assertEquals(1, controller.getParallelism());
+        assertEquals(Math.max(AdaptiveController.MIN_CHUNK_BYTES, initialChunkBytes / 2), controller.getChunkBytes());
+
+        controller.adjust(2 * SECOND, 0.5, 0.25);
+        assertTrue(controller.getChunkBytes() <= initialChunkBytes / 2);
+
+        // Pressure gone: chunks grow back
+        controller.adjust(3 * SECOND, 0.3, 0);
+        controller.adjust(4 * SECOND, 0.3, 0);
+        controller.adjust(5 * SECOND, 0.3, 0);
+        assertEquals(initialChunkBytes, controller.getChunkBytes());
+        assertNotNull(progressReporter.getLastDecision());
+    }
+
+    @Test
+    void testPermitsLimitConcurrentReaders() throws Exception {
+        AdaptiveController controller = new AdaptiveController(2, 1024 * 1024, 1000, progressReporter);
+        assertEquals(1, controller.getParallelism());
+        controller.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread second = new Thread(() -> {
+            try {
+                controller.acquire();
+                acquired.countDown();
+                controller.release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        second.start();
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        controller.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        second.join();
+    }
+
+    @Test
+    void testAdaptiveConversionWritesEveryDocument() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 5000, 1000);
+        Path output = tempDir.resolve("out.jsonl");
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(output.toString());
+        request.setAdaptive(true);
+        request.setTargetBatchMB(1);
+        request.setThreads(3);
+
+        ConversionResult result = new ConversionService(new StorageService(null))
+            .convert(request, progressReporter);
+
+        assertEquals(5000, result.getDocumentsProcessed());
+        assertEquals(5000, Files.readAllLines(output).size());
+        assertTrue(result.getMetrics().containsKey("adaptiveFinalParallelism"));
+    }
+}
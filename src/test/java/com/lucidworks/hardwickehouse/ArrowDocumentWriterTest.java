@@ -0,0 +1,122 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArrowDocumentWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testMapsSchemaToArrowFields() {
+        Map<String, FieldType> fieldTypes = new HashMap<>();
+        fieldTypes.put("id", FieldType.STRING);
+        fieldTypes.put("count", FieldType.LONG);
+        fieldTypes.put("tags", FieldType.STRING);
+
+        Schema schema = ArrowDocumentWriter.toArrowSchema(new JsonLSchema(fieldTypes, Set.of("tags")));
+
+        assertEquals(4, schema.getFields().size());
+        assertEquals(new ArrowType.Int(64, true), schema.findField("count").getType());
+        assertEquals(ArrowType.List.INSTANCE, schema.findField("tags").getType());
+        assertEquals(ArrowType.Utf8.INSTANCE, schema.findField("tags").getChildren().get(0).getType());
+        assertFalse(schema.findField("_docId").isNullable());
+    }
+
+    @Test
+    void testStreamsIndexAsRecordBatches() throws Exception {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < 25; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField("id", "doc-" + i));
+                doc.add(new StoredField("tags", "even-" + (i % 2 == 0)));
+                doc.add(new StoredField("tags", "tag-" + i));
+                doc.add(new StoredField("count", (long) i));
+                writer.addDocument(doc);
+            }
+        }
+
+        Path output = tempDir.resolve("docs.arrows");
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(output.toString());
+        request.setFormat(OutputFormat.ARROW_STREAM);
+        request.setBatchSize(10);
+        request.setThreads(2);
+
+        ConversionResult result = new ConversionService(new StorageService(null))
+            .convert(request, new ProgressReporter(60));
+        assertEquals(25, result.getDocumentsProcessed());
+
+        int batches = 0;
+        long rows = 0;
+        Set<Long> docIds = new HashSet<>();
+        try (RootAllocator allocator = new RootAllocator();
+             InputStream input = Files.newInputStream(output);
+             ArrowStreamReader reader = new ArrowStreamReader(input, allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            while (reader.loadNextBatch()) {
+                batches++;
+                rows += root.getRowCount();
+                assertTrue(root.getRowCount() <= 10);
+
+                BigIntVector docId = (BigIntVector) root.getVector("_docId");
+                BigIntVector count = (BigIntVector) root.getVector("count");
+                VarCharVector id = (VarCharVector) root.getVector("id");
+                ListVector tags = (ListVector) root.getVector("tags");
+                for (int row = 0; row < root.getRowCount(); row++) {
+                    long doc = docId.get(row);
+                    docIds.add(doc);
+                    assertEquals(doc, count.get(row));
+                    assertEquals("doc-" + doc, new String(id.get(row)));
+                    assertEquals(List.of("even-" + (doc % 2 == 0), "tag-" + doc),
+                                 tags.getObject(row).stream().map(Object::toString).toList());
+                }
+            }
+        }
+
+        assertEquals(3, batches);
+        assertEquals(25, rows);
+        assertEquals(25, docIds.size());
+    }
+
+    @Test
+    void testStdoutRequiresArrowStream() {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource("index");
+        request.setOutput(ArrowDocumentWriter.STDOUT);
+
+        assertThrows(IllegalArgumentException.class, request::validate);
+
+        request.setFormat(OutputFormat.fromString("arrow-stream"));
+        request.validate();
+    }
+}
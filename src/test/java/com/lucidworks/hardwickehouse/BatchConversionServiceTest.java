@@ -0,0 +1,115 @@
+package com.lucidworks.hardwickehouse;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchConversionServiceTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private Path createBackup(Path backupDir, int docCount) throws IOException {
+        TestIndexes.createIndex(backupDir.resolve("shard1_data"), docCount, 10);
+        Files.writeString(backupDir.resolve("md_shard1.json"), "{\"indexDir\": \"shard1_data\"}");
+        Files.writeString(backupDir.resolve("backup.properties"), """
+            collection=test
+            shard1.md=md_shard1.json
+            indexSizeMB=1.0
+            """);
+        return backupDir;
+    }
+    
+    @Test
+    void testDiscoverAndConvertAllBackups() throws Exception {
+        Path root = tempDir.resolve("backups");
+        createBackup(root.resolve("prd").resolve("alpha"), 12);
+        createBackup(root.resolve("prd").resolve("beta"), 30);
+        createBackup(root.resolve("gamma"), 5);
+        Path outputDir = tempDir.resolve("out");
+        
+        BatchConversionService service = new BatchConversionService(
+            new ConversionService(new StorageService(null)), 2, 0, 60);
+        
+        List<ConversionRequest> requests = service.discoverBackups(root, outputDir, false, 100);
+        assertEquals(3, requests.size());
+        
+        List<BatchConversionService.JobOutcome> outcomes = service.convertAll(requests);
+        
+        assertTrue(outcomes.stream().allMatch(BatchConversionService.JobOutcome::isSucceeded));
+        assertEquals(47, outcomes.stream().mapToLong(BatchConversionService.JobOutcome::getDocumentsProcessed).sum());
+        assertEquals(12, Files.readAllLines(outputDir.resolve("prd_alpha.jsonl")).size());
+        assertEquals(30, Files.readAllLines(outputDir.resolve("prd_beta.jsonl")).size());
+        assertEquals(5, Files.readAllLines(outputDir.resolve("gamma.jsonl")).size());
+        
+        Path report = tempDir.resolve("report.json");
+        service.writeReport(outcomes, report);
+        assertTrue(Files.readString(report).contains("\"succeeded\" : 3"));
+    }
+    
+    @Test
+    void testOversizedJobStillRunsUnderDiskBudget() throws Exception {
+        createBackup(tempDir.resolve("big"), 20);
+        
+        BatchConversionService service = new BatchConversionService(
+            new ConversionService(new StorageService(null)), 4, 1024, 60);
+        
+        List<ConversionRequest> requests = service.discoverBackups(tempDir, tempDir.resolve("out"), true, 100);
+        List<BatchConversionService.JobOutcome> outcomes = service.convertAll(requests);
+        
+        assertEquals(1, outcomes.size());
+        assertTrue(outcomes.get(0).isSucceeded());
+        assertTrue(Files.exists(tempDir.resolve("out").resolve("big.jsonl.gz")));
+    }
+    
+    @Test
+    void testManifestFailuresAreReportedPerJob() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 8, 10);
+        Path manifest = tempDir.resolve("jobs.json");
+        Files.writeString(manifest, "[" +
+            "{\"source\": \"" + index + "\", \"output\": \"" + tempDir.resolve("a.jsonl") + "\"}," +
+            "{\"source\": \"" + tempDir.resolve("missing") + "\", \"output\": \"" + tempDir.resolve("b.jsonl") + "\"}," +
+            "{\"output\": \"" + tempDir.resolve("c.jsonl") + "\"}" +
+            "]");
+        
+        BatchConversionService service = new BatchConversionService(
+            new ConversionService(new StorageService(null)), 2, 0, 60);
+        List<ConversionRequest> requests = service.readManifest(manifest);
+        List<BatchConversionService.JobOutcome> outcomes = service.convertAll(requests);
+        
+        assertEquals(3, outcomes.size());
+        // Two jobs at a time, so each gets half of the processors
+        assertEquals(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), requests.get(0).getThreads());
+        assertTrue(outcomes.get(0).isSucceeded());
+        assertEquals(8, outcomes.get(0).getDocumentsProcessed());
+        assertFalse(outcomes.get(1).isSucceeded());
+        assertFalse(outcomes.get(2).isSucceeded());
+        assertNotNull(outcomes.get(2).getError());
+    }
+    
+    @Test
+    void testEstimatesIncrementalBackupsByTheirSelectedPoints() throws Exception {
+        Path backup = tempDir.resolve("incremental");
+        Files.createDirectories(backup.resolve(IncrementalBackup.SHARD_METADATA_DIRECTORY));
+        for (int point = 0; point < 2; point++) {
+            Files.writeString(backup.resolve(IncrementalBackup.SHARD_METADATA_DIRECTORY).resolve("md_shard1_" + point + ".json"), "{}");
+            Files.writeString(backup.resolve("backup_" + point + ".properties"),
+                              "collection=test\nshard1.md=md_shard1_" + point + ".json\nindexSizeMB=" + (point + 2) + ".0\n");
+        }
+        BatchConversionService service = new BatchConversionService(
+            new ConversionService(new StorageService(null)), 2, 0, 60);
+        
+        // Index files are read in place; only the output of the selected points lands on disk
+        ConversionRequest request = new ConversionRequest();
+        request.setBackupDirectory(backup.toString());
+        assertEquals(3L * 1024 * 1024, service.estimateDiskBytes(request));
+        request.setBackupPoint("all");
+        assertEquals(5L * 1024 * 1024, service.estimateDiskBytes(request));
+    }
+}
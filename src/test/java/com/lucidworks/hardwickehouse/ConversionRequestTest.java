@@ -0,0 +1,60 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversionRequestTest {
+    
+    @Test
+    void testValidLocalRequest() {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource("/data/index");
+        request.setOutput("/data/out.jsonl");
+        
+        assertDoesNotThrow(request::validate);
+        assertEquals("/data/index", request.getSourceLocation());
+        assertEquals("/data/out.jsonl", request.getOutputLocation());
+        assertFalse(request.hasGcsSource());
+        assertFalse(request.hasGcsOutput());
+    }
+    
+    @Test
+    void testRejectsMultipleSources() {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource("/data/index");
+        request.setGcsSource("gs://bucket/index.zip");
+        request.setOutput("/data/out.jsonl");
+        
+        assertThrows(IllegalArgumentException.class, request::validate);
+    }
+    
+    @Test
+    void testBackupRequiresDirectory() {
+        ConversionRequest request = new ConversionRequest();
+        request.setBackupProperties("backup.properties");
+        request.setOutput("/data/out.jsonl");
+        
+        assertThrows(IllegalArgumentException.class, request::validate);
+        
+        request.setBackupDirectory("/backups/collection");
+        assertDoesNotThrow(request::validate);
+    }
+    
+    @Test
+    void testJsonRoundTrip() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ConversionRequest request = objectMapper.readValue(
+            "{\"gcsSource\": \"gs://bucket/index.zip\", \"gcsOutput\": \"gs://bucket/out.jsonl.gz\", \"compress\": true}",
+            ConversionRequest.class);
+        
+        assertTrue(request.hasGcsSource());
+        assertTrue(request.hasGcsOutput());
+        assertTrue(request.isCompress());
+        assertEquals(1000, request.getBatchSize());
+        
+        ConversionRequest copy = objectMapper.readValue(objectMapper.writeValueAsString(request), ConversionRequest.class);
+        assertEquals(request.getGcsSource(), copy.getGcsSource());
+    }
+}
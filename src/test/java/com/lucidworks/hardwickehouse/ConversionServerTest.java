@@ -0,0 +1,148 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversionServerTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private ConversionServer server;
+    
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+    
+    private ConversionServer startServer() throws Exception {
+        ConversionService conversionService = new ConversionService(new StorageService(null));
+        server = new ConversionServer(conversionService, 2, 10, 60, 100);
+        server.start(new InetSocketAddress("127.0.0.1", 0));
+        return server;
+    }
+    
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(
+            URI.create("http://127.0.0.1:" + server.getPort() + path));
+        if (body != null) {
+            builder.method(method, HttpRequest.BodyPublishers.ofString(body));
+        } else {
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        return client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+    
+    @Test
+    void testSubmitAndPollJobs() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 25, 10);
+        startServer();
+        
+        for (int i = 0; i < 3; i++) {
+            String body = "{\"source\": \"" + index + "\", \"output\": \"" + tempDir.resolve("out" + i + ".jsonl") + "\"}";
+            HttpResponse<String> response = send("POST", "/jobs", body);
+            assertEquals(202, response.statusCode());
+        }
+        
+        for (int i = 1; i <= 3; i++) {
+            JsonNode job = awaitJob(Integer.toString(i));
+            assertEquals("SUCCEEDED", job.get("status").asText());
+            assertEquals(25, job.get("processedDocuments").asLong());
+            // Two workers, so each job gets half of the processors
+            assertEquals(Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                         job.get("request").get("threads").asInt());
+        }
+        
+        assertEquals(25, Files.readAllLines(tempDir.resolve("out0.jsonl")).size());
+        assertEquals(3, objectMapper.readTree(send("GET", "/jobs", null).body()).size());
+    }
+    
+    @Test
+    void testFailedJobReportsError() throws Exception {
+        startServer();
+        
+        String body = "{\"source\": \"" + tempDir.resolve("missing") + "\", \"output\": \"" + tempDir.resolve("out.jsonl") + "\"}";
+        assertEquals(202, send("POST", "/jobs", body).statusCode());
+        
+        JsonNode job = awaitJob("1");
+        assertEquals("FAILED", job.get("status").asText());
+        assertTrue(job.has("error"));
+    }
+    
+    @Test
+    void testCancelledJobThatFinishesAnywayIsReportedCancelled() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // A conversion that does not stop when interrupted, like one blocked in uninterruptible I/O
+        ConversionService conversionService = new ConversionService(new StorageService(null)) {
+            @Override
+            public ConversionResult convert(ConversionRequest request, ProgressReporter progressReporter) {
+                started.countDown();
+                while (true) {
+                    try {
+                        release.await();
+                        return new ConversionResult(0, request.getOutputLocation(), Duration.ZERO, Map.of());
+                    } catch (InterruptedException e) {
+                        // Keep going
+                    }
+                }
+            }
+        };
+        server = new ConversionServer(conversionService, 1, 10, 60, 100);
+        server.start(new InetSocketAddress("127.0.0.1", 0));
+
+        String body = "{\"source\": \"" + tempDir + "\", \"output\": \"" + tempDir.resolve("out.jsonl") + "\"}";
+        assertEquals(202, send("POST", "/jobs", body).statusCode());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(202, send("DELETE", "/jobs/1", null).statusCode());
+        release.countDown();
+
+        JsonNode job = awaitJob("1");
+        assertEquals("CANCELLED", job.get("status").asText());
+        assertFalse(job.has("outputLocation"));
+    }
+
+    @Test
+    void testRejectsInvalidRequests() throws Exception {
+        startServer();
+        
+        assertEquals(400, send("POST", "/jobs", "{\"output\": \"out.jsonl\"}").statusCode());
+        assertEquals(400, send("POST", "/jobs", "{\"unknownOption\": true}").statusCode());
+        assertEquals(404, send("GET", "/jobs/42", null).statusCode());
+        assertEquals(200, send("GET", "/health", null).statusCode());
+    }
+    
+    private JsonNode awaitJob(String id) throws Exception {
+        for (int attempt = 0; attempt < 200; attempt++) {
+            JsonNode job = objectMapper.readTree(send("GET", "/jobs/" + id, null).body());
+            String status = job.get("status").asText();
+            if (!"QUEUED".equals(status) && !"RUNNING".equals(status)) {
+                return job;
+            }
+            Thread.sleep(50);
+        }
+        fail("Job " + id + " did not finish");
+        return null;
+    }
+}
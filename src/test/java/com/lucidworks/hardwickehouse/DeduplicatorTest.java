@@ -0,0 +1,152 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeduplicatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private IndexReader indexReader;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // shard1 holds ids 0-59 at version 1, shard2 holds ids 40-99 at version 2, so
+        // ids 40-59 are duplicated; shard2 also has two documents without an id
+        Path shard1 = createShard(tempDir.resolve("shard1"), 0, 60, 1);
+        Path shard2 = createShard(tempDir.resolve("shard2"), 40, 100, 2);
+        try (FSDirectory directory = FSDirectory.open(shard2);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < 2; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField("title", "untitled"));
+                writer.addDocument(doc);
+            }
+        }
+
+        indexReader = new IndexReader();
+        indexReader.initializeMultiShard(List.of(shard1, shard2));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        indexReader.close();
+    }
+
+    private Path createShard(Path path, int fromId, int toId, long version) throws IOException {
+        try (FSDirectory directory = FSDirectory.open(path);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int id = fromId; id < toId; id++) {
+                Document doc = new Document();
+                doc.add(new StoredField("id", "doc-" + id));
+                doc.add(new StoredField("_version_", version));
+                writer.addDocument(doc);
+            }
+        }
+        return path;
+    }
+
+    private Map<String, Long> readVersionsById() throws Exception {
+        Map<String, Long> versions = new HashMap<>();
+        for (LeafReaderContext leaf : indexReader.getLeaves()) {
+            StoredFields storedFields = leaf.reader().storedFields();
+            Bits liveDocs = indexReader.getLiveDocs(leaf);
+            for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                LuceneDocument document = indexReader.readDocument(leaf, storedFields, doc);
+                Object id = document.getField("id");
+                if (id != null) {
+                    assertNull(versions.put((String) id, (Long) document.getField("_version_")), "duplicate " + id);
+                }
+            }
+        }
+        return versions;
+    }
+
+    @Test
+    void testKeepsMaxVersionAcrossShards() throws Exception {
+        Deduplicator.Result result = new Deduplicator("id", "max(_version_)").apply(indexReader, 3);
+
+        assertEquals(122, result.getDocumentsScanned());
+        assertEquals(20, result.getDuplicatesRemoved());
+        assertEquals(2, result.getDocumentsWithoutKey());
+        assertEquals(100, result.getUniqueKeys());
+        assertEquals(102, result.getKeptDocuments());
+        assertEquals(102, indexReader.getTotalDocuments());
+        assertTrue(result.getBytesPerKey() > 0);
+
+        Map<String, Long> versions = readVersionsById();
+        assertEquals(100, versions.size());
+        assertEquals(1L, versions.get("doc-10"));
+        assertEquals(2L, versions.get("doc-50"));
+    }
+
+    @Test
+    void testKeepFirstAndMinPreferEarlierShard() throws Exception {
+        new Deduplicator("id", "min(_version_)").apply(indexReader, 2);
+        assertEquals(1L, readVersionsById().get("doc-50"));
+
+        new Deduplicator("id", Deduplicator.KEEP_FIRST).apply(indexReader, 2);
+        assertEquals(1L, readVersionsById().get("doc-45"));
+    }
+
+    @Test
+    void testRejectsMalformedKeep() {
+        assertThrows(IllegalArgumentException.class, () -> Deduplicator.validateKeep("latest"));
+        assertThrows(IllegalArgumentException.class, () -> Deduplicator.validateKeep("max()"));
+        Deduplicator.validateKeep("max( _version_ )");
+    }
+
+    @Test
+    void testKeyTableKeepsCollidingKeysApart() throws Exception {
+        KeyTable table = new KeyTable(false);
+
+        // Same fingerprint, but the verifier says the keys differ
+        assertFalse(table.offer(42, 1, 0, docId -> false));
+        assertFalse(table.offer(42, 2, 0, docId -> false));
+        assertTrue(table.offer(42, 3, 0, docId -> docId == 2));
+        assertEquals(2, table.size());
+
+        FixedBitSet kept = new FixedBitSet(4);
+        table.markKept(kept);
+        assertTrue(kept.get(1));
+        assertTrue(kept.get(2));
+        assertFalse(kept.get(3));
+    }
+
+    @Test
+    void testKeyTableGrowsAndFingerprintsDiffer() throws Exception {
+        KeyTable table = new KeyTable(true);
+        for (int i = 0; i < 50_000; i++) {
+            byte[] key = ("key-" + i).getBytes();
+            table.offer(KeyTable.fingerprint(key, 0, key.length), i, i, docId -> true);
+        }
+
+        assertEquals(50_000, table.size());
+        assertTrue(table.bytesUsed() >= 50_000 * 20L);
+        assertNotEquals(KeyTable.fingerprint("abc".getBytes(), 0, 3), KeyTable.fingerprint("abd".getBytes(), 0, 3));
+    }
+}
@@ -0,0 +1,133 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocSamplerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final IndexReader indexReader = new IndexReader();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        indexReader.close();
+    }
+
+    private FixedBitSet openAndSample(Path index, DocSampler sampler) throws Exception {
+        indexReader.initialize(index);
+        sampler.apply(indexReader);
+        FixedBitSet sampled = new FixedBitSet(indexReader.getMaxDoc());
+        for (LeafReaderContext leaf : indexReader.getLeaves()) {
+            Bits accepted = indexReader.getLiveDocs(leaf);
+            for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                if (accepted.get(doc)) {
+                    sampled.set(leaf.docBase + doc);
+                }
+            }
+        }
+        return sampled;
+    }
+
+    @Test
+    void testRateSamplesEveryLeafProportionally() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 10_000, 2500);
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < 2000; i++) {
+                writer.deleteDocuments(new Term("id", "doc-" + i));
+            }
+        }
+
+        FixedBitSet sampled = openAndSample(index, DocSampler.ofRate(0.01, 7));
+
+        assertEquals(80, sampled.cardinality());
+        assertEquals(80, indexReader.getTotalDocuments());
+        for (LeafReaderContext leaf : indexReader.getLeaves()) {
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            int inLeaf = 0;
+            for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                if (sampled.get(leaf.docBase + doc)) {
+                    assertTrue(liveDocs == null || liveDocs.get(doc), "deleted document sampled");
+                    inLeaf++;
+                }
+            }
+            assertEquals(Math.round(leaf.reader().numDocs() / 100.0), inLeaf);
+        }
+    }
+
+    @Test
+    void testSameSeedSameSample() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 3000, 1000);
+        indexReader.initialize(index);
+
+        FixedBitSet first = DocSampler.ofCount(50, 1)
+            .select(indexReader.getLeaves(), indexReader::getLiveDocs, indexReader.getMaxDoc());
+        FixedBitSet again = DocSampler.ofCount(50, 1)
+            .select(indexReader.getLeaves(), indexReader::getLiveDocs, indexReader.getMaxDoc());
+        FixedBitSet other = DocSampler.ofCount(50, 2)
+            .select(indexReader.getLeaves(), indexReader::getLiveDocs, indexReader.getMaxDoc());
+
+        assertEquals(50, first.cardinality());
+        assertEquals(first, again);
+        assertNotEquals(first, other);
+    }
+
+    @Test
+    void testCountLargerThanIndexTakesEverything() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 120, 50);
+
+        assertEquals(120, openAndSample(index, DocSampler.ofCount(1000, 0)).cardinality());
+    }
+
+    @Test
+    void testSchemaInferenceSeesLaterSegments() throws Exception {
+        // A field that only appears after the first 1000 documents
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 2000, 1000);
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < 1000; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField("added_later", i));
+                writer.addDocument(doc);
+            }
+        }
+
+        indexReader.initialize(index);
+
+        assertEquals(FieldType.INTEGER, indexReader.getSchema().getFieldType("added_later"));
+    }
+
+    @Test
+    void testRejectsInvalidSampleOptions() {
+        assertThrows(IllegalArgumentException.class, () -> DocSampler.ofRate(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> DocSampler.ofRate(1.5, 0));
+        assertThrows(IllegalArgumentException.class, () -> DocSampler.ofCount(0, 0));
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource("/data/index");
+        request.setOutput("/data/out.jsonl");
+        request.setSampleRate(0.1);
+        request.setSampleCount(10L);
+        assertThrows(IllegalArgumentException.class, request::validate);
+    }
+}
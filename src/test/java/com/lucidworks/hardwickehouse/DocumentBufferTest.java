@@ -0,0 +1,193 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentBufferTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private IndexReader indexReader;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            Document first = new Document();
+            first.add(new StoredField("id", "a"));
+            first.add(new StoredField("tags", "red"));
+            first.add(new StoredField("tags", "blue"));
+            first.add(new StoredField("count", 3));
+            first.add(new StoredField("score", 0.1f));
+            first.add(new StoredField("payload", new BytesRef(new byte[] {7, 1, 2, 3, 7}, 1, 3)));
+            writer.addDocument(first);
+            
+            Document second = new Document();
+            second.add(new StoredField("id", "b"));
+            second.add(new StoredField("tags", "green"));
+            second.add(new StoredField("price", 12.5d));
+            writer.addDocument(second);
+        }
+        
+        indexReader = new IndexReader();
+        indexReader.initialize(index);
+    }
+    
+    @AfterEach
+    void tearDown() throws Exception {
+        indexReader.close();
+    }
+    
+    @Test
+    void testCollectsMultipleValuesPerField() throws Exception {
+        LeafReaderContext leaf = indexReader.getLeaves().get(0);
+        DocumentBuffer buffer = new DocumentBuffer(indexReader.getSchema());
+        buffer.startLeaf(leaf);
+        indexReader.readDocument(leaf, leaf.reader().storedFields(), 0, buffer);
+        
+        int tags = indexReader.getSchema().getFieldOrdinal("tags");
+        assertEquals(2, buffer.getValueCount(tags));
+        int value = buffer.getFirstValue(tags);
+        assertEquals("red", buffer.getString(value));
+        assertEquals("blue", buffer.getString(buffer.getNextValue(value)));
+        assertEquals(-1, buffer.getNextValue(buffer.getNextValue(value)));
+        
+        int count = indexReader.getSchema().getFieldOrdinal("count");
+        assertEquals(DocumentBuffer.INT, buffer.getKind(buffer.getFirstValue(count)));
+        assertEquals(3, buffer.getLong(buffer.getFirstValue(count)));
+        
+        int payload = buffer.getFirstValue(indexReader.getSchema().getFieldOrdinal("payload"));
+        assertEquals(3, buffer.getBinaryLength(payload));
+        assertEquals(1, buffer.getBinaryArena()[buffer.getBinaryOffset(payload)]);
+    }
+    
+    @Test
+    void testResetClearsPreviousDocument() throws Exception {
+        LeafReaderContext leaf = indexReader.getLeaves().get(0);
+        StoredFields storedFields = leaf.reader().storedFields();
+        DocumentBuffer buffer = new DocumentBuffer(indexReader.getSchema());
+        buffer.startLeaf(leaf);
+        
+        indexReader.readDocument(leaf, storedFields, 0, buffer);
+        indexReader.readDocument(leaf, storedFields, 1, buffer);
+        
+        JsonLSchema schema = indexReader.getSchema();
+        assertEquals(1, buffer.getDocId());
+        assertEquals(3, buffer.getFieldCount());
+        assertEquals(1, buffer.getValueCount(schema.getFieldOrdinal("tags")));
+        assertEquals(0, buffer.getValueCount(schema.getFieldOrdinal("count")));
+        assertEquals(12.5, buffer.getDouble(buffer.getFirstValue(schema.getFieldOrdinal("price"))));
+    }
+    
+    @Test
+    void testSerializesMultiValuedFieldsAsArrays() throws Exception {
+        LeafReaderContext leaf = indexReader.getLeaves().get(0);
+        StoredFields storedFields = leaf.reader().storedFields();
+        DocumentBuffer buffer = new DocumentBuffer(indexReader.getSchema());
+        buffer.startLeaf(leaf);
+        JsonLSerializer serializer = new JsonLSerializer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        try (JsonGenerator generator = JsonLSerializer.createGenerator(out)) {
+            for (int doc = 0; doc < 2; doc++) {
+                indexReader.readDocument(leaf, storedFields, doc, buffer);
+                serializer.writeDocument(generator, buffer);
+            }
+        }
+        
+        ObjectMapper objectMapper = new ObjectMapper();
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        JsonNode first = objectMapper.readTree(lines[0]);
+        JsonNode second = objectMapper.readTree(lines[1]);
+        
+        assertEquals(List.of("red", "blue"), List.of(first.get("tags").get(0).asText(), first.get("tags").get(1).asText()));
+        assertEquals("0.1", first.get("score").asText());
+        assertEquals("AQID", first.get("payload").asText());
+        assertEquals("a", first.get("id").asText());
+        // tags is multi-valued in the schema, so a single value is still an array
+        assertTrue(second.get("tags").isArray());
+        assertEquals("green", second.get("tags").get(0).asText());
+    }
+    
+    @Test
+    void testFieldRepeatedOutsideTheSampleIsAnArrayInEveryRecord() throws Exception {
+        // Only the last of 5000 documents repeats tags, far more than the schema sample holds
+        Path index = tempDir.resolve("repeated");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < 5000; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField("id", "doc-" + i));
+                doc.add(new StoredField("tags", "tag-" + i));
+                if (i == 4999) {
+                    doc.add(new StoredField("tags", "extra"));
+                }
+                writer.addDocument(doc);
+            }
+        }
+        
+        IndexReader repeated = new IndexReader();
+        repeated.initialize(index);
+        try {
+            assertTrue(repeated.getSchema().isMultiValued("tags"));
+            assertFalse(repeated.getSchema().isMultiValued("id"));
+            
+            LeafReaderContext leaf = repeated.getLeaves().get(0);
+            StoredFields storedFields = leaf.reader().storedFields();
+            DocumentBuffer buffer = new DocumentBuffer(repeated.getSchema());
+            buffer.startLeaf(leaf);
+            JsonLSerializer serializer = new JsonLSerializer();
+            ObjectMapper objectMapper = new ObjectMapper();
+            for (int doc : new int[] {0, 4999}) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (JsonGenerator generator = JsonLSerializer.createGenerator(out)) {
+                    repeated.readDocument(leaf, storedFields, doc, buffer);
+                    serializer.writeDocument(generator, buffer);
+                }
+                JsonNode record = objectMapper.readTree(out.toString(StandardCharsets.UTF_8));
+                assertTrue(record.get("tags").isArray());
+                assertTrue(record.get("id").isTextual());
+                assertEquals(doc == 0 ? 1 : 2, record.get("tags").size());
+            }
+        } finally {
+            repeated.close();
+        }
+    }
+    
+    @Test
+    void testToLuceneDocumentKeepsValueTypes() throws Exception {
+        LeafReaderContext leaf = indexReader.getLeaves().get(0);
+        DocumentBuffer buffer = new DocumentBuffer(indexReader.getSchema());
+        buffer.startLeaf(leaf);
+        indexReader.readDocument(leaf, leaf.reader().storedFields(), 0, buffer);
+        
+        LuceneDocument document = buffer.toLuceneDocument();
+        
+        assertEquals(3, document.getField("count"));
+        assertEquals(0.1f, document.getField("score"));
+        assertEquals(List.of("red", "blue"), document.getField("tags"));
+    }
+}
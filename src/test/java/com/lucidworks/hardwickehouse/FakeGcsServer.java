@@ -0,0 +1,234 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Minimal in-process stand-in for the GCS JSON API: object metadata, listing by prefix,
+ * and media downloads with byte ranges. Enough for the client's reads, not its writes.
+ */
+class FakeGcsServer implements AutoCloseable {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+    private final AtomicLong nextGeneration = new AtomicLong(1000);
+    private final List<String> mediaRequests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong corruptDownloads = new AtomicLong();
+    private final HttpServer server;
+
+    FakeGcsServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    Storage client() {
+        return StorageOptions.newBuilder()
+            .setHost("http://localhost:" + server.getAddress().getPort())
+            .setProjectId("test")
+            .setCredentials(NoCredentials.getInstance())
+            .setRetrySettings(ServiceOptions.getNoRetrySettings())
+            .build()
+            .getService();
+    }
+
+    void put(String bucket, String name, byte[] content) {
+        generations.put(bucket + "/" + name, nextGeneration.incrementAndGet());
+        objects.put(bucket + "/" + name, content);
+    }
+
+    /**
+     * Uploads every file under {@code directory} below {@code prefix}.
+     */
+    void putTree(String bucket, String prefix, Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                String relative = directory.relativize(file).toString().replace('\\', '/');
+                put(bucket, prefix + relative, Files.readAllBytes(file));
+            }
+        }
+    }
+
+    /**
+     * Range headers of every media download so far, or "full" for unranged ones.
+     */
+    List<String> getMediaRequests() {
+        return new ArrayList<>(mediaRequests);
+    }
+
+    /**
+     * Flips a byte in each of the next {@code count} media downloads.
+     */
+    void corruptNextDownloads(int count) {
+        corruptDownloads.set(count);
+    }
+
+    long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getRawPath();
+            if (path.startsWith("/download")) {
+                path = path.substring("/download".length());
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String[] parts = path.split("/");
+            // /storage/v1/b/{bucket}/o[/{object}]
+            if (parts.length < 6 || !"b".equals(parts[3]) || !"o".equals(parts[5])) {
+                send(exchange, 404, error(404, "Not found"));
+                return;
+            }
+            String bucket = decode(parts[4]);
+            if (parts.length == 6) {
+                list(exchange, bucket, query.getOrDefault("prefix", ""));
+                return;
+            }
+
+            String name = decode(path.substring(path.indexOf("/o/") + 3));
+            String key = bucket + "/" + name;
+            byte[] content = objects.get(key);
+            if (content == null) {
+                send(exchange, 404, error(404, "No such object: " + key));
+                return;
+            }
+            if ("media".equals(query.get("alt"))) {
+                download(exchange, key, content);
+            } else {
+                send(exchange, 200, mapper.writeValueAsBytes(metadata(bucket, name, content)));
+            }
+        }
+    }
+
+    private void list(HttpExchange exchange, String bucket, String prefix) throws IOException {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("kind", "storage#objects");
+        ArrayNode items = response.putArray("items");
+        for (Map.Entry<String, byte[]> entry : objects.entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(bucket + "/" + prefix)) {
+                items.add(metadata(bucket, key.substring(bucket.length() + 1), entry.getValue()));
+            }
+        }
+        send(exchange, 200, mapper.writeValueAsBytes(response));
+    }
+
+    private void download(HttpExchange exchange, String key, byte[] content) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        mediaRequests.add(range != null ? range : "full");
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("x-goog-generation", String.valueOf(generations.get(key)));
+        if (range == null) {
+            send(exchange, 200, content);
+            return;
+        }
+
+        String[] bounds = range.substring("bytes=".length()).split("-", -1);
+        long start = Long.parseLong(bounds[0]);
+        long end = bounds.length > 1 && !bounds[1].isEmpty()
+            ? Math.min(Long.parseLong(bounds[1]), content.length - 1) : content.length - 1;
+        if (start >= content.length) {
+            send(exchange, 416, error(416, "Requested range not satisfiable"));
+            return;
+        }
+        byte[] slice = new byte[(int) (end - start + 1)];
+        System.arraycopy(content, (int) start, slice, 0, slice.length);
+        if (slice.length > 0 && corruptDownloads.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            slice[slice.length / 2] ^= 0x5a;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        send(exchange, 206, slice);
+    }
+
+    private ObjectNode metadata(String bucket, String name, byte[] content) {
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        int value = (int) crc.getValue();
+        byte[] crcBytes = {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+
+        ObjectNode object = mapper.createObjectNode();
+        object.put("kind", "storage#object");
+        object.put("bucket", bucket);
+        object.put("name", name);
+        object.put("generation", String.valueOf(generations.get(bucket + "/" + name)));
+        object.put("metageneration", "1");
+        object.put("size", String.valueOf(content.length));
+        object.put("crc32c", Base64.getEncoder().encodeToString(crcBytes));
+        object.put("contentType", "application/octet-stream");
+        return object;
+    }
+
+    private byte[] error(int code, String message) throws IOException {
+        ObjectNode response = mapper.createObjectNode();
+        ObjectNode error = response.putObject("error");
+        error.put("code", code);
+        error.put("message", message);
+        return mapper.writeValueAsBytes(response);
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (exchange.getResponseHeaders().getFirst("Content-Type") == null) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+        }
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        if (status == 200 || status == 206) {
+            bytesServed.addAndGet(body.length);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    query.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
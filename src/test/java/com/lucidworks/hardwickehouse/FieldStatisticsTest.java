@@ -0,0 +1,110 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FieldStatisticsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEstimatesDistinctValuesAcrossMergedAccumulators() {
+        FieldStatistics.FieldStats first = new FieldStatistics.FieldStats();
+        FieldStatistics.FieldStats second = new FieldStatistics.FieldStats();
+        // Two threads that saw overlapping halves of 200,000 distinct values
+        for (int i = 0; i < 120_000; i++) {
+            first.addString("value-" + i);
+        }
+        for (int i = 80_000; i < 200_000; i++) {
+            second.addString("value-" + i);
+        }
+        first.merge(second);
+
+        assertEquals(240_000, first.values);
+        assertEquals(200_000, first.distinct(), 200_000 * 0.05);
+
+        FieldStatistics.FieldStats small = new FieldStatistics.FieldStats();
+        for (long i = 0; i < 1000; i++) {
+            small.addLong(i % 37);
+        }
+        assertEquals(37, small.distinct(), 1);
+    }
+
+    @Test
+    void testWritesStatsBesideOutput() throws Exception {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < 4000; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", "doc-" + i, Field.Store.YES));
+                doc.add(new StoredField("price", i * 0.5));
+                if (i % 4 == 0) {
+                    doc.add(new StoredField("note", "é" + i));
+                }
+                writer.addDocument(doc);
+                if ((i + 1) % 1000 == 0) {
+                    writer.commit();
+                }
+            }
+        }
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(tempDir.resolve("out.jsonl.gz").toString());
+        request.setCompress(true);
+        request.setThreads(3);
+        ConversionResult result = new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+        assertTrue(result.getMetrics().containsKey("statsSeconds"));
+
+        JsonNode stats = new ObjectMapper().readTree(tempDir.resolve("out.stats.json").toFile());
+        assertEquals(4000, stats.get("documents").asLong());
+
+        JsonNode id = stats.get("fields").get("id");
+        assertEquals(4000, id.get("present").asLong());
+        assertEquals(0, id.get("nulls").asLong());
+        assertEquals(4000, id.get("distinct").asLong(), 4000 * 0.05);
+
+        JsonNode price = stats.get("fields").get("price");
+        assertEquals(0.0, price.get("min").asDouble());
+        assertEquals(1999.5, price.get("max").asDouble());
+
+        JsonNode note = stats.get("fields").get("note");
+        assertEquals(1000, note.get("present").asLong());
+        assertEquals(0.75, note.get("nullRate").asDouble());
+        // "é" is two bytes in UTF-8, followed by up to four digits
+        assertEquals(6, note.get("maxBytes").asLong());
+    }
+
+    @Test
+    void testSkipsStatsWhenDisabled() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 200, 100);
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(tempDir.resolve("out.jsonl").toString());
+        request.setStats(false);
+        new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+
+        assertTrue(Files.exists(tempDir.resolve("out.jsonl")));
+        assertFalse(Files.exists(tempDir.resolve("out.stats.json")));
+    }
+}
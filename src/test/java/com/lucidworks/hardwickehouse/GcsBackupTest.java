@@ -0,0 +1,146 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GcsBackupTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FakeGcsServer gcs;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        gcs = new FakeGcsServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        gcs.close();
+    }
+
+    /**
+     * Lays an index out as a one-shard Solr backup with UUID-named files.
+     */
+    private Path createBackup(Path index) throws Exception {
+        Path backup = tempDir.resolve("backup");
+        Files.createDirectories(backup.resolve("index"));
+        ObjectNode mapping = new ObjectMapper().createObjectNode();
+        try (Stream<Path> files = Files.list(index)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.equals("write.lock")) {
+                    continue;
+                }
+                String uuid = UUID.randomUUID().toString();
+                Files.copy(file, backup.resolve("index").resolve(uuid));
+                mapping.putObject(uuid).put("fileName", name);
+            }
+        }
+        Files.writeString(backup.resolve("md_shard1_0.json"), mapping.toString());
+        Files.writeString(backup.resolve("backup.properties"), """
+            collection=products
+            backupName=nightly
+            shard1.md=md_shard1_0.json
+            """);
+        return backup;
+    }
+
+    private List<String> sortedLines(Path file) throws Exception {
+        List<String> lines = new ArrayList<>(Files.readAllLines(file));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    void testReadsFilesThroughBoundedBlockCache() throws Exception {
+        byte[] content = new byte[100_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31 + 7);
+        }
+        gcs.put("bucket", "dir/data.bin", content);
+        gcs.put("bucket", "dir/nested/other.bin", new byte[10]);
+
+        GcsDirectory.BlockCache cache = new GcsDirectory.BlockCache(4096, 32 * 1024);
+        try (GcsDirectory directory = GcsDirectory.open(gcs.client(), "bucket", "dir", cache)) {
+            assertArrayEquals(new String[] {"data.bin"}, directory.listAll());
+            assertEquals(content.length, directory.fileLength("data.bin"));
+
+            try (IndexInput input = directory.openInput("data.bin", IOContext.READONCE)) {
+                byte[] read = new byte[content.length];
+                input.readBytes(read, 0, read.length);
+                assertArrayEquals(content, read);
+
+                // Random access into a slice, including a span across two blocks
+                IndexInput slice = input.slice("slice", 4000, 50_000);
+                slice.seek(40_000);
+                byte[] span = new byte[200];
+                slice.readBytes(span, 0, span.length);
+                assertArrayEquals(Arrays.copyOfRange(content, 44_000, 44_200), span);
+            }
+        }
+
+        // 25 blocks were read sequentially, mostly several per request
+        List<String> ranges = gcs.getMediaRequests();
+        assertTrue(ranges.size() < 10, ranges.toString());
+        assertFalse(ranges.contains("full"));
+        assertTrue(cache.getBytes() <= 32 * 1024);
+    }
+
+    @Test
+    void testConvertsBackupInPlace() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 3000, 700);
+        Path backup = createBackup(index);
+        gcs.putTree("backups", "nightly/", backup);
+
+        StorageService storageService = new StorageService(gcs.client(), null);
+        ConversionService service = new ConversionService(storageService);
+
+        ConversionRequest request = new ConversionRequest();
+        request.setBackupProperties("gs://backups/nightly/backup.properties");
+        request.setBackupDirectory("gs://backups/nightly");
+        request.setOutput(tempDir.resolve("remote.jsonl").toString());
+        request.setThreads(3);
+        request.validate();
+        ConversionResult result = service.convert(request, new ProgressReporter(60));
+        assertEquals(3000, result.getDocumentsProcessed());
+
+        ConversionRequest local = new ConversionRequest();
+        local.setSource(index.toString());
+        local.setOutput(tempDir.resolve("local.jsonl").toString());
+        service.convert(local, new ProgressReporter(60));
+
+        assertEquals(sortedLines(tempDir.resolve("local.jsonl")), sortedLines(tempDir.resolve("remote.jsonl")));
+        // Index files are read by range; only small metadata objects are fetched whole
+        long fullDownloads = gcs.getMediaRequests().stream().filter("full"::equals).count();
+        assertTrue(fullDownloads <= 2, gcs.getMediaRequests().toString());
+        assertTrue(storageService.getBlockCache().getHits() > 0);
+    }
+
+    @Test
+    void testRequiresGcsDirectoryForGcsProperties() {
+        ConversionRequest request = new ConversionRequest();
+        request.setBackupProperties("gs://backups/nightly/backup.properties");
+        request.setBackupDirectory(tempDir.toString());
+        request.setOutput(tempDir.resolve("out.jsonl").toString());
+        assertThrows(IllegalArgumentException.class, request::validate);
+    }
+}
@@ -0,0 +1,109 @@
+package com.lucidworks.hardwickehouse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GcsPrefixDownloaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FakeGcsServer gcs;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        gcs = new FakeGcsServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        gcs.close();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int crc32c(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    @Test
+    void testCombinesChunkChecksums() {
+        Random random = new Random(11);
+        byte[] data = randomBytes(random, 10_000);
+        for (int split : new int[] {0, 1, 4096, 9999, 10_000}) {
+            int combined = GcsPrefixDownloader.combineCrc32c(crc32c(data, 0, split),
+                                                             crc32c(data, split, data.length - split),
+                                                             data.length - split);
+            assertEquals(crc32c(data, 0, data.length), combined, "split at " + split);
+        }
+    }
+
+    @Test
+    void testDownloadsPrefixInVerifiedChunks() throws Exception {
+        Random random = new Random(5);
+        byte[] large = randomBytes(random, 250_000);
+        byte[] small = randomBytes(random, 1000);
+        gcs.put("snapshots", "index/_0.cfs", large);
+        gcs.put("snapshots", "index/segments_2", small);
+        gcs.put("snapshots", "index/empty", new byte[0]);
+        gcs.put("snapshots", "index/sub/nested.bin", small);
+        gcs.put("snapshots", "index-old/_0.cfs", small);
+
+        GcsPrefixDownloader downloader = new GcsPrefixDownloader(gcs.client(), 4, 64 * 1024);
+        // The first chunk served arrives corrupted, so its file must be downloaded again
+        gcs.corruptNextDownloads(1);
+        Path target = tempDir.resolve("index");
+        long bytes = downloader.download("index", downloader.list("snapshots", "index"), target);
+
+        assertEquals(large.length + 2L * small.length, bytes);
+        assertArrayEquals(large, Files.readAllBytes(target.resolve("_0.cfs")));
+        assertArrayEquals(small, Files.readAllBytes(target.resolve("segments_2")));
+        assertArrayEquals(small, Files.readAllBytes(target.resolve("sub/nested.bin")));
+        assertEquals(0, Files.size(target.resolve("empty")));
+        assertFalse(gcs.getMediaRequests().contains("full"));
+        // Four ranged chunks for the large file and one for each small one, plus the retry
+        assertTrue(gcs.getMediaRequests().size() > 4 + 2, gcs.getMediaRequests().toString());
+    }
+
+    @Test
+    void testGivesUpAfterRepeatedCorruption() {
+        gcs.put("snapshots", "index/segments_1", new byte[5000]);
+
+        GcsPrefixDownloader downloader = new GcsPrefixDownloader(gcs.client(), 2, 64 * 1024);
+        gcs.corruptNextDownloads(GcsPrefixDownloader.MAX_ATTEMPTS);
+        Exception e = assertThrows(Exception.class, () ->
+            downloader.download("index/", downloader.list("snapshots", "index/"), tempDir.resolve("index")));
+        assertTrue(e.getMessage().contains("CRC32C mismatch"), e.getMessage());
+    }
+
+    @Test
+    void testConvertsIndexFromPrefix() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 1500, 400);
+        Files.deleteIfExists(index.resolve("write.lock"));
+        gcs.putTree("snapshots", "nightly/index/", index);
+
+        ConversionRequest request = new ConversionRequest();
+        request.setGcsSource("gs://snapshots/nightly/index");
+        request.setOutput(tempDir.resolve("out.jsonl").toString());
+        ConversionResult result = new ConversionService(new StorageService(gcs.client(), null))
+            .convert(request, new ProgressReporter(60));
+
+        assertEquals(1500, result.getDocumentsProcessed());
+        assertEquals(1500, Files.readAllLines(tempDir.resolve("out.jsonl")).size());
+    }
+}
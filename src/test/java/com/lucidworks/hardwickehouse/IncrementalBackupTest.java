@@ -0,0 +1,197 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoDeletionPolicy;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalBackupTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static void addDocs(IndexWriter writer, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            Document doc = new Document();
+            doc.add(new StringField("id", "doc-" + i, Field.Store.YES));
+            doc.add(new StoredField("title", "Title " + i));
+            writer.addDocument(doc);
+        }
+    }
+
+    /**
+     * Lays out three points of a one-shard collection the way Solr's incremental backups do:
+     * 300 documents, then 300 more, then 200 more with 50 of the first deleted. Each index
+     * file is stored once, under the same UUID for every point that contains it.
+     */
+    private Path createIncrementalBackup() throws Exception {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE)
+                 .setIndexDeletionPolicy(NoDeletionPolicy.INSTANCE))) {
+            addDocs(writer, 0, 300);
+            writer.commit();
+            addDocs(writer, 300, 600);
+            writer.commit();
+            addDocs(writer, 600, 800);
+            for (int i = 0; i < 50; i++) {
+                writer.deleteDocuments(new Term("id", "doc-" + i));
+            }
+            writer.commit();
+        }
+
+        Path backup = tempDir.resolve("backup");
+        Files.createDirectories(backup.resolve("index"));
+        Files.createDirectories(backup.resolve(IncrementalBackup.SHARD_METADATA_DIRECTORY));
+        Map<String, String> uuids = new HashMap<>();
+        ObjectMapper objectMapper = new ObjectMapper();
+        try (FSDirectory directory = FSDirectory.open(index)) {
+            List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+            assertEquals(3, commits.size());
+            for (int point = 0; point < commits.size(); point++) {
+                ObjectNode mapping = objectMapper.createObjectNode();
+                for (String fileName : commits.get(point).getFileNames()) {
+                    String uuid = uuids.get(fileName);
+                    if (uuid == null) {
+                        uuid = UUID.randomUUID().toString();
+                        uuids.put(fileName, uuid);
+                        Files.copy(index.resolve(fileName), backup.resolve("index").resolve(uuid));
+                    }
+                    mapping.putObject(uuid).put("fileName", fileName);
+                }
+                String shardMetadata = "md_shard1_" + point + ".json";
+                Files.writeString(backup.resolve(IncrementalBackup.SHARD_METADATA_DIRECTORY).resolve(shardMetadata),
+                                  mapping.toString());
+                Files.writeString(backup.resolve("backup_" + point + ".properties"),
+                                  "collection=products\nbackupName=daily\nshard1.md=" + shardMetadata + "\n");
+            }
+        }
+        return backup;
+    }
+
+    @Test
+    void testListsAndSelectsPoints() throws Exception {
+        Path backup = createIncrementalBackup();
+        assertTrue(IncrementalBackup.isIncremental(backup));
+
+        try (IncrementalBackup incremental = IncrementalBackup.open(backup)) {
+            assertEquals(List.of(0, 1, 2), incremental.getPoints().stream().map(IncrementalBackup.Point::getId).toList());
+            assertEquals(2, incremental.select(null).get(0).getId());
+            assertEquals(3, incremental.select("all").size());
+            assertEquals(List.of(0, 2), incremental.select("0, 2").stream().map(IncrementalBackup.Point::getId).toList());
+            assertThrows(IllegalArgumentException.class, () -> incremental.select("7"));
+
+            List<Map<String, Object>> described = incremental.describe();
+            assertEquals("products", described.get(0).get("collection"));
+            // Later points add only their new segments and segments files
+            long firstFiles = (Long) described.get(0).get("newIndexFiles");
+            long secondNew = (Long) described.get(1).get("newIndexFiles");
+            assertTrue(secondNew < (Integer) described.get(1).get("indexFiles"), described.toString());
+            assertTrue(firstFiles > 0);
+        }
+    }
+
+    @Test
+    void testConvertsEveryPointReusingSharedSegments() throws Exception {
+        Path backup = createIncrementalBackup();
+
+        ConversionRequest request = new ConversionRequest();
+        request.setBackupDirectory(backup.toString());
+        request.setBackupPoint("all");
+        request.setOutput(tempDir.resolve("point-" + ConversionRequest.BACKUP_POINT_PLACEHOLDER + ".jsonl").toString());
+        request.validate();
+        ConversionResult result = new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+
+        assertEquals(300, Files.readAllLines(tempDir.resolve("point-0.jsonl")).size());
+        assertEquals(600, Files.readAllLines(tempDir.resolve("point-1.jsonl")).size());
+        assertEquals(750, Files.readAllLines(tempDir.resolve("point-2.jsonl")).size());
+        assertEquals(300L + 600 + 750, result.getDocumentsProcessed());
+        // Each segment is opened once; later points reuse the segments they share with earlier ones
+        assertEquals(3L, result.getMetrics().get("segmentsOpened"));
+        assertEquals(3L, result.getMetrics().get("segmentsReused"));
+    }
+
+    @Test
+    void testConvertsLatestPointByDefault() throws Exception {
+        Path backup = createIncrementalBackup();
+
+        ConversionRequest request = new ConversionRequest();
+        request.setBackupDirectory(backup.toString());
+        request.setOutput(tempDir.resolve("latest.jsonl").toString());
+        request.validate();
+        ConversionResult result = new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+
+        assertEquals(750, result.getDocumentsProcessed());
+        assertEquals(2, result.getMetrics().get("backupPoint"));
+    }
+
+    @Test
+    void testOpensPointsOfARebuiltIndexSeparately() throws Exception {
+        Path backup = createIncrementalBackup();
+
+        // A fourth point of the collection rebuilt from scratch, whose _0 segment and
+        // segments_1 are other files than the ones the first points call by those names
+        Path rebuilt = tempDir.resolve("rebuilt");
+        try (FSDirectory directory = FSDirectory.open(rebuilt);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            addDocs(writer, 1000, 1100);
+        }
+        ObjectNode mapping = new ObjectMapper().createObjectNode();
+        try (FSDirectory directory = FSDirectory.open(rebuilt)) {
+            for (String fileName : DirectoryReader.listCommits(directory).get(0).getFileNames()) {
+                String uuid = UUID.randomUUID().toString();
+                Files.copy(rebuilt.resolve(fileName), backup.resolve("index").resolve(uuid));
+                mapping.putObject(uuid).put("fileName", fileName);
+            }
+        }
+        Files.writeString(backup.resolve(IncrementalBackup.SHARD_METADATA_DIRECTORY).resolve("md_shard1_3.json"),
+                          mapping.toString());
+        Files.writeString(backup.resolve("backup_3.properties"),
+                          "collection=products\nbackupName=daily\nshard1.md=md_shard1_3.json\n");
+
+        ConversionRequest request = new ConversionRequest();
+        request.setBackupDirectory(backup.toString());
+        request.setBackupPoint("all");
+        request.setOutput(tempDir.resolve("point-" + ConversionRequest.BACKUP_POINT_PLACEHOLDER + ".jsonl").toString());
+        ConversionResult result = new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+
+        assertEquals(300, Files.readAllLines(tempDir.resolve("point-0.jsonl")).size());
+        assertEquals(750, Files.readAllLines(tempDir.resolve("point-2.jsonl")).size());
+        List<String> lines = Files.readAllLines(tempDir.resolve("point-3.jsonl"));
+        assertEquals(100, lines.size());
+        assertTrue(lines.stream().allMatch(line -> line.contains("\"doc-10")), lines.get(0));
+        assertEquals(300L + 600 + 750 + 100, result.getDocumentsProcessed());
+    }
+
+    @Test
+    void testRequiresPlaceholderForSeveralPoints() {
+        ConversionRequest request = new ConversionRequest();
+        request.setBackupDirectory(tempDir.toString());
+        request.setBackupPoint("1,2");
+        request.setOutput(tempDir.resolve("out.jsonl").toString());
+        assertThrows(IllegalArgumentException.class, request::validate);
+    }
+}
@@ -0,0 +1,138 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexInspectorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static Path createIndex(Path indexPath) throws Exception {
+        try (FSDirectory directory = FSDirectory.open(indexPath);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < 100; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", "doc-" + i, Field.Store.YES));
+                doc.add(new IntPoint("rank", i));
+                doc.add(new NumericDocValuesField("rank", i));
+                writer.addDocument(doc);
+                if (i == 59) {
+                    writer.commit();
+                }
+            }
+            writer.commit();
+            for (int i = 0; i < 10; i++) {
+                writer.deleteDocuments(new Term("id", "doc-" + i));
+            }
+            writer.commit();
+        }
+        return indexPath;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testReportsSegmentsFieldsAndFiles() throws Exception {
+        Path index = createIndex(tempDir.resolve("index"));
+
+        Map<String, Object> report = new IndexInspector().inspectIndex(index);
+
+        Map<String, Object> totals = (Map<String, Object>) report.get("totals");
+        assertEquals(2L, totals.get("segments"));
+        assertEquals(100L, totals.get("maxDoc"));
+        assertEquals(90L, totals.get("liveDocs"));
+        assertEquals(0.1, (Double) totals.get("deletionRatio"), 1e-9);
+        Map<String, Long> bytes = (Map<String, Long>) totals.get("bytesByExtension");
+        assertTrue(bytes.containsKey("segments"));
+        assertTrue(bytes.containsKey("liv"));
+        long onDisk;
+        try (Stream<Path> files = Files.list(index)) {
+            onDisk = files.filter(f -> !f.getFileName().toString().equals("write.lock"))
+                .mapToLong(f -> f.toFile().length()).sum();
+        }
+        assertEquals(onDisk, totals.get("sizeBytes"));
+
+        Map<String, Object> shard = ((List<Map<String, Object>>) report.get("shards")).get(0);
+        Map<String, Object> first = ((List<Map<String, Object>>) shard.get("segments")).get(0);
+        assertEquals(60, first.get("maxDoc"));
+        assertEquals(50, first.get("liveDocs"));
+
+        Map<String, Object> fields = (Map<String, Object>) shard.get("fields");
+        Map<String, Object> id = (Map<String, Object>) fields.get("id");
+        assertEquals(true, id.get("indexed"));
+        assertEquals(100L, id.get("terms"));
+        assertEquals(false, id.get("points"));
+        Map<String, Object> rank = (Map<String, Object>) fields.get("rank");
+        assertEquals(false, rank.get("indexed"));
+        assertEquals("NUMERIC", rank.get("docValues"));
+        assertEquals(1, rank.get("pointDimensions"));
+        assertEquals(100L, rank.get("pointCount"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testInspectsBackupWithoutRestoring() throws Exception {
+        Path index = createIndex(tempDir.resolve("index"));
+
+        // Lay the index out as a Solr backup: UUID files plus a shard metadata mapping
+        Path backup = tempDir.resolve("backup");
+        Files.createDirectories(backup.resolve("index"));
+        ObjectNode mapping = new ObjectMapper().createObjectNode();
+        try (Stream<Path> files = Files.list(index)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.equals("write.lock")) {
+                    continue;
+                }
+                String uuid = UUID.randomUUID().toString();
+                Files.copy(file, backup.resolve("index").resolve(uuid));
+                mapping.putObject(uuid).put("fileName", name);
+            }
+        }
+        Files.writeString(backup.resolve("md_shard1_0.json"), mapping.toString());
+        Path properties = backup.resolve("backup.properties");
+        Files.writeString(properties, """
+            collection=products
+            backupName=nightly
+            shard1.md=md_shard1_0.json
+            """);
+
+        Map<String, Object> report = new IndexInspector().inspectBackup(properties, backup);
+
+        assertEquals("products", report.get("collection"));
+        Map<String, Object> totals = (Map<String, Object>) report.get("totals");
+        assertEquals(1, totals.get("shards"));
+        assertEquals(90L, totals.get("liveDocs"));
+        Map<String, Object> shard = ((List<Map<String, Object>>) report.get("shards")).get(0);
+        assertEquals("md_shard1_0.json", shard.get("shard"));
+        assertTrue(((Map<String, Object>) shard.get("fields")).containsKey("rank"));
+
+        // Nothing was restored next to the backup
+        try (Stream<Path> files = Files.list(backup)) {
+            assertEquals(3, files.count());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexPublisherTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private IndexReader indexReader;
+    
+    @AfterEach
+    void tearDown() throws Exception {
+        if (indexReader != null) {
+            indexReader.close();
+        }
+    }
+    
+    private IndexReader openIndex(int docCount, int docsPerSegment) throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), docCount, docsPerSegment);
+        indexReader = new IndexReader();
+        indexReader.initialize(index);
+        return indexReader;
+    }
+    
+    @Test
+    void testPublishesEveryDocumentInParallel() throws Exception {
+        openIndex(500, 70);
+        CollectingSubscriber<LuceneDocument> subscriber = new CollectingSubscriber<>(Long.MAX_VALUE);
+        
+        IndexPublisher.documents(indexReader, 4).subscribe(subscriber);
+        
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertNull(subscriber.error.get());
+        Set<Integer> docIds = new TreeSet<>();
+        subscriber.items.forEach(doc -> docIds.add(doc.getDocId()));
+        assertEquals(500, subscriber.items.size());
+        assertEquals(500, docIds.size());
+    }
+    
+    @Test
+    void testSkipsDeletedDocuments() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 50, 20);
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            writer.deleteDocuments(new Term("id", "doc-3"), new Term("id", "doc-42"));
+        }
+        indexReader = new IndexReader();
+        indexReader.initialize(index);
+        
+        CollectingSubscriber<LuceneDocument> subscriber = new CollectingSubscriber<>(Long.MAX_VALUE);
+        IndexPublisher.documents(indexReader, 2).subscribe(subscriber);
+        
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(48, subscriber.items.size());
+        assertTrue(subscriber.items.stream().noneMatch(doc -> "doc-3".equals(doc.getField("id"))));
+    }
+    
+    @Test
+    void testRespectsDemand() throws Exception {
+        openIndex(200, 50);
+        CollectingSubscriber<LuceneDocument> subscriber = new CollectingSubscriber<>(5);
+        
+        IndexPublisher.documents(indexReader, 4).subscribe(subscriber);
+        Thread.sleep(300);
+        
+        assertEquals(5, subscriber.items.size());
+        assertEquals(1, subscriber.completed.getCount());
+        
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertEquals(200, subscriber.items.size());
+    }
+    
+    @Test
+    void testCancellationStopsDelivery() throws Exception {
+        openIndex(300, 100);
+        CollectingSubscriber<LuceneDocument> subscriber = new CollectingSubscriber<>(10);
+        
+        IndexPublisher.documents(indexReader, 2).subscribe(subscriber);
+        Thread.sleep(200);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(100);
+        Thread.sleep(200);
+        
+        assertEquals(10, subscriber.items.size());
+        assertEquals(1, subscriber.completed.getCount());
+    }
+    
+    @Test
+    void testJsonLinesChunksContainCompleteRecords() throws Exception {
+        openIndex(250, 100);
+        CollectingSubscriber<JsonChunk> subscriber = new CollectingSubscriber<>(Long.MAX_VALUE);
+        
+        IndexPublisher.jsonLines(indexReader, 3, 40).subscribe(subscriber);
+        
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        int documents = 0;
+        int lines = 0;
+        for (JsonChunk chunk : subscriber.items) {
+            assertTrue(chunk.getDocumentCount() <= 40);
+            documents += chunk.getDocumentCount();
+            String text = StandardCharsets.UTF_8.decode(chunk.getBytes().duplicate()).toString();
+            assertTrue(text.endsWith("\n"));
+            lines += text.split("\n").length;
+        }
+        assertEquals(250, documents);
+        assertEquals(250, lines);
+    }
+    
+    @Test
+    void testRejectsSecondSubscriber() throws Exception {
+        openIndex(10, 10);
+        IndexPublisher<LuceneDocument> publisher = IndexPublisher.documents(indexReader, 1);
+        CollectingSubscriber<LuceneDocument> first = new CollectingSubscriber<>(Long.MAX_VALUE);
+        CollectingSubscriber<LuceneDocument> second = new CollectingSubscriber<>(Long.MAX_VALUE);
+        
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        
+        assertTrue(first.completed.await(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, second.error.get());
+    }
+    
+    private static class CollectingSubscriber<T> implements Flow.Subscriber<T> {
+        
+        private final long initialDemand;
+        private final List<T> items = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private volatile Flow.Subscription subscription;
+        
+        CollectingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialDemand);
+        }
+        
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+        }
+        
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+}
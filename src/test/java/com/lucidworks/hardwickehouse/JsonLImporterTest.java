@@ -0,0 +1,151 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonLImporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path createIndex(int docCount) throws IOException {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < docCount; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", "doc-" + i, Field.Store.YES));
+                doc.add(new StoredField("title", "Title \"" + i + "\"\n"));
+                doc.add(new StoredField("count", (long) i * 1_000_000_000L));
+                doc.add(new StoredField("rank", i % 100));
+                doc.add(new StoredField("ratio", i / 7.0f));
+                doc.add(new StoredField("score", i / 3.0));
+                doc.add(new StoredField("payload", new byte[] {(byte) i, (byte) (i >> 8), 0, -1}));
+                doc.add(new StoredField("tags", "tag-" + (i % 5)));
+                doc.add(new StoredField("tags", "tag-" + (i % 11)));
+                writer.addDocument(doc);
+            }
+        }
+        return index;
+    }
+
+    private Path export(Path index, String output, boolean stats) throws Exception {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(tempDir.resolve(output).toString());
+        request.setCompress(true);
+        request.setThreads(2);
+        request.setStats(stats);
+        new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+        return tempDir.resolve(output);
+    }
+
+    /**
+     * Records without {@code _docId}, which depends on where a document landed.
+     */
+    private static List<String> records(Path part) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> records = new ArrayList<>();
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(part))) {
+            for (String line : new String(input.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                ObjectNode record = (ObjectNode) mapper.readTree(line);
+                record.remove("_docId");
+                records.add(record.toString());
+            }
+        }
+        return records;
+    }
+
+    @Test
+    void testExportImportExportRoundTripsTypesAndShardsById() throws Exception {
+        Path index = createIndex(3000);
+        Path exported = export(index, "out.jsonl.gz", true);
+
+        Path statistics = JsonLImporter.findStatistics(List.of(exported));
+        assertEquals(tempDir.resolve("out.stats.json"), statistics);
+        JsonLSchema schema = JsonLImporter.readSchema(statistics);
+        assertEquals(FieldType.INTEGER, schema.getFieldType("rank"));
+        assertEquals(FieldType.BINARY, schema.getFieldType("payload"));
+
+        // Small blocks, so records are cut across many blocks and workers
+        JsonLImporter importer = new JsonLImporter(schema, BinaryEncoding.BASE64, "id", 3, 16 * 1024);
+        importer.setShards(2);
+        importer.setMaxSegments(1);
+        Map<String, Object> report = importer.importParts(List.of(exported), tempDir.resolve("restored"), new ProgressReporter(60));
+        assertEquals(3000L, report.get("documents"));
+
+        List<String> reexported = new ArrayList<>();
+        for (int shard = 1; shard <= 2; shard++) {
+            Path shardPath = tempDir.resolve("restored").resolve("shard" + shard);
+            try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(shardPath))) {
+                assertEquals(1, reader.leaves().size());
+                StoredFields storedFields = reader.storedFields();
+                for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                    String id = storedFields.document(doc).get("id");
+                    assertEquals(shard - 1, PartitionSpec.bucketOf(id, 2));
+                }
+                String someId = storedFields.document(0).get("id");
+                assertEquals(1, new IndexSearcher(reader).count(new TermQuery(new Term("id", someId))));
+            }
+            reexported.addAll(records(export(shardPath, "shard" + shard + ".jsonl.gz", false)));
+        }
+
+        List<String> original = records(exported);
+        assertEquals(original.stream().sorted().toList(), reexported.stream().sorted().toList());
+    }
+
+    @Test
+    void testRecordsThatCannotBeImportedFailTheImport() throws Exception {
+        Path input = tempDir.resolve("nested.jsonl");
+        Files.writeString(input, "{\"id\":\"a\",\"n\":1}\n{\"id\":\"b\",\"child\":{\"id\":\"c\"}}\n");
+        JsonLImporter importer = new JsonLImporter(null, BinaryEncoding.BASE64, "id", 2);
+
+        IOException e = assertThrows(IOException.class,
+                                     () -> importer.importParts(List.of(input), tempDir.resolve("nested"), new ProgressReporter(60)));
+        assertTrue(e.getMessage().contains("child"), e.getMessage());
+
+        // With one worker and small blocks, the reader is still filling the queue when the worker fails
+        Path malformed = tempDir.resolve("malformed.jsonl");
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            lines.append(i == 300 ? "{\"id\":\"broken\"\n" : "{\"id\":\"doc-" + i + "\"}\n");
+        }
+        Files.writeString(malformed, lines);
+        JsonLImporter singleThreaded = new JsonLImporter(null, BinaryEncoding.BASE64, "id", 1, 1024);
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(IOException.class,
+            () -> singleThreaded.importParts(List.of(malformed), tempDir.resolve("malformed"), new ProgressReporter(60))));
+
+        Files.createDirectories(tempDir.resolve("busy"));
+        Files.writeString(tempDir.resolve("busy").resolve("file"), "x");
+        assertThrows(IllegalArgumentException.class,
+                     () -> importer.importParts(List.of(input), tempDir.resolve("busy"), new ProgressReporter(60)));
+    }
+}
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 class JsonLSchemaTest {
     
@@ -51,6 +52,23 @@ class JsonLSchemaTest {
         assertTrue(schema.getFieldNames().contains("boolean_field"));
     }
     
+    @Test
+    void testFieldOrdinals() {
+        Map<String, FieldType> fieldTypes = new HashMap<>();
+        fieldTypes.put("title", FieldType.STRING);
+        fieldTypes.put("id", FieldType.STRING);
+        fieldTypes.put("tags", FieldType.STRING);
+        
+        JsonLSchema schema = new JsonLSchema(fieldTypes, Set.of("tags"));
+        
+        assertEquals(0, schema.getFieldOrdinal("id"));
+        assertEquals("tags", schema.getFieldName(1));
+        assertEquals(2, schema.getFieldOrdinal("title"));
+        assertEquals(-1, schema.getFieldOrdinal("missing"));
+        assertTrue(schema.isMultiValued("tags"));
+        assertFalse(schema.isMultiValued("id"));
+    }
+    
     @Test
     void testToString() {
         Map<String, FieldType> fieldTypes = new HashMap<>();
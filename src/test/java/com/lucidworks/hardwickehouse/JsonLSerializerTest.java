@@ -0,0 +1,73 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonLSerializerTest {
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    private String serialize(JsonLSerializer serializer, LuceneDocument document) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JsonLSerializer.createGenerator(out)) {
+            serializer.writeDocument(generator, document);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+    
+    @Test
+    void testWritesOneLinePerDocument() throws Exception {
+        LuceneDocument doc = new LuceneDocument(7);
+        doc.addField("title", "Hello \"world\"");
+        doc.addField("count", 42L);
+        doc.addField("score", 1.5f);
+        
+        String line = serialize(new JsonLSerializer(), doc);
+        
+        assertTrue(line.endsWith("}\n"));
+        JsonNode json = objectMapper.readTree(line);
+        assertEquals("Hello \"world\"", json.get("title").asText());
+        assertEquals(42L, json.get("count").asLong());
+        assertEquals(1.5, json.get("score").asDouble());
+        assertEquals(7, json.get("_docId").asInt());
+    }
+    
+    @Test
+    void testBinarySliceIsEncodedWithoutSurroundingBytes() throws Exception {
+        byte[] backing = {9, 9, 1, 2, (byte) 0xFF, 9};
+        LuceneDocument doc = new LuceneDocument(1);
+        doc.addField("payload", new BytesRef(backing, 2, 3));
+        
+        JsonNode json = objectMapper.readTree(serialize(new JsonLSerializer(), doc));
+        
+        assertArrayEquals(new byte[] {1, 2, (byte) 0xFF},
+                          Base64.getDecoder().decode(json.get("payload").asText()));
+    }
+    
+    @Test
+    void testHexEncoding() throws Exception {
+        byte[] backing = new byte[10_000];
+        for (int i = 0; i < backing.length; i++) {
+            backing[i] = (byte) i;
+        }
+        LuceneDocument doc = new LuceneDocument(1);
+        doc.addField("small", new BytesRef(new byte[] {0, 1, 2, (byte) 0xAB}, 1, 3));
+        doc.addField("large", new BytesRef(backing, 5, 9_000));
+        
+        JsonNode json = objectMapper.readTree(serialize(new JsonLSerializer(BinaryEncoding.HEX), doc));
+        
+        assertEquals("0102ab", json.get("small").asText());
+        String large = json.get("large").asText();
+        assertEquals(18_000, large.length());
+        assertTrue(large.startsWith("05060708"));
+    }
+}
@@ -0,0 +1,135 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private LocalCache.Populator writing(AtomicInteger builds, int bytes) {
+        return target -> {
+            builds.incrementAndGet();
+            Files.write(target, new byte[bytes]);
+        };
+    }
+
+    @Test
+    void testPopulatesOncePerKey() throws Exception {
+        AtomicInteger builds = new AtomicInteger();
+        String key = LocalCache.key("gcs", "bucket", "object", "7", "crc");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Two caches over one directory stand in for two processes
+            LocalCache first = new LocalCache(tempDir.resolve("cache"), 1 << 20);
+            LocalCache second = new LocalCache(tempDir.resolve("cache"), 1 << 20);
+            List<Future<LocalCache.Lease>> leases = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                LocalCache cache = i % 2 == 0 ? first : second;
+                leases.add(executor.submit(() -> cache.get(key, writing(builds, 100))));
+            }
+            Path path = null;
+            for (Future<LocalCache.Lease> future : leases) {
+                try (LocalCache.Lease lease = future.get()) {
+                    path = path == null ? lease.getPath() : path;
+                    assertEquals(path, lease.getPath());
+                    assertEquals(100, Files.size(lease.getPath()));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, builds.get());
+
+        // A new instance, as in a later run, reuses the entry
+        try (LocalCache.Lease lease = new LocalCache(tempDir.resolve("cache"), 1 << 20).get(key, writing(builds, 100))) {
+            assertTrue(Files.exists(lease.getPath()));
+        }
+        assertEquals(1, builds.get());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedEntriesNotInUse() throws Exception {
+        LocalCache cache = new LocalCache(tempDir.resolve("cache"), 250);
+        AtomicInteger builds = new AtomicInteger();
+
+        LocalCache.Lease held = cache.get("a", writing(builds, 100));
+        Files.setLastModifiedTime(tempDir.resolve("cache/entries/a"), FileTime.fromMillis(1000));
+        cache.get("b", writing(builds, 100)).close();
+        Files.setLastModifiedTime(tempDir.resolve("cache/entries/b"), FileTime.fromMillis(2000));
+
+        // Over budget: "a" is oldest but held, so "b" goes
+        cache.get("c", writing(builds, 100)).close();
+        assertTrue(Files.exists(tempDir.resolve("cache/entries/a")));
+        assertFalse(Files.exists(tempDir.resolve("cache/entries/b")));
+        assertTrue(Files.exists(tempDir.resolve("cache/entries/c")));
+        held.close();
+
+        Files.setLastModifiedTime(tempDir.resolve("cache/entries/c"), FileTime.fromMillis(3000));
+        cache.get("d", writing(builds, 100)).close();
+        assertFalse(Files.exists(tempDir.resolve("cache/entries/a")));
+        assertTrue(Files.exists(tempDir.resolve("cache/entries/c")));
+        assertEquals(4, builds.get());
+    }
+
+    @Test
+    void testRestoredShardIsReusedAcrossRuns() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 300, 100);
+
+        Path backup = tempDir.resolve("backup");
+        Files.createDirectories(backup.resolve("index"));
+        ObjectNode mapping = new ObjectMapper().createObjectNode();
+        try (Stream<Path> files = Files.list(index)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.equals("write.lock")) {
+                    continue;
+                }
+                String uuid = UUID.randomUUID().toString();
+                Files.copy(file, backup.resolve("index").resolve(uuid));
+                mapping.putObject(uuid).put("fileName", name);
+            }
+        }
+        Files.writeString(backup.resolve("md_shard1_0.json"), mapping.toString());
+
+        Path restored;
+        BackupReader reader = new BackupReader(new LocalCache(tempDir.resolve("cache"), 1L << 30));
+        try (LocalCache.Lease lease = reader.restoreShard(backup, "md_shard1_0.json")) {
+            restored = lease.getPath();
+            try (Stream<Path> files = Files.list(restored)) {
+                assertEquals(mapping.size(), files.count());
+            }
+        }
+        FileTime built = Files.getLastModifiedTime(restored);
+
+        BackupReader later = new BackupReader(new LocalCache(tempDir.resolve("cache"), 1L << 30));
+        try (LocalCache.Lease lease = later.restoreShard(backup, "md_shard1_0.json")) {
+            assertEquals(restored, lease.getPath());
+            assertEquals(built, Files.getLastModifiedTime(restored));
+        }
+
+        // Without a cache the temporary restore is removed when the lease closes
+        LocalCache.Lease temporary = new BackupReader().restoreShard(backup, "md_shard1_0.json");
+        assertTrue(Files.isDirectory(temporary.getPath()));
+        temporary.close();
+        assertFalse(Files.exists(temporary.getPath()));
+    }
+}
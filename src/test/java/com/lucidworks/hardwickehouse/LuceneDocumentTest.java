@@ -3,6 +3,8 @@ package com.lucidworks.hardwickehouse;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.List;
+
 class LuceneDocumentTest {
     
     @Test
@@ -25,6 +27,17 @@ class LuceneDocumentTest {
         assertEquals(3, doc.getFields().size());
     }
     
+    @Test
+    void testRepeatedFieldBecomesMultiValued() {
+        LuceneDocument doc = new LuceneDocument(1);
+        doc.addField("tags", "red");
+        doc.addField("tags", "blue");
+        doc.addField("tags", "green");
+        
+        assertEquals(List.of("red", "blue", "green"), doc.getField("tags"));
+        assertEquals(1, doc.getFields().size());
+    }
+    
     @Test
     void testHasField() {
         LuceneDocument doc = new LuceneDocument(1);
@@ -0,0 +1,158 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NestedBlocksTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static Document doc(String id, String... fields) {
+        Document doc = new Document();
+        doc.add(new StringField("id", id, Field.Store.YES));
+        for (int i = 0; i < fields.length; i += 2) {
+            doc.add(new StringField(fields[i], fields[i + 1], Field.Store.YES));
+        }
+        return doc;
+    }
+
+    private List<JsonNode> convert(Path index, String parentFilter) throws Exception {
+        Path output = tempDir.resolve("nested.jsonl");
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(output.toString());
+        request.setNested(true);
+        request.setParentFilter(parentFilter);
+        request.setThreads(2);
+
+        ConversionResult result = new ConversionService(new StorageService(null))
+            .convert(request, new ProgressReporter(60));
+
+        List<JsonNode> records = new ArrayList<>();
+        for (String line : Files.readAllLines(output)) {
+            records.add(mapper.readTree(line));
+        }
+        assertEquals(result.getDocumentsProcessed(), records.size());
+        records.sort((a, b) -> a.get("id").asText().compareTo(b.get("id").asText()));
+        return records;
+    }
+
+    @Test
+    void testNestsChildrenByPath() throws Exception {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            writer.addDocuments(List.of(
+                doc("r1", "_nest_path_", "/comments#0/replies#0"),
+                doc("c1", "_nest_path_", "/comments#0"),
+                doc("c2", "_nest_path_", "/comments#1"),
+                doc("a1", "_nest_path_", "/author#0"),
+                doc("p1")));
+            writer.addDocument(doc("p2"));
+        }
+
+        List<JsonNode> records = convert(index, null);
+
+        assertEquals(2, records.size());
+        JsonNode p1 = records.get(0);
+        assertEquals("p1", p1.get("id").asText());
+        assertEquals(2, p1.get("comments").size());
+        assertEquals("c1", p1.get("comments").get(0).get("id").asText());
+        assertEquals("r1", p1.get("comments").get(0).get("replies").get(0).get("id").asText());
+        assertEquals("c2", p1.get("comments").get(1).get("id").asText());
+        assertFalse(p1.get("comments").get(1).has("replies"));
+        assertEquals("a1", p1.get("author").get(0).get("id").asText());
+
+        assertEquals("p2", records.get(1).get("id").asText());
+        assertFalse(records.get(1).has("comments"));
+    }
+
+    @Test
+    void testParentFilterWithoutPaths() throws Exception {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int block = 0; block < 50; block++) {
+                writer.addDocuments(List.of(
+                    doc("b" + block + "-child0"),
+                    doc("b" + block + "-child1"),
+                    doc("b" + block, "content_type", "parent")));
+            }
+            // Trailing documents without a parent
+            writer.addDocument(doc("orphan"));
+        }
+
+        List<JsonNode> records = convert(index, "content_type:parent");
+
+        assertEquals(51, records.size());
+        JsonNode first = records.get(0);
+        assertEquals("b0", first.get("id").asText());
+        assertEquals(2, first.get(NestedBlocks.CHILD_DOCUMENTS).size());
+        assertEquals("b0-child1", first.get(NestedBlocks.CHILD_DOCUMENTS).get(1).get("id").asText());
+        assertEquals("orphan", records.get(50).get("id").asText());
+    }
+
+    @Test
+    void testRangesEndAfterParents() throws Exception {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int block = 0; block < 20; block++) {
+                List<Document> docs = new ArrayList<>();
+                for (int child = 0; child < block % 4; child++) {
+                    docs.add(doc("c" + block + "-" + child, "_nest_path_", "/items#" + child));
+                }
+                docs.add(doc("p" + block));
+                writer.addDocuments(docs);
+            }
+        }
+
+        IndexReader indexReader = new IndexReader();
+        try {
+            indexReader.initialize(index);
+            NestedBlocks blocks = new NestedBlocks(indexReader, null);
+            assertEquals(20, blocks.countRecords());
+
+            List<DocRange> ranges = blocks.getDocRanges(5);
+            assertTrue(ranges.size() > 1);
+            for (DocRange range : ranges) {
+                String lastId = range.getLeaf().reader().storedFields().document(range.getToDoc() - 1).get("id");
+                assertTrue(lastId.startsWith("p"), "range " + range + " ends inside a block");
+            }
+        } finally {
+            indexReader.close();
+        }
+    }
+
+    @Test
+    void testRejectsMalformedParentFilter() {
+        assertThrows(IllegalArgumentException.class, () -> NestedBlocks.parseParentFilter("content_type"));
+        assertThrows(IllegalArgumentException.class, () -> NestedBlocks.parseParentFilter("-:x"));
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource("/data/index");
+        request.setOutput("/data/out.parquet");
+        request.setFormat(OutputFormat.PARQUET);
+        request.setNested(true);
+        assertThrows(IllegalArgumentException.class, request::validate);
+    }
+}
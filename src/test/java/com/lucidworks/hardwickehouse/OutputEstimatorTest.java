@@ -0,0 +1,79 @@
+package com.lucidworks.hardwickehouse;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutputEstimatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ProgressReporter progressReporter = new ProgressReporter(60);
+
+    private ConversionRequest request(Path index, Path output, boolean compress) {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(output != null ? output.toString() : null);
+        request.setCompress(compress);
+        request.setThreads(2);
+        return request;
+    }
+
+    private void assertClose(long expected, Object actual, double tolerance) {
+        long estimate = ((Number) actual).longValue();
+        assertTrue(Math.abs(estimate - expected) <= expected * tolerance,
+                   "estimate " + estimate + " is not within " + tolerance + " of " + expected);
+    }
+
+    @Test
+    void testEstimatesMatchRealOutput() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 30000, 7000);
+        ConversionService service = new ConversionService(new StorageService(null));
+
+        for (boolean compress : new boolean[] {false, true}) {
+            Path output = tempDir.resolve(compress ? "out.jsonl.gz" : "out.jsonl");
+            service.convert(request(index, output, compress), progressReporter);
+
+            ConversionRequest dryRun = request(index, null, compress);
+            dryRun.setDryRun(true);
+            ConversionResult result = service.convert(dryRun, progressReporter);
+
+            assertEquals(0, result.getDocumentsProcessed());
+            assertEquals(30000L, result.getMetrics().get("estimatedDocuments"));
+            long sampled = (Long) result.getMetrics().get("estimateSampleDocuments");
+            assertTrue(sampled > OutputEstimator.DEFAULT_SAMPLE_SIZE / 2 && sampled < 30000, "sampled " + sampled);
+            assertClose(Files.size(output), result.getMetrics().get("estimatedOutputBytes"), compress ? 0.25 : 0.05);
+            assertTrue((Double) result.getMetrics().get("estimatedSeconds") >= 0);
+        }
+    }
+
+    @Test
+    void testDryRunWritesNothing() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 500, 100);
+        Path output = tempDir.resolve("out.jsonl");
+
+        ConversionRequest request = request(index, output, false);
+        request.setDryRun(true);
+        request.setSampleCount(200L);
+        ConversionResult result = new ConversionService(new StorageService(null)).convert(request, progressReporter);
+
+        assertFalse(Files.exists(output));
+        assertEquals(200L, result.getMetrics().get("estimatedDocuments"));
+        assertEquals(200L, result.getMetrics().get("estimateSampleDocuments"));
+    }
+
+    @Test
+    void testDryRunRejectsOtherFormats() {
+        ConversionRequest request = request(tempDir, null, false);
+        request.setDryRun(true);
+        request.validate();
+
+        request.setFormat(OutputFormat.PARQUET);
+        assertThrows(IllegalArgumentException.class, request::validate);
+    }
+}
@@ -0,0 +1,143 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutputVerifierTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private ConversionResult convert(Path index, Path output, boolean compress, boolean verify) throws Exception {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(output.toString());
+        request.setCompress(compress);
+        request.setVerify(verify);
+        request.setThreads(3);
+        return new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+    }
+
+    private OutputVerifier.Result verify(Path index, long splitBytes, Path... parts) throws Exception {
+        IndexReader indexReader = new IndexReader();
+        try {
+            indexReader.initialize(index);
+            return new OutputVerifier(indexReader, new JsonLSerializer(), 3, splitBytes).verify(List.of(parts));
+        } finally {
+            indexReader.close();
+        }
+    }
+
+    /**
+     * Rewrites a record with its fields in reverse order.
+     */
+    private String reverseFields(String line) throws Exception {
+        ObjectNode record = (ObjectNode) mapper.readTree(line);
+        List<String> names = new ArrayList<>();
+        record.fieldNames().forEachRemaining(names::add);
+        Collections.reverse(names);
+        ObjectNode reversed = mapper.createObjectNode();
+        for (String name : names) {
+            reversed.set(name, record.get(name));
+        }
+        return mapper.writeValueAsString(reversed);
+    }
+
+    @Test
+    void testInlineVerificationOfGzippedOutput() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 3000, 700);
+
+        ConversionResult result = convert(index, tempDir.resolve("out.jsonl.gz"), true, true);
+
+        assertEquals(true, result.getMetrics().get("verified"));
+        assertEquals(3000L, result.getMetrics().get("verifiedDocuments"));
+    }
+
+    @Test
+    void testIgnoresRecordAndFieldOrderAcrossParts() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 2000, 500);
+        Path output = tempDir.resolve("out.jsonl");
+        convert(index, output, false, false);
+
+        List<String> lines = new ArrayList<>(Files.readAllLines(output));
+        Collections.shuffle(lines, new Random(3));
+        lines.set(0, reverseFields(lines.get(0)));
+        Path first = Files.write(tempDir.resolve("part-0.jsonl"), lines.subList(0, 1200));
+        Path second = Files.write(tempDir.resolve("part-1.jsonl"), lines.subList(1200, lines.size()));
+
+        // Small splits put split points in the middle of records
+        OutputVerifier.Result result = verify(index, 997, first, second);
+
+        assertTrue(result.matches(), result.describe().toString());
+        assertEquals(2000, result.getIndexDocuments());
+        assertEquals(2000, result.getOutputDocuments());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPinpointsDivergingLeafAndPart() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 2000, 500);
+        Path output = tempDir.resolve("out.jsonl");
+        convert(index, output, false, false);
+
+        // Records in docId order, so leaf 2 (docs 1000-1499) lies wholly in the second part
+        String[] lines = new String[2000];
+        for (String line : Files.readAllLines(output)) {
+            Map<String, Object> record = mapper.readValue(line, Map.class);
+            int docId = (Integer) record.get("_docId");
+            if (docId == 1234) {
+                record.put("title", "Changed");
+                line = mapper.writeValueAsString(record);
+            }
+            lines[docId] = line;
+        }
+        Path good = Files.write(tempDir.resolve("part-0.jsonl"), List.of(lines).subList(0, 1000));
+        List<String> rest = new ArrayList<>(List.of(lines).subList(1000, lines.length));
+        rest.add("{not json");
+        Path bad = Files.write(tempDir.resolve("part-1.jsonl"), rest);
+
+        OutputVerifier.Result result = verify(index, OutputVerifier.DEFAULT_SPLIT_BYTES, good, bad);
+
+        assertFalse(result.matches());
+        assertEquals(1, result.getMismatchedLeaves().size());
+        Map<String, Object> leaf = result.getMismatchedLeaves().get(0);
+        assertEquals(2, leaf.get("leaf"));
+        assertEquals(500L, leaf.get("outputDocuments"));
+        assertNotNull(leaf.get("segment"));
+        assertTrue(((List<String>) leaf.get("parts")).contains(bad.toString()));
+
+        assertEquals(1, result.getProblemParts().size());
+        assertEquals(bad.toString(), result.getProblemParts().get(0).get("part"));
+        assertEquals(1L, result.getProblemParts().get(0).get("malformedRecords"));
+    }
+
+    @Test
+    void testReportsMissingRecords() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 1000, 400);
+        Path output = tempDir.resolve("out.jsonl");
+        convert(index, output, false, false);
+
+        List<String> lines = Files.readAllLines(output);
+        Path truncated = Files.write(tempDir.resolve("truncated.jsonl"), lines.subList(0, lines.size() - 1));
+
+        OutputVerifier.Result result = verify(index, OutputVerifier.DEFAULT_SPLIT_BYTES, truncated);
+
+        assertFalse(result.matches());
+        assertEquals(999, result.getOutputDocuments());
+        assertEquals(1, result.getMismatchedLeaves().size());
+    }
+}
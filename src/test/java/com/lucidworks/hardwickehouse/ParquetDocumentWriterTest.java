@@ -0,0 +1,138 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.LocalInputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParquetDocumentWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private JsonLSchema createSchema() {
+        Map<String, FieldType> fieldTypes = new HashMap<>();
+        fieldTypes.put("id", FieldType.STRING);
+        fieldTypes.put("count", FieldType.LONG);
+        fieldTypes.put("score", FieldType.FLOAT);
+        fieldTypes.put("tags", FieldType.STRING);
+        fieldTypes.put("payload", FieldType.BINARY);
+        return new JsonLSchema(fieldTypes, Set.of("tags"));
+    }
+
+    @Test
+    void testMapsSchemaToParquetColumns() {
+        MessageType messageType = ParquetDocumentWriter.toMessageType(createSchema());
+
+        assertEquals(6, messageType.getFieldCount());
+        assertEquals(PrimitiveTypeName.INT64, messageType.getType("count").asPrimitiveType().getPrimitiveTypeName());
+        assertEquals(PrimitiveTypeName.FLOAT, messageType.getType("score").asPrimitiveType().getPrimitiveTypeName());
+        assertEquals(Type.Repetition.REPEATED, messageType.getType("tags").getRepetition());
+        assertEquals(Type.Repetition.OPTIONAL, messageType.getType("id").getRepetition());
+        assertEquals(Type.Repetition.REQUIRED, messageType.getType("_docId").getRepetition());
+    }
+
+    @Test
+    void testWritesDocumentsWithRepeatedAndMismatchedValues() throws Exception {
+        Path output = tempDir.resolve("out/docs.parquet");
+        ParquetDocumentWriter writer = new ParquetDocumentWriter(BinaryEncoding.BASE64, ParquetCodec.ZSTD, 1024 * 1024);
+        writer.initialize(output.toString(), createSchema());
+
+        LuceneDocument first = new LuceneDocument(7);
+        first.addField("id", "a");
+        first.addField("count", 3L);
+        first.addField("score", 0.5f);
+        first.addField("tags", "red");
+        first.addField("tags", "blue");
+        first.addField("payload", new BytesRef(new byte[] {9, 1, 2, 9}, 1, 2));
+        writer.write(first);
+
+        LuceneDocument second = new LuceneDocument(8);
+        second.addField("id", 42);
+        second.addField("count", "not a number");
+        second.addField("unknown", "dropped");
+        writer.write(second);
+
+        writer.close();
+        assertEquals(2, writer.getDocumentsWritten());
+
+        try (ParquetFileReader fileReader = ParquetFileReader.open(new LocalInputFile(output))) {
+            assertEquals(2, fileReader.getRecordCount());
+            assertEquals(CompressionCodecName.ZSTD,
+                         fileReader.getFooter().getBlocks().get(0).getColumns().get(0).getCodec());
+        }
+
+        List<Group> rows = new ArrayList<>();
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(),
+                new org.apache.hadoop.fs.Path(output.toUri())).build()) {
+            for (Group row = reader.read(); row != null; row = reader.read()) {
+                rows.add(row);
+            }
+        }
+
+        assertEquals(2, rows.size());
+        Group row = rows.get(0);
+        assertEquals("a", row.getString("id", 0));
+        assertEquals(3L, row.getLong("count", 0));
+        assertEquals(0.5f, row.getFloat("score", 0));
+        assertEquals(2, row.getFieldRepetitionCount("tags"));
+        assertEquals("blue", row.getString("tags", 1));
+        assertArrayEquals(new byte[] {1, 2}, row.getBinary("payload", 0).getBytes());
+        assertEquals(7L, row.getLong("_docId", 0));
+
+        row = rows.get(1);
+        assertEquals("42", row.getString("id", 0));
+        assertEquals(0, row.getFieldRepetitionCount("count"));
+        assertEquals(8L, row.getLong("_docId", 0));
+    }
+
+    @Test
+    void testConvertsIndexToParquet() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 250, 100);
+        Path output = tempDir.resolve("docs.parquet");
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(output.toString());
+        request.setFormat(OutputFormat.PARQUET);
+        request.setBatchSize(50);
+        request.setThreads(2);
+
+        ConversionResult result = new ConversionService(new StorageService(null))
+            .convert(request, new ProgressReporter(60));
+
+        assertEquals(250, result.getDocumentsProcessed());
+        try (ParquetFileReader fileReader = ParquetFileReader.open(new LocalInputFile(output))) {
+            assertEquals(250, fileReader.getRecordCount());
+            assertNotNull(fileReader.getFileMetaData().getSchema().getType("title"));
+        }
+    }
+
+    @Test
+    void testRejectsCompressWithParquet() {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource("index");
+        request.setOutput("docs.parquet");
+        request.setFormat(OutputFormat.PARQUET);
+        request.setCompress(true);
+
+        assertThrows(IllegalArgumentException.class, request::validate);
+    }
+}
@@ -0,0 +1,155 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionedExportTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final long DAY_START = Instant.parse("2024-03-01T00:00:00Z").toEpochMilli();
+
+    /**
+     * Documents spread over three days by a millisecond timestamp; every tenth has none.
+     */
+    private Path createIndex(int docCount) throws Exception {
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < docCount; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", "doc-" + i, Field.Store.YES));
+                if (i % 10 != 0) {
+                    doc.add(new StoredField("timestamp", DAY_START + (i % 3) * 86_400_000L + i));
+                }
+                writer.addDocument(doc);
+                if ((i + 1) % 700 == 0) {
+                    writer.commit();
+                }
+            }
+        }
+        return index;
+    }
+
+    private static List<String> readLines(Path file) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                file.toString().endsWith(".gz") ? new GZIPInputStream(Files.newInputStream(file)) : Files.newInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    void testParsesSpecsAndNamesPartitions() {
+        PartitionSpec day = PartitionSpec.parse("date(timestamp, day)");
+        assertEquals("dt=2024-03-01", day.directory(Instant.parse("2024-03-01T00:00:00Z").toEpochMilli() / 86_400_000L));
+        assertEquals("dt=" + PartitionSpec.DEFAULT_PARTITION, day.directory(PartitionSpec.MISSING));
+        assertEquals("dt=2024-03", PartitionSpec.parse("date(ts,month)").directory(2024 * 12L + 2));
+        assertEquals("dt=2024-03-01/hr=05",
+                     PartitionSpec.parse("date(ts,hour)").directory(Instant.parse("2024-03-01T05:00:00Z").toEpochMilli() / 3_600_000L));
+
+        PartitionSpec hash = PartitionSpec.parse("hash(id,16)");
+        assertEquals("bucket=07", hash.directory(7));
+        assertEquals(hash.bucketOf("doc-42"), hash.bucketOf("doc-42"));
+
+        assertThrows(IllegalArgumentException.class, () -> PartitionSpec.parse("date(ts,week)"));
+        assertThrows(IllegalArgumentException.class, () -> PartitionSpec.parse("hash(id,0)"));
+        assertThrows(IllegalArgumentException.class, () -> PartitionSpec.parse("range(id)"));
+    }
+
+    @Test
+    void testPartitionsByDateWithEvictedWritersReopened() throws Exception {
+        Path index = createIndex(3000);
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(tempDir.resolve("out").toString());
+        request.setPartitionBy("date(timestamp,day)");
+        request.setCompress(true);
+        request.setThreads(3);
+        request.setBatchSize(100);
+        // Fewer open files than partitions, so writers are closed and reopened for appending
+        request.setMaxOpenPartitions(2);
+        request.setVerify(true);
+        request.validate();
+        ConversionResult result = new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+
+        assertEquals(3000, result.getDocumentsProcessed());
+        assertEquals(4, result.getMetrics().get("partitions"));
+        assertTrue((Long) result.getMetrics().get("partitionReopens") > 0);
+        assertEquals(true, result.getMetrics().get("verified"));
+
+        Path out = tempDir.resolve("out");
+        assertEquals(300, readLines(out.resolve("dt=" + PartitionSpec.DEFAULT_PARTITION + "/part-00000.jsonl.gz")).size());
+        ObjectMapper mapper = new ObjectMapper();
+        for (String day : List.of("2024-03-01", "2024-03-02", "2024-03-03")) {
+            List<String> lines = readLines(out.resolve("dt=" + day + "/part-00000.jsonl.gz"));
+            assertEquals(900, lines.size(), day);
+            for (String line : lines) {
+                long timestamp = mapper.readTree(line).get("timestamp").asLong();
+                assertEquals(day, Instant.ofEpochMilli(timestamp).toString().substring(0, 10));
+            }
+        }
+        assertTrue(Files.exists(out.resolve("_stats.json")));
+    }
+
+    @Test
+    void testPartitionsByHashBucket() throws Exception {
+        Path index = createIndex(2000);
+        PartitionSpec spec = PartitionSpec.parse("hash(id,4)");
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(tempDir.resolve("buckets").toString());
+        request.setPartitionBy(spec.toString());
+        request.setThreads(2);
+        new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(tempDir.resolve("buckets"))) {
+            files = walk.filter(file -> file.toString().endsWith(".jsonl")).sorted().toList();
+        }
+        assertEquals(4, files.size());
+
+        ObjectMapper mapper = new ObjectMapper();
+        int total = 0;
+        for (Path file : files) {
+            String bucket = file.getParent().getFileName().toString();
+            for (String line : readLines(file)) {
+                JsonNode record = mapper.readTree(line);
+                assertEquals(spec.directory(spec.bucketOf(record.get("id").asText())), bucket);
+                total++;
+            }
+        }
+        assertEquals(2000, total);
+    }
+}
@@ -0,0 +1,153 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentOutputCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ConversionRequest request(Path index, String output, boolean segmentCache) {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(tempDir.resolve(output).toString());
+        request.setCompress(true);
+        request.setThreads(2);
+        request.setBatchSize(100);
+        request.setSegmentCache(segmentCache);
+        request.setVerify(segmentCache);
+        return request;
+    }
+
+    private static List<String> readLines(Path file) throws IOException {
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8).lines().sorted().toList();
+        }
+    }
+
+    @Test
+    void testUnchangedSegmentsAreCopiedFromTheCache() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 3000, 1000);
+        LocalCache cache = new LocalCache(tempDir.resolve("cache"), 1024L * 1024 * 1024);
+        ConversionService service = new ConversionService(new StorageService((String) null, cache));
+
+        ConversionResult first = service.convert(request(index, "first.jsonl.gz", true), new ProgressReporter(60));
+        assertEquals(3000, first.getDocumentsProcessed());
+        assertEquals(0, first.getMetrics().get("segmentsReused"));
+        assertEquals(3, first.getMetrics().get("segmentsConverted"));
+
+        // A delete in the second segment and a new fourth segment; the first and third are unchanged
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            writer.deleteDocuments(new Term("id", "doc-1500"));
+            for (int i = 3000; i < 3200; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", "doc-" + i, Field.Store.YES));
+                doc.add(new StoredField("title", "Title " + i));
+                doc.add(new StoredField("count", (long) i));
+                writer.addDocument(doc);
+            }
+        }
+
+        // Cached segments are not read again, so there are no statistics to write
+        assertFalse(Files.exists(tempDir.resolve("first.stats.json")));
+        ConversionRequest withStats = request(index, "stats.jsonl.gz", true);
+        withStats.setStats(true);
+        assertThrows(IllegalArgumentException.class, withStats::validate);
+
+        ConversionResult second = service.convert(request(index, "second.jsonl.gz", true), new ProgressReporter(60));
+        assertEquals(3199, second.getDocumentsProcessed());
+        assertEquals(2, second.getMetrics().get("segmentsReused"));
+        assertEquals(2, second.getMetrics().get("segmentsConverted"));
+        assertEquals(true, second.getMetrics().get("verified"));
+        assertTrue((Long) second.getMetrics().get("segmentBytesReused") > 0);
+
+        // The concatenated gzip members hold the records a conversion without the cache writes
+        service.convert(request(index, "plain.jsonl.gz", false), new ProgressReporter(60));
+        List<String> cached = readLines(tempDir.resolve("second.jsonl.gz"));
+        assertEquals(readLines(tempDir.resolve("plain.jsonl.gz")), cached);
+        assertEquals(3199, cached.size());
+        assertTrue(cached.stream().noneMatch(line -> line.contains("\"doc-1500\"")));
+
+        ConversionRequest noCache = request(index, "out.jsonl.gz", true);
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ConversionService(new StorageService(null)).convert(noCache, new ProgressReporter(60)));
+        noCache.setSortBy("count");
+        assertThrows(IllegalArgumentException.class, noCache::validate);
+    }
+
+    @Test
+    void testMergesOnlyInvalidateSegmentsWhoseDocBaseMoves() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 4000, 1000);
+        LocalCache cache = new LocalCache(tempDir.resolve("cache"), 1024L * 1024 * 1024);
+        ConversionService service = new ConversionService(new StorageService((String) null, cache));
+        service.convert(request(index, "first.jsonl.gz", true), new ProgressReporter(60));
+
+        // A new segment with a field the others lack changes the inferred schema, not their records
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 4000; i < 4100; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", "doc-" + i, Field.Store.YES));
+                doc.add(new StoredField("title", "Title " + i));
+                doc.add(new StoredField("category", "Category " + i % 7));
+                writer.addDocument(doc);
+            }
+        }
+        ConversionResult added = service.convert(request(index, "added.jsonl.gz", true), new ProgressReporter(60));
+        assertEquals(4, added.getMetrics().get("segmentsReused"));
+        assertEquals(1, added.getMetrics().get("segmentsConverted"));
+
+        // Reclaiming deletes in the fourth segment rewrites it in place; the earlier ones keep their doc base
+        mergeAfterDeleting(index, 3000, 3300);
+        ConversionResult merged = service.convert(request(index, "merged.jsonl.gz", true), new ProgressReporter(60));
+        assertEquals(3800, merged.getDocumentsProcessed());
+        assertEquals(3, merged.getMetrics().get("segmentsReused"));
+        assertEquals(2, merged.getMetrics().get("segmentsConverted"));
+        assertEquals(true, merged.getMetrics().get("verified"));
+
+        // Reclaiming deletes in the first segment shifts the doc base of every later one
+        mergeAfterDeleting(index, 0, 300);
+        ConversionResult shifted = service.convert(request(index, "shifted.jsonl.gz", true), new ProgressReporter(60));
+        assertEquals(3500, shifted.getDocumentsProcessed());
+        assertEquals(0, shifted.getMetrics().get("segmentsReused"));
+        assertEquals(5, shifted.getMetrics().get("segmentsConverted"));
+        assertEquals(true, shifted.getMetrics().get("verified"));
+
+        service.convert(request(index, "plain.jsonl.gz", false), new ProgressReporter(60));
+        assertEquals(readLines(tempDir.resolve("plain.jsonl.gz")), readLines(tempDir.resolve("shifted.jsonl.gz")));
+    }
+
+    private static void mergeAfterDeleting(Path index, int from, int to) throws IOException {
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = from; i < to; i++) {
+                writer.deleteDocuments(new Term("id", "doc-" + i));
+            }
+            writer.forceMergeDeletes();
+        }
+    }
+}
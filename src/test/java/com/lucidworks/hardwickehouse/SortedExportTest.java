@@ -0,0 +1,271 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortedExportTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Documents with a numeric {@code rank} and a string {@code name}, both stored and with
+     * doc values; every tenth document has neither.
+     */
+    private Path createShard(Path path, int docCount, long seed, Sort indexSort) throws IOException {
+        Random random = new Random(seed);
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer())
+            .setMergePolicy(NoMergePolicy.INSTANCE)
+            .setMaxBufferedDocs(Math.max(2, docCount / 3));
+        if (indexSort != null) {
+            config.setIndexSort(indexSort);
+        }
+
+        try (FSDirectory directory = FSDirectory.open(path);
+             IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < docCount; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField("id", path.getFileName() + "-" + i));
+                if (i % 10 != 9) {
+                    long rank = random.nextInt(2000) - 1000;
+                    String name = "name-" + random.nextInt(500);
+                    doc.add(new NumericDocValuesField("rank", rank));
+                    doc.add(new StoredField("rank", rank));
+                    doc.add(new SortedDocValuesField("name", new BytesRef(name)));
+                    doc.add(new StoredField("name", name));
+                }
+                writer.addDocument(doc);
+            }
+        }
+        return path;
+    }
+
+    private List<JsonNode> export(Path index, String sortBy) throws Exception {
+        Path output = tempDir.resolve("sorted.jsonl");
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(output.toString());
+        request.setSortBy(sortBy);
+        request.setBatchSize(64);
+        request.setThreads(3);
+
+        ConversionResult result = new ConversionService(new StorageService(null))
+            .convert(request, new ProgressReporter(60));
+
+        List<JsonNode> documents = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(output)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                documents.add(mapper.readTree(line));
+            }
+        }
+        assertEquals(result.getDocumentsProcessed(), documents.size());
+        return documents;
+    }
+
+    @Test
+    void testSortsNumericFieldWithMissingLast() throws Exception {
+        Path index = createShard(tempDir.resolve("index"), 500, 1, null);
+
+        List<JsonNode> documents = export(index, "rank");
+
+        assertEquals(500, documents.size());
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < 450; i++) {
+            long rank = documents.get(i).get("rank").asLong();
+            assertTrue(rank >= previous, "out of order at " + i);
+            previous = rank;
+        }
+        for (int i = 450; i < 500; i++) {
+            assertFalse(documents.get(i).has("rank"));
+        }
+
+        JsonNode stats = mapper.readTree(tempDir.resolve("sorted.stats.json").toFile());
+        assertEquals(500, stats.get("documents").asInt());
+        assertEquals(450, stats.get("fields").get("rank").get("present").asInt());
+    }
+
+    @Test
+    void testSortsDoublesAcrossDocValuesAndStoredLeaves() throws Exception {
+        // Negative doubles order backwards as raw bits, so both shards must use one encoding
+        Random random = new Random(7);
+        List<Path> shards = new ArrayList<>();
+        for (String name : List.of("doc-values", "stored")) {
+            Path shard = tempDir.resolve(name);
+            try (FSDirectory directory = FSDirectory.open(shard);
+                 IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+                for (int i = 0; i < 200; i++) {
+                    double price = (random.nextInt(2000) - 1000) / 8.0;
+                    Document doc = new Document();
+                    doc.add(new StoredField("price", price));
+                    if (name.equals("doc-values")) {
+                        doc.add(new DoubleDocValuesField("price", price));
+                    }
+                    writer.addDocument(doc);
+                }
+            }
+            shards.add(shard);
+        }
+
+        IndexReader indexReader = new IndexReader();
+        try {
+            indexReader.initializeMultiShard(shards);
+            List<Integer> order = new ArrayList<>();
+            new SortedExport(indexReader, "price", 16).export(
+                (docIds, count) -> {
+                    List<Integer> chunk = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        chunk.add(docIds[i]);
+                    }
+                    return chunk;
+                },
+                chunk -> {
+                    order.addAll(chunk);
+                    return chunk.size();
+                }, new ProgressReporter(60), 2, 64);
+
+            assertEquals(400, order.size());
+            StoredFields storedFields = indexReader.storedFields();
+            double previous = Double.NEGATIVE_INFINITY;
+            for (int docId : order) {
+                double price = storedFields.document(docId).getField("price").numericValue().doubleValue();
+                assertTrue(price >= previous, price + " after " + previous);
+                previous = price;
+            }
+        } finally {
+            indexReader.close();
+        }
+    }
+
+    @Test
+    void testSortsStringFieldDescending() throws Exception {
+        Path index = createShard(tempDir.resolve("index"), 300, 2, null);
+
+        List<JsonNode> documents = export(index, "name:desc");
+
+        String previous = null;
+        for (int i = 0; i < 270; i++) {
+            String name = documents.get(i).get("name").asText();
+            assertTrue(previous == null || name.compareTo(previous) <= 0, "out of order at " + i);
+            previous = name;
+        }
+        assertFalse(documents.get(299).has("name"));
+    }
+
+    @Test
+    void testMergesIndexSortedLeavesWithSpilledRuns() throws Exception {
+        // Segments of the first shard are sorted by rank, so only the second shard is sorted;
+        // 120,000 entries do not fit a 1 MB budget and spill to several runs
+        SortField rankSort = new SortField("rank", SortField.Type.LONG);
+        rankSort.setMissingValue(Long.MAX_VALUE);
+        Sort indexSort = new Sort(rankSort);
+        Path sorted = createShard(tempDir.resolve("sorted"), 3000, 3, indexSort);
+        Path unsorted = createShard(tempDir.resolve("unsorted"), 120_000, 4, null);
+
+        IndexReader indexReader = new IndexReader();
+        try {
+            indexReader.initializeMultiShard(List.of(sorted, unsorted));
+            List<Integer> order = new ArrayList<>();
+            new SortedExport(indexReader, "rank:asc", 1).export(
+                (docIds, count) -> {
+                    List<Integer> chunk = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        chunk.add(docIds[i]);
+                    }
+                    return chunk;
+                },
+                chunk -> {
+                    order.addAll(chunk);
+                    return chunk.size();
+                }, new ProgressReporter(60), 2, 1000);
+
+            assertEquals(123_000, order.size());
+            assertEquals(123_000, order.stream().distinct().count());
+
+            StoredFields storedFields = indexReader.storedFields();
+            long previous = Long.MIN_VALUE;
+            boolean missing = false;
+            for (int docId : order) {
+                IndexableField rank = storedFields.document(docId).getField("rank");
+                if (rank == null) {
+                    missing = true;
+                } else {
+                    assertFalse(missing, "missing values must sort last");
+                    assertTrue(rank.numericValue().longValue() >= previous);
+                    previous = rank.numericValue().longValue();
+                }
+            }
+        } finally {
+            indexReader.close();
+        }
+    }
+
+    @Test
+    void testRejectsMalformedSortBy() {
+        assertThrows(IllegalArgumentException.class, () -> SortedExport.validate("rank:up"));
+        assertThrows(IllegalArgumentException.class, () -> SortedExport.validate(":asc"));
+        SortedExport.validate("rank:DESC");
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource("/data/index");
+        request.setOutput("/data/out.jsonl");
+        request.setSortBy("rank");
+        request.setSortMemoryMB(SortedExport.MAX_MEMORY_MB);
+        assertThrows(IllegalArgumentException.class, request::validate);
+        request.setSortMemoryMB(SortedExport.MAX_MEMORY_MB - 1);
+        assertDoesNotThrow(request::validate);
+    }
+
+    @Test
+    void testRejectsNumericDocValuesWithoutStoredType() throws Exception {
+        // Doc values alone do not say whether the bits are a double or a long
+        Path index = tempDir.resolve("index");
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < 10; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField("id", "doc-" + i));
+                doc.add(new DoubleDocValuesField("price", i - 5.5));
+                writer.addDocument(doc);
+            }
+        }
+
+        IndexReader indexReader = new IndexReader();
+        try {
+            indexReader.initialize(index);
+            assertThrows(IllegalArgumentException.class, () -> new SortedExport(indexReader, "price", 16));
+            assertDoesNotThrow(() -> new SortedExport(indexReader, "id", 16));
+        } finally {
+            indexReader.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.lucidworks.hardwickehouse;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Builds small on-disk Lucene indexes for tests.
+ */
+final class TestIndexes {
+
+    private TestIndexes() {
+    }
+
+    /**
+     * Writes {@code docCount} documents with an {@code id}, a {@code title} and a numeric
+     * {@code count}, committing a new segment every {@code docsPerSegment} documents.
+     */
+    static Path createIndex(Path indexPath, int docCount, int docsPerSegment) throws IOException {
+        try (FSDirectory directory = FSDirectory.open(indexPath);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < docCount; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", "doc-" + i, Field.Store.YES));
+                doc.add(new StoredField("title", "Title " + i));
+                doc.add(new StoredField("count", (long) i));
+                writer.addDocument(doc);
+
+                if ((i + 1) % docsPerSegment == 0) {
+                    writer.commit();
+                }
+            }
+            writer.commit();
+        }
+        return indexPath;
+    }
+}
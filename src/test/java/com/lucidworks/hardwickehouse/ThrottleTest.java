@@ -0,0 +1,115 @@
+package com.lucidworks.hardwickehouse;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThrottleTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testTokenBucketPacesCallersToItsRate() throws Exception {
+        Throttle.TokenBucket bucket = new Throttle.TokenBucket();
+        bucket.setRate(Throttle.BYTES_PER_MB);
+        Thread.sleep(100);
+
+        // The first 64 KB are the burst; the next 256 KB take a quarter of a second at 1 MB/s
+        long start = System.nanoTime();
+        bucket.acquire(64 * 1024);
+        for (int i = 0; i < 4; i++) {
+            bucket.acquire(64 * 1024);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertTrue(seconds >= 0.2, "took " + seconds + "s");
+        assertTrue(seconds < 1.0, "took " + seconds + "s");
+        assertEquals(5 * 64 * 1024, bucket.getBytes());
+
+        bucket.setRate(0);
+        start = System.nanoTime();
+        bucket.acquire(100 * Throttle.BYTES_PER_MB);
+        assertTrue(System.nanoTime() - start < 50_000_000);
+    }
+
+    @Test
+    void testControlFileChangesLimitsWhileRunning() throws Exception {
+        Path control = tempDir.resolve("throttle.properties");
+        try (Throttle throttle = new Throttle(10, 0, 1, control)) {
+            throttle.reload();
+            assertEquals(10.0, throttle.getMaxReadMbps());
+
+            Files.writeString(control, "max-write-mbps=2.5\nmax-cpu-threads=2\n");
+            throttle.reload();
+            assertEquals(10.0, throttle.getMaxReadMbps());
+            assertEquals(2.5, throttle.getMaxWriteMbps());
+            assertEquals(2, throttle.getMaxThreads());
+
+            // A file that does not parse leaves the limits alone
+            Files.writeString(control, "max-cpu-threads=many\n");
+            Files.setLastModifiedTime(control, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+            throttle.reload();
+            assertEquals(2, throttle.getMaxThreads());
+
+            // Raising the thread limit lets a waiting producer in
+            Files.writeString(control, "max-cpu-threads=1\n");
+            Files.setLastModifiedTime(control, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+            throttle.reload();
+            throttle.acquireThread();
+            CountDownLatch acquired = new CountDownLatch(1);
+            Thread waiting = new Thread(() -> {
+                try {
+                    throttle.acquireThread();
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiting.start();
+            assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+            Files.writeString(control, "max-cpu-threads=0\n");
+            Files.setLastModifiedTime(control, FileTime.fromMillis(System.currentTimeMillis() + 15000));
+            throttle.reload();
+            assertTrue(acquired.await(5, TimeUnit.SECONDS));
+            assertEquals(2, throttle.getActiveThreads());
+        }
+    }
+
+    @Test
+    void testThrottledConversionWritesTheSameOutput() throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), 3000, 500);
+
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(tempDir.resolve("out.jsonl.gz").toString());
+        request.setCompress(true);
+        request.setThreads(3);
+        request.setBatchSize(200);
+        request.setMaxReadMbps(200);
+        request.setMaxWriteMbps(200);
+        request.setMaxCpuThreads(1);
+        request.setVerify(true);
+        ConversionResult result = new ConversionService(new StorageService(null)).convert(request, new ProgressReporter(60));
+
+        assertEquals(3000, result.getDocumentsProcessed());
+        assertEquals(true, result.getMetrics().get("verified"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> throttle = (Map<String, Object>) result.getMetrics().get("throttle");
+        assertEquals(1, throttle.get("maxCpuThreads"));
+        assertTrue((Long) throttle.get("bytesRead") > 0);
+        assertEquals(Files.size(tempDir.resolve("out.jsonl.gz")), throttle.get("bytesWritten"));
+
+        request.setMaxCpuThreads(-1);
+        assertThrows(IllegalArgumentException.class, request::validate);
+    }
+}
@@ -0,0 +1,160 @@
+package com.lucidworks.hardwickehouse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkPlanTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Segments of 1000 documents, with every seventh document deleted.
+     */
+    private Path createIndex(int docCount) throws Exception {
+        Path index = TestIndexes.createIndex(tempDir.resolve("index"), docCount, 1000);
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < docCount; i += 7) {
+                writer.deleteDocuments(new Term("id", "doc-" + i));
+            }
+        }
+        return index;
+    }
+
+    private ConversionRequest planRequest(Path index) {
+        ConversionRequest request = new ConversionRequest();
+        request.setSource(index.toString());
+        request.setOutput(tempDir.resolve("out").toString());
+        request.setCompress(true);
+        request.setThreads(2);
+        request.setVerify(true);
+        return request;
+    }
+
+    @Test
+    void testUnitsConvertedBySeparateJvmsCoverTheIndex() throws Exception {
+        Path index = createIndex(2000);
+        ConversionService service = new ConversionService(new StorageService(null));
+        WorkPlan plan = service.plan(planRequest(index), 600);
+        String location = WorkPlan.defaultLocation(plan.getRequest());
+        plan.write(location, null);
+
+        // Each segment has about 857 live documents, so each is cut in two
+        assertEquals(4, plan.getUnits().size());
+        assertEquals(2000 - 286, plan.getTotalDocuments());
+        WorkPlan.Unit unit = plan.getUnit(3);
+        assertEquals(1, unit.getLeaf());
+        assertEquals(500, unit.getFromDoc());
+        assertEquals(1000, unit.getToDoc());
+        assertEquals("part-00003.jsonl.gz", unit.getPart());
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        List<Process> processes = new ArrayList<>();
+        for (int id = 0; id < plan.getUnits().size(); id++) {
+            processes.add(new ProcessBuilder(java, "-cp", classPath, Application.class.getName(),
+                                             "convert", "--manifest", location, "--work-unit", Integer.toString(id))
+                .redirectErrorStream(true)
+                .redirectOutput(tempDir.resolve("unit-" + id + ".log").toFile())
+                .start());
+        }
+        for (int id = 0; id < processes.size(); id++) {
+            Process process = processes.get(id);
+            assertTrue(process.waitFor(120, TimeUnit.SECONDS), "unit " + id + " did not finish");
+            int unitId = id;
+            assertEquals(0, process.exitValue(), () -> "unit failed: " + readLog(unitId));
+        }
+
+        Map<String, Object> report = WorkPlan.read(location, null).finalizeOutput(null);
+        assertEquals(true, report.get("complete"), report.toString());
+        assertEquals(plan.getTotalDocuments(), report.get("documents"));
+
+        JsonNode manifest = new ObjectMapper().readTree(tempDir.resolve("out").resolve(WorkPlan.MANIFEST_NAME).toFile());
+        assertEquals(4, manifest.get("parts").size());
+
+        Set<String> ids = new HashSet<>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (JsonNode part : manifest.get("parts")) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                     Files.newInputStream(tempDir.resolve("out").resolve(part.get("part").asText()))), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    assertTrue(ids.add(mapper.readTree(line).get("id").asText()), "duplicate record");
+                }
+            }
+        }
+        assertEquals(plan.getTotalDocuments(), ids.size());
+        assertFalse(ids.contains("doc-7"));
+        assertTrue(ids.contains("doc-1999"));
+    }
+
+    private String readLog(int id) {
+        try {
+            return Files.readString(tempDir.resolve("unit-" + id + ".log"));
+        } catch (Exception e) {
+            return e.toString();
+        }
+    }
+
+    @Test
+    void testFinalizeReportsMissingUnitsAndUnitsRejectChangedIndex() throws Exception {
+        Path index = createIndex(5000);
+        ConversionService service = new ConversionService(new StorageService(null));
+        WorkPlan plan = service.plan(planRequest(index), 10_000);
+        assertEquals(5, plan.getUnits().size());
+
+        ConversionResult result = service.convertWorkUnit(plan, plan.requestFor(2), new ProgressReporter(60));
+        assertEquals(plan.getUnit(2).getDocuments(), result.getDocumentsProcessed());
+        assertEquals(2, result.getMetrics().get("workUnit"));
+        assertEquals(true, result.getMetrics().get("verified"));
+
+        Map<String, Object> report = plan.finalizeOutput(null);
+        assertEquals(false, report.get("complete"));
+        assertEquals(List.of(0, 1, 3, 4), report.get("missingUnits"));
+        assertFalse(Files.exists(tempDir.resolve("out").resolve(WorkPlan.MANIFEST_NAME)));
+
+        // A delete after planning changes the live documents of a unit
+        try (FSDirectory directory = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                 .setMergePolicy(NoMergePolicy.INSTANCE))) {
+            writer.deleteDocuments(new Term("id", "doc-3001"));
+            Document doc = new Document();
+            doc.add(new StringField("id", "late", Field.Store.YES));
+            writer.addDocument(doc);
+        }
+        assertThrows(IllegalStateException.class,
+                     () -> service.convertWorkUnit(plan, plan.requestFor(3), new ProgressReporter(60)));
+
+        ConversionRequest sorted = planRequest(index);
+        sorted.setSortBy("count");
+        assertThrows(IllegalArgumentException.class, () -> service.plan(sorted, 1000));
+    }
+}